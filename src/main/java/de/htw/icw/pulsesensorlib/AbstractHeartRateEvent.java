@@ -0,0 +1,111 @@
+package de.htw.icw.pulsesensorlib;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Base class of {@link HeartRateEvent} implementations. It manages the
+ * subscribed {@link HeartRateListener}s and notifies them of occurred events.
+ * Subclasses only implement the detection in
+ * {@link HeartRateEvent#onUpdate(HeartRateMonitor) onUpdate}.
+ *
+ * @author s0534410
+ */
+public abstract class AbstractHeartRateEvent implements HeartRateEvent {
+
+	/** notified with indexed loops, so that no iterator is allocated */
+	private List<HeartRateListener> subscribers = new ArrayList<HeartRateListener>();
+
+	@Override
+	public void subscribe(HeartRateListener heartRateListener) {
+		subscribers.add(heartRateListener);
+		heartRateListener.onSubscribed();
+	}
+
+	@Override
+	public void unsubscribe(HeartRateListener heartRateListener) {
+		subscribers.remove(heartRateListener);
+		heartRateListener.onUnsubscribed();
+	}
+
+	protected void notifyOnPulseIncreased(double startHeartRate,
+			double endHeartRate, long startTimestamp, long endTimestamp,
+			double increaseingPercantage) {
+		HeartRateTracer tracer = HeartRateTracing.getTracer();
+		for (int i = 0; i < subscribers.size(); i++) {
+			HeartRateListener heartRateListener = subscribers.get(i);
+			long start = tracer != null ? System.nanoTime() : 0;
+			heartRateListener.onPulseIncreased(startHeartRate, endHeartRate,
+					startTimestamp, endTimestamp, increaseingPercantage);
+			if (tracer != null) {
+				traceListener(tracer, heartRateListener,
+						HeartRateAlert.Type.PULSE_INCREASED, start);
+			}
+		}
+	}
+
+	protected void notifyOnPulseDecreased(double startHeartRate,
+			double endHeartRate, long startTimestamp, long endTimestamp,
+			double decreasingPercentage) {
+		HeartRateTracer tracer = HeartRateTracing.getTracer();
+		for (int i = 0; i < subscribers.size(); i++) {
+			HeartRateListener heartRateListener = subscribers.get(i);
+			long start = tracer != null ? System.nanoTime() : 0;
+			heartRateListener.onPulseDecreased(startHeartRate, endHeartRate,
+					startTimestamp, endTimestamp, decreasingPercentage);
+			if (tracer != null) {
+				traceListener(tracer, heartRateListener,
+						HeartRateAlert.Type.PULSE_DECREASED, start);
+			}
+		}
+	}
+
+	protected void notifyOnLowPulse(double pulse) {
+		HeartRateTracer tracer = HeartRateTracing.getTracer();
+		for (int i = 0; i < subscribers.size(); i++) {
+			HeartRateListener heartRateListener = subscribers.get(i);
+			long start = tracer != null ? System.nanoTime() : 0;
+			heartRateListener.onLowPulse(pulse);
+			if (tracer != null) {
+				traceListener(tracer, heartRateListener,
+						HeartRateAlert.Type.LOW_PULSE, start);
+			}
+		}
+	}
+
+	protected void notifyOnHighPulse(double pulse) {
+		HeartRateTracer tracer = HeartRateTracing.getTracer();
+		for (int i = 0; i < subscribers.size(); i++) {
+			HeartRateListener heartRateListener = subscribers.get(i);
+			long start = tracer != null ? System.nanoTime() : 0;
+			heartRateListener.onHighPulse(pulse);
+			if (tracer != null) {
+				traceListener(tracer, heartRateListener,
+						HeartRateAlert.Type.HIGH_PULSE, start);
+			}
+		}
+	}
+
+	protected void notifyOnNoPulse() {
+		HeartRateTracer tracer = HeartRateTracing.getTracer();
+		for (int i = 0; i < subscribers.size(); i++) {
+			HeartRateListener heartRateListener = subscribers.get(i);
+			long start = tracer != null ? System.nanoTime() : 0;
+			heartRateListener.onNoPulse();
+			if (tracer != null) {
+				traceListener(tracer, heartRateListener,
+						HeartRateAlert.Type.NO_PULSE, start);
+			}
+		}
+	}
+
+	private static void traceListener(HeartRateTracer tracer,
+			HeartRateListener heartRateListener, HeartRateAlert.Type callback,
+			long start) {
+		long nanoseconds = System.nanoTime() - start;
+		HeartRateTracing.Context context = HeartRateTracing.context();
+		tracer.onListenerCalled(context.sensorId, context.timestamp,
+				heartRateListener, callback, nanoseconds);
+	}
+
+}
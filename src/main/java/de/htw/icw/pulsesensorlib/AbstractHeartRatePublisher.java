@@ -0,0 +1,258 @@
+package de.htw.icw.pulsesensorlib;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+/**
+ * Reactive Streams publisher which honours the demand of its subscribers. Every
+ * subscriber gets a bounded buffer for the items it has not requested yet. If
+ * the buffer is full, the {@link HeartRateOverflowStrategy} decides which item
+ * is dropped, so publishing never blocks and never queues unboundedly.
+ *
+ * Items are delivered on the thread which publishes them or on the thread
+ * which requests them, but never concurrently to the same subscriber.
+ *
+ * @author s0534410
+ *
+ * @param <T>
+ *            the type of the published items
+ */
+public abstract class AbstractHeartRatePublisher<T> implements Publisher<T> {
+
+	private final int bufferSize;
+	private final HeartRateOverflowStrategy overflowStrategy;
+
+	private final CopyOnWriteArrayList<BufferedSubscription> subscriptions = new CopyOnWriteArrayList<BufferedSubscription>();
+
+	private volatile boolean completed;
+
+	/**
+	 * @param bufferSize
+	 *            number of items buffered per subscriber
+	 * @param overflowStrategy
+	 *            what to do if the buffer of a subscriber is full
+	 */
+	protected AbstractHeartRatePublisher(int bufferSize,
+			HeartRateOverflowStrategy overflowStrategy) {
+		if (bufferSize <= 0) {
+			throw new IllegalArgumentException("bufferSize has to be > 0");
+		}
+		this.bufferSize = overflowStrategy == HeartRateOverflowStrategy.CONFLATE ? 1
+				: bufferSize;
+		this.overflowStrategy = overflowStrategy;
+	}
+
+	@Override
+	public void subscribe(Subscriber<? super T> subscriber) {
+		if (subscriber == null) {
+			throw new NullPointerException("subscriber is null");
+		}
+
+		BufferedSubscription subscription = new BufferedSubscription(subscriber);
+		subscriber.onSubscribe(subscription);
+
+		subscriptions.add(subscription);
+		// checked after adding, complete() may have run before the add
+		if (completed) {
+			subscription.complete();
+		}
+	}
+
+	/**
+	 * returns the number of active subscriptions.
+	 *
+	 * @return number of subscriptions
+	 */
+	public int getNumberOfSubscriptions() {
+		return subscriptions.size();
+	}
+
+	/**
+	 * passes an item to every subscriber or its buffer.
+	 *
+	 * @param item
+	 *            the item to publish
+	 */
+	protected void publish(T item) {
+		for (BufferedSubscription subscription : subscriptions) {
+			subscription.offer(item);
+		}
+	}
+
+	/**
+	 * completes all subscribers after they have received their buffered
+	 * items. later subscribers are completed at once.
+	 */
+	protected void complete() {
+		completed = true;
+		for (BufferedSubscription subscription : subscriptions) {
+			subscription.complete();
+		}
+	}
+
+	/**
+	 * Subscription with a ring buffer for the items which have not been
+	 * requested yet.
+	 */
+	private class BufferedSubscription implements Subscription {
+
+		private final Subscriber<? super T> subscriber;
+		private final Object[] buffer = new Object[bufferSize];
+		private final AtomicInteger wip = new AtomicInteger();
+
+		// guarded by this
+		private int head;
+		private int count;
+		private long requested;
+		private boolean done;
+		private Throwable error;
+
+		private volatile boolean cancelled;
+
+		BufferedSubscription(Subscriber<? super T> subscriber) {
+			this.subscriber = subscriber;
+		}
+
+		@Override
+		public void request(long n) {
+			if (n <= 0) {
+				fail(new IllegalArgumentException(
+						"non-positive request: " + n));
+				return;
+			}
+			synchronized (this) {
+				requested += n;
+				if (requested < 0) {
+					// effectively unbounded
+					requested = Long.MAX_VALUE;
+				}
+			}
+			drain();
+		}
+
+		@Override
+		public void cancel() {
+			cancelled = true;
+			subscriptions.remove(this);
+			synchronized (this) {
+				clear();
+			}
+		}
+
+		void offer(T item) {
+			synchronized (this) {
+				if (done) {
+					return;
+				}
+				if (count == buffer.length) {
+					switch (overflowStrategy) {
+					case DROP_LATEST:
+						break;
+					case FAIL:
+						subscriptions.remove(this);
+						clear();
+						done = true;
+						error = new IllegalStateException(
+								"subscriber could not keep up, buffer of "
+										+ buffer.length + " items overflowed");
+						break;
+					default:
+						// DROP_OLDEST and CONFLATE replace the oldest item
+						buffer[head] = item;
+						head = (head + 1) % buffer.length;
+						break;
+					}
+				} else {
+					buffer[(head + count) % buffer.length] = item;
+					count++;
+				}
+			}
+			drain();
+		}
+
+		void complete() {
+			synchronized (this) {
+				done = true;
+			}
+			drain();
+		}
+
+		private void fail(Throwable throwable) {
+			subscriptions.remove(this);
+			synchronized (this) {
+				clear();
+				done = true;
+				error = throwable;
+			}
+			drain();
+		}
+
+		/** delivers items while there is demand, only on one thread at once */
+		private void drain() {
+			if (wip.getAndIncrement() != 0) {
+				return;
+			}
+
+			int missed = 1;
+			do {
+				while (!cancelled) {
+					T item;
+					Throwable terminalError = null;
+					boolean terminate = false;
+
+					synchronized (this) {
+						if (count > 0 && requested > 0) {
+							item = poll();
+							if (requested != Long.MAX_VALUE) {
+								requested--;
+							}
+						} else {
+							item = null;
+							if (done && (count == 0 || error != null)) {
+								terminate = true;
+								terminalError = error;
+							}
+						}
+					}
+
+					if (item != null) {
+						subscriber.onNext(item);
+					} else {
+						if (terminate) {
+							cancelled = true;
+							subscriptions.remove(this);
+							if (terminalError != null) {
+								subscriber.onError(terminalError);
+							} else {
+								subscriber.onComplete();
+							}
+						}
+						break;
+					}
+				}
+				missed = wip.addAndGet(-missed);
+			} while (missed != 0);
+		}
+
+		@SuppressWarnings("unchecked")
+		private T poll() {
+			T item = (T) buffer[head];
+			buffer[head] = null;
+			head = (head + 1) % buffer.length;
+			count--;
+			return item;
+		}
+
+		private void clear() {
+			for (int i = 0; i < buffer.length; i++) {
+				buffer[i] = null;
+			}
+			head = 0;
+			count = 0;
+		}
+	}
+}
@@ -0,0 +1,111 @@
+package de.htw.icw.pulsesensorlib;
+
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+
+/**
+ * Stores the heart rates and timestamps in two primitive arrays on the heap,
+ * which double their capacity when they are full. This is the storage of a
+ * {@link DefaultHeartRateMonitor} unless another one is given.
+ *
+ * The arrays and the size are volatile, so a single thread may add heart rates
+ * while other threads read the first {@link #size()} ones (see
+ * {@link HeartRatePipeline}). Grown arrays are filled before they are
+ * published. Reading the storage is safe, not every query of the monitor (see
+ * {@link HeartRateStorage}).
+ *
+ * @author s0534410
+ */
+public class ArrayHeartRateStorage implements HeartRateStorage {
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	/** all heartrates, the first size entries are used */
+	private volatile double[] heartRates;
+
+	/** all timestamps, the first size entries are used */
+	private volatile long[] timestamps;
+
+	private volatile int size;
+
+	public ArrayHeartRateStorage() {
+		this(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * @param initialCapacity
+	 *            number of heartrates to reserve storage for
+	 */
+	public ArrayHeartRateStorage(int initialCapacity) {
+		if (initialCapacity < 0) {
+			throw new IllegalArgumentException("initialCapacity < 0");
+		}
+		heartRates = new double[initialCapacity];
+		timestamps = new long[initialCapacity];
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public double getHeartRate(int index) {
+		return heartRates[index];
+	}
+
+	@Override
+	public long getTimestamp(int index) {
+		return timestamps[index];
+	}
+
+	@Override
+	public void add(double heartRate, long timestamp) {
+		int index = size;
+		if (index == heartRates.length) {
+			ensureCapacity(index + 1);
+		}
+		heartRates[index] = heartRate;
+		timestamps[index] = timestamp;
+		size = index + 1;
+	}
+
+	@Override
+	public void addAll(DoubleBuffer heartRateBuffer,
+			LongBuffer timestampBuffer, int count) {
+		int index = size;
+		ensureCapacity(index + count);
+		heartRateBuffer.get(heartRates, index, count);
+		timestampBuffer.get(timestamps, index, count);
+		size = index + count;
+	}
+
+	@Override
+	public void copyHeartRatesTo(DoubleBuffer heartRateBuffer, int fromIndex,
+			int count) {
+		heartRateBuffer.put(heartRates, fromIndex, count);
+	}
+
+	@Override
+	public void copyTimestampsTo(LongBuffer timestampBuffer, int fromIndex,
+			int count) {
+		timestampBuffer.put(timestamps, fromIndex, count);
+	}
+
+	@Override
+	public void close() {
+		heartRates = new double[0];
+		timestamps = new long[0];
+		size = 0;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > heartRates.length) {
+			int newCapacity = Math.max(capacity,
+					Math.max(INITIAL_CAPACITY, heartRates.length * 2));
+			heartRates = Arrays.copyOf(heartRates, newCapacity);
+			timestamps = Arrays.copyOf(timestamps, newCapacity);
+		}
+	}
+}
@@ -1,8 +1,5 @@
 package de.htw.icw.pulsesensorlib;
 
-import java.util.ArrayList;
-import java.util.List;
-
 /**
  * Default implementation of the HeartRateEvent interface. (see
  * {@link HeartRateEvent}). It makes use of the observer pattern. Classes which
@@ -12,7 +9,7 @@ import java.util.List;
  * 
  * @author s0534410
  */
-public class DefaultHeartRateEvent implements HeartRateEvent {
+public class DefaultHeartRateEvent extends AbstractHeartRateEvent {
 
 	private double highHeartRate;
 	private double lowHeartRate;
@@ -20,8 +17,6 @@ public class DefaultHeartRateEvent implements HeartRateEvent {
 	private double observationTimeInMilliseconds;
 	private double increaseDecreaseTresholdPercentage;
 
-	private List<HeartRateListener> subscribers = new ArrayList<HeartRateListener>();
-
 	/**
 	 * Parameterized constructor enables to specify at which point the callbacks
 	 * are executed.
@@ -49,49 +44,85 @@ public class DefaultHeartRateEvent implements HeartRateEvent {
 	}
 
 	@Override
-	public void subscribe(HeartRateListener heartRateListener) {
-		subscribers.add(heartRateListener);
-		heartRateListener.onSubscribed();
+	public void onUpdate(HeartRateMonitor heartRateMonitor) {
+		// monitors which only offer lists are read through a copy of the
+		// longest window
+		testForOccuredEvent(ListBackedHeartRateMonitor.ofLastSeconds(
+				heartRateMonitor, Math.max(observationTimeInMilliseconds,
+						waitingTimeInMilliseconds)));
 	}
 
-	@Override
-	public void unsubscribe(HeartRateListener heartRateListener) {
-		subscribers.remove(heartRateListener);
-		heartRateListener.onUnsubscribed();
-	}
+	private void testForOccuredEvent(
+			IndexedHeartRateMonitor heartRateMonitor) {
+		HeartRateTracer tracer = HeartRateTracing.getTracer();
+		if (tracer != null) {
+			testForOccuredEventTraced(heartRateMonitor, tracer);
+			return;
+		}
 
-	@Override
-	public void onUpdate(HeartRateMonitor heartRateMonitor) {
-		testForOccuredEvent(heartRateMonitor);
+		testForOnPulseIncreased(heartRateMonitor);
+		testForOnPulseDecreased(heartRateMonitor);
+		testForOnHighPulse(heartRateMonitor);
+		testForOnLowPulse(heartRateMonitor);
+		testForOnNoPulse(heartRateMonitor);
 	}
 
-	private void testForOccuredEvent(HeartRateMonitor heartRateMonitor) {
+	private void testForOccuredEventTraced(
+			IndexedHeartRateMonitor heartRateMonitor,
+			HeartRateTracer tracer) {
+		HeartRateTracing.Context context = HeartRateTracing.context();
+
+		long start = System.nanoTime();
 		testForOnPulseIncreased(heartRateMonitor);
+		long end = System.nanoTime();
+		tracer.onDetectorEvaluated(context.sensorId, context.timestamp,
+				HeartRateAlert.Type.PULSE_INCREASED, end - start);
+
+		start = end;
 		testForOnPulseDecreased(heartRateMonitor);
+		end = System.nanoTime();
+		tracer.onDetectorEvaluated(context.sensorId, context.timestamp,
+				HeartRateAlert.Type.PULSE_DECREASED, end - start);
+
+		start = end;
 		testForOnHighPulse(heartRateMonitor);
+		end = System.nanoTime();
+		tracer.onDetectorEvaluated(context.sensorId, context.timestamp,
+				HeartRateAlert.Type.HIGH_PULSE, end - start);
+
+		start = end;
 		testForOnLowPulse(heartRateMonitor);
+		end = System.nanoTime();
+		tracer.onDetectorEvaluated(context.sensorId, context.timestamp,
+				HeartRateAlert.Type.LOW_PULSE, end - start);
+
+		start = end;
 		testForOnNoPulse(heartRateMonitor);
+		end = System.nanoTime();
+		tracer.onDetectorEvaluated(context.sensorId, context.timestamp,
+				HeartRateAlert.Type.NO_PULSE, end - start);
 	}
 
-	private void testForOnPulseIncreased(HeartRateMonitor heartRateMonitor) {
+	// the tests read the monitor by index, so that no lists, boxed values or
+	// iterators are allocated for a new heartrate of an indexed monitor
+
+	private void testForOnPulseIncreased(
+			IndexedHeartRateMonitor heartRateMonitor) {
 
-		List<Double> heartRates = heartRateMonitor
-				.getMeasuredHeartRatesOfLastSeconds(observationTimeInMilliseconds);
+		int fromIndex = heartRateMonitor
+				.getIndexOfLastSeconds(observationTimeInMilliseconds);
+		int lastIndex = heartRateMonitor.getNumberOfHeartRates() - 1;
 
 		double lastMeasuredHeartRate = heartRateMonitor.getLastHeartRate();
 
-		for (int i = heartRates.size() - 2; i >= 0; i--) {
-			double testingHeartRate = heartRates.get(i);
+		for (int i = lastIndex - 1; i >= fromIndex; i--) {
+			double testingHeartRate = heartRateMonitor.getHeartRate(i);
 			if (testingHeartRate > 0) {
 				// ((100 / old_pulse) * new_pulse) - 100
 				double increaseingPercantage = ((100 / testingHeartRate) * lastMeasuredHeartRate) - 100;
 				if (increaseingPercantage >= increaseDecreaseTresholdPercentage) {
 
-					// get the corresponding timestamps to heartrates (only
-					// needed if there was an actual increase)
-					List<Long> timestamps = heartRateMonitor
-							.getMeasuredTimestampsOfLastSeconds(observationTimeInMilliseconds);
-					long startTimestamp = timestamps.get(i);
+					long startTimestamp = heartRateMonitor.getTimestamp(i);
 					long endTimestamp = heartRateMonitor.getLastTimestamp();
 
 					notifyOnPulseIncreased(testingHeartRate,
@@ -103,34 +134,23 @@ public class DefaultHeartRateEvent implements HeartRateEvent {
 		}
 	}
 
-	private void notifyOnPulseIncreased(double startHeartRate,
-			double endHeartRate, long startTimestamp, long endTimestamp,
-			double increaseingPercantage) {
-		for (HeartRateListener heartRateListener : subscribers) {
-			heartRateListener.onPulseIncreased(startHeartRate, endHeartRate,
-					startTimestamp, endTimestamp, increaseingPercantage);
-		}
-	}
-
-	private void testForOnPulseDecreased(HeartRateMonitor heartRateMonitor) {
+	private void testForOnPulseDecreased(
+			IndexedHeartRateMonitor heartRateMonitor) {
 
-		List<Double> heartRates = heartRateMonitor
-				.getMeasuredHeartRatesOfLastSeconds(observationTimeInMilliseconds);
+		int fromIndex = heartRateMonitor
+				.getIndexOfLastSeconds(observationTimeInMilliseconds);
+		int lastIndex = heartRateMonitor.getNumberOfHeartRates() - 1;
 
 		double lastMeasuredHeartRate = heartRateMonitor.getLastHeartRate();
 
-		for (int i = heartRates.size() - 2; i >= 0; i--) {
-			double testingHeartRate = heartRates.get(i);
+		for (int i = lastIndex - 1; i >= fromIndex; i--) {
+			double testingHeartRate = heartRateMonitor.getHeartRate(i);
 			if (testingHeartRate > 0) {
 				// 100 - (100 / old_pulse * new_pulse)
 				double decreasingPercentage = (100 - (100 / testingHeartRate * lastMeasuredHeartRate));
 				if (decreasingPercentage >= increaseDecreaseTresholdPercentage) {
 
-					// get the corresponding timestamps to heartrates (only
-					// needed if there was an actual increase)
-					List<Long> timestamps = heartRateMonitor
-							.getMeasuredTimestampsOfLastSeconds(observationTimeInMilliseconds);
-					long startTimestamp = timestamps.get(i);
+					long startTimestamp = heartRateMonitor.getTimestamp(i);
 					long endTimestamp = heartRateMonitor.getLastTimestamp();
 
 					notifyOnPulseDecreased(testingHeartRate,
@@ -142,14 +162,7 @@ public class DefaultHeartRateEvent implements HeartRateEvent {
 		}
 	}
 
-	private void notifyOnPulseDecreased(double startHeartRate,
-			double endHeartRate, long startTimestamp, long endTimestamp, double decreasingPercentage) {
-		for (HeartRateListener heartRateListener : subscribers) {
-			heartRateListener.onPulseDecreased(startHeartRate, endHeartRate, startTimestamp, endTimestamp, decreasingPercentage);
-		}
-	}
-
-	private void testForOnLowPulse(HeartRateMonitor heartRateMonitor) {
+	private void testForOnLowPulse(IndexedHeartRateMonitor heartRateMonitor) {
 
 		if (heartRateMonitor.getLastHeartRate() <= this.lowHeartRate) {
 			notifyOnLowPulse(heartRateMonitor.getLastHeartRate());
@@ -157,13 +170,7 @@ public class DefaultHeartRateEvent implements HeartRateEvent {
 
 	}
 
-	private void notifyOnLowPulse(double pulse) {
-		for (HeartRateListener heartRateListener : subscribers) {
-			heartRateListener.onLowPulse(pulse);
-		}
-	}
-
-	private void testForOnHighPulse(HeartRateMonitor heartRateMonitor) {
+	private void testForOnHighPulse(IndexedHeartRateMonitor heartRateMonitor) {
 
 		if (heartRateMonitor.getLastHeartRate() >= this.highHeartRate) {
 			notifyOnHighPulse(heartRateMonitor.getLastHeartRate());
@@ -171,23 +178,16 @@ public class DefaultHeartRateEvent implements HeartRateEvent {
 
 	}
 
-	private void notifyOnHighPulse(double pulse) {
-		for (HeartRateListener heartRateListener : subscribers) {
-			heartRateListener.onHighPulse(pulse);
-		}
-	}
-
-	private void testForOnNoPulse(HeartRateMonitor heartRateMonitor) {
+	private void testForOnNoPulse(IndexedHeartRateMonitor heartRateMonitor) {
 
-		List<Double> heartRates = heartRateMonitor
-				.getMeasuredHeartRatesOfLastSeconds(this.waitingTimeInMilliseconds);
-		List<Long> timestamps = heartRateMonitor
-				.getMeasuredTimestampsOfLastSeconds(this.waitingTimeInMilliseconds);
+		int fromIndex = heartRateMonitor
+				.getIndexOfLastSeconds(this.waitingTimeInMilliseconds);
+		int lastIndex = heartRateMonitor.getNumberOfHeartRates() - 1;
 
-		// if (heartRates.size() >= WAITING_TIME_IN_MS) {
-		if (timestamps.get(timestamps.size() - 1) - timestamps.get(0) >= this.waitingTimeInMilliseconds) {
-			for (int i = 0; i < heartRates.size(); i++) {
-				if (heartRates.get(i) != 0) {
+		if (heartRateMonitor.getTimestamp(lastIndex)
+				- heartRateMonitor.getTimestamp(fromIndex) >= this.waitingTimeInMilliseconds) {
+			for (int i = fromIndex; i <= lastIndex; i++) {
+				if (heartRateMonitor.getHeartRate(i) != 0) {
 					return;
 				}
 			}
@@ -195,10 +195,4 @@ public class DefaultHeartRateEvent implements HeartRateEvent {
 		}
 	}
 
-	private void notifyOnNoPulse() {
-		for (HeartRateListener heartRateListener : subscribers) {
-			heartRateListener.onNoPulse();
-		}
-	}
-
 }
@@ -12,17 +12,66 @@ import java.util.List;
  * @author s0534410
  *
  */
-public class DefaultHeartRateMonitor implements HeartRateMonitor {
+public class DefaultHeartRateMonitor implements IndexedHeartRateMonitor {
 
-	/** list with all measured heartrates */
-	private List<Double> heartRates = new ArrayList<Double>();
+	/** all measured heartrates and timestamps */
+	private final HeartRateStorage storage;
 
-	/** list with all measured timestamps */
-	private List<Long> timestamps = new ArrayList<Long>();
+	/** aggregate index, created by the first statistics query */
+	private HeartRateRangeIndex rangeIndex;
+
+	/** first indexes of the windows queried since the last appends */
+	private final WindowBoundaryCache windowBoundaryCache = new WindowBoundaryCache(
+			this);
+
+	/**
+	 * set once a heartrate older than its predecessor was added, the windows
+	 * are scanned linearly from then on
+	 */
+	private volatile boolean unordered;
+
+	/**
+	 * number of heartrates visible to queries and events while the monitor is
+	 * fed by a {@link HeartRatePipeline}, -1 otherwise
+	 */
+	private volatile int publishedSize = -1;
+
+	/** episode indexes, updated whenever heartrates are added */
+	private List<HeartRateEpisodeIndex> episodeIndexes = new ArrayList<HeartRateEpisodeIndex>();
+
+	/** id of the sensor in a {@link HeartRateMonitorRegistry}, for tracing */
+	private volatile int sensorId = -1;
 
 	/** list with all subscribers */
 	private List<HeartRateEvent> subscribers = new ArrayList<HeartRateEvent>();
 
+	public DefaultHeartRateMonitor() {
+		this(new ArrayHeartRateStorage());
+	}
+
+	/**
+	 * creates a monitor which can store the given number of heartrates before
+	 * its storage has to grow.
+	 * 
+	 * @param initialCapacity
+	 *            number of heartrates to reserve storage for
+	 */
+	public DefaultHeartRateMonitor(int initialCapacity) {
+		this(new ArrayHeartRateStorage(initialCapacity));
+	}
+
+	/**
+	 * creates a monitor which keeps its heartrates in the given storage, e.g.
+	 * off the heap (see {@link OffHeapHeartRateStorage}). the storage has to be
+	 * closed by the caller when the monitor is not used anymore.
+	 * 
+	 * @param storage
+	 *            an empty storage
+	 */
+	public DefaultHeartRateMonitor(HeartRateStorage storage) {
+		this.storage = storage;
+	}
+
 	/**
 	 * adds a given hearrate. the timestamp is the time the heartrate was added.
 	 * also triggers the listeners.
@@ -38,13 +87,19 @@ public class DefaultHeartRateMonitor implements HeartRateMonitor {
 			throws NoNegativeHeartRatesPossibleException {
 		long timestamp = System.currentTimeMillis();
 
-		if (heartrate >= 0) {
-			heartRates.add(heartrate);
-			timestamps.add(timestamp);
-		} else {
+		checkNotPipelined();
+		if (heartrate < 0) {
 			throw new NoNegativeHeartRatesPossibleException();
 		}
 
+		checkOrder(timestamp);
+		HeartRateTracer tracer = HeartRateTracing.getTracer();
+		if (tracer != null) {
+			appendTraced(tracer, heartrate, timestamp);
+			return timestamp;
+		}
+
+		storage.add(heartrate, timestamp);
 		notifySubscribers();
 
 		return timestamp;
@@ -63,13 +118,19 @@ public class DefaultHeartRateMonitor implements HeartRateMonitor {
 	public long addHeartRate(double heartrate, long timestamp)
 			throws NoNegativeHeartRatesPossibleException {
 
-		if (heartrate >= 0) {
-			heartRates.add(heartrate);
-			timestamps.add(timestamp);
-		} else {
+		checkNotPipelined();
+		if (heartrate < 0) {
 			throw new NoNegativeHeartRatesPossibleException();
 		}
 
+		checkOrder(timestamp);
+		HeartRateTracer tracer = HeartRateTracing.getTracer();
+		if (tracer != null) {
+			appendTraced(tracer, heartrate, timestamp);
+			return timestamp;
+		}
+
+		storage.add(heartrate, timestamp);
 		notifySubscribers();
 
 		return timestamp;
@@ -85,7 +146,7 @@ public class DefaultHeartRateMonitor implements HeartRateMonitor {
 	 */
 	@Override
 	public double getLastHeartRate() {
-		return heartRates.get(heartRates.size() - 1);
+		return getHeartRate(size() - 1);
 	}
 
 	/**
@@ -98,7 +159,7 @@ public class DefaultHeartRateMonitor implements HeartRateMonitor {
 	 */
 	@Override
 	public long getLastTimestamp() {
-		return timestamps.get(timestamps.size() - 1);
+		return getTimestamp(size() - 1);
 	}
 
 	/**
@@ -108,7 +169,7 @@ public class DefaultHeartRateMonitor implements HeartRateMonitor {
 	 */
 	@Override
 	public List<Double> getAllMeasuredHeartRates() {
-		return heartRates;
+		return new HeartRateListView(this, 0, -1);
 	}
 
 	/**
@@ -118,7 +179,7 @@ public class DefaultHeartRateMonitor implements HeartRateMonitor {
 	 */
 	@Override
 	public List<Long> getAllMeasuredTimestamps() {
-		return timestamps;
+		return new TimestampListView(this, 0, -1);
 	}
 
 	/**
@@ -132,32 +193,32 @@ public class DefaultHeartRateMonitor implements HeartRateMonitor {
 	@Override
 	public List<Double> getMeasuredHeartRatesOfLastSeconds(double interval_in_ms) {
 
-		long lastMeasurement = getLastTimestamp();
-		long firstMeasurement = timestamps.get(0);
-		long hypotheticalBeginTimestamp = lastMeasurement
-				- (long) interval_in_ms;
-
-		double possibleRange = (double) (lastMeasurement - firstMeasurement);
-
-		// if expected interval is bigger than actual, return whole list
-		if (interval_in_ms > possibleRange) {
-			return heartRates;
-		}
-
-		int fromIndex = (timestamps.size() - 1);
-		while (timestamps.get(fromIndex) > hypotheticalBeginTimestamp
-				&& fromIndex > 0) {
-			fromIndex--;
-		}
-
-		return heartRates.subList(fromIndex, heartRates.size());
+		return new HeartRateListView(this,
+				getIndexOfLastSeconds(interval_in_ms), size());
 	}
 
-	// TODO: implementation needed
+	/**
+	 * returns a sublist with the heartrates of an interval where the length of
+	 * the interval and the beginning of the interval are specified by
+	 * parameters. the heartrates belong to the timestamps returned by
+	 * {@link #getMeasuredTimestampsOverInterval(double, long)}.
+	 * 
+	 * @param interval_in_ms
+	 *            the length of the desired interval in milliseconds
+	 * @param from_timestamp
+	 *            the timestamp which defines the beginning of the interval
+	 */
 	@Override
 	public List<Double> getMeasuredHeartRatesOverInterval(
 			double interval_in_ms, long from_timestamp) {
-		return null;
+
+		int startIndex = getStartIndexOfInterval(from_timestamp);
+		int endIndex = getEndIndexOfInterval(startIndex, from_timestamp
+				+ (long) interval_in_ms);
+		if (startIndex == endIndex)
+			return new ArrayList<Double>();
+
+		return new HeartRateListView(this, startIndex, endIndex + 1);
 	}
 
 	/**
@@ -171,25 +232,8 @@ public class DefaultHeartRateMonitor implements HeartRateMonitor {
 	@Override
 	public List<Long> getMeasuredTimestampsOfLastSeconds(double interval_in_ms) {
 
-		long lastMeasurement = getLastTimestamp();
-		long firstMeasurement = timestamps.get(0);
-		long hypotheticalBeginTimestamp = lastMeasurement
-				- (long) interval_in_ms;
-
-		double possibleRange = (double) (lastMeasurement - firstMeasurement);
-
-		// if expected interval is bigger than actual, return whole list
-		if (interval_in_ms > possibleRange) {
-			return timestamps;
-		}
-
-		int fromIndex = (timestamps.size() - 1);
-		while (timestamps.get(fromIndex) > hypotheticalBeginTimestamp
-				&& fromIndex > 0) {
-			fromIndex--;
-		}
-
-		return timestamps.subList(fromIndex, timestamps.size());
+		return new TimestampListView(this,
+				getIndexOfLastSeconds(interval_in_ms), size());
 	}
 
 	/**
@@ -206,26 +250,40 @@ public class DefaultHeartRateMonitor implements HeartRateMonitor {
 	public List<Long> getMeasuredTimestampsOverInterval(double interval_in_ms,
 			long start_timestamp) {
 
-		long hypotheticalStartTimestamp = start_timestamp;
-		long hypotheticalEndTimestamp = start_timestamp + (long) interval_in_ms;
+		int startIndex = getStartIndexOfInterval(start_timestamp);
+		int endIndex = getEndIndexOfInterval(startIndex, start_timestamp
+				+ (long) interval_in_ms);
+		if (startIndex == endIndex)
+			return new ArrayList<Long>();
+
+		return new TimestampListView(this, startIndex, endIndex + 1);
+	}
 
-		int startIndex = (timestamps.size() - 1);
-		while (timestamps.get(startIndex) > hypotheticalStartTimestamp
+	/**
+	 * returns the index of the last heartrate measured at or before the
+	 * hypothetical start timestamp of an interval, or 0.
+	 */
+	private int getStartIndexOfInterval(long hypotheticalStartTimestamp) {
+		int startIndex = (size() - 1);
+		while (getTimestamp(startIndex) > hypotheticalStartTimestamp
 				&& startIndex > 0) {
 			startIndex--;
 		}
+		return startIndex;
+	}
 
+	/**
+	 * returns the index of the first heartrate measured at or after the
+	 * hypothetical end timestamp of an interval, or the last index.
+	 */
+	private int getEndIndexOfInterval(int startIndex,
+			long hypotheticalEndTimestamp) {
 		int endIndex = startIndex;
-		while (timestamps.get(endIndex) < hypotheticalEndTimestamp
-				&& endIndex < (timestamps.size() - 1)) {
+		while (storage.getTimestamp(endIndex) < hypotheticalEndTimestamp
+				&& endIndex < (size() - 1)) {
 			endIndex++;
 		}
-		if (startIndex == endIndex)
-			return new ArrayList<Long>();
-
-		// TODO: What if startIndex > endIndex?
-
-		return timestamps.subList(startIndex, endIndex + 1);
+		return endIndex;
 	}
 
 	/**
@@ -239,13 +297,13 @@ public class DefaultHeartRateMonitor implements HeartRateMonitor {
 	@Override
 	public List<Double> getLastNumHeartRates(int num) {
 		if (num >= 0) {
-			if (heartRates.size() - num >= 0) {
-				int fromIndex = heartRates.size() - num;
-				int toIndex = heartRates.size();
+			if (size() - num >= 0) {
+				int fromIndex = size() - num;
+				int toIndex = size();
 
-				return heartRates.subList(fromIndex, toIndex);
+				return new HeartRateListView(this, fromIndex, toIndex);
 			} else {
-				return heartRates;
+				return getAllMeasuredHeartRates();
 			}
 		} else {
 			return new ArrayList<Double>();
@@ -263,13 +321,13 @@ public class DefaultHeartRateMonitor implements HeartRateMonitor {
 	@Override
 	public List<Long> getLastNumTimestamps(int num) {
 		if (num > 0) {
-			if (timestamps.size() - num >= 0) {
-				int fromIndex = timestamps.size() - num;
-				int toIndex = timestamps.size();
+			if (size() - num >= 0) {
+				int fromIndex = size() - num;
+				int toIndex = size();
 
-				return timestamps.subList(fromIndex, toIndex);
+				return new TimestampListView(this, fromIndex, toIndex);
 			} else {
-				return timestamps;
+				return getAllMeasuredTimestamps();
 			}
 		} else {
 			return new ArrayList<Long>();
@@ -289,14 +347,14 @@ public class DefaultHeartRateMonitor implements HeartRateMonitor {
 	public List<Double> getMeasuredHeartRatesOverClosedInterval(
 			long from_timestamp, long to_timestamp) {
 
-		int from_index = timestamps.indexOf(from_timestamp);
-		int to_index = timestamps.indexOf(to_timestamp);
+		int from_index = indexOfTimestamp(from_timestamp);
+		int to_index = indexOfTimestamp(to_timestamp);
 
-		if (from_index == -1 || to_index == -1) {
+		if (from_index == -1 || to_index == -1 || from_index > to_index) {
 			return new ArrayList<Double>();
 		}
 
-		return heartRates.subList(from_index, to_index + 1);
+		return new HeartRateListView(this, from_index, to_index + 1);
 	}
 
 	/**
@@ -312,14 +370,101 @@ public class DefaultHeartRateMonitor implements HeartRateMonitor {
 	public List<Long> getMeasuredTimestampsOverClosedInterval(
 			long from_timestamp, long to_timestamp) {
 
-		int from_index = timestamps.indexOf(from_timestamp);
-		int to_index = timestamps.indexOf(to_timestamp);
+		int from_index = indexOfTimestamp(from_timestamp);
+		int to_index = indexOfTimestamp(to_timestamp);
 
-		if (from_index == -1 || to_index == -1) {
+		if (from_index == -1 || to_index == -1 || from_index > to_index) {
 			return new ArrayList<Long>();
 		}
 
-		return timestamps.subList(from_index, to_index + 1);
+		return new TimestampListView(this, from_index, to_index + 1);
+	}
+
+	/**
+	 * aggregates the heartrates of a time range. the bounds don't have to be
+	 * measured timestamps, they are found by binary search. this requires the
+	 * timestamps to be added in ascending order. the first query builds an
+	 * aggregate index (see {@link HeartRateRangeIndex}), later queries only
+	 * index the heartrates added in the meantime and take O(log n). as the
+	 * index is updated, queries have to run on the thread which adds the
+	 * heartrates or runs the events (see {@link HeartRatePipeline}).
+	 * 
+	 * @param from_timestamp
+	 *            the start of the range
+	 * @param from_inclusive
+	 *            whether heartrates at from_timestamp belong to the range
+	 * @param to_timestamp
+	 *            the end of the range
+	 * @param to_inclusive
+	 *            whether heartrates at to_timestamp belong to the range
+	 * @return the aggregated heartrates, empty if the range contains none
+	 */
+	public HeartRateStatistics getHeartRateStatistics(long from_timestamp,
+			boolean from_inclusive, long to_timestamp, boolean to_inclusive) {
+
+		int from_index = from_inclusive ? lowerBound(from_timestamp)
+				: upperBound(from_timestamp);
+		int to_index = to_inclusive ? upperBound(to_timestamp)
+				: lowerBound(to_timestamp);
+
+		if (from_index >= to_index) {
+			return HeartRateStatistics.empty();
+		}
+
+		HeartRateRangeIndex index = getRangeIndex();
+		int minimum = index.indexOfMinimum(from_index, to_index);
+		int maximum = index.indexOfMaximum(from_index, to_index);
+
+		return new HeartRateStatistics(to_index - from_index, index.sum(
+				from_index, to_index), storage.getHeartRate(minimum),
+				storage.getTimestamp(minimum), storage.getHeartRate(maximum),
+				storage.getTimestamp(maximum));
+	}
+
+	/**
+	 * aggregates the heartrates between two timestamps, both bounds included
+	 * (see {@link #getHeartRateStatistics(long, boolean, long, boolean)}).
+	 * 
+	 * @param from_timestamp
+	 *            the start of the range
+	 * @param to_timestamp
+	 *            the end of the range
+	 * @return the aggregated heartrates, empty if the range contains none
+	 */
+	public HeartRateStatistics getHeartRateStatisticsOverClosedInterval(
+			long from_timestamp, long to_timestamp) {
+		return getHeartRateStatistics(from_timestamp, true, to_timestamp, true);
+	}
+
+	/**
+	 * starts to index the episodes of heartrates above or below a threshold
+	 * (see {@link HeartRateEpisodeIndex}). the heartrates measured so far are
+	 * indexed at once, later ones whenever they are added.
+	 * 
+	 * @param threshold
+	 *            the threshold of the episodes
+	 * @param above
+	 *            true to index the heartrates above the threshold, false for
+	 *            the ones below
+	 * @return the index, which answers the episode queries
+	 */
+	public HeartRateEpisodeIndex addEpisodeIndex(double threshold,
+			boolean above) {
+		HeartRateEpisodeIndex episodeIndex = new HeartRateEpisodeIndex(this,
+				threshold, above);
+		episodeIndex.update();
+		episodeIndexes.add(episodeIndex);
+		return episodeIndex;
+	}
+
+	/**
+	 * stops updating the given episode index.
+	 * 
+	 * @param episodeIndex
+	 *            an index created by {@link #addEpisodeIndex(double, boolean)}
+	 */
+	public void removeEpisodeIndex(HeartRateEpisodeIndex episodeIndex) {
+		episodeIndexes.remove(episodeIndex);
 	}
 
 	/**
@@ -346,10 +491,348 @@ public class DefaultHeartRateMonitor implements HeartRateMonitor {
 		subscribers.remove(heartRateEvent);
 	}
 
+	/**
+	 * returns the number of measured heartrates.
+	 * 
+	 * @return number of measured heartrates
+	 */
+	@Override
+	public int getNumberOfHeartRates() {
+		return size();
+	}
+
+	/**
+	 * returns the heartrate at the given index.
+	 * 
+	 * @param index
+	 *            index of the heartrate, 0 is the first measured one
+	 * @return the heartrate at the index
+	 * @throws IndexOutOfBoundsException
+	 *             if there is no heartrate at the index
+	 */
+	@Override
+	public double getHeartRate(int index) {
+		if (index < 0 || index >= size()) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: "
+					+ size());
+		}
+		return storage.getHeartRate(index);
+	}
+
+	/**
+	 * returns the timestamp at the given index.
+	 * 
+	 * @param index
+	 *            index of the timestamp, 0 is the first measured one
+	 * @return the timestamp at the index
+	 * @throws IndexOutOfBoundsException
+	 *             if there is no timestamp at the index
+	 */
+	@Override
+	public long getTimestamp(int index) {
+		if (index < 0 || index >= size()) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: "
+					+ size());
+		}
+		return storage.getTimestamp(index);
+	}
+
+	/**
+	 * returns the index of the first timestamp of the last given milliseconds.
+	 * that is the last timestamp which is not after the beginning of the
+	 * interval or 0 if the interval is bigger than the measured range. the
+	 * heartrates from this index to the last one are the ones returned by
+	 * {@link #getMeasuredHeartRatesOfLastSeconds(double)
+	 * getMeasuredHeartRatesOfLastSeconds}. as long as the timestamps are
+	 * added in ascending order, the indexes are cached until the next
+	 * heartrate is added (see {@link WindowBoundaryCache}). once a heartrate
+	 * older than its predecessor was added, the history is scanned backwards
+	 * like before the cache.
+	 * 
+	 * @param interval_in_ms
+	 *            the interval in milliseconds
+	 * @return index of the first heartrate of the interval
+	 * @throws IndexOutOfBoundsException
+	 *             if no heartrate was measured yet
+	 */
+	@Override
+	public int getIndexOfLastSeconds(double interval_in_ms) {
+		HeartRateTracer tracer = HeartRateTracing.getTracer();
+		if (tracer == null) {
+			return indexOfLastSeconds(interval_in_ms);
+		}
+
+		long start = System.nanoTime();
+		int index = indexOfLastSeconds(interval_in_ms);
+		long nanoseconds = System.nanoTime() - start;
+		HeartRateTracing.Context context = HeartRateTracing.context();
+		tracer.onWindowLookedUp(context.sensorId, context.timestamp,
+				nanoseconds);
+		return index;
+	}
+
+	private int indexOfLastSeconds(double interval_in_ms) {
+		long lastMeasurement = getLastTimestamp();
+		long firstMeasurement = storage.getTimestamp(0);
+		long hypotheticalBeginTimestamp = lastMeasurement
+				- (long) interval_in_ms;
+
+		double possibleRange = (double) (lastMeasurement - firstMeasurement);
+
+		// if expected interval is bigger than actual, return whole list
+		if (interval_in_ms > possibleRange) {
+			return 0;
+		}
+
+		if (unordered) {
+			return scanIndexOfLastSeconds(hypotheticalBeginTimestamp);
+		}
+		return windowBoundaryCache.fromIndex(interval_in_ms,
+				hypotheticalBeginTimestamp, size());
+	}
+
+	/**
+	 * scans backwards for the last heartrate which is not after the beginning
+	 * of the window. unlike the cache this doesn't require ascending
+	 * timestamps.
+	 */
+	private int scanIndexOfLastSeconds(long beginTimestamp) {
+		int fromIndex = size() - 1;
+		while (fromIndex > 0 && storage.getTimestamp(fromIndex) > beginTimestamp) {
+			fromIndex--;
+		}
+		return fromIndex;
+	}
+
+	/**
+	 * remembers if the given timestamp is older than the last added one.
+	 */
+	private void checkOrder(long timestamp) {
+		if (!unordered) {
+			int size = storage.size();
+			if (size > 0 && timestamp < storage.getTimestamp(size - 1)) {
+				unordered = true;
+			}
+		}
+	}
+
+	/**
+	 * checks the order of all stored heartrates, after they have been added
+	 * to the storage directly (see {@link #getStorage()}).
+	 */
+	void checkOrder() {
+		int size = storage.size();
+		for (int i = 1; i < size && !unordered; i++) {
+			if (storage.getTimestamp(i) < storage.getTimestamp(i - 1)) {
+				unordered = true;
+			}
+		}
+	}
+
+	/**
+	 * returns the storage of the heartrates, e.g. to write or restore it in
+	 * bulk (see {@link HeartRateSnapshot}). heartrates added to the storage
+	 * directly don't notify the subscribers.
+	 */
+	HeartRateStorage getStorage() {
+		return storage;
+	}
+
+	/**
+	 * returns the id of the sensor of the monitor.
+	 * 
+	 * @return the sensor id the monitor is registered with in a
+	 *         {@link HeartRateMonitorRegistry} or -1
+	 */
+	public int getSensorId() {
+		return sensorId;
+	}
+
+	void setSensorId(int sensorId) {
+		this.sensorId = sensorId;
+	}
+
+	/**
+	 * returns the up to date aggregate index of the monitor. the index is
+	 * created by the first call.
+	 */
+	HeartRateRangeIndex getRangeIndex() {
+		if (rangeIndex == null) {
+			rangeIndex = new HeartRateRangeIndex(this);
+		}
+		rangeIndex.update();
+		return rangeIndex;
+	}
+
+	/**
+	 * returns the up to date aggregate index of the monitor, or null if no
+	 * statistics query has created it yet. updating the index writes its
+	 * arrays, so it is only returned to the thread which runs the events of
+	 * the monitor, other threads get null.
+	 */
+	HeartRateRangeIndex findRangeIndex() {
+		if (!windowBoundaryCache.isOwner(Thread.currentThread())
+				|| rangeIndex == null) {
+			return null;
+		}
+		rangeIndex.update();
+		return rangeIndex;
+	}
+
+	/** returns the index of the first timestamp &gt;= the given one */
+	int lowerBound(long timestamp) {
+		int low = 0;
+		int high = size();
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (storage.getTimestamp(middle) < timestamp) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/** returns the index of the first timestamp &gt; the given one */
+	int upperBound(long timestamp) {
+		int low = 0;
+		int high = size();
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (storage.getTimestamp(middle) <= timestamp) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * hides heartrates appended from now on until they are published, see
+	 * {@link HeartRatePipeline}.
+	 */
+	void attachToPipeline() {
+		publishedSize = storage.size();
+	}
+
+	/**
+	 * publishes all appended heartrates and lets the monitor be fed directly
+	 * again.
+	 */
+	void detachFromPipeline() {
+		publishedSize = -1;
+	}
+
+	boolean isAttachedToPipeline() {
+		return publishedSize >= 0;
+	}
+
+	/**
+	 * appends a heartrate which stays hidden until it is published.
+	 */
+	void appendUnpublished(double heartrate, long timestamp) {
+		storage.add(heartrate, timestamp);
+	}
+
+	/**
+	 * returns the timestamp of the last appended heartrate, published or not,
+	 * or Long.MIN_VALUE if there is none.
+	 */
+	long getLastAppendedTimestamp() {
+		int size = storage.size();
+		return size == 0 ? Long.MIN_VALUE : storage.getTimestamp(size - 1);
+	}
+
+	/**
+	 * makes the first given number of appended heartrates visible and
+	 * triggers the listeners.
+	 */
+	void publish(int numberOfHeartRates) {
+		publishedSize = numberOfHeartRates;
+
+		HeartRateTracer tracer = HeartRateTracing.getTracer();
+		if (tracer == null) {
+			notifySubscribers();
+		} else {
+			notifySubscribersTraced(tracer, storage
+					.getTimestamp(numberOfHeartRates - 1), 0);
+		}
+	}
+
+	/**
+	 * returns the number of visible heartrates, which are all stored ones
+	 * unless the monitor is fed by a pipeline.
+	 */
+	private int size() {
+		int size = publishedSize;
+		return size < 0 ? storage.size() : size;
+	}
+
+	/**
+	 * stores a heartrate and triggers the listeners while a tracer is
+	 * installed (see {@link HeartRateTracing}). kept out of addHeartRate, so
+	 * that the untraced path stays as small as before.
+	 */
+	private void appendTraced(HeartRateTracer tracer, double heartrate,
+			long timestamp) {
+		long start = System.nanoTime();
+		storage.add(heartrate, timestamp);
+		notifySubscribersTraced(tracer, timestamp, System.nanoTime() - start);
+	}
+
+	/**
+	 * triggers the listeners with the heartrate as the tracing context of the
+	 * current thread, the previous context is restored afterwards.
+	 */
+	private void notifySubscribersTraced(HeartRateTracer tracer,
+			long timestamp, long appendNanoseconds) {
+		HeartRateTracing.Context context = HeartRateTracing.context();
+		int previousSensorId = context.sensorId;
+		long previousTimestamp = context.timestamp;
+		context.sensorId = sensorId;
+		context.timestamp = timestamp;
+		try {
+			long start = System.nanoTime();
+			notifySubscribers();
+			tracer.onHeartRateAdded(sensorId, timestamp, appendNanoseconds,
+					System.nanoTime() - start);
+		} finally {
+			context.sensorId = previousSensorId;
+			context.timestamp = previousTimestamp;
+		}
+	}
+
+	private void checkNotPipelined() {
+		if (publishedSize >= 0) {
+			throw new IllegalStateException(
+					"the heartrates of this monitor are added by a pipeline");
+		}
+	}
+
+	private int indexOfTimestamp(long timestamp) {
+		for (int i = 0; i < size(); i++) {
+			if (storage.getTimestamp(i) == timestamp) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
 	private void notifySubscribers() {
 
-		for (HeartRateEvent heartRateEvent : subscribers) {
-			heartRateEvent.onUpdate(this);
+		// the events look up their windows on this thread
+		windowBoundaryCache.setOwner(Thread.currentThread());
+
+		// the indexes are up to date before the events query them
+		for (int i = 0; i < episodeIndexes.size(); i++) {
+			episodeIndexes.get(i).update();
+		}
+
+		// indexed loop, an iterator would be allocated for every heartrate
+		for (int i = 0; i < subscribers.size(); i++) {
+			subscribers.get(i).onUpdate(this);
 		}
 
 	}
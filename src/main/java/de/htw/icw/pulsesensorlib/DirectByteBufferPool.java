@@ -0,0 +1,91 @@
+package de.htw.icw.pulsesensorlib;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Pool of equally sized direct byte buffers. The buffers are slices of a few
+ * large direct allocations, so acquiring and releasing a buffer never allocates
+ * once the pool is warm. If all buffers are in use, a new slab of buffers is
+ * allocated. This class is not thread safe.
+ *
+ * @author s0534410
+ */
+class DirectByteBufferPool {
+
+	private final int bufferSize;
+	private final int buffersPerSlab;
+
+	private ByteBuffer[] freeBuffers;
+	private int numberOfFreeBuffers;
+	private int numberOfBuffers;
+
+	/**
+	 * @param bufferSize
+	 *            size of a single buffer in bytes
+	 * @param buffersPerSlab
+	 *            number of buffers allocated at once
+	 */
+	DirectByteBufferPool(int bufferSize, int buffersPerSlab) {
+		if (bufferSize <= 0 || buffersPerSlab <= 0) {
+			throw new IllegalArgumentException(
+					"bufferSize and buffersPerSlab have to be > 0");
+		}
+		this.bufferSize = bufferSize;
+		this.buffersPerSlab = buffersPerSlab;
+		this.freeBuffers = new ByteBuffer[buffersPerSlab];
+	}
+
+	/**
+	 * returns a cleared buffer of the pool.
+	 *
+	 * @return a free buffer
+	 */
+	ByteBuffer acquire() {
+		if (numberOfFreeBuffers == 0) {
+			allocateSlab();
+		}
+		ByteBuffer buffer = freeBuffers[--numberOfFreeBuffers];
+		freeBuffers[numberOfFreeBuffers] = null;
+		return buffer;
+	}
+
+	/**
+	 * returns a buffer to the pool. the buffer must not be used afterwards.
+	 *
+	 * @param buffer
+	 *            a buffer previously acquired from this pool
+	 */
+	void release(ByteBuffer buffer) {
+		buffer.clear();
+		freeBuffers[numberOfFreeBuffers++] = buffer;
+	}
+
+	int getBufferSize() {
+		return bufferSize;
+	}
+
+	int getNumberOfBuffers() {
+		return numberOfBuffers;
+	}
+
+	int getNumberOfFreeBuffers() {
+		return numberOfFreeBuffers;
+	}
+
+	private void allocateSlab() {
+		ByteBuffer slab = ByteBuffer.allocateDirect(bufferSize * buffersPerSlab);
+
+		numberOfBuffers += buffersPerSlab;
+		if (freeBuffers.length < numberOfBuffers) {
+			ByteBuffer[] grown = new ByteBuffer[numberOfBuffers];
+			System.arraycopy(freeBuffers, 0, grown, 0, numberOfFreeBuffers);
+			freeBuffers = grown;
+		}
+
+		for (int i = 0; i < buffersPerSlab; i++) {
+			slab.limit((i + 1) * bufferSize);
+			slab.position(i * bufferSize);
+			freeBuffers[numberOfFreeBuffers++] = slab.slice();
+		}
+	}
+}
@@ -0,0 +1,208 @@
+package de.htw.icw.pulsesensorlib;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * HeartRateEvent which learns the usual heart rate of a patient instead of
+ * using fixed thresholds (see {@link DefaultHeartRateEvent}). It keeps an
+ * exponentially weighted mean and variance of the heart rates and reports an
+ * anomaly if the heart rates deviate by more than k standard deviations from
+ * the mean for a sustained duration.
+ *
+ * Only the last heart rate of the monitor is read and no history is kept, so
+ * every update costs O(1) time and memory. Heart rates of 0 (no pulse) neither
+ * update the baseline nor count as a deviation, and deviating heart rates do
+ * not update the baseline either, so an anomaly is not learned as normal while
+ * it lasts. Slow changes, e.g. by training or medication, are followed.
+ *
+ * Anomalies are reported once per episode: to the
+ * {@link HeartRateAnomalyListener}s with the details and to the
+ * {@link HeartRateListener}s as {@link HeartRateListener#onHighPulse(double)
+ * onHighPulse} or {@link HeartRateListener#onLowPulse(double) onLowPulse}. An
+ * episode ends with the first heart rate within the threshold.
+ *
+ * @author s0534410
+ */
+public class EwmaHeartRateEvent extends AbstractHeartRateEvent {
+
+	private static final double DEFAULT_MINIMUM_STANDARD_DEVIATION = 1;
+
+	private final double smoothingFactor;
+	private final double deviationThreshold;
+	private final long sustainedDurationInMilliseconds;
+	private final int warmUpSamples;
+	private final double minimumStandardDeviation;
+
+	private List<HeartRateAnomalyListener> anomalyListeners = new ArrayList<HeartRateAnomalyListener>();
+
+	private long samples;
+	private double mean;
+	private double variance;
+
+	// 1 above, -1 below and 0 within the threshold
+	private int episodeDirection;
+	private long episodeStartTimestamp;
+	private boolean episodeNotified;
+
+	/**
+	 * learns the baseline from the first 1 / smoothingFactor heart rates and
+	 * uses a minimum standard deviation of 1 bpm.
+	 *
+	 * @param smoothingFactor
+	 *            weight of a new heart rate in the baseline, between 0 and 1
+	 * @param deviationThreshold
+	 *            number of standard deviations (k) a heart rate has to deviate
+	 * @param sustainedDurationInMilliseconds
+	 *            how long the heart rates have to deviate before an anomaly is
+	 *            reported
+	 */
+	public EwmaHeartRateEvent(double smoothingFactor,
+			double deviationThreshold, long sustainedDurationInMilliseconds) {
+		this(smoothingFactor, deviationThreshold,
+				sustainedDurationInMilliseconds, (int) Math
+						.ceil(1 / smoothingFactor),
+				DEFAULT_MINIMUM_STANDARD_DEVIATION);
+	}
+
+	/**
+	 * @param smoothingFactor
+	 *            weight of a new heart rate in the baseline, between 0 and 1
+	 * @param deviationThreshold
+	 *            number of standard deviations (k) a heart rate has to deviate
+	 * @param sustainedDurationInMilliseconds
+	 *            how long the heart rates have to deviate before an anomaly is
+	 *            reported
+	 * @param warmUpSamples
+	 *            number of heart rates which are only learned before anomalies
+	 *            are detected
+	 * @param minimumStandardDeviation
+	 *            lower bound of the standard deviation, so that a very steady
+	 *            heart rate does not make every small change an anomaly
+	 */
+	public EwmaHeartRateEvent(double smoothingFactor,
+			double deviationThreshold, long sustainedDurationInMilliseconds,
+			int warmUpSamples, double minimumStandardDeviation) {
+		if (!(smoothingFactor > 0 && smoothingFactor <= 1)) {
+			throw new IllegalArgumentException(
+					"smoothingFactor has to be in (0, 1]");
+		}
+		if (!(deviationThreshold > 0)) {
+			throw new IllegalArgumentException(
+					"deviationThreshold has to be > 0");
+		}
+		if (sustainedDurationInMilliseconds < 0 || warmUpSamples < 1
+				|| minimumStandardDeviation < 0) {
+			throw new IllegalArgumentException(
+					"durations and sample counts must not be negative");
+		}
+		this.smoothingFactor = smoothingFactor;
+		this.deviationThreshold = deviationThreshold;
+		this.sustainedDurationInMilliseconds = sustainedDurationInMilliseconds;
+		this.warmUpSamples = warmUpSamples;
+		this.minimumStandardDeviation = minimumStandardDeviation;
+	}
+
+	public void addAnomalyListener(HeartRateAnomalyListener anomalyListener) {
+		anomalyListeners.add(anomalyListener);
+	}
+
+	public void removeAnomalyListener(HeartRateAnomalyListener anomalyListener) {
+		anomalyListeners.remove(anomalyListener);
+	}
+
+	@Override
+	public void onUpdate(HeartRateMonitor heartRateMonitor) {
+		double heartRate = heartRateMonitor.getLastHeartRate();
+		long timestamp = heartRateMonitor.getLastTimestamp();
+
+		if (heartRate == 0) {
+			episodeDirection = 0;
+			return;
+		}
+
+		if (samples < warmUpSamples) {
+			learn(heartRate);
+			return;
+		}
+
+		double standardDeviation = getStandardDeviation();
+		double deviation = (heartRate - mean) / standardDeviation;
+		int direction = deviation > deviationThreshold ? 1
+				: deviation < -deviationThreshold ? -1 : 0;
+
+		if (direction == 0) {
+			episodeDirection = 0;
+			learn(heartRate);
+			return;
+		}
+
+		if (direction != episodeDirection) {
+			episodeDirection = direction;
+			episodeStartTimestamp = timestamp;
+			episodeNotified = false;
+		}
+
+		if (!episodeNotified
+				&& timestamp - episodeStartTimestamp >= sustainedDurationInMilliseconds) {
+			episodeNotified = true;
+			notifyOnAnomaly(heartRate, standardDeviation, deviation, timestamp);
+		}
+	}
+
+	/**
+	 * returns the learned mean heart rate.
+	 *
+	 * @return the exponentially weighted mean or NaN before the first heart
+	 *         rate
+	 */
+	public double getExpectedHeartRate() {
+		return samples == 0 ? Double.NaN : mean;
+	}
+
+	/**
+	 * returns the learned standard deviation, at least the minimum standard
+	 * deviation.
+	 *
+	 * @return the exponentially weighted standard deviation
+	 */
+	public double getStandardDeviation() {
+		return Math.max(Math.sqrt(variance), minimumStandardDeviation);
+	}
+
+	/**
+	 * returns whether the last heart rate deviated from the baseline.
+	 *
+	 * @return true while an episode lasts, even before it was reported
+	 */
+	public boolean isDeviating() {
+		return episodeDirection != 0;
+	}
+
+	private void learn(double heartRate) {
+		if (samples == 0) {
+			mean = heartRate;
+		} else {
+			double difference = heartRate - mean;
+			double increment = smoothingFactor * difference;
+			mean += increment;
+			variance = (1 - smoothingFactor)
+					* (variance + difference * increment);
+		}
+		samples++;
+	}
+
+	private void notifyOnAnomaly(double heartRate, double standardDeviation,
+			double deviation, long timestamp) {
+		for (int i = 0; i < anomalyListeners.size(); i++) {
+			anomalyListeners.get(i).onAnomaly(heartRate, mean,
+					standardDeviation, deviation, episodeStartTimestamp,
+					timestamp);
+		}
+		if (deviation > 0) {
+			notifyOnHighPulse(heartRate);
+		} else {
+			notifyOnLowPulse(heartRate);
+		}
+	}
+}
@@ -0,0 +1,106 @@
+package de.htw.icw.pulsesensorlib;
+
+/**
+ * A callback of a {@link HeartRateListener} as a value, as published by a
+ * {@link HeartRateAlertPublisher}. Alerts about a single heart rate (high and
+ * low pulse) have the same start and end heart rate, alerts without a heart
+ * rate (no pulse, disconnected) have a heart rate of 0. Callbacks without
+ * timestamps get the time the alert was created as start and end timestamp.
+ *
+ * @author s0534410
+ */
+public class HeartRateAlert {
+
+	/**
+	 * The callback of the {@link HeartRateListener} an alert stands for.
+	 */
+	public enum Type {
+		HIGH_PULSE, LOW_PULSE, NO_PULSE, DISCONNECTED, PULSE_INCREASED, PULSE_DECREASED
+	}
+
+	private final Type type;
+	private final double startHeartRate;
+	private final double endHeartRate;
+	private final long startTimestamp;
+	private final long endTimestamp;
+	private final double percentage;
+
+	public HeartRateAlert(Type type, double startHeartRate,
+			double endHeartRate, long startTimestamp, long endTimestamp,
+			double percentage) {
+		this.type = type;
+		this.startHeartRate = startHeartRate;
+		this.endHeartRate = endHeartRate;
+		this.startTimestamp = startTimestamp;
+		this.endTimestamp = endTimestamp;
+		this.percentage = percentage;
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	public double getStartHeartRate() {
+		return startHeartRate;
+	}
+
+	public double getEndHeartRate() {
+		return endHeartRate;
+	}
+
+	public long getStartTimestamp() {
+		return startTimestamp;
+	}
+
+	public long getEndTimestamp() {
+		return endTimestamp;
+	}
+
+	/**
+	 * returns the percentage of an increased or decreased pulse.
+	 *
+	 * @return the percentage or 0 for other alerts
+	 */
+	public double getPercentage() {
+		return percentage;
+	}
+
+	/**
+	 * invokes the callback of the listener this alert stands for.
+	 *
+	 * @param heartRateListener
+	 *            the listener to call
+	 */
+	public void notify(HeartRateListener heartRateListener) {
+		switch (type) {
+		case HIGH_PULSE:
+			heartRateListener.onHighPulse(endHeartRate);
+			break;
+		case LOW_PULSE:
+			heartRateListener.onLowPulse(endHeartRate);
+			break;
+		case NO_PULSE:
+			heartRateListener.onNoPulse();
+			break;
+		case DISCONNECTED:
+			heartRateListener.onDisconnected();
+			break;
+		case PULSE_INCREASED:
+			heartRateListener.onPulseIncreased(startHeartRate, endHeartRate,
+					startTimestamp, endTimestamp, percentage);
+			break;
+		case PULSE_DECREASED:
+			heartRateListener.onPulseDecreased(startHeartRate, endHeartRate,
+					startTimestamp, endTimestamp, percentage);
+			break;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "HeartRateAlert [type=" + type + ", startHeartRate="
+				+ startHeartRate + ", endHeartRate=" + endHeartRate
+				+ ", startTimestamp=" + startTimestamp + ", endTimestamp="
+				+ endTimestamp + ", percentage=" + percentage + "]";
+	}
+}
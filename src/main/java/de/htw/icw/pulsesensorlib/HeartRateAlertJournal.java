@@ -0,0 +1,623 @@
+package de.htw.icw.pulsesensorlib;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Persists the alerts of {@link HeartRateEvent}s in segment files of a local
+ * directory, e.g. for audits. Alerts are appended as compact binary records
+ * (see {@link HeartRateAlertRecordCodec}) into an in-memory batch. A writer
+ * thread writes and fsyncs a batch once the group commit window after its
+ * first alert has passed, so a single fsync covers all alerts of the window
+ * instead of one fsync per alert. Heart rates and percentages are stored as
+ * floats.
+ *
+ * Appending never waits for the disk unless both batches are full. Callers
+ * which need an alert to be durable wait for its acknowledgement with
+ * {@link #awaitDurable(long)} or use {@link #appendDurably(int, HeartRateAlert)}
+ * , which costs at most the group commit window plus one fsync.
+ *
+ * <pre>
+ * HeartRateAlertJournal journal = new HeartRateAlertJournal(directory, 10);
+ * heartRateEvent.subscribe(journal.listenerFor(sensorId));
+ * ...
+ * journal.close();
+ * </pre>
+ *
+ * The journal continues the sequence of the segments already in the directory
+ * and cuts off a torn record at the end of the last one. Segments are read
+ * with a {@link HeartRateAlertJournalReader}. All methods are thread safe.
+ *
+ * @author s0534410
+ */
+public class HeartRateAlertJournal implements Closeable {
+
+	private static final Logger LOGGER = LogManager
+			.getLogger(HeartRateAlertJournal.class);
+
+	/** default maximum size of a segment file in bytes */
+	public static final long DEFAULT_SEGMENT_SIZE = 64L << 20;
+
+	private static final int BATCH_CAPACITY = 4096;
+
+	private final File directory;
+	private final long groupCommitWindowInMilliseconds;
+	private final int segmentCapacity;
+	private final Thread writerThread;
+
+	// guarded by this
+	private ByteBuffer batch;
+	private ByteBuffer spareBatch;
+	private long batchStartTime;
+	private long nextSequence;
+	private long durableSequence;
+	private boolean flushRequested;
+	private boolean closed;
+	private IOException failure;
+	private final CRC32 crc = new CRC32();
+
+	// only used by the writer thread
+	private FileChannel segment;
+	private File segmentFile;
+	private int segmentSize;
+	private long writtenSequence;
+	private long[] blockMinimums = new long[16];
+	private long[] blockMaximums = new long[16];
+
+	/**
+	 * creates a journal with segment files of at most
+	 * {@link #DEFAULT_SEGMENT_SIZE} bytes.
+	 *
+	 * @param directory
+	 *            directory of the segment files, it has to exist
+	 * @param groupCommitWindowInMilliseconds
+	 *            how long alerts are collected before they are written and
+	 *            fsynced together
+	 * @throws IOException
+	 *             if the segments in the directory can't be recovered
+	 */
+	public HeartRateAlertJournal(File directory,
+			long groupCommitWindowInMilliseconds) throws IOException {
+		this(directory, groupCommitWindowInMilliseconds, DEFAULT_SEGMENT_SIZE);
+	}
+
+	/**
+	 * @param directory
+	 *            directory of the segment files, it has to exist
+	 * @param groupCommitWindowInMilliseconds
+	 *            how long alerts are collected before they are written and
+	 *            fsynced together
+	 * @param segmentSize
+	 *            maximum size of a segment file in bytes
+	 * @throws IOException
+	 *             if the segments in the directory can't be recovered
+	 */
+	public HeartRateAlertJournal(File directory,
+			long groupCommitWindowInMilliseconds, long segmentSize)
+			throws IOException {
+		if (!directory.isDirectory()) {
+			throw new IllegalArgumentException(directory
+					+ " is not a directory");
+		}
+		if (groupCommitWindowInMilliseconds < 0) {
+			throw new IllegalArgumentException(
+					"groupCommitWindowInMilliseconds < 0");
+		}
+		long capacity = (segmentSize - HeartRateAlertRecordCodec.HEADER_SIZE)
+				/ HeartRateAlertRecordCodec.RECORD_SIZE;
+		if (capacity < 1) {
+			throw new IllegalArgumentException("segmentSize too small: "
+					+ segmentSize);
+		}
+		this.directory = directory;
+		this.groupCommitWindowInMilliseconds = groupCommitWindowInMilliseconds;
+		this.segmentCapacity = (int) Math.min(Integer.MAX_VALUE, capacity);
+
+		batch = createBatch();
+		spareBatch = createBatch();
+		nextSequence = recover();
+		durableSequence = nextSequence;
+		writtenSequence = nextSequence;
+
+		writerThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				write();
+			}
+		}, "heart-rate-alert-journal");
+		writerThread.setDaemon(true);
+		writerThread.start();
+	}
+
+	/**
+	 * creates a listener which appends the callbacks of an event as alerts of
+	 * the given sensor. callbacks without timestamps are journaled with the
+	 * current time. if the journal is closed or failed, the alert is logged
+	 * as an error.
+	 *
+	 * @param sensorId
+	 *            the sensor of the event
+	 * @return a listener to subscribe to the event
+	 */
+	public HeartRateListener listenerFor(int sensorId) {
+		return new JournalListener(sensorId);
+	}
+
+	/**
+	 * appends an alert without waiting for it to be durable.
+	 *
+	 * @param sensorId
+	 *            the sensor which caused the alert
+	 * @param alert
+	 *            the alert
+	 * @return the sequence of the alert, see {@link #awaitDurable(long)}
+	 * @throws IllegalStateException
+	 *             if the journal is closed or writing failed
+	 */
+	public long append(int sensorId, HeartRateAlert alert) {
+		return append(sensorId, alert.getType(), alert.getStartHeartRate(),
+				alert.getEndHeartRate(), alert.getStartTimestamp(),
+				alert.getEndTimestamp(), alert.getPercentage());
+	}
+
+	/**
+	 * appends an alert and waits until it is durable.
+	 *
+	 * @param sensorId
+	 *            the sensor which caused the alert
+	 * @param alert
+	 *            the alert
+	 * @return the sequence of the alert
+	 * @throws IOException
+	 *             if the alert could not be written
+	 * @throws InterruptedException
+	 *             if the thread was interrupted while waiting
+	 */
+	public long appendDurably(int sensorId, HeartRateAlert alert)
+			throws IOException, InterruptedException {
+		long sequence = append(sensorId, alert);
+		awaitDurable(sequence);
+		return sequence;
+	}
+
+	/**
+	 * waits until the alert with the given sequence and all alerts before it
+	 * are written and fsynced.
+	 *
+	 * @param sequence
+	 *            the sequence returned by {@link #append(int, HeartRateAlert)}
+	 * @throws IOException
+	 *             if writing failed or the journal was closed before
+	 * @throws InterruptedException
+	 *             if the thread was interrupted while waiting
+	 */
+	public synchronized void awaitDurable(long sequence) throws IOException,
+			InterruptedException {
+		while (durableSequence <= sequence) {
+			if (failure != null) {
+				throw new IOException("alert journal failed", failure);
+			}
+			if (sequence >= nextSequence) {
+				throw new IllegalArgumentException("no alert with sequence "
+						+ sequence);
+			}
+			wait();
+		}
+	}
+
+	/**
+	 * writes and fsyncs all appended alerts without waiting for the group
+	 * commit window.
+	 *
+	 * @throws IOException
+	 *             if writing failed
+	 * @throws InterruptedException
+	 *             if the thread was interrupted while waiting
+	 */
+	public void sync() throws IOException, InterruptedException {
+		long sequence;
+		synchronized (this) {
+			if (nextSequence == durableSequence) {
+				return;
+			}
+			sequence = nextSequence - 1;
+			flushRequested = true;
+			notifyAll();
+		}
+		awaitDurable(sequence);
+	}
+
+	/**
+	 * returns the number of alerts which are durable, which is also the
+	 * sequence of the next alert that is not.
+	 *
+	 * @return number of durable alerts
+	 */
+	public synchronized long getDurableSequence() {
+		return durableSequence;
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * writes the remaining alerts, completes the index of the last segment and
+	 * stops the writer thread.
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			notifyAll();
+		}
+		try {
+			writerThread.join();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while closing the journal", ex);
+		}
+		synchronized (this) {
+			if (failure != null) {
+				throw new IOException("alert journal failed", failure);
+			}
+		}
+	}
+
+	private synchronized long append(int sensorId, HeartRateAlert.Type type,
+			double startHeartRate, double endHeartRate, long startTimestamp,
+			long endTimestamp, double percentage) {
+		while (batch.remaining() < HeartRateAlertRecordCodec.RECORD_SIZE) {
+			checkOpen();
+			flushRequested = true;
+			notifyAll();
+			try {
+				wait();
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException(
+						"interrupted while the journal was full", ex);
+			}
+		}
+		checkOpen();
+
+		if (batch.position() == 0) {
+			batchStartTime = System.currentTimeMillis();
+			notifyAll();
+		}
+		HeartRateAlertRecordCodec.encode(batch, crc, sensorId, type,
+				startHeartRate, endHeartRate, startTimestamp, endTimestamp,
+				percentage);
+		return nextSequence++;
+	}
+
+	private void checkOpen() {
+		if (closed) {
+			throw new IllegalStateException("alert journal is closed");
+		}
+		if (failure != null) {
+			throw new IllegalStateException("alert journal failed", failure);
+		}
+	}
+
+	/**
+	 * the loop of the writer thread, which swaps the batches and writes the
+	 * full one outside of the lock.
+	 */
+	private void write() {
+		try {
+			while (true) {
+				ByteBuffer full;
+				long sequence;
+				synchronized (this) {
+					while (batch.position() == 0 && !closed) {
+						wait();
+					}
+					if (batch.position() == 0) {
+						break;
+					}
+					long remaining;
+					while (!closed
+							&& !flushRequested
+							&& (remaining = batchStartTime
+									+ groupCommitWindowInMilliseconds
+									- System.currentTimeMillis()) > 0) {
+						wait(remaining);
+					}
+					full = batch;
+					batch = spareBatch;
+					spareBatch = null;
+					sequence = nextSequence;
+					flushRequested = false;
+					notifyAll();
+				}
+
+				full.flip();
+				writeBatch(full);
+				if (segment != null) {
+					// a full segment has been forced when it was closed
+					segment.force(false);
+				}
+
+				synchronized (this) {
+					full.clear();
+					spareBatch = full;
+					durableSequence = sequence;
+					notifyAll();
+				}
+			}
+			closeSegment();
+		} catch (IOException ex) {
+			fail(ex);
+		} catch (RuntimeException ex) {
+			fail(new IOException(ex));
+		} catch (InterruptedException ex) {
+			fail(new IOException("alert journal writer interrupted", ex));
+		}
+	}
+
+	/**
+	 * stops journaling, waiting and appending callers get the failure.
+	 */
+	private synchronized void fail(IOException ex) {
+		LOGGER.error("could not write the alert journal", ex);
+		failure = ex;
+		notifyAll();
+	}
+
+	private void writeBatch(ByteBuffer full) throws IOException {
+		while (full.hasRemaining()) {
+			if (segment == null) {
+				openSegment(writtenSequence);
+			}
+			int records = Math.min(full.remaining()
+					/ HeartRateAlertRecordCodec.RECORD_SIZE, segmentCapacity
+					- segmentSize);
+			for (int i = 0; i < records; i++) {
+				indexRecord(HeartRateAlertRecordCodec.endTimestamp(full,
+						full.position() + i
+								* HeartRateAlertRecordCodec.RECORD_SIZE));
+			}
+
+			ByteBuffer chunk = full.duplicate();
+			chunk.limit(full.position() + records
+					* HeartRateAlertRecordCodec.RECORD_SIZE);
+			while (chunk.hasRemaining()) {
+				segment.write(chunk);
+			}
+			full.position(chunk.position());
+			writtenSequence += records;
+
+			if (segmentSize == segmentCapacity) {
+				closeSegment();
+			}
+		}
+	}
+
+	private void openSegment(long firstSequence) throws IOException {
+		segmentFile = HeartRateAlertRecordCodec.segmentFile(directory,
+				firstSequence);
+		segment = FileChannel.open(segmentFile.toPath(),
+				StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+		ByteBuffer header = ByteBuffer.allocate(
+				HeartRateAlertRecordCodec.HEADER_SIZE).order(
+				ByteOrder.LITTLE_ENDIAN);
+		header.putInt(HeartRateAlertRecordCodec.SEGMENT_MAGIC).putInt(
+				HeartRateAlertRecordCodec.RECORD_SIZE);
+		header.flip();
+		while (header.hasRemaining()) {
+			segment.write(header);
+		}
+		segmentSize = 0;
+	}
+
+	private void closeSegment() throws IOException {
+		if (segment == null) {
+			return;
+		}
+		segment.force(false);
+		segment.close();
+		segment = null;
+		writeIndex(segmentFile, blockMinimums, blockMaximums, segmentSize);
+	}
+
+	private void indexRecord(long endTimestamp) {
+		int block = segmentSize / HeartRateAlertRecordCodec.BLOCK_SIZE;
+		if (block == blockMinimums.length) {
+			blockMinimums = Arrays.copyOf(blockMinimums, block * 2);
+			blockMaximums = Arrays.copyOf(blockMaximums, block * 2);
+		}
+		if (segmentSize % HeartRateAlertRecordCodec.BLOCK_SIZE == 0) {
+			blockMinimums[block] = endTimestamp;
+			blockMaximums[block] = endTimestamp;
+		} else {
+			blockMinimums[block] = Math.min(blockMinimums[block], endTimestamp);
+			blockMaximums[block] = Math.max(blockMaximums[block], endTimestamp);
+		}
+		segmentSize++;
+	}
+
+	/**
+	 * cuts off a torn record at the end of the last segment, completes its
+	 * index and returns the sequence of the next alert.
+	 */
+	private long recover() throws IOException {
+		File last = null;
+		long lastFirstSequence = -1;
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				long firstSequence = HeartRateAlertRecordCodec
+						.firstSequence(file);
+				if (firstSequence > lastFirstSequence) {
+					lastFirstSequence = firstSequence;
+					last = file;
+				}
+			}
+		}
+		if (last == null) {
+			return 0;
+		}
+
+		FileChannel channel = FileChannel.open(last.toPath(),
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			int records = (int) Math.max(0,
+					(channel.size() - HeartRateAlertRecordCodec.HEADER_SIZE)
+							/ HeartRateAlertRecordCodec.RECORD_SIZE);
+			ByteBuffer buffer = ByteBuffer.allocate(
+					records * HeartRateAlertRecordCodec.RECORD_SIZE).order(
+					ByteOrder.LITTLE_ENDIAN);
+			channel.position(HeartRateAlertRecordCodec.HEADER_SIZE);
+			while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+			}
+
+			CRC32 checksum = new CRC32();
+			byte[] scratch = new byte[HeartRateAlertRecordCodec.RECORD_SIZE];
+			segmentSize = 0;
+			for (int i = 0; i < records; i++) {
+				int offset = i * HeartRateAlertRecordCodec.RECORD_SIZE;
+				if (!HeartRateAlertRecordCodec.isValid(buffer, offset,
+						checksum, scratch)) {
+					LOGGER.warn("cut off " + (records - i)
+							+ " damaged alert records of " + last);
+					break;
+				}
+				indexRecord(HeartRateAlertRecordCodec.endTimestamp(buffer,
+						offset));
+			}
+			channel.truncate(HeartRateAlertRecordCodec.HEADER_SIZE
+					+ (long) segmentSize
+					* HeartRateAlertRecordCodec.RECORD_SIZE);
+			channel.force(false);
+		} finally {
+			channel.close();
+		}
+		if (segmentSize == 0) {
+			// the next segment starts with the same sequence
+			last.delete();
+			HeartRateAlertRecordCodec.indexFile(last).delete();
+		} else {
+			writeIndex(last, blockMinimums, blockMaximums, segmentSize);
+		}
+		return lastFirstSequence + segmentSize;
+	}
+
+	private static void writeIndex(File segmentFile, long[] blockMinimums,
+			long[] blockMaximums, int records) throws IOException {
+		int blocks = (records + HeartRateAlertRecordCodec.BLOCK_SIZE - 1)
+				/ HeartRateAlertRecordCodec.BLOCK_SIZE;
+		ByteBuffer buffer = ByteBuffer.allocate(8 + blocks * 16).order(
+				ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(HeartRateAlertRecordCodec.INDEX_MAGIC).putInt(records);
+		for (int i = 0; i < blocks; i++) {
+			buffer.putLong(blockMinimums[i]).putLong(blockMaximums[i]);
+		}
+		buffer.flip();
+
+		FileChannel channel = FileChannel.open(
+				HeartRateAlertRecordCodec.indexFile(segmentFile).toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			channel.force(false);
+		} finally {
+			channel.close();
+		}
+	}
+
+	private static ByteBuffer createBatch() {
+		return ByteBuffer.allocate(
+				BATCH_CAPACITY * HeartRateAlertRecordCodec.RECORD_SIZE).order(
+				ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/** appends the callbacks of an event as alerts of a sensor */
+	private class JournalListener implements HeartRateListener {
+
+		private final int sensorId;
+
+		JournalListener(int sensorId) {
+			this.sensorId = sensorId;
+		}
+
+		@Override
+		public void onHighPulse(double pulse) {
+			appendNow(HeartRateAlert.Type.HIGH_PULSE, pulse);
+		}
+
+		@Override
+		public void onLowPulse(double pulse) {
+			appendNow(HeartRateAlert.Type.LOW_PULSE, pulse);
+		}
+
+		@Override
+		public void onNoPulse() {
+			appendNow(HeartRateAlert.Type.NO_PULSE, 0);
+		}
+
+		@Override
+		public void onDisconnected() {
+			appendNow(HeartRateAlert.Type.DISCONNECTED, 0);
+		}
+
+		@Override
+		public void onPulseIncreased(double startHeartRate,
+				double endHeartRate, long startTimestamp, long endTimestamp,
+				double increaseingPercantage) {
+			appendOrLog(HeartRateAlert.Type.PULSE_INCREASED, startHeartRate,
+					endHeartRate, startTimestamp, endTimestamp,
+					increaseingPercantage);
+		}
+
+		@Override
+		public void onPulseDecreased(double startHeartRate,
+				double endHeartRate, long startTimestamp, long endTimestamp,
+				double decreasingPercentage) {
+			appendOrLog(HeartRateAlert.Type.PULSE_DECREASED, startHeartRate,
+					endHeartRate, startTimestamp, endTimestamp,
+					decreasingPercentage);
+		}
+
+		@Override
+		public void onSubscribed() {
+		}
+
+		@Override
+		public void onUnsubscribed() {
+		}
+
+		private void appendNow(HeartRateAlert.Type type, double heartRate) {
+			long now = System.currentTimeMillis();
+			appendOrLog(type, heartRate, heartRate, now, now, 0);
+		}
+
+		private void appendOrLog(HeartRateAlert.Type type,
+				double startHeartRate, double endHeartRate,
+				long startTimestamp, long endTimestamp, double percentage) {
+			try {
+				append(sensorId, type, startHeartRate, endHeartRate,
+						startTimestamp, endTimestamp, percentage);
+			} catch (IllegalStateException ex) {
+				LOGGER.error("could not journal " + type + " of sensor "
+						+ sensorId, ex);
+			}
+		}
+	}
+}
@@ -0,0 +1,256 @@
+package de.htw.icw.pulsesensorlib;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Reads the alerts of a time range from the segments of a
+ * {@link HeartRateAlertJournal}. Segments are memory mapped and only the
+ * blocks of records whose end timestamps overlap the range are scanned (see
+ * {@link HeartRateAlertRecordCodec}), so a query over a short range of a long
+ * journal touches little more than the indexes. The indexes of complete
+ * segments are cached, the records of the segment which is still written and
+ * has no index yet are scanned. The journal may be written while it is read.
+ *
+ * A reader is not thread safe.
+ *
+ * @author s0534410
+ */
+public class HeartRateAlertJournalReader {
+
+	private final File directory;
+
+	/** block index of complete segments by file name */
+	private final Map<String, long[]> indexes = new HashMap<String, long[]>();
+
+	private final CRC32 crc = new CRC32();
+	private final byte[] scratch = new byte[HeartRateAlertRecordCodec.RECORD_SIZE];
+
+	/**
+	 * @param directory
+	 *            the directory of the journal
+	 */
+	public HeartRateAlertJournalReader(File directory) {
+		if (!directory.isDirectory()) {
+			throw new IllegalArgumentException(directory
+					+ " is not a directory");
+		}
+		this.directory = directory;
+	}
+
+	/**
+	 * returns the alerts whose end timestamp is in the given range, in the
+	 * order they were appended.
+	 *
+	 * @param fromTimestamp
+	 *            start of the range (inclusive)
+	 * @param toTimestamp
+	 *            end of the range (inclusive)
+	 * @return the alerts, empty if there are none
+	 * @throws IOException
+	 *             if a segment can't be read
+	 */
+	public List<HeartRateAlertRecord> read(long fromTimestamp, long toTimestamp)
+			throws IOException {
+		return read(fromTimestamp, toTimestamp, false, 0);
+	}
+
+	/**
+	 * returns the alerts of a sensor whose end timestamp is in the given
+	 * range, in the order they were appended.
+	 *
+	 * @param fromTimestamp
+	 *            start of the range (inclusive)
+	 * @param toTimestamp
+	 *            end of the range (inclusive)
+	 * @param sensorId
+	 *            the sensor
+	 * @return the alerts, empty if there are none
+	 * @throws IOException
+	 *             if a segment can't be read
+	 */
+	public List<HeartRateAlertRecord> read(long fromTimestamp,
+			long toTimestamp, int sensorId) throws IOException {
+		return read(fromTimestamp, toTimestamp, true, sensorId);
+	}
+
+	private List<HeartRateAlertRecord> read(long fromTimestamp,
+			long toTimestamp, boolean filterSensor, int sensorId)
+			throws IOException {
+		List<HeartRateAlertRecord> records = new ArrayList<HeartRateAlertRecord>();
+		for (File segmentFile : listSegments()) {
+			readSegment(segmentFile, fromTimestamp, toTimestamp, filterSensor,
+					sensorId, records);
+		}
+		return records;
+	}
+
+	private File[] listSegments() {
+		File[] files = directory.listFiles();
+		List<File> segments = new ArrayList<File>();
+		if (files != null) {
+			for (File file : files) {
+				if (HeartRateAlertRecordCodec.firstSequence(file) >= 0) {
+					segments.add(file);
+				}
+			}
+		}
+		File[] sorted = segments.toArray(new File[segments.size()]);
+		Arrays.sort(sorted, new Comparator<File>() {
+			@Override
+			public int compare(File first, File second) {
+				return Long.compare(
+						HeartRateAlertRecordCodec.firstSequence(first),
+						HeartRateAlertRecordCodec.firstSequence(second));
+			}
+		});
+		return sorted;
+	}
+
+	private void readSegment(File segmentFile, long fromTimestamp,
+			long toTimestamp, boolean filterSensor, int sensorId,
+			List<HeartRateAlertRecord> records) throws IOException {
+		long[] index = getIndex(segmentFile);
+		if (index != null && !overlaps(index, fromTimestamp, toTimestamp)) {
+			return;
+		}
+
+		FileChannel channel = FileChannel.open(segmentFile.toPath(),
+				StandardOpenOption.READ);
+		try {
+			long size = channel.size();
+			if (size < HeartRateAlertRecordCodec.HEADER_SIZE) {
+				return;
+			}
+			MappedByteBuffer segment = channel.map(
+					FileChannel.MapMode.READ_ONLY, 0, size);
+			segment.order(ByteOrder.LITTLE_ENDIAN);
+			if (segment.getInt(0) != HeartRateAlertRecordCodec.SEGMENT_MAGIC) {
+				throw new IOException(segmentFile + " is not a journal segment");
+			}
+
+			int count = (int) ((size - HeartRateAlertRecordCodec.HEADER_SIZE)
+					/ HeartRateAlertRecordCodec.RECORD_SIZE);
+			int indexedBlocks = index != null ? (index.length - 1) / 2 : 0;
+			long firstSequence = HeartRateAlertRecordCodec
+					.firstSequence(segmentFile);
+
+			for (int block = 0; block * HeartRateAlertRecordCodec.BLOCK_SIZE < count; block++) {
+				if (block < indexedBlocks
+						&& (index[1 + 2 * block] > toTimestamp
+								|| index[2 + 2 * block] < fromTimestamp)) {
+					continue;
+				}
+				int start = block * HeartRateAlertRecordCodec.BLOCK_SIZE;
+				int end = Math.min(count, start
+						+ HeartRateAlertRecordCodec.BLOCK_SIZE);
+				if (!scanBlock(segment, start, end, firstSequence,
+						fromTimestamp, toTimestamp, filterSensor, sensorId,
+						records)) {
+					// a torn record at the end of a segment being written
+					return;
+				}
+			}
+		} finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * adds the matching records of a block.
+	 *
+	 * @return false if a damaged record was found
+	 */
+	private boolean scanBlock(ByteBuffer segment, int start, int end,
+			long firstSequence, long fromTimestamp, long toTimestamp,
+			boolean filterSensor, int sensorId,
+			List<HeartRateAlertRecord> records) {
+		for (int i = start; i < end; i++) {
+			int offset = HeartRateAlertRecordCodec.HEADER_SIZE + i
+					* HeartRateAlertRecordCodec.RECORD_SIZE;
+			long endTimestamp = HeartRateAlertRecordCodec.endTimestamp(segment,
+					offset);
+			if (endTimestamp < fromTimestamp
+					|| endTimestamp > toTimestamp
+					|| (filterSensor && HeartRateAlertRecordCodec.sensorId(
+							segment, offset) != sensorId)) {
+				continue;
+			}
+			if (!HeartRateAlertRecordCodec.isValid(segment, offset, crc,
+					scratch)) {
+				return false;
+			}
+			records.add(HeartRateAlertRecordCodec.decode(segment, offset,
+					firstSequence + i));
+		}
+		return true;
+	}
+
+	/**
+	 * returns the cached index of a complete segment: the number of records
+	 * followed by the minimum and maximum end timestamp of every block. null
+	 * if the segment has no index yet.
+	 */
+	private long[] getIndex(File segmentFile) throws IOException {
+		long[] index = indexes.get(segmentFile.getName());
+		if (index != null) {
+			return index;
+		}
+
+		File indexFile = HeartRateAlertRecordCodec.indexFile(segmentFile);
+		if (!indexFile.isFile()) {
+			return null;
+		}
+		FileChannel channel = FileChannel.open(indexFile.toPath(),
+				StandardOpenOption.READ);
+		try {
+			ByteBuffer buffer = ByteBuffer.allocate((int) channel.size())
+					.order(ByteOrder.LITTLE_ENDIAN);
+			while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+			}
+			buffer.flip();
+			if (buffer.remaining() < 8
+					|| buffer.getInt() != HeartRateAlertRecordCodec.INDEX_MAGIC) {
+				return null;
+			}
+			int records = buffer.getInt();
+			int blocks = (records + HeartRateAlertRecordCodec.BLOCK_SIZE - 1)
+					/ HeartRateAlertRecordCodec.BLOCK_SIZE;
+			if (buffer.remaining() != blocks * 16) {
+				// written partially, scan the segment instead
+				return null;
+			}
+			index = new long[1 + 2 * blocks];
+			index[0] = records;
+			for (int i = 0; i < 2 * blocks; i++) {
+				index[1 + i] = buffer.getLong();
+			}
+		} finally {
+			channel.close();
+		}
+		indexes.put(segmentFile.getName(), index);
+		return index;
+	}
+
+	private static boolean overlaps(long[] index, long fromTimestamp,
+			long toTimestamp) {
+		for (int i = 1; i < index.length; i += 2) {
+			if (index[i] <= toTimestamp && index[i + 1] >= fromTimestamp) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
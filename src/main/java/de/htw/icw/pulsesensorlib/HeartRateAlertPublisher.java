@@ -0,0 +1,90 @@
+package de.htw.icw.pulsesensorlib;
+
+/**
+ * Publishes the callbacks of a {@link HeartRateEvent} as {@link HeartRateAlert}
+ * s to Reactive Streams subscribers (see {@link AbstractHeartRatePublisher}).
+ * The publisher subscribes itself to the event when it is created and
+ * unsubscribes on {@link #close()}.
+ *
+ * @author s0534410
+ */
+public class HeartRateAlertPublisher extends
+		AbstractHeartRatePublisher<HeartRateAlert> implements AutoCloseable,
+		HeartRateListener {
+
+	private final HeartRateEvent heartRateEvent;
+
+	/**
+	 * @param heartRateEvent
+	 *            the event whose callbacks are published
+	 * @param bufferSize
+	 *            number of alerts buffered per subscriber
+	 * @param overflowStrategy
+	 *            what to do if the buffer of a subscriber is full
+	 */
+	public HeartRateAlertPublisher(HeartRateEvent heartRateEvent,
+			int bufferSize, HeartRateOverflowStrategy overflowStrategy) {
+		super(bufferSize, overflowStrategy);
+		this.heartRateEvent = heartRateEvent;
+		heartRateEvent.subscribe(this);
+	}
+
+	/**
+	 * unsubscribes from the event and completes all subscribers after they
+	 * have received their buffered alerts.
+	 */
+	@Override
+	public void close() {
+		heartRateEvent.unsubscribe(this);
+		complete();
+	}
+
+	@Override
+	public void onHighPulse(double pulse) {
+		publish(HeartRateAlert.Type.HIGH_PULSE, pulse);
+	}
+
+	@Override
+	public void onLowPulse(double pulse) {
+		publish(HeartRateAlert.Type.LOW_PULSE, pulse);
+	}
+
+	@Override
+	public void onNoPulse() {
+		publish(HeartRateAlert.Type.NO_PULSE, 0);
+	}
+
+	@Override
+	public void onDisconnected() {
+		publish(HeartRateAlert.Type.DISCONNECTED, 0);
+	}
+
+	@Override
+	public void onPulseIncreased(double startHeartRate, double endHeartRate,
+			long startTimestamp, long endTimestamp, double increaseingPercantage) {
+		publish(new HeartRateAlert(HeartRateAlert.Type.PULSE_INCREASED,
+				startHeartRate, endHeartRate, startTimestamp, endTimestamp,
+				increaseingPercantage));
+	}
+
+	@Override
+	public void onPulseDecreased(double startHeartRate, double endHeartRate,
+			long startTimestamp, long endTimestamp, double decreasingPercentage) {
+		publish(new HeartRateAlert(HeartRateAlert.Type.PULSE_DECREASED,
+				startHeartRate, endHeartRate, startTimestamp, endTimestamp,
+				decreasingPercentage));
+	}
+
+	@Override
+	public void onSubscribed() {
+	}
+
+	@Override
+	public void onUnsubscribed() {
+	}
+
+	private void publish(HeartRateAlert.Type type, double heartRate) {
+		long now = System.currentTimeMillis();
+		publish(new HeartRateAlert(type, heartRate, heartRate, now, now, 0));
+	}
+}
@@ -0,0 +1,45 @@
+package de.htw.icw.pulsesensorlib;
+
+/**
+ * An alert of a sensor as read from a {@link HeartRateAlertJournal} (see
+ * {@link HeartRateAlertJournalReader}).
+ *
+ * @author s0534410
+ */
+public class HeartRateAlertRecord {
+
+	private final long sequence;
+	private final int sensorId;
+	private final HeartRateAlert alert;
+
+	public HeartRateAlertRecord(long sequence, int sensorId,
+			HeartRateAlert alert) {
+		this.sequence = sequence;
+		this.sensorId = sensorId;
+		this.alert = alert;
+	}
+
+	/**
+	 * returns the position of the alert in the journal, the first alert ever
+	 * appended has the sequence 0.
+	 *
+	 * @return the sequence number
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	public int getSensorId() {
+		return sensorId;
+	}
+
+	public HeartRateAlert getAlert() {
+		return alert;
+	}
+
+	@Override
+	public String toString() {
+		return "HeartRateAlertRecord [sequence=" + sequence + ", sensorId="
+				+ sensorId + ", alert=" + alert + "]";
+	}
+}
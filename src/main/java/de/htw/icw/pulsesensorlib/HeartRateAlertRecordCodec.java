@@ -0,0 +1,130 @@
+package de.htw.icw.pulsesensorlib;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * Binary format of the segment and index files of a
+ * {@link HeartRateAlertJournal}. A segment file starts with an 8 byte header
+ * followed by little endian records of {@link #RECORD_SIZE} bytes:
+ *
+ * <pre>
+ *  0  end timestamp     long
+ *  8  start timestamp   long
+ * 16  sensor id         int
+ * 20  type              byte (ordinal of {@link HeartRateAlert.Type}), 3 bytes reserved
+ * 24  start heart rate  float
+ * 28  end heart rate    float
+ * 32  percentage        float
+ * 36  CRC32 of bytes 0 to 35
+ * </pre>
+ *
+ * The segment file is named by the sequence of its first record. Its index
+ * file holds the minimum and maximum end timestamp of every block of
+ * {@link #BLOCK_SIZE} records, it is written when the segment is complete.
+ *
+ * @author s0534410
+ */
+final class HeartRateAlertRecordCodec {
+
+	static final int RECORD_SIZE = 40;
+	static final int HEADER_SIZE = 8;
+	static final int BLOCK_SIZE = 256;
+
+	static final int SEGMENT_MAGIC = 0x48524a53;
+	static final int INDEX_MAGIC = 0x48524a49;
+
+	static final String SEGMENT_SUFFIX = ".journal";
+	static final String INDEX_SUFFIX = ".index";
+
+	private static final int CHECKSUM_OFFSET = 36;
+
+	private static final HeartRateAlert.Type[] TYPES = HeartRateAlert.Type
+			.values();
+
+	private HeartRateAlertRecordCodec() {
+	}
+
+	static File segmentFile(File directory, long firstSequence) {
+		return new File(directory, String.format("alerts-%020d",
+				firstSequence) + SEGMENT_SUFFIX);
+	}
+
+	static File indexFile(File segmentFile) {
+		String name = segmentFile.getName();
+		return new File(segmentFile.getParentFile(), name.substring(0,
+				name.length() - SEGMENT_SUFFIX.length())
+				+ INDEX_SUFFIX);
+	}
+
+	/**
+	 * returns the sequence of the first record of a segment file, or -1 if the
+	 * file is not a segment.
+	 */
+	static long firstSequence(File segmentFile) {
+		String name = segmentFile.getName();
+		if (!name.startsWith("alerts-") || !name.endsWith(SEGMENT_SUFFIX)) {
+			return -1;
+		}
+		try {
+			return Long.parseLong(name.substring(7, name.length()
+					- SEGMENT_SUFFIX.length()));
+		} catch (NumberFormatException ex) {
+			return -1;
+		}
+	}
+
+	/**
+	 * encodes a record at the position of a little endian heap buffer and
+	 * moves the position behind it.
+	 */
+	static void encode(ByteBuffer buffer, CRC32 crc, int sensorId,
+			HeartRateAlert.Type type, double startHeartRate,
+			double endHeartRate, long startTimestamp, long endTimestamp,
+			double percentage) {
+		int offset = buffer.position();
+		buffer.putLong(endTimestamp).putLong(startTimestamp).putInt(sensorId)
+				.put((byte) type.ordinal()).put((byte) 0).putShort((short) 0)
+				.putFloat((float) startHeartRate)
+				.putFloat((float) endHeartRate).putFloat((float) percentage);
+		crc.reset();
+		crc.update(buffer.array(), buffer.arrayOffset() + offset,
+				CHECKSUM_OFFSET);
+		buffer.putInt((int) crc.getValue());
+	}
+
+	static long endTimestamp(ByteBuffer buffer, int offset) {
+		return buffer.getLong(offset);
+	}
+
+	static int sensorId(ByteBuffer buffer, int offset) {
+		return buffer.getInt(offset + 16);
+	}
+
+	/**
+	 * returns whether the record at the offset of a little endian buffer is
+	 * complete and undamaged.
+	 */
+	static boolean isValid(ByteBuffer buffer, int offset, CRC32 crc,
+			byte[] scratch) {
+		for (int i = 0; i < CHECKSUM_OFFSET; i++) {
+			scratch[i] = buffer.get(offset + i);
+		}
+		crc.reset();
+		crc.update(scratch, 0, CHECKSUM_OFFSET);
+		int type = buffer.get(offset + 20);
+		return (int) crc.getValue() == buffer.getInt(offset + CHECKSUM_OFFSET)
+				&& type >= 0 && type < TYPES.length;
+	}
+
+	static HeartRateAlertRecord decode(ByteBuffer buffer, int offset,
+			long sequence) {
+		HeartRateAlert alert = new HeartRateAlert(
+				TYPES[buffer.get(offset + 20)], buffer.getFloat(offset + 24),
+				buffer.getFloat(offset + 28), buffer.getLong(offset + 8),
+				buffer.getLong(offset), buffer.getFloat(offset + 32));
+		return new HeartRateAlertRecord(sequence, sensorId(buffer, offset),
+				alert);
+	}
+}
@@ -0,0 +1,31 @@
+package de.htw.icw.pulsesensorlib;
+
+/**
+ * Listener of the {@link EwmaHeartRateEvent}. It is notified once per anomaly,
+ * i.e. when the heart rate has deviated from the learned baseline for the
+ * sustained duration.
+ *
+ * @author s0534410
+ */
+public interface HeartRateAnomalyListener {
+
+	/**
+	 * @param heartRate
+	 *            the heart rate which completed the sustained duration
+	 * @param expectedHeartRate
+	 *            the exponentially weighted mean before this heart rate
+	 * @param standardDeviation
+	 *            the exponentially weighted standard deviation before this
+	 *            heart rate
+	 * @param deviation
+	 *            the deviation of the heart rate in standard deviations,
+	 *            positive above and negative below the baseline
+	 * @param startTimestamp
+	 *            timestamp of the first deviating heart rate
+	 * @param endTimestamp
+	 *            timestamp of this heart rate
+	 */
+	void onAnomaly(double heartRate, double expectedHeartRate,
+			double standardDeviation, double deviation, long startTimestamp,
+			long endTimestamp);
+}
@@ -0,0 +1,25 @@
+package de.htw.icw.pulsesensorlib;
+
+import java.io.File;
+
+/**
+ * Receives the statistics of every session file of a
+ * {@link HeartRateArchiveScan} as soon as the file is scanned, e.g. to collect
+ * the distribution of the nightly minimum heart rates. It is called by the
+ * worker threads of the scan and has to be thread safe.
+ *
+ * @author s0534410
+ */
+public interface HeartRateArchiveListener {
+
+	/**
+	 * @param file
+	 *            the scanned session file
+	 * @param sensorId
+	 *            the sensor of the session
+	 * @param statistics
+	 *            the heart rates of the session in the time range of the scan
+	 */
+	void onSessionScanned(File file, int sensorId,
+			HeartRateCohortStatistics statistics);
+}
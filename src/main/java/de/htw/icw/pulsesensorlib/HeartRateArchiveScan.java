@@ -0,0 +1,230 @@
+package de.htw.icw.pulsesensorlib;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Computes {@link HeartRateCohortStatistics} over archived session files (see
+ * {@link HeartRateSessionFile}) in a time range, e.g. over months of recorded
+ * nights. Like the {@link HeartRateCohortQuery} the work is split with
+ * fork/join, first over the files and then over the index ranges of a single
+ * file, and every task accumulates into its own statistics.
+ *
+ * The time range is pushed down to the files: a file whose header shows no
+ * timestamp in the range is skipped without mapping its columns, the others
+ * are memory mapped and only the index range found by binary search is read.
+ * Nothing is loaded into monitors and no lists are created. Every session
+ * counts as a patient of the statistics, the statistics of the single
+ * sessions can be streamed out with a {@link HeartRateArchiveListener}.
+ *
+ * @author s0534410
+ */
+public class HeartRateArchiveScan {
+
+	private final long fromTimestamp;
+	private final long toTimestamp;
+	private final double highHeartRate;
+	private final long maximumSampleIntervalInMilliseconds;
+
+	/**
+	 * @param fromTimestamp
+	 *            start of the time range (inclusive)
+	 * @param toTimestamp
+	 *            end of the time range (inclusive)
+	 * @param highHeartRate
+	 *            heart rates above this threshold count as high
+	 * @param maximumSampleIntervalInMilliseconds
+	 *            the longest time a heart rate lasts, longer gaps between two
+	 *            heart rates are not counted as time above the threshold. a
+	 *            heart rate never lasts beyond the end of the time range
+	 */
+	public HeartRateArchiveScan(long fromTimestamp, long toTimestamp,
+			double highHeartRate, long maximumSampleIntervalInMilliseconds) {
+		if (maximumSampleIntervalInMilliseconds < 0) {
+			throw new IllegalArgumentException(
+					"maximumSampleIntervalInMilliseconds < 0");
+		}
+		this.fromTimestamp = fromTimestamp;
+		this.toTimestamp = toTimestamp;
+		this.highHeartRate = highHeartRate;
+		this.maximumSampleIntervalInMilliseconds = maximumSampleIntervalInMilliseconds;
+	}
+
+	/**
+	 * scans the given session files in the pool shared with the
+	 * {@link HeartRateCohortQuery}.
+	 *
+	 * @param sessionFiles
+	 *            the session files to scan
+	 * @return the statistics of all sessions
+	 * @throws IOException
+	 *             if a file can't be read or is not a session file
+	 */
+	public HeartRateCohortStatistics execute(List<File> sessionFiles)
+			throws IOException {
+		return execute(HeartRateCohortQuery.getSharedPool(), sessionFiles,
+				null);
+	}
+
+	/**
+	 * scans the given session files in the given pool.
+	 *
+	 * @param pool
+	 *            the pool which runs the tasks
+	 * @param sessionFiles
+	 *            the session files to scan
+	 * @param archiveListener
+	 *            receives the statistics of every scanned session, may be
+	 *            null
+	 * @return the statistics of all sessions
+	 * @throws IOException
+	 *             if a file can't be read or is not a session file
+	 */
+	public HeartRateCohortStatistics execute(ForkJoinPool pool,
+			List<File> sessionFiles, HeartRateArchiveListener archiveListener)
+			throws IOException {
+		File[] files = sessionFiles.toArray(new File[sessionFiles.size()]);
+		try {
+			return pool.invoke(new FilesTask(files, 0, files.length,
+					archiveListener));
+		} catch (ScanException ex) {
+			throw ex.getCause();
+		}
+	}
+
+	/** carries an IOException of a task out of the pool */
+	private static class ScanException extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		ScanException(IOException cause) {
+			super(cause);
+		}
+
+		@Override
+		public synchronized IOException getCause() {
+			return (IOException) super.getCause();
+		}
+	}
+
+	/** splits a range of files in halves, down to a single file */
+	private class FilesTask extends RecursiveTask<HeartRateCohortStatistics> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final File[] files;
+		private final int from;
+		private final int to;
+		private final HeartRateArchiveListener archiveListener;
+
+		FilesTask(File[] files, int from, int to,
+				HeartRateArchiveListener archiveListener) {
+			this.files = files;
+			this.from = from;
+			this.to = to;
+			this.archiveListener = archiveListener;
+		}
+
+		@Override
+		protected HeartRateCohortStatistics compute() {
+			if (to - from == 0) {
+				return new HeartRateCohortStatistics();
+			}
+			if (to - from == 1) {
+				try {
+					return computeFile(files[from]);
+				} catch (IOException ex) {
+					throw new ScanException(ex);
+				}
+			}
+
+			int middle = (from + to) >>> 1;
+			FilesTask left = new FilesTask(files, from, middle,
+					archiveListener);
+			left.fork();
+			HeartRateCohortStatistics statistics = new FilesTask(files,
+					middle, to, archiveListener).compute();
+			statistics.merge(left.join());
+			return statistics;
+		}
+
+		private HeartRateCohortStatistics computeFile(File file)
+				throws IOException {
+			HeartRateSessionFile sessionFile = HeartRateSessionFile.open(file);
+			try {
+				if (!sessionFile.overlaps(fromTimestamp, toTimestamp)) {
+					return new HeartRateCohortStatistics();
+				}
+
+				sessionFile.map();
+				HeartRateCohortStatistics statistics = new IndexRangeTask(
+						sessionFile, sessionFile.lowerBound(fromTimestamp),
+						sessionFile.upperBound(toTimestamp)).compute();
+				statistics.countPatient();
+				if (archiveListener != null) {
+					archiveListener.onSessionScanned(file,
+							sessionFile.getSensorId(), statistics);
+				}
+				return statistics;
+			} finally {
+				sessionFile.close();
+			}
+		}
+	}
+
+	/** splits the index range of a file until it is small enough */
+	private class IndexRangeTask extends
+			RecursiveTask<HeartRateCohortStatistics> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final HeartRateSessionFile sessionFile;
+		private final int fromIndex;
+		private final int toIndex;
+
+		IndexRangeTask(HeartRateSessionFile sessionFile, int fromIndex,
+				int toIndex) {
+			this.sessionFile = sessionFile;
+			this.fromIndex = fromIndex;
+			this.toIndex = toIndex;
+		}
+
+		@Override
+		protected HeartRateCohortStatistics compute() {
+			if (toIndex - fromIndex > HeartRateCohortQuery.SAMPLES_PER_TASK) {
+				int middle = (fromIndex + toIndex) >>> 1;
+				IndexRangeTask left = new IndexRangeTask(sessionFile,
+						fromIndex, middle);
+				left.fork();
+				HeartRateCohortStatistics statistics = new IndexRangeTask(
+						sessionFile, middle, toIndex).compute();
+				statistics.merge(left.join());
+				return statistics;
+			}
+
+			HeartRateCohortStatistics statistics = new HeartRateCohortStatistics();
+			if (fromIndex == toIndex) {
+				return statistics;
+			}
+
+			int size = sessionFile.getNumberOfHeartRates();
+			long timestamp = sessionFile.getTimestamp(fromIndex);
+			for (int i = fromIndex; i < toIndex; i++) {
+				long nextTimestamp = i + 1 < size ? sessionFile
+						.getTimestamp(i + 1) : timestamp;
+				// the last heart rate of the range lasts until its end at most
+				long endTimestamp = nextTimestamp > toTimestamp ? toTimestamp + 1
+						: nextTimestamp;
+				long duration = Math.min(endTimestamp - timestamp,
+						maximumSampleIntervalInMilliseconds);
+				statistics.add(sessionFile.getHeartRate(i), timestamp,
+						duration, highHeartRate);
+				timestamp = nextTimestamp;
+			}
+			return statistics;
+		}
+	}
+}
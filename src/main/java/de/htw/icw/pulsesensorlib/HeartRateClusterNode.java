@@ -0,0 +1,727 @@
+package de.htw.icw.pulsesensorlib;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * A node of a cluster of processes which share the sensors of a site. Every
+ * node runs a {@link HeartRateIngestServer} and owns the sensors which the
+ * {@link HeartRateHashRing} of the members assigns to it. Sensors may send
+ * their heart rates to any node, a node forwards the heart rates of sensors it
+ * doesn't own to their owner, batched in
+ * {@link HeartRateFrameCodec#FORWARDED_HEART_RATE_FRAME}s over one connection
+ * per node. So the monitors and the events of a sensor only live on its owner.
+ *
+ * The members are set explicitly on every node (see
+ * {@link #setMembers(Collection)}), the nodes are identified by the IP address
+ * and the port of their ingest server. When the members change, a node hands
+ * off the monitors of the sensors it doesn't own anymore: it removes them from
+ * its registry and sends their history in
+ * {@link HeartRateFrameCodec#HANDOFF_FRAME}s to the new owner, which stores it
+ * without notifying the events, so their observation windows are warm again.
+ * A node which is not a member hands off all its sensors. Heart rates which
+ * arrive while the nodes have different members may stay on the former owner
+ * of their sensor, so the members should be set on all nodes at about the
+ * same time.
+ *
+ * A node which can't be reached is removed from the ring until the members are
+ * set again, the heart rates which couldn't be sent to it are routed to the
+ * new owners of their sensors. A batch which fails after it was partly written
+ * is routed as a whole, so a heart rate may arrive twice.
+ *
+ * The records are routed on the selector thread of the ingest server, the
+ * batches are written by a sender thread, so a slow node doesn't stop a node
+ * from receiving. If all batches are pending, the selector thread waits for
+ * a free one at most {@link #FREE_BATCH_TIMEOUT_IN_MS}, since the node it
+ * waits for may be waiting for this node as well. Afterwards the records
+ * which don't fit into a batch are dropped until a batch is free again (see
+ * {@link #getDroppedHeartRates()}), so heart rates are not guaranteed to
+ * arrive when the nodes are overloaded.
+ *
+ * @author s0534410
+ */
+public class HeartRateClusterNode implements Closeable {
+
+	private static final Logger LOGGER = LogManager
+			.getLogger(HeartRateClusterNode.class);
+
+	/** timeout for connecting to another node */
+	public static final int CONNECT_TIMEOUT_IN_MS = 1000;
+
+	/** number of records of a batch, a batch fits into a receive buffer */
+	private static final int RECORDS_PER_BATCH = (HeartRateIngestServer.DEFAULT_BUFFER_SIZE - HeartRateFrameCodec.HEADER_SIZE)
+			/ HeartRateFrameCodec.RECORD_SIZE;
+
+	/** number of batches, the selector thread waits if all are pending */
+	private static final int NUMBER_OF_BATCHES = 256;
+
+	/** time the selector thread waits for a free batch */
+	public static final int FREE_BATCH_TIMEOUT_IN_MS = 1000;
+
+	/** tells the sender thread to stop */
+	private static final Batch STOP = new Batch();
+
+	private final HeartRateMonitorRegistry heartRateMonitorRegistry;
+	private final HeartRateIngestServer ingestServer;
+	private final InetSocketAddress address;
+
+	private final BlockingQueue<Batch> freeBatches = new LinkedBlockingQueue<Batch>();
+	private final BlockingQueue<Batch> pendingBatches = new LinkedBlockingQueue<Batch>();
+
+	// only accessed on the selector thread
+	private final Map<InetSocketAddress, Link> links = new HashMap<InetSocketAddress, Link>();
+	private final List<Link> linkList = new ArrayList<Link>();
+	private final Set<InetSocketAddress> unreachableNodes = new HashSet<InetSocketAddress>();
+	private final RerouteHandler rerouteHandler = new RerouteHandler();
+	/** set when waiting for a free batch timed out, until one is free */
+	private boolean starved;
+
+	private volatile List<InetSocketAddress> members = Collections
+			.emptyList();
+	private volatile HeartRateHashRing ring = new HeartRateHashRing(
+			Collections.<InetSocketAddress> emptyList());
+
+	private Thread senderThread;
+	private volatile boolean closed;
+
+	private volatile long forwardedHeartRates;
+	private volatile long handedOffHeartRates;
+	private volatile long receivedHandOffHeartRates;
+	private volatile long droppedHandOffHeartRates;
+	private volatile long droppedHeartRates;
+
+	/**
+	 * creates a node whose ingest server listens on the given address. UDP may
+	 * be bound on the ingest server (see {@link #getIngestServer()}) before
+	 * the node is started.
+	 *
+	 * @param heartRateMonitorRegistry
+	 *            holds the monitors of the sensors owned by this node
+	 * @param address
+	 *            the local address, given by its IP address, port 0 chooses a
+	 *            free port
+	 * @throws IOException
+	 *             if the address can't be bound
+	 */
+	public HeartRateClusterNode(
+			HeartRateMonitorRegistry heartRateMonitorRegistry,
+			InetSocketAddress address) throws IOException {
+		this.heartRateMonitorRegistry = heartRateMonitorRegistry;
+		this.ingestServer = new HeartRateIngestServer(heartRateMonitorRegistry);
+		try {
+			ingestServer.bindTcp(address);
+			this.address = ingestServer.getTcpAddress();
+		} catch (IOException ex) {
+			ingestServer.close();
+			throw ex;
+		}
+		ingestServer.setRouter(new Router());
+
+		for (int i = 0; i < NUMBER_OF_BATCHES; i++) {
+			freeBatches.add(new Batch());
+		}
+	}
+
+	/**
+	 * starts the ingest server and the sender thread.
+	 */
+	public synchronized void start() {
+		if (closed || senderThread != null) {
+			throw new IllegalStateException("node already started or closed");
+		}
+		senderThread = new Thread(new Sender(), "heart-rate-cluster-sender");
+		senderThread.start();
+		ingestServer.start();
+	}
+
+	/**
+	 * returns the address of this node, which the other nodes use as its
+	 * member address.
+	 *
+	 * @return the bound address of the ingest server
+	 */
+	public InetSocketAddress getAddress() {
+		return address;
+	}
+
+	public HeartRateIngestServer getIngestServer() {
+		return ingestServer;
+	}
+
+	/**
+	 * sets the members of the cluster and hands off the sensors this node
+	 * doesn't own anymore. unreachable nodes are tried again. blocks until
+	 * the sensors have been handed off, which happens on the selector thread.
+	 *
+	 * @param members
+	 *            the addresses of all nodes, including this one if it should
+	 *            own sensors
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for the hand off
+	 */
+	public void setMembers(Collection<InetSocketAddress> members)
+			throws InterruptedException {
+		final List<InetSocketAddress> newMembers = Collections
+				.unmodifiableList(new ArrayList<InetSocketAddress>(members));
+		Runnable task = new Runnable() {
+			@Override
+			public void run() {
+				applyMembers(newMembers);
+			}
+		};
+
+		synchronized (this) {
+			if (closed) {
+				throw new IllegalStateException("node already closed");
+			}
+			if (senderThread == null) {
+				// nothing is received yet, the batches wait for the sender
+				task.run();
+				return;
+			}
+		}
+
+		if (ingestServer.isSelectorThread()) {
+			task.run();
+			return;
+		}
+		FutureTask<Void> future = new FutureTask<Void>(task, null);
+		ingestServer.execute(future);
+		try {
+			future.get();
+		} catch (ExecutionException ex) {
+			throw new IllegalStateException("setting the members failed",
+					ex.getCause());
+		}
+	}
+
+	/**
+	 * returns the members which were set last.
+	 *
+	 * @return the addresses of the members
+	 */
+	public List<InetSocketAddress> getMembers() {
+		return members;
+	}
+
+	/**
+	 * returns the ring of the reachable members.
+	 *
+	 * @return the current ring
+	 */
+	public HeartRateHashRing getRing() {
+		return ring;
+	}
+
+	/**
+	 * returns whether this node owns the given sensor. a node owns all sensors
+	 * while there are no reachable members.
+	 *
+	 * @param sensorId
+	 *            the id of the sensor
+	 * @return true if the heart rates of the sensor are added on this node
+	 */
+	public boolean isOwner(int sensorId) {
+		InetSocketAddress owner = ring.getOwner(sensorId);
+		return owner == null || owner.equals(address);
+	}
+
+	/**
+	 * returns the number of heart rates forwarded to other nodes.
+	 *
+	 * @return number of forwarded heart rates
+	 */
+	public long getForwardedHeartRates() {
+		return forwardedHeartRates;
+	}
+
+	/**
+	 * returns the number of heart rates of handed off sensors sent to other
+	 * nodes.
+	 *
+	 * @return number of handed off heart rates
+	 */
+	public long getHandedOffHeartRates() {
+		return handedOffHeartRates;
+	}
+
+	/**
+	 * returns the number of heart rates of handed off sensors received from
+	 * other nodes and stored.
+	 *
+	 * @return number of received heart rates
+	 */
+	public long getReceivedHandOffHeartRates() {
+		return receivedHandOffHeartRates;
+	}
+
+	/**
+	 * returns the number of heart rates of handed off sensors which were
+	 * dropped, because their sensor already had later heart rates.
+	 *
+	 * @return number of dropped heart rates
+	 */
+	public long getDroppedHandOffHeartRates() {
+		return droppedHandOffHeartRates;
+	}
+
+	/**
+	 * returns the number of forwarded or handed off heart rates which were
+	 * dropped, because no batch got free in time.
+	 *
+	 * @return number of dropped heart rates
+	 */
+	public long getDroppedHeartRates() {
+		return droppedHeartRates;
+	}
+
+	/**
+	 * stops the ingest server and the sender thread. batches which are still
+	 * pending are sent before the connections are closed.
+	 */
+	@Override
+	public void close() throws IOException {
+		Thread thread;
+		synchronized (this) {
+			closed = true;
+			thread = senderThread;
+		}
+
+		ingestServer.close();
+		if (thread == null) {
+			return;
+		}
+
+		pendingBatches.add(STOP);
+		try {
+			thread.join();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void applyMembers(List<InetSocketAddress> newMembers) {
+		members = newMembers;
+		unreachableNodes.clear();
+		for (int i = 0; i < linkList.size(); i++) {
+			linkList.get(i).unreachable = false;
+		}
+		updateRing();
+		handOffForeignSensors();
+	}
+
+	private void updateRing() {
+		List<InetSocketAddress> reachableMembers = new ArrayList<InetSocketAddress>();
+		for (InetSocketAddress member : members) {
+			if (!unreachableNodes.contains(member)) {
+				reachableMembers.add(member);
+			}
+		}
+		ring = new HeartRateHashRing(reachableMembers);
+	}
+
+	/**
+	 * removes the monitors of the sensors owned by other nodes and sends their
+	 * history to the owners.
+	 */
+	private void handOffForeignSensors() {
+		HeartRateHashRing currentRing = ring;
+		for (int sensorId : heartRateMonitorRegistry.getSensorIds()) {
+			InetSocketAddress owner = currentRing.getOwner(sensorId);
+			if (owner == null || owner.equals(address)) {
+				continue;
+			}
+
+			HeartRateMonitor heartRateMonitor = heartRateMonitorRegistry
+					.removeHeartRateMonitor(sensorId);
+			if (heartRateMonitor != null) {
+				handOff(sensorId, heartRateMonitor, owner);
+			}
+		}
+		flush();
+	}
+
+	/**
+	 * sends the history of a removed monitor to the new owner. the records are
+	 * copied into the batches, so the storage of the monitor is closed
+	 * afterwards, which frees its off-heap memory and deletes its segment
+	 * file.
+	 */
+	private void handOff(int sensorId, HeartRateMonitor heartRateMonitor,
+			InetSocketAddress owner) {
+		int count = 0;
+		if (heartRateMonitor instanceof DefaultHeartRateMonitor) {
+			HeartRateStorage storage = ((DefaultHeartRateMonitor) heartRateMonitor)
+					.getStorage();
+			int size = storage.size();
+			for (int i = 0; i < size; i++) {
+				if (send(owner, HeartRateFrameCodec.HANDOFF_FRAME, sensorId,
+						storage.getTimestamp(i), storage.getHeartRate(i))) {
+					count++;
+				}
+			}
+			storage.close();
+		} else {
+			List<Long> timestamps = heartRateMonitor.getAllMeasuredTimestamps();
+			List<Double> heartRates = heartRateMonitor
+					.getAllMeasuredHeartRates();
+			for (int i = 0; i < timestamps.size(); i++) {
+				if (send(owner, HeartRateFrameCodec.HANDOFF_FRAME, sensorId,
+						timestamps.get(i), heartRates.get(i))) {
+					count++;
+				}
+			}
+		}
+		handedOffHeartRates += count;
+	}
+
+	/**
+	 * adds a heart rate of a handed off sensor to its monitor without
+	 * notifying the events. heart rates before the last one of the monitor are
+	 * dropped, since the history only grows.
+	 */
+	private void storeHandOff(int sensorId, long timestamp, double heartRate) {
+		HeartRateMonitor heartRateMonitor = heartRateMonitorRegistry
+				.getHeartRateMonitor(sensorId);
+		if (heartRateMonitor instanceof DefaultHeartRateMonitor) {
+			HeartRateStorage storage = ((DefaultHeartRateMonitor) heartRateMonitor)
+					.getStorage();
+			int size = storage.size();
+			if (size > 0 && timestamp < storage.getTimestamp(size - 1)) {
+				droppedHandOffHeartRates++;
+				return;
+			}
+			storage.add(heartRate, timestamp);
+		} else {
+			try {
+				heartRateMonitor.addHeartRate(heartRate, timestamp);
+			} catch (NoNegativeHeartRatesPossibleException ex) {
+				droppedHandOffHeartRates++;
+				return;
+			}
+		}
+		receivedHandOffHeartRates++;
+	}
+
+	/**
+	 * routes a measured heart rate to the owner of its sensor.
+	 *
+	 * @return true if it was forwarded, false if it belongs to this node
+	 */
+	private boolean forward(int sensorId, long timestamp, double heartRate) {
+		InetSocketAddress owner = ring.getOwner(sensorId);
+		if (owner == null || owner.equals(address)) {
+			return false;
+		}
+		if (send(owner, HeartRateFrameCodec.FORWARDED_HEART_RATE_FRAME,
+				sensorId, timestamp, heartRate)) {
+			forwardedHeartRates++;
+		}
+		return true;
+	}
+
+	/**
+	 * appends a record to the batch of the link to the given node.
+	 *
+	 * @return false if the record was dropped, because no batch got free
+	 */
+	private boolean send(InetSocketAddress node, byte frameType, int sensorId,
+			long timestamp, double heartRate) {
+		Link link = links.get(node);
+		if (link == null) {
+			link = new Link(node);
+			links.put(node, link);
+			linkList.add(link);
+		}
+
+		Batch batch = link.batch;
+		if (batch != null
+				&& (batch.frameType != frameType || batch.records == RECORDS_PER_BATCH)) {
+			submit(link);
+			batch = null;
+		}
+		if (batch == null) {
+			batch = takeFreeBatch();
+			if (batch == null) {
+				droppedHeartRates++;
+				return false;
+			}
+			batch.link = link;
+			batch.frameType = frameType;
+			batch.records = 0;
+			batch.buffer.clear();
+			batch.buffer.position(HeartRateFrameCodec.HEADER_SIZE);
+			link.batch = batch;
+		}
+
+		HeartRateFrameCodec.encodeRecord(batch.buffer, sensorId, timestamp,
+				heartRate);
+		batch.records++;
+		return true;
+	}
+
+	/**
+	 * returns a free batch, or null if none got free in time. after a timeout
+	 * it doesn't wait again until a batch is free, so the selector thread
+	 * keeps receiving.
+	 */
+	private Batch takeFreeBatch() {
+		Batch batch = freeBatches.poll();
+		if (batch != null) {
+			starved = false;
+			return batch;
+		}
+		if (senderThread == null) {
+			// members set before the start, nobody would free a batch
+			return new Batch();
+		}
+		if (starved) {
+			return null;
+		}
+		try {
+			batch = freeBatches.poll(FREE_BATCH_TIMEOUT_IN_MS,
+					TimeUnit.MILLISECONDS);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			return new Batch();
+		}
+		if (batch == null) {
+			starved = true;
+			LOGGER.warn("no batch got free within " + FREE_BATCH_TIMEOUT_IN_MS
+					+ " ms on " + address + ", dropping heart rates");
+		}
+		return batch;
+	}
+
+	/**
+	 * hands the batches of all links to the sender thread.
+	 */
+	private void flush() {
+		for (int i = 0; i < linkList.size(); i++) {
+			if (linkList.get(i).batch != null) {
+				submit(linkList.get(i));
+			}
+		}
+	}
+
+	private void submit(Link link) {
+		Batch batch = link.batch;
+		link.batch = null;
+
+		ByteBuffer buffer = batch.buffer;
+		buffer.flip();
+		HeartRateFrameCodec.encodeHeader(buffer, batch.frameType,
+				batch.records);
+		buffer.rewind();
+		pendingBatches.add(batch);
+	}
+
+	/**
+	 * removes an unreachable node from the ring and routes the frame which
+	 * couldn't be sent to it again. runs on the selector thread.
+	 */
+	private void reroute(InetSocketAddress node, ByteBuffer frame) {
+		if (!unreachableNodes.contains(node) && members.contains(node)) {
+			unreachableNodes.add(node);
+			updateRing();
+			LOGGER.warn(node + " removed from the ring of " + address);
+		}
+
+		try {
+			HeartRateFrameCodec.decodeFrames(frame, frame.capacity(),
+					rerouteHandler);
+		} catch (ProtocolException ex) {
+			throw new IllegalStateException(ex);
+		}
+		flush();
+	}
+
+	/** connection to another node, the channel is owned by the sender */
+	private static class Link {
+		private final InetSocketAddress node;
+
+		/** batch which is filled on the selector thread */
+		private Batch batch;
+
+		private SocketChannel channel;
+
+		/** set by the sender once the node couldn't be reached */
+		private volatile boolean unreachable;
+
+		Link(InetSocketAddress node) {
+			this.node = node;
+		}
+	}
+
+	/** records of a single frame to another node */
+	private static class Batch {
+		private final ByteBuffer buffer = ByteBuffer
+				.allocateDirect(HeartRateFrameCodec
+						.frameSize(RECORDS_PER_BATCH));
+		private Link link;
+		private byte frameType;
+		private int records;
+	}
+
+	/** takes over the records of sensors owned by other nodes */
+	private class Router implements HeartRateRouter {
+
+		@Override
+		public boolean route(byte frameType, int sensorId, long timestamp,
+				double heartRate) {
+			switch (frameType) {
+			case HeartRateFrameCodec.HEART_RATE_FRAME:
+				return forward(sensorId, timestamp, heartRate);
+			case HeartRateFrameCodec.HANDOFF_FRAME:
+				storeHandOff(sensorId, timestamp, heartRate);
+				return true;
+			default:
+				// forwarded heart rates are never forwarded again
+				return false;
+			}
+		}
+
+		@Override
+		public void flush() {
+			HeartRateClusterNode.this.flush();
+		}
+	}
+
+	/** routes the records of a batch which couldn't be sent */
+	private class RerouteHandler implements HeartRateFrameCodec.Handler {
+
+		@Override
+		public void onHeartRate(byte frameType, int sensorId, long timestamp,
+				double heartRate) {
+			InetSocketAddress owner = ring.getOwner(sensorId);
+			if (owner != null && !owner.equals(address)) {
+				send(owner, frameType, sensorId, timestamp, heartRate);
+			} else if (frameType == HeartRateFrameCodec.HANDOFF_FRAME) {
+				storeHandOff(sensorId, timestamp, heartRate);
+			} else {
+				try {
+					heartRateMonitorRegistry.getHeartRateMonitor(sensorId)
+							.addHeartRate(heartRate, timestamp);
+				} catch (NoNegativeHeartRatesPossibleException ex) {
+					// rejected by the ingest server before it was forwarded
+				}
+			}
+		}
+	}
+
+	/** writes the pending batches to the other nodes */
+	private class Sender implements Runnable {
+
+		@Override
+		public void run() {
+			List<Link> connectedLinks = new ArrayList<Link>();
+			while (true) {
+				Batch batch;
+				try {
+					batch = pendingBatches.take();
+				} catch (InterruptedException ex) {
+					break;
+				}
+				if (batch == STOP) {
+					break;
+				}
+
+				Link link = batch.link;
+				try {
+					if (link.unreachable) {
+						throw new IOException(link.node + " is unreachable");
+					}
+					if (link.channel == null) {
+						link.channel = connect(link.node);
+						connectedLinks.add(link);
+					}
+					while (batch.buffer.hasRemaining()) {
+						link.channel.write(batch.buffer);
+					}
+					freeBatches.add(batch);
+				} catch (IOException ex) {
+					if (!link.unreachable) {
+						LOGGER.warn("sending to " + link.node + " failed", ex);
+					}
+					link.unreachable = true;
+					closeChannel(link);
+					connectedLinks.remove(link);
+					rerouteLater(batch);
+				}
+			}
+
+			for (Link link : connectedLinks) {
+				closeChannel(link);
+			}
+		}
+
+		private SocketChannel connect(InetSocketAddress node)
+				throws IOException {
+			SocketChannel socketChannel = SocketChannel.open();
+			try {
+				socketChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+				socketChannel.socket().connect(node, CONNECT_TIMEOUT_IN_MS);
+			} catch (IOException ex) {
+				socketChannel.close();
+				throw ex;
+			}
+			return socketChannel;
+		}
+
+		private void closeChannel(Link link) {
+			if (link.channel == null) {
+				return;
+			}
+			try {
+				link.channel.close();
+			} catch (IOException ex) {
+				LOGGER.debug("closing connection to " + link.node + " failed",
+						ex);
+			}
+			link.channel = null;
+		}
+
+		/**
+		 * copies the frame of a batch which couldn't be sent and frees the
+		 * batch right away, since the selector thread may be waiting for a
+		 * free batch before it gets to the reroute.
+		 */
+		private void rerouteLater(Batch batch) {
+			batch.buffer.rewind();
+			final ByteBuffer frame = ByteBuffer.allocate(batch.buffer
+					.remaining());
+			frame.put(batch.buffer);
+			frame.flip();
+			final InetSocketAddress node = batch.link.node;
+			freeBatches.add(batch);
+
+			ingestServer.execute(new Runnable() {
+				@Override
+				public void run() {
+					reroute(node, frame);
+				}
+			});
+		}
+	}
+}
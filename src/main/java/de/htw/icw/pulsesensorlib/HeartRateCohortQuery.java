@@ -0,0 +1,252 @@
+package de.htw.icw.pulsesensorlib;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Computes {@link HeartRateCohortStatistics} over the heart rates of many
+ * monitors in a time range, e.g. for a ward report. The work is split with
+ * fork/join: first over the monitors and then over the index ranges of a
+ * single monitor, until a task has at most
+ * {@link #SAMPLES_PER_TASK} heart rates. Every task accumulates into its own
+ * primitive statistics, which are merged when the tasks are joined, so the
+ * tasks share no state and the query scales with the number of cores.
+ *
+ * The monitors are read by index (see
+ * {@link IndexedHeartRateMonitor#getHeartRate(int)}), other monitors through a
+ * copy of their heart rates. Their timestamps have to be ascending. Heart rates added while the query runs may or may not be
+ * included.
+ *
+ * @author s0534410
+ */
+public class HeartRateCohortQuery {
+
+	/** maximum number of heart rates accumulated by a single task */
+	public static final int SAMPLES_PER_TASK = 1 << 16;
+
+	private static ForkJoinPool sharedPool;
+
+	private final long fromTimestamp;
+	private final long toTimestamp;
+	private final double highHeartRate;
+	private final long maximumSampleIntervalInMilliseconds;
+
+	/**
+	 * @param fromTimestamp
+	 *            start of the time range (inclusive)
+	 * @param toTimestamp
+	 *            end of the time range (inclusive)
+	 * @param highHeartRate
+	 *            heart rates above this threshold count as high
+	 * @param maximumSampleIntervalInMilliseconds
+	 *            the longest time a heart rate lasts, longer gaps between two
+	 *            heart rates are not counted as time above the threshold. a
+	 *            heart rate never lasts beyond the end of the time range
+	 */
+	public HeartRateCohortQuery(long fromTimestamp, long toTimestamp,
+			double highHeartRate, long maximumSampleIntervalInMilliseconds) {
+		if (maximumSampleIntervalInMilliseconds < 0) {
+			throw new IllegalArgumentException(
+					"maximumSampleIntervalInMilliseconds < 0");
+		}
+		this.fromTimestamp = fromTimestamp;
+		this.toTimestamp = toTimestamp;
+		this.highHeartRate = highHeartRate;
+		this.maximumSampleIntervalInMilliseconds = maximumSampleIntervalInMilliseconds;
+	}
+
+	/**
+	 * runs the query over all monitors of the registry in a pool shared by all
+	 * queries.
+	 *
+	 * @param heartRateMonitorRegistry
+	 *            the monitors of the cohort
+	 * @return the statistics of the cohort
+	 */
+	public HeartRateCohortStatistics execute(
+			HeartRateMonitorRegistry heartRateMonitorRegistry) {
+		List<HeartRateMonitor> heartRateMonitors = new ArrayList<HeartRateMonitor>();
+		for (int sensorId : heartRateMonitorRegistry.getSensorIds()) {
+			HeartRateMonitor heartRateMonitor = heartRateMonitorRegistry
+					.findHeartRateMonitor(sensorId);
+			if (heartRateMonitor != null) {
+				heartRateMonitors.add(heartRateMonitor);
+			}
+		}
+		return execute(heartRateMonitors);
+	}
+
+	/**
+	 * runs the query over the given monitors in a pool shared by all queries.
+	 *
+	 * @param heartRateMonitors
+	 *            the monitors of the cohort
+	 * @return the statistics of the cohort
+	 */
+	public HeartRateCohortStatistics execute(
+			List<? extends HeartRateMonitor> heartRateMonitors) {
+		return execute(getSharedPool(), heartRateMonitors);
+	}
+
+	/**
+	 * runs the query over the given monitors in the given pool.
+	 *
+	 * @param pool
+	 *            the pool which runs the tasks
+	 * @param heartRateMonitors
+	 *            the monitors of the cohort
+	 * @return the statistics of the cohort
+	 */
+	public HeartRateCohortStatistics execute(ForkJoinPool pool,
+			List<? extends HeartRateMonitor> heartRateMonitors) {
+		HeartRateMonitor[] monitors = heartRateMonitors
+				.toArray(new HeartRateMonitor[heartRateMonitors.size()]);
+		return pool.invoke(new MonitorsTask(monitors, 0, monitors.length));
+	}
+
+	static synchronized ForkJoinPool getSharedPool() {
+		if (sharedPool == null) {
+			// the worker threads are daemons, the pool never has to be shut
+			// down
+			sharedPool = new ForkJoinPool();
+		}
+		return sharedPool;
+	}
+
+	/** returns the index of the first timestamp &gt;= the given one */
+	private static int lowerBound(IndexedHeartRateMonitor heartRateMonitor,
+			int size, long timestamp) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (heartRateMonitor.getTimestamp(middle) < timestamp) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/** returns the index of the first timestamp &gt; the given one */
+	private static int upperBound(IndexedHeartRateMonitor heartRateMonitor,
+			int size, long timestamp) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (heartRateMonitor.getTimestamp(middle) <= timestamp) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/** splits a range of monitors in halves, down to a single monitor */
+	private class MonitorsTask extends RecursiveTask<HeartRateCohortStatistics> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final HeartRateMonitor[] heartRateMonitors;
+		private final int from;
+		private final int to;
+
+		MonitorsTask(HeartRateMonitor[] heartRateMonitors, int from, int to) {
+			this.heartRateMonitors = heartRateMonitors;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected HeartRateCohortStatistics compute() {
+			if (to - from == 0) {
+				return new HeartRateCohortStatistics();
+			}
+			if (to - from == 1) {
+				return computeMonitor(heartRateMonitors[from]);
+			}
+
+			int middle = (from + to) >>> 1;
+			MonitorsTask left = new MonitorsTask(heartRateMonitors, from,
+					middle);
+			left.fork();
+			HeartRateCohortStatistics statistics = new MonitorsTask(
+					heartRateMonitors, middle, to).compute();
+			statistics.merge(left.join());
+			return statistics;
+		}
+
+		private HeartRateCohortStatistics computeMonitor(
+				HeartRateMonitor monitor) {
+			IndexedHeartRateMonitor heartRateMonitor = ListBackedHeartRateMonitor
+					.of(monitor);
+			int size = heartRateMonitor.getNumberOfHeartRates();
+			int fromIndex = lowerBound(heartRateMonitor, size, fromTimestamp);
+			int toIndex = upperBound(heartRateMonitor, size, toTimestamp);
+
+			HeartRateCohortStatistics statistics = new IndexRangeTask(
+					heartRateMonitor, size, fromIndex, toIndex).compute();
+			statistics.countPatient();
+			return statistics;
+		}
+	}
+
+	/** splits the index range of a monitor until it is small enough */
+	private class IndexRangeTask extends
+			RecursiveTask<HeartRateCohortStatistics> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final IndexedHeartRateMonitor heartRateMonitor;
+		private final int size;
+		private final int fromIndex;
+		private final int toIndex;
+
+		IndexRangeTask(IndexedHeartRateMonitor heartRateMonitor, int size,
+				int fromIndex, int toIndex) {
+			this.heartRateMonitor = heartRateMonitor;
+			this.size = size;
+			this.fromIndex = fromIndex;
+			this.toIndex = toIndex;
+		}
+
+		@Override
+		protected HeartRateCohortStatistics compute() {
+			if (toIndex - fromIndex > SAMPLES_PER_TASK) {
+				int middle = (fromIndex + toIndex) >>> 1;
+				IndexRangeTask left = new IndexRangeTask(heartRateMonitor,
+						size, fromIndex, middle);
+				left.fork();
+				HeartRateCohortStatistics statistics = new IndexRangeTask(
+						heartRateMonitor, size, middle, toIndex).compute();
+				statistics.merge(left.join());
+				return statistics;
+			}
+
+			HeartRateCohortStatistics statistics = new HeartRateCohortStatistics();
+			if (fromIndex == toIndex) {
+				return statistics;
+			}
+
+			long timestamp = heartRateMonitor.getTimestamp(fromIndex);
+			for (int i = fromIndex; i < toIndex; i++) {
+				long nextTimestamp = i + 1 < size ? heartRateMonitor
+						.getTimestamp(i + 1) : timestamp;
+				// the last heart rate of the range lasts until its end at most
+				long endTimestamp = nextTimestamp > toTimestamp ? toTimestamp + 1
+						: nextTimestamp;
+				long duration = Math.min(endTimestamp - timestamp,
+						maximumSampleIntervalInMilliseconds);
+				statistics.add(heartRateMonitor.getHeartRate(i), timestamp,
+						duration, highHeartRate);
+				timestamp = nextTimestamp;
+			}
+			return statistics;
+		}
+	}
+}
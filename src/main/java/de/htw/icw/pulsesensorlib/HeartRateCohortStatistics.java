@@ -0,0 +1,198 @@
+package de.htw.icw.pulsesensorlib;
+
+/**
+ * Aggregated heart rates of a cohort of monitors (see
+ * {@link HeartRateCohortQuery}). Every task of the query accumulates into its
+ * own instance and the instances are merged when the tasks are joined, so the
+ * accumulation only touches primitive fields of the task.
+ *
+ * The hourly distribution uses the hour of the day in UTC.
+ *
+ * @author s0534410
+ */
+public class HeartRateCohortStatistics {
+
+	static final int HOURS_PER_DAY = 24;
+	private static final long MILLISECONDS_PER_HOUR = 60 * 60 * 1000;
+
+	private long count;
+	private double sum;
+	private double sumOfSquares;
+	private double minimum = Double.POSITIVE_INFINITY;
+	private double maximum = Double.NEGATIVE_INFINITY;
+
+	private long countAboveThreshold;
+	private long millisecondsAboveThreshold;
+
+	private int numberOfPatients;
+	private int numberOfPatientsAboveThreshold;
+
+	private final long[] hourlyCounts = new long[HOURS_PER_DAY];
+	private final double[] hourlySums = new double[HOURS_PER_DAY];
+
+	HeartRateCohortStatistics() {
+	}
+
+	/**
+	 * returns the number of heart rates of all patients.
+	 *
+	 * @return number of heart rates
+	 */
+	public long getCount() {
+		return count;
+	}
+
+	public double getSum() {
+		return sum;
+	}
+
+	public double getMean() {
+		return count == 0 ? Double.NaN : sum / count;
+	}
+
+	/**
+	 * returns the standard deviation of all heart rates of all patients.
+	 *
+	 * @return the population standard deviation or NaN if there are no heart
+	 *         rates
+	 */
+	public double getStandardDeviation() {
+		if (count == 0) {
+			return Double.NaN;
+		}
+		double mean = sum / count;
+		return Math.sqrt(Math.max(0, sumOfSquares / count - mean * mean));
+	}
+
+	public double getMinimum() {
+		return count == 0 ? Double.NaN : minimum;
+	}
+
+	public double getMaximum() {
+		return count == 0 ? Double.NaN : maximum;
+	}
+
+	/**
+	 * returns the number of heart rates above the threshold.
+	 *
+	 * @return number of high heart rates
+	 */
+	public long getCountAboveThreshold() {
+		return countAboveThreshold;
+	}
+
+	/**
+	 * returns the time all patients together spent above the threshold. a
+	 * heart rate lasts until the next one of the same patient, at most the
+	 * maximum sample interval of the query.
+	 *
+	 * @return milliseconds above the threshold
+	 */
+	public long getMillisecondsAboveThreshold() {
+		return millisecondsAboveThreshold;
+	}
+
+	/**
+	 * returns the number of patients with at least one heart rate in the time
+	 * range.
+	 *
+	 * @return number of patients
+	 */
+	public int getNumberOfPatients() {
+		return numberOfPatients;
+	}
+
+	/**
+	 * returns the number of patients with at least one heart rate above the
+	 * threshold.
+	 *
+	 * @return number of patients above the threshold
+	 */
+	public int getNumberOfPatientsAboveThreshold() {
+		return numberOfPatientsAboveThreshold;
+	}
+
+	/**
+	 * returns the number of heart rates measured in the given hour of the day.
+	 *
+	 * @param hour
+	 *            hour of the day in UTC, 0 to 23
+	 * @return number of heart rates
+	 */
+	public long getHourlyCount(int hour) {
+		return hourlyCounts[hour];
+	}
+
+	/**
+	 * returns the mean heart rate of the given hour of the day.
+	 *
+	 * @param hour
+	 *            hour of the day in UTC, 0 to 23
+	 * @return the mean heart rate or NaN if there are no heart rates
+	 */
+	public double getHourlyMean(int hour) {
+		return hourlyCounts[hour] == 0 ? Double.NaN : hourlySums[hour]
+				/ hourlyCounts[hour];
+	}
+
+	/**
+	 * accumulates a heart rate.
+	 *
+	 * @param duration
+	 *            milliseconds until the next heart rate of the patient
+	 */
+	void add(double heartRate, long timestamp, long duration,
+			double threshold) {
+		count++;
+		sum += heartRate;
+		sumOfSquares += heartRate * heartRate;
+		if (heartRate < minimum) {
+			minimum = heartRate;
+		}
+		if (heartRate > maximum) {
+			maximum = heartRate;
+		}
+		if (heartRate > threshold) {
+			countAboveThreshold++;
+			millisecondsAboveThreshold += duration;
+		}
+
+		int hour = (int) ((timestamp / MILLISECONDS_PER_HOUR) % HOURS_PER_DAY);
+		if (hour < 0) {
+			hour += HOURS_PER_DAY;
+		}
+		hourlyCounts[hour]++;
+		hourlySums[hour] += heartRate;
+	}
+
+	/**
+	 * counts the accumulated heart rates as the ones of a single patient.
+	 */
+	void countPatient() {
+		if (count > 0) {
+			numberOfPatients++;
+		}
+		if (countAboveThreshold > 0) {
+			numberOfPatientsAboveThreshold++;
+		}
+	}
+
+	/**
+	 * adds the accumulated values of other statistics to these.
+	 */
+	void merge(HeartRateCohortStatistics other) {
+		count += other.count;
+		sum += other.sum;
+		sumOfSquares += other.sumOfSquares;
+		minimum = Math.min(minimum, other.minimum);
+		maximum = Math.max(maximum, other.maximum);
+		countAboveThreshold += other.countAboveThreshold;
+		millisecondsAboveThreshold += other.millisecondsAboveThreshold;
+		numberOfPatients += other.numberOfPatients;
+		numberOfPatientsAboveThreshold += other.numberOfPatientsAboveThreshold;
+		for (int hour = 0; hour < HOURS_PER_DAY; hour++) {
+			hourlyCounts[hour] += other.hourlyCounts[hour];
+			hourlySums[hour] += other.hourlySums[hour];
+		}
+	}
+}
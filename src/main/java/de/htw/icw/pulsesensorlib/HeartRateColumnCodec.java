@@ -0,0 +1,95 @@
+package de.htw.icw.pulsesensorlib;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes and reads the history of a {@link HeartRateStorage} as two little
+ * endian columns, first all timestamps and then all heart rates. Both columns
+ * are copied in bulk, nothing is encoded per heart rate. Used by
+ * {@link HeartRateSnapshot} and for the segment files of the
+ * {@link HeartRateMemoryGovernor}.
+ *
+ * @author s0534410
+ */
+final class HeartRateColumnCodec {
+
+	/** bytes of a timestamp and a heart rate */
+	static final int RECORD_SIZE = 16;
+
+	private HeartRateColumnCodec() {
+	}
+
+	/**
+	 * writes the first count heart rates of a storage through the given little
+	 * endian buffer to the channel. the buffer is flushed whenever it is full,
+	 * the remaining bytes are left in the buffer.
+	 */
+	static void writeColumns(FileChannel channel, ByteBuffer buffer,
+			HeartRateStorage storage, int count) throws IOException {
+		for (int written = 0; written < count;) {
+			int chunk = chunkSize(channel, buffer, count - written);
+			storage.copyTimestampsTo(buffer.asLongBuffer(), written, chunk);
+			buffer.position(buffer.position() + chunk * 8);
+			written += chunk;
+		}
+		for (int written = 0; written < count;) {
+			int chunk = chunkSize(channel, buffer, count - written);
+			storage.copyHeartRatesTo(buffer.asDoubleBuffer(), written, chunk);
+			buffer.position(buffer.position() + chunk * 8);
+			written += chunk;
+		}
+	}
+
+	/**
+	 * appends count heart rates to a storage, read from the columns starting
+	 * at the position of the buffer. the position is moved behind the columns.
+	 */
+	static void readColumns(ByteBuffer buffer, HeartRateStorage storage,
+			int count) {
+		ByteBuffer columns = buffer.duplicate();
+		int start = buffer.position();
+
+		columns.limit(start + count * 8);
+		LongBuffer timestamps = columns.slice()
+				.order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+		columns.limit(start + count * 16);
+		columns.position(start + count * 8);
+		DoubleBuffer heartRates = columns.slice()
+				.order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+
+		storage.addAll(heartRates, timestamps, count);
+		buffer.position(start + count * 16);
+	}
+
+	/** flushes the buffer if it has less than the given bytes remaining */
+	static void ensureRemaining(FileChannel channel, ByteBuffer buffer,
+			int bytes) throws IOException {
+		if (buffer.remaining() < bytes) {
+			flush(channel, buffer);
+		}
+	}
+
+	/** writes the content of the buffer to the channel and clears it */
+	static void flush(FileChannel channel, ByteBuffer buffer)
+			throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/** returns how many values of 8 bytes can be written at once */
+	private static int chunkSize(FileChannel channel, ByteBuffer buffer,
+			int remainingValues) throws IOException {
+		if (buffer.remaining() < 8) {
+			flush(channel, buffer);
+		}
+		return Math.min(remainingValues, buffer.remaining() / 8);
+	}
+}
@@ -0,0 +1,320 @@
+package de.htw.icw.pulsesensorlib;
+
+/**
+ * Reduces the heart rates of a time range to at most a given number of
+ * points which look the same when plotted, e.g. 24 hours of a patient for a
+ * dashboard chart which is only a few hundred pixels wide.
+ *
+ * <ul>
+ * <li>{@link Method#LARGEST_TRIANGLE_THREE_BUCKETS} splits the heart rates
+ * into buckets of equal count and keeps the point of every bucket which spans
+ * the largest triangle with the point kept before and the mean of the next
+ * bucket. The first and last heart rate are always kept.</li>
+ * <li>{@link Method#MIN_MAX} splits the time range into maximumPoints / 2
+ * pixels of equal duration and keeps the minimum and maximum of every pixel,
+ * so that no peak is lost. If the monitor already has an aggregate index (see
+ * {@link DefaultHeartRateMonitor#getHeartRateStatistics(long, boolean, long, boolean)
+ * getHeartRateStatistics}) and the chart is drawn on the thread which runs the
+ * events of the monitor, the extremes of a pixel are taken from the index in
+ * O(log n) instead of reading its heart rates. Other threads scan the heart
+ * rates, since the index may only be updated by that thread.</li>
+ * </ul>
+ *
+ * The monitor is read by index in a single pass (see
+ * {@link IndexedHeartRateMonitor}) and the points are written into arrays of
+ * the caller, so nothing is allocated and the arrays can be reused for every
+ * chart. Other monitors are read through a copy of their heart rates. The
+ * timestamps have to be ascending. A downsampler has no state and can be
+ * shared by threads, which may read a monitor while heart rates are added to
+ * it.
+ *
+ * @author s0534410
+ */
+public class HeartRateDownsampler {
+
+	/**
+	 * The way the representative points are selected.
+	 */
+	public enum Method {
+		LARGEST_TRIANGLE_THREE_BUCKETS, MIN_MAX
+	}
+
+	private final Method method;
+	private final int maximumPoints;
+
+	/**
+	 * @param method
+	 *            the way the points are selected
+	 * @param maximumPoints
+	 *            the maximum number of points, at least 3 for
+	 *            {@link Method#LARGEST_TRIANGLE_THREE_BUCKETS} and 2 for
+	 *            {@link Method#MIN_MAX}
+	 */
+	public HeartRateDownsampler(Method method, int maximumPoints) {
+		if (maximumPoints < (method == Method.MIN_MAX ? 2 : 3)) {
+			throw new IllegalArgumentException("too few points for " + method
+					+ ": " + maximumPoints);
+		}
+		this.method = method;
+		this.maximumPoints = maximumPoints;
+	}
+
+	public Method getMethod() {
+		return method;
+	}
+
+	public int getMaximumPoints() {
+		return maximumPoints;
+	}
+
+	/**
+	 * writes the representative points of a time range into the given
+	 * arrays. if the range has at most maximumPoints heart rates, all of them
+	 * are written.
+	 *
+	 * @param heartRateMonitor
+	 *            the monitor to read
+	 * @param from_timestamp
+	 *            start of the range (inclusive)
+	 * @param to_timestamp
+	 *            end of the range (inclusive)
+	 * @param heartRates
+	 *            receives the heart rates of the points, at least maximumPoints
+	 *            long
+	 * @param timestamps
+	 *            receives the timestamps of the points, at least maximumPoints
+	 *            long
+	 * @return the number of written points
+	 */
+	public int downsample(HeartRateMonitor heartRateMonitor,
+			long from_timestamp, long to_timestamp, double[] heartRates,
+			long[] timestamps) {
+		if (heartRates.length < maximumPoints
+				|| timestamps.length < maximumPoints) {
+			throw new IllegalArgumentException(
+					"the arrays have to hold maximumPoints points");
+		}
+
+		IndexedHeartRateMonitor indexedMonitor = ListBackedHeartRateMonitor
+				.of(heartRateMonitor);
+		int size = indexedMonitor.getNumberOfHeartRates();
+		int fromIndex = lowerBound(indexedMonitor, size, from_timestamp);
+		int toIndex = upperBound(indexedMonitor, size, to_timestamp);
+		if (toIndex - fromIndex <= maximumPoints) {
+			return copy(indexedMonitor, fromIndex, toIndex, heartRates,
+					timestamps);
+		}
+
+		if (method == Method.LARGEST_TRIANGLE_THREE_BUCKETS) {
+			return largestTriangleThreeBuckets(indexedMonitor, fromIndex,
+					toIndex, heartRates, timestamps);
+		}
+
+		HeartRateRangeIndex rangeIndex = heartRateMonitor instanceof DefaultHeartRateMonitor ? ((DefaultHeartRateMonitor) heartRateMonitor)
+				.findRangeIndex() : null;
+		if (rangeIndex != null) {
+			return minMaxOfRangeIndex(indexedMonitor, rangeIndex, size,
+					fromIndex, toIndex, from_timestamp, to_timestamp,
+					heartRates, timestamps);
+		}
+		return minMax(indexedMonitor, fromIndex, toIndex, from_timestamp,
+				to_timestamp, heartRates, timestamps);
+	}
+
+	private static int copy(IndexedHeartRateMonitor heartRateMonitor,
+			int fromIndex, int toIndex, double[] heartRates, long[] timestamps) {
+		int points = 0;
+		for (int i = fromIndex; i < toIndex; i++) {
+			heartRates[points] = heartRateMonitor.getHeartRate(i);
+			timestamps[points] = heartRateMonitor.getTimestamp(i);
+			points++;
+		}
+		return points;
+	}
+
+	private int largestTriangleThreeBuckets(
+			IndexedHeartRateMonitor heartRateMonitor, int fromIndex,
+			int toIndex, double[] heartRates, long[] timestamps) {
+		int count = toIndex - fromIndex;
+		// the first and last heart rate are buckets of their own
+		double bucketSize = (double) (count - 2) / (maximumPoints - 2);
+		// x is relative to the first timestamp, so that the doubles are exact
+		long origin = heartRateMonitor.getTimestamp(fromIndex);
+
+		int selected = fromIndex;
+		double selectedX = 0;
+		double selectedY = heartRateMonitor.getHeartRate(fromIndex);
+		heartRates[0] = selectedY;
+		timestamps[0] = origin;
+		int points = 1;
+
+		int bucketStart = fromIndex + 1;
+		for (int bucket = 0; bucket < maximumPoints - 2; bucket++) {
+			int bucketEnd = fromIndex + 1
+					+ (int) ((bucket + 1) * bucketSize);
+			int nextBucketEnd = Math.min(fromIndex + 1
+					+ (int) ((bucket + 2) * bucketSize), toIndex);
+			if (bucket == maximumPoints - 3) {
+				// the next bucket is the last heart rate
+				bucketEnd = toIndex - 1;
+				nextBucketEnd = toIndex;
+			}
+
+			double nextX = 0;
+			double nextY = 0;
+			for (int i = bucketEnd; i < nextBucketEnd; i++) {
+				nextX += heartRateMonitor.getTimestamp(i) - origin;
+				nextY += heartRateMonitor.getHeartRate(i);
+			}
+			nextX /= nextBucketEnd - bucketEnd;
+			nextY /= nextBucketEnd - bucketEnd;
+
+			double largestArea = -1;
+			int largest = bucketStart;
+			double largestX = 0;
+			double largestY = 0;
+			for (int i = bucketStart; i < bucketEnd; i++) {
+				double x = heartRateMonitor.getTimestamp(i) - origin;
+				double y = heartRateMonitor.getHeartRate(i);
+				// twice the area, which doesn't change the order
+				double area = Math.abs((selectedX - nextX) * (y - selectedY)
+						- (selectedX - x) * (nextY - selectedY));
+				if (area > largestArea) {
+					largestArea = area;
+					largest = i;
+					largestX = x;
+					largestY = y;
+				}
+			}
+
+			selected = largest;
+			selectedX = largestX;
+			selectedY = largestY;
+			heartRates[points] = selectedY;
+			timestamps[points] = heartRateMonitor.getTimestamp(selected);
+			points++;
+			bucketStart = bucketEnd;
+		}
+
+		heartRates[points] = heartRateMonitor.getHeartRate(toIndex - 1);
+		timestamps[points] = heartRateMonitor.getTimestamp(toIndex - 1);
+		return points + 1;
+	}
+
+	private int minMax(IndexedHeartRateMonitor heartRateMonitor,
+			int fromIndex, int toIndex, long from_timestamp, long to_timestamp,
+			double[] heartRates, long[] timestamps) {
+		int pixels = maximumPoints / 2;
+		double pixelDuration = (double) (to_timestamp - from_timestamp + 1)
+				/ pixels;
+
+		int points = 0;
+		int pixel = -1;
+		int minimum = -1;
+		int maximum = -1;
+		double minimumHeartRate = 0;
+		double maximumHeartRate = 0;
+		for (int i = fromIndex; i < toIndex; i++) {
+			double heartRate = heartRateMonitor.getHeartRate(i);
+			int pixelOfHeartRate = Math.min(pixels - 1,
+					(int) ((heartRateMonitor.getTimestamp(i) - from_timestamp) / pixelDuration));
+			if (pixelOfHeartRate != pixel) {
+				if (pixel >= 0) {
+					points = writeMinMax(heartRateMonitor, minimum, maximum,
+							heartRates, timestamps, points);
+				}
+				pixel = pixelOfHeartRate;
+				minimum = i;
+				maximum = i;
+				minimumHeartRate = heartRate;
+				maximumHeartRate = heartRate;
+			} else if (heartRate < minimumHeartRate) {
+				minimum = i;
+				minimumHeartRate = heartRate;
+			} else if (heartRate > maximumHeartRate) {
+				maximum = i;
+				maximumHeartRate = heartRate;
+			}
+		}
+		return writeMinMax(heartRateMonitor, minimum, maximum, heartRates,
+				timestamps, points);
+	}
+
+	private int minMaxOfRangeIndex(IndexedHeartRateMonitor heartRateMonitor,
+			HeartRateRangeIndex rangeIndex, int size, int fromIndex,
+			int toIndex, long from_timestamp, long to_timestamp,
+			double[] heartRates, long[] timestamps) {
+		int pixels = maximumPoints / 2;
+		double pixelDuration = (double) (to_timestamp - from_timestamp + 1)
+				/ pixels;
+
+		int points = 0;
+		int pixelStart = fromIndex;
+		for (int pixel = 0; pixel < pixels && pixelStart < toIndex; pixel++) {
+			int pixelEnd = toIndex;
+			if (pixel < pixels - 1) {
+				long pixelEndTimestamp = from_timestamp
+						+ (long) Math.ceil((pixel + 1) * pixelDuration);
+				pixelEnd = Math.min(toIndex,
+						lowerBound(heartRateMonitor, size, pixelEndTimestamp));
+			}
+			if (pixelEnd > pixelStart) {
+				points = writeMinMax(heartRateMonitor,
+						rangeIndex.indexOfMinimum(pixelStart, pixelEnd),
+						rangeIndex.indexOfMaximum(pixelStart, pixelEnd),
+						heartRates, timestamps, points);
+			}
+			pixelStart = pixelEnd;
+		}
+		return points;
+	}
+
+	/** writes the extremes of a pixel in the order of their timestamps */
+	private static int writeMinMax(IndexedHeartRateMonitor heartRateMonitor,
+			int minimum, int maximum, double[] heartRates, long[] timestamps,
+			int points) {
+		int first = Math.min(minimum, maximum);
+		int second = Math.max(minimum, maximum);
+		heartRates[points] = heartRateMonitor.getHeartRate(first);
+		timestamps[points] = heartRateMonitor.getTimestamp(first);
+		points++;
+		if (second != first) {
+			heartRates[points] = heartRateMonitor.getHeartRate(second);
+			timestamps[points] = heartRateMonitor.getTimestamp(second);
+			points++;
+		}
+		return points;
+	}
+
+	/** returns the index of the first timestamp &gt;= the given one */
+	private static int lowerBound(IndexedHeartRateMonitor heartRateMonitor,
+			int size, long timestamp) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (heartRateMonitor.getTimestamp(middle) < timestamp) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/** returns the index of the first timestamp &gt; the given one */
+	private static int upperBound(IndexedHeartRateMonitor heartRateMonitor,
+			int size, long timestamp) {
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (heartRateMonitor.getTimestamp(middle) <= timestamp) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+}
@@ -0,0 +1,80 @@
+package de.htw.icw.pulsesensorlib;
+
+/**
+ * A run of consecutive heart rates beyond a threshold, found by a
+ * {@link HeartRateEpisodeIndex}. The episode lasts from its first to its last
+ * heart rate beyond the threshold.
+ *
+ * @author s0534410
+ */
+public class HeartRateEpisode {
+
+	private final long startTimestamp;
+	private final long endTimestamp;
+	private final double peakHeartRate;
+	private final long peakTimestamp;
+	private final boolean ongoing;
+
+	public HeartRateEpisode(long startTimestamp, long endTimestamp,
+			double peakHeartRate, long peakTimestamp, boolean ongoing) {
+		this.startTimestamp = startTimestamp;
+		this.endTimestamp = endTimestamp;
+		this.peakHeartRate = peakHeartRate;
+		this.peakTimestamp = peakTimestamp;
+		this.ongoing = ongoing;
+	}
+
+	public long getStartTimestamp() {
+		return startTimestamp;
+	}
+
+	/**
+	 * returns the timestamp of the last heart rate beyond the threshold.
+	 *
+	 * @return end of the episode
+	 */
+	public long getEndTimestamp() {
+		return endTimestamp;
+	}
+
+	public long getDurationInMilliseconds() {
+		return endTimestamp - startTimestamp;
+	}
+
+	/**
+	 * returns the most extreme heart rate of the episode, the highest above
+	 * and the lowest below the threshold.
+	 *
+	 * @return peak heart rate
+	 */
+	public double getPeakHeartRate() {
+		return peakHeartRate;
+	}
+
+	/**
+	 * returns the timestamp of the first occurrence of the peak.
+	 *
+	 * @return timestamp of the peak
+	 */
+	public long getPeakTimestamp() {
+		return peakTimestamp;
+	}
+
+	/**
+	 * returns whether the last heart rate of the monitor is still beyond the
+	 * threshold, so that the episode may grow.
+	 *
+	 * @return true if the episode has not ended yet
+	 */
+	public boolean isOngoing() {
+		return ongoing;
+	}
+
+	@Override
+	public String toString() {
+		return "HeartRateEpisode [startTimestamp=" + startTimestamp
+				+ ", endTimestamp=" + endTimestamp + ", peakHeartRate="
+				+ peakHeartRate + ", peakTimestamp=" + peakTimestamp
+				+ ", ongoing=" + ongoing + "]";
+	}
+}
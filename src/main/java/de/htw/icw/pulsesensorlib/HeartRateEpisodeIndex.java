@@ -0,0 +1,199 @@
+package de.htw.icw.pulsesensorlib;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Index of the runs of heart rates above or below a threshold of a
+ * {@link DefaultHeartRateMonitor} (see
+ * {@link DefaultHeartRateMonitor#addEpisodeIndex(double, boolean)
+ * addEpisodeIndex}), e.g. to find all episodes with a heart rate above 120
+ * for more than 30 seconds in the last 24 hours.
+ *
+ * The monitor updates the index whenever heart rates are added, which costs
+ * O(1) per heart rate. Only the start, end and peak of every run are kept in
+ * primitive arrays, so the index is much smaller than the history. A query
+ * finds the first run in the time range by binary search and then only visits
+ * the runs of the range, its time is proportional to the number of episodes
+ * and not of heart rates. The timestamps have to be added in ascending order.
+ *
+ * @author s0534410
+ */
+public class HeartRateEpisodeIndex {
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private final DefaultHeartRateMonitor heartRateMonitor;
+	private final double threshold;
+	private final boolean above;
+
+	// the closed runs, ordered by time
+	private long[] startTimestamps = new long[INITIAL_CAPACITY];
+	private long[] endTimestamps = new long[INITIAL_CAPACITY];
+	private double[] peakHeartRates = new double[INITIAL_CAPACITY];
+	private long[] peakTimestamps = new long[INITIAL_CAPACITY];
+	private int numberOfRuns;
+
+	// the run of the last heart rates, if they are beyond the threshold
+	private boolean open;
+	private long openStartTimestamp;
+	private long openEndTimestamp;
+	private double openPeakHeartRate;
+	private long openPeakTimestamp;
+
+	/** number of indexed heart rates */
+	private int indexed;
+
+	HeartRateEpisodeIndex(DefaultHeartRateMonitor heartRateMonitor,
+			double threshold, boolean above) {
+		this.heartRateMonitor = heartRateMonitor;
+		this.threshold = threshold;
+		this.above = above;
+	}
+
+	public double getThreshold() {
+		return threshold;
+	}
+
+	/**
+	 * returns whether the index contains the runs above or below the
+	 * threshold.
+	 *
+	 * @return true for heart rates above the threshold
+	 */
+	public boolean isAbove() {
+		return above;
+	}
+
+	/**
+	 * returns the number of indexed runs including the ongoing one.
+	 *
+	 * @return number of runs
+	 */
+	public int getNumberOfEpisodes() {
+		return open ? numberOfRuns + 1 : numberOfRuns;
+	}
+
+	/**
+	 * finds the episodes which last at least the given duration and overlap
+	 * the given time range.
+	 *
+	 * @param minimumDurationInMilliseconds
+	 *            shortest duration of an episode, from its first to its last
+	 *            heart rate beyond the threshold
+	 * @param from_timestamp
+	 *            start of the range (inclusive)
+	 * @param to_timestamp
+	 *            end of the range (inclusive)
+	 * @return the episodes in chronological order
+	 */
+	public List<HeartRateEpisode> findEpisodes(
+			long minimumDurationInMilliseconds, long from_timestamp,
+			long to_timestamp) {
+		List<HeartRateEpisode> episodes = new ArrayList<HeartRateEpisode>();
+
+		for (int i = firstRunEndingAtOrAfter(from_timestamp); i < numberOfRuns
+				&& startTimestamps[i] <= to_timestamp; i++) {
+			if (endTimestamps[i] - startTimestamps[i] >= minimumDurationInMilliseconds) {
+				episodes.add(new HeartRateEpisode(startTimestamps[i],
+						endTimestamps[i], peakHeartRates[i], peakTimestamps[i],
+						false));
+			}
+		}
+
+		if (open && openEndTimestamp >= from_timestamp
+				&& openStartTimestamp <= to_timestamp
+				&& openEndTimestamp - openStartTimestamp >= minimumDurationInMilliseconds) {
+			episodes.add(new HeartRateEpisode(openStartTimestamp,
+					openEndTimestamp, openPeakHeartRate, openPeakTimestamp,
+					true));
+		}
+		return episodes;
+	}
+
+	/**
+	 * finds the episodes of the last given milliseconds, measured from the
+	 * last heart rate, which last at least the given duration.
+	 *
+	 * @param minimumDurationInMilliseconds
+	 *            shortest duration of an episode
+	 * @param interval_in_ms
+	 *            timespan in milliseconds
+	 * @return the episodes in chronological order
+	 */
+	public List<HeartRateEpisode> findEpisodesOfLastSeconds(
+			long minimumDurationInMilliseconds, long interval_in_ms) {
+		if (heartRateMonitor.getNumberOfHeartRates() == 0) {
+			return new ArrayList<HeartRateEpisode>();
+		}
+		long lastTimestamp = heartRateMonitor.getLastTimestamp();
+		return findEpisodes(minimumDurationInMilliseconds, lastTimestamp
+				- interval_in_ms, lastTimestamp);
+	}
+
+	/**
+	 * indexes all heart rates added to the monitor since the last update.
+	 */
+	void update() {
+		int size = heartRateMonitor.getNumberOfHeartRates();
+		for (int i = indexed; i < size; i++) {
+			add(heartRateMonitor.getHeartRate(i),
+					heartRateMonitor.getTimestamp(i));
+		}
+		indexed = size;
+	}
+
+	private void add(double heartRate, long timestamp) {
+		boolean beyond = above ? heartRate > threshold : heartRate < threshold;
+		if (!beyond) {
+			if (open) {
+				closeRun();
+			}
+			return;
+		}
+
+		if (!open) {
+			open = true;
+			openStartTimestamp = timestamp;
+			openPeakHeartRate = heartRate;
+			openPeakTimestamp = timestamp;
+		} else if (above ? heartRate > openPeakHeartRate
+				: heartRate < openPeakHeartRate) {
+			openPeakHeartRate = heartRate;
+			openPeakTimestamp = timestamp;
+		}
+		openEndTimestamp = timestamp;
+	}
+
+	private void closeRun() {
+		if (numberOfRuns == startTimestamps.length) {
+			int capacity = numberOfRuns * 2;
+			startTimestamps = Arrays.copyOf(startTimestamps, capacity);
+			endTimestamps = Arrays.copyOf(endTimestamps, capacity);
+			peakHeartRates = Arrays.copyOf(peakHeartRates, capacity);
+			peakTimestamps = Arrays.copyOf(peakTimestamps, capacity);
+		}
+		startTimestamps[numberOfRuns] = openStartTimestamp;
+		endTimestamps[numberOfRuns] = openEndTimestamp;
+		peakHeartRates[numberOfRuns] = openPeakHeartRate;
+		peakTimestamps[numberOfRuns] = openPeakTimestamp;
+		numberOfRuns++;
+		open = false;
+	}
+
+	/** returns the index of the first closed run ending at or after timestamp */
+	private int firstRunEndingAtOrAfter(long timestamp) {
+		int low = 0;
+		int high = numberOfRuns;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (endTimestamps[middle] < timestamp) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+}
@@ -0,0 +1,161 @@
+package de.htw.icw.pulsesensorlib;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+
+/**
+ * Binary frame protocol used by the {@link HeartRateIngestServer}. A frame
+ * batches heart rates of any number of sensors and has the following layout
+ * (big endian):
+ *
+ * <pre>
+ * frame  := type (1 byte) count (2 bytes, unsigned) record*count
+ * record := sensorId (4 bytes) timestamp (8 bytes) heartRate (4 bytes, float)
+ * </pre>
+ *
+ * Over TCP frames are sent back to back, over UDP every datagram contains one
+ * or more complete frames. The nodes of a {@link HeartRateClusterNode} use the
+ * same records for the heart rates they forward to each other and for the
+ * history of the sensors they hand off, only the frame type differs.
+ *
+ * @author s0534410
+ */
+public final class HeartRateFrameCodec {
+
+	/** frame type of a frame which contains measured heart rates */
+	public static final byte HEART_RATE_FRAME = 0;
+
+	/**
+	 * frame type of heart rates forwarded by a node of a cluster to the node
+	 * which owns their sensors, they are never forwarded again
+	 */
+	public static final byte FORWARDED_HEART_RATE_FRAME = 1;
+
+	/**
+	 * frame type of the history of sensors a node of a cluster hands off to
+	 * their new owner, it is stored without notifying the events
+	 */
+	public static final byte HANDOFF_FRAME = 2;
+
+	/** size of the frame header in bytes */
+	public static final int HEADER_SIZE = 3;
+
+	/** size of a single record in bytes */
+	public static final int RECORD_SIZE = 16;
+
+	/** maximum number of records in a single frame */
+	public static final int MAX_RECORDS_PER_FRAME = 0xFFFF;
+
+	/**
+	 * Receives the records of decoded frames.
+	 */
+	public interface Handler {
+
+		void onHeartRate(byte frameType, int sensorId, long timestamp,
+				double heartRate);
+
+	}
+
+	private HeartRateFrameCodec() {
+	}
+
+	/**
+	 * returns the size of a frame with the given number of records.
+	 *
+	 * @param numberOfRecords
+	 *            number of records in the frame
+	 * @return size of the frame in bytes
+	 */
+	public static int frameSize(int numberOfRecords) {
+		return HEADER_SIZE + numberOfRecords * RECORD_SIZE;
+	}
+
+	/**
+	 * writes a frame header. the given number of records has to be written
+	 * afterwards with {@link #encodeRecord(ByteBuffer, int, long, double)
+	 * encodeRecord}.
+	 *
+	 * @param buffer
+	 *            the buffer the header is written to
+	 * @param frameType
+	 *            the type of the frame
+	 * @param numberOfRecords
+	 *            number of records that will follow
+	 */
+	public static void encodeHeader(ByteBuffer buffer, byte frameType,
+			int numberOfRecords) {
+		if (numberOfRecords < 0 || numberOfRecords > MAX_RECORDS_PER_FRAME) {
+			throw new IllegalArgumentException("invalid number of records: "
+					+ numberOfRecords);
+		}
+		buffer.put(frameType);
+		buffer.putShort((short) numberOfRecords);
+	}
+
+	/**
+	 * writes a single record of a frame.
+	 *
+	 * @param buffer
+	 *            the buffer the record is written to
+	 * @param sensorId
+	 *            id of the sensor which measured the heart rate
+	 * @param timestamp
+	 *            the time the heart rate was measured
+	 * @param heartRate
+	 *            the measured heart rate
+	 */
+	public static void encodeRecord(ByteBuffer buffer, int sensorId,
+			long timestamp, double heartRate) {
+		buffer.putInt(sensorId);
+		buffer.putLong(timestamp);
+		buffer.putFloat((float) heartRate);
+	}
+
+	/**
+	 * decodes all complete frames between the position and the limit of the
+	 * buffer and passes their records to the handler. the position is left at
+	 * the beginning of the first incomplete frame.
+	 *
+	 * @param buffer
+	 *            buffer containing the frames
+	 * @param maxFrameSize
+	 *            frames which are bigger than this are rejected
+	 * @param handler
+	 *            receives the decoded records
+	 * @return the number of decoded frames
+	 * @throws ProtocolException
+	 *             if a frame is bigger than maxFrameSize
+	 */
+	public static int decodeFrames(ByteBuffer buffer, int maxFrameSize,
+			Handler handler) throws ProtocolException {
+		int frames = 0;
+
+		while (buffer.remaining() >= HEADER_SIZE) {
+			int start = buffer.position();
+			byte frameType = buffer.get(start);
+			int numberOfRecords = buffer.getShort(start + 1) & 0xFFFF;
+			int frameSize = frameSize(numberOfRecords);
+
+			if (frameSize > maxFrameSize) {
+				throw new ProtocolException("frame of " + frameSize
+						+ " bytes exceeds maximum of " + maxFrameSize);
+			}
+			if (buffer.remaining() < frameSize) {
+				break;
+			}
+
+			int offset = start + HEADER_SIZE;
+			for (int i = 0; i < numberOfRecords; i++) {
+				handler.onHeartRate(frameType, buffer.getInt(offset),
+						buffer.getLong(offset + 4),
+						buffer.getFloat(offset + 12));
+				offset += RECORD_SIZE;
+			}
+
+			buffer.position(start + frameSize);
+			frames++;
+		}
+
+		return frames;
+	}
+}
@@ -0,0 +1,181 @@
+package de.htw.icw.pulsesensorlib;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Assigns the sensors to the nodes of a cluster (see
+ * {@link HeartRateClusterNode}) by consistent hashing. The sensor ids are
+ * hashed to {@link #NUMBER_OF_SHARDS} shards and every shard is owned by the
+ * node whose next token follows the hash of the shard on a ring. Every node
+ * has many tokens (virtual nodes), so the shards are spread evenly and a node
+ * which joins or leaves only moves the shards it takes over or gives away,
+ * about 1 / n of all.
+ *
+ * The assignment only depends on the addresses of the nodes, so every node
+ * computes the same ring from the same members. The owners of the shards are
+ * computed once, finding the owner of a sensor neither searches nor allocates.
+ * A ring is immutable.
+ *
+ * @author s0534410
+ */
+public final class HeartRateHashRing {
+
+	/** number of shards the sensors are hashed to */
+	public static final int NUMBER_OF_SHARDS = 1024;
+
+	/** default number of tokens of a node */
+	public static final int DEFAULT_VIRTUAL_NODES = 64;
+
+	private final InetSocketAddress[] nodes;
+
+	/** index of the owning node of every shard */
+	private final int[] owners = new int[NUMBER_OF_SHARDS];
+
+	/**
+	 * creates a ring with {@link #DEFAULT_VIRTUAL_NODES} tokens per node.
+	 *
+	 * @param nodes
+	 *            the addresses of the nodes, duplicates are ignored
+	 */
+	public HeartRateHashRing(Collection<InetSocketAddress> nodes) {
+		this(nodes, DEFAULT_VIRTUAL_NODES);
+	}
+
+	/**
+	 * @param nodes
+	 *            the addresses of the nodes, duplicates are ignored
+	 * @param virtualNodes
+	 *            number of tokens of every node
+	 */
+	public HeartRateHashRing(Collection<InetSocketAddress> nodes,
+			int virtualNodes) {
+		if (virtualNodes < 1) {
+			throw new IllegalArgumentException("virtualNodes has to be > 0");
+		}
+
+		// sorted, so that the index of a node is the same on every node
+		SortedMap<String, InetSocketAddress> sortedNodes = new TreeMap<String, InetSocketAddress>();
+		for (InetSocketAddress node : nodes) {
+			if (!sortedNodes.containsKey(key(node))) {
+				sortedNodes.put(key(node), node);
+			}
+		}
+		List<String> keys = new ArrayList<String>(sortedNodes.keySet());
+		this.nodes = sortedNodes.values().toArray(
+				new InetSocketAddress[sortedNodes.size()]);
+
+		if (this.nodes.length == 0) {
+			Arrays.fill(owners, -1);
+			return;
+		}
+
+		// a token in the upper and the index of its node in the lower half,
+		// so that sorting keeps them together
+		long[] tokens = new long[this.nodes.length * virtualNodes];
+		for (int n = 0; n < this.nodes.length; n++) {
+			for (int v = 0; v < virtualNodes; v++) {
+				int token = mix((keys.get(n) + "#" + v).hashCode());
+				tokens[n * virtualNodes + v] = ((long) token << 32) | n;
+			}
+		}
+		Arrays.sort(tokens);
+
+		for (int shard = 0; shard < NUMBER_OF_SHARDS; shard++) {
+			long position = (long) mix(shard * 0x9E3779B9) << 32;
+			int next = Arrays.binarySearch(tokens, position);
+			if (next < 0) {
+				next = -next - 1;
+			}
+			if (next == tokens.length) {
+				next = 0;
+			}
+			owners[shard] = (int) tokens[next];
+		}
+	}
+
+	/**
+	 * returns the shard of a sensor.
+	 *
+	 * @param sensorId
+	 *            the id of the sensor
+	 * @return the shard, 0 to {@link #NUMBER_OF_SHARDS} - 1
+	 */
+	public static int shardOf(int sensorId) {
+		return mix(sensorId) & (NUMBER_OF_SHARDS - 1);
+	}
+
+	/**
+	 * returns the node which owns a sensor.
+	 *
+	 * @param sensorId
+	 *            the id of the sensor
+	 * @return the address of the node or null if the ring has no nodes
+	 */
+	public InetSocketAddress getOwner(int sensorId) {
+		return getShardOwner(shardOf(sensorId));
+	}
+
+	/**
+	 * returns the node which owns a shard.
+	 *
+	 * @param shard
+	 *            the shard, 0 to {@link #NUMBER_OF_SHARDS} - 1
+	 * @return the address of the node or null if the ring has no nodes
+	 */
+	public InetSocketAddress getShardOwner(int shard) {
+		int owner = owners[shard];
+		return owner < 0 ? null : nodes[owner];
+	}
+
+	/**
+	 * returns the nodes of the ring.
+	 *
+	 * @return the addresses of the nodes, sorted
+	 */
+	public List<InetSocketAddress> getNodes() {
+		return Collections.unmodifiableList(Arrays.asList(nodes));
+	}
+
+	/**
+	 * returns whether the given node is part of the ring.
+	 *
+	 * @param node
+	 *            the address of the node
+	 * @return true if the node owns shards
+	 */
+	public boolean contains(InetSocketAddress node) {
+		String key = key(node);
+		for (InetSocketAddress member : nodes) {
+			if (key(member).equals(key)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * returns the key of a node, which is the same on every node as long as
+	 * the nodes are given by their IP address.
+	 */
+	private static String key(InetSocketAddress node) {
+		return node.getHostString() + ":" + node.getPort();
+	}
+
+	private static int mix(int value) {
+		// finalizer of murmur3
+		int h = value;
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+}
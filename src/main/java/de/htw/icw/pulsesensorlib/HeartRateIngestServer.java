@@ -0,0 +1,458 @@
+package de.htw.icw.pulsesensorlib;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Optional network front end which receives heart rates of many sensors (see
+ * {@link HeartRateFrameCodec}) over TCP and/or UDP and adds them to the
+ * {@link HeartRateMonitor} of the sensor (see {@link HeartRateMonitorRegistry}
+ * ).
+ *
+ * All channels are served by a single selector thread. A connection only holds
+ * a pooled direct buffer while it has unprocessed bytes, so idle connections
+ * cost no buffer memory and frames are decoded straight out of the pooled
+ * buffers without allocating. Since all heart rates are added by the selector
+ * thread, the monitors and their events are only ever called from this thread.
+ * Other threads which have to change the monitors can run a task on it (see
+ * {@link #execute(Runnable)}).
+ *
+ * A {@link HeartRateRouter} may take over records instead of adding them to
+ * the local monitors, e.g. to forward them to another node of a cluster.
+ * Records in {@link HeartRateFrameCodec#FORWARDED_HEART_RATE_FRAME}s are
+ * added like measured heart rates. A record whose router, event or listener
+ * throws a RuntimeException is logged and counted as rejected, the server
+ * keeps serving the other records.
+ *
+ * @author s0534410
+ */
+public class HeartRateIngestServer implements Closeable, Runnable {
+
+	private static final Logger LOGGER = LogManager
+			.getLogger(HeartRateIngestServer.class);
+
+	/** default size of the pooled receive buffers in bytes */
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	private static final int BUFFERS_PER_SLAB = 64;
+
+	private final HeartRateMonitorRegistry heartRateMonitorRegistry;
+	private final Selector selector;
+	private final DirectByteBufferPool bufferPool;
+	private final FrameHandler frameHandler = new FrameHandler();
+	private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+
+	private HeartRateRouter router;
+
+	private ServerSocketChannel serverSocketChannel;
+	private DatagramChannel datagramChannel;
+	private Thread selectorThread;
+	private volatile boolean running;
+
+	private volatile long receivedFrames;
+	private volatile long acceptedHeartRates;
+	private volatile long rejectedHeartRates;
+	private volatile long routedHeartRates;
+	private volatile int openConnections;
+
+	/**
+	 * creates a server with receive buffers of
+	 * {@link #DEFAULT_BUFFER_SIZE} bytes.
+	 *
+	 * @param heartRateMonitorRegistry
+	 *            provides the monitors of the sensors
+	 * @throws IOException
+	 *             if the selector can't be opened
+	 */
+	public HeartRateIngestServer(
+			HeartRateMonitorRegistry heartRateMonitorRegistry)
+			throws IOException {
+		this(heartRateMonitorRegistry, DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * @param heartRateMonitorRegistry
+	 *            provides the monitors of the sensors
+	 * @param bufferSize
+	 *            size of the pooled receive buffers in bytes, which is also
+	 *            the maximum size of a frame and of a datagram
+	 * @throws IOException
+	 *             if the selector can't be opened
+	 */
+	public HeartRateIngestServer(
+			HeartRateMonitorRegistry heartRateMonitorRegistry, int bufferSize)
+			throws IOException {
+		if (bufferSize < HeartRateFrameCodec.frameSize(1)) {
+			throw new IllegalArgumentException("bufferSize too small: "
+					+ bufferSize);
+		}
+		this.heartRateMonitorRegistry = heartRateMonitorRegistry;
+		this.bufferPool = new DirectByteBufferPool(bufferSize, BUFFERS_PER_SLAB);
+		this.selector = Selector.open();
+	}
+
+	/**
+	 * listens for TCP connections on the given address. has to be called
+	 * before {@link #start()}.
+	 *
+	 * @param address
+	 *            the local address, port 0 chooses a free port
+	 * @throws IOException
+	 *             if the address can't be bound
+	 */
+	public void bindTcp(InetSocketAddress address) throws IOException {
+		checkNotStarted();
+		serverSocketChannel = ServerSocketChannel.open();
+		serverSocketChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+		serverSocketChannel.bind(address, 1024);
+		serverSocketChannel.configureBlocking(false);
+		serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT);
+	}
+
+	/**
+	 * receives datagrams on the given address. has to be called before
+	 * {@link #start()}.
+	 *
+	 * @param address
+	 *            the local address, port 0 chooses a free port
+	 * @throws IOException
+	 *             if the address can't be bound
+	 */
+	public void bindUdp(InetSocketAddress address) throws IOException {
+		checkNotStarted();
+		datagramChannel = DatagramChannel.open();
+		datagramChannel.bind(address);
+		datagramChannel.configureBlocking(false);
+		datagramChannel.register(selector, SelectionKey.OP_READ,
+				bufferPool.acquire());
+	}
+
+	/**
+	 * sets the router which may take over received records. has to be called
+	 * before {@link #start()}.
+	 *
+	 * @param heartRateRouter
+	 *            the router or null to add all records to the local monitors
+	 */
+	public void setRouter(HeartRateRouter heartRateRouter) {
+		checkNotStarted();
+		router = heartRateRouter;
+	}
+
+	/**
+	 * runs a task on the selector thread, between two batches of received
+	 * records. tasks submitted before {@link #start()} run when the server has
+	 * started.
+	 *
+	 * @param task
+	 *            the task, runtime exceptions are logged
+	 */
+	public void execute(Runnable task) {
+		tasks.add(task);
+		selector.wakeup();
+	}
+
+	/**
+	 * returns whether the current thread is the selector thread.
+	 *
+	 * @return true if called by a task or the router
+	 */
+	public boolean isSelectorThread() {
+		return Thread.currentThread() == selectorThread;
+	}
+
+	/**
+	 * starts the selector thread.
+	 */
+	public synchronized void start() {
+		checkNotStarted();
+		running = true;
+		selectorThread = new Thread(this, "heart-rate-ingest-server");
+		selectorThread.start();
+	}
+
+	/**
+	 * returns the address the TCP channel is bound to.
+	 *
+	 * @return the bound address or null if TCP is not used
+	 * @throws IOException
+	 *             if the address can't be obtained
+	 */
+	public InetSocketAddress getTcpAddress() throws IOException {
+		return serverSocketChannel == null ? null
+				: (InetSocketAddress) serverSocketChannel.getLocalAddress();
+	}
+
+	/**
+	 * returns the address the UDP channel is bound to.
+	 *
+	 * @return the bound address or null if UDP is not used
+	 * @throws IOException
+	 *             if the address can't be obtained
+	 */
+	public InetSocketAddress getUdpAddress() throws IOException {
+		return datagramChannel == null ? null
+				: (InetSocketAddress) datagramChannel.getLocalAddress();
+	}
+
+	public long getReceivedFrames() {
+		return receivedFrames;
+	}
+
+	public long getAcceptedHeartRates() {
+		return acceptedHeartRates;
+	}
+
+	public long getRejectedHeartRates() {
+		return rejectedHeartRates;
+	}
+
+	/**
+	 * returns the number of records taken over by the router.
+	 *
+	 * @return number of routed heart rates
+	 */
+	public long getRoutedHeartRates() {
+		return routedHeartRates;
+	}
+
+	public int getOpenConnections() {
+		return openConnections;
+	}
+
+	@Override
+	public void run() {
+		while (running) {
+			try {
+				selector.select();
+			} catch (IOException ex) {
+				LOGGER.error("select failed, stopping ingest server", ex);
+				break;
+			}
+
+			Iterator<SelectionKey> selectedKeys = selector.selectedKeys()
+					.iterator();
+			while (selectedKeys.hasNext()) {
+				SelectionKey key = selectedKeys.next();
+				selectedKeys.remove();
+
+				if (!key.isValid()) {
+					continue;
+				}
+				if (key.isAcceptable()) {
+					accept();
+				} else if (key.channel() == datagramChannel) {
+					receiveDatagrams(key);
+				} else {
+					read(key);
+				}
+			}
+			if (router != null) {
+				try {
+					router.flush();
+				} catch (RuntimeException ex) {
+					LOGGER.error("flushing router failed", ex);
+				}
+			}
+
+			Runnable task;
+			while ((task = tasks.poll()) != null) {
+				try {
+					task.run();
+				} catch (RuntimeException ex) {
+					LOGGER.error("task failed", ex);
+				}
+			}
+		}
+		closeChannels();
+	}
+
+	/**
+	 * stops the selector thread and closes all channels.
+	 */
+	@Override
+	public void close() throws IOException {
+		Thread thread;
+		synchronized (this) {
+			running = false;
+			thread = selectorThread;
+		}
+
+		if (thread == null) {
+			closeChannels();
+			return;
+		}
+
+		selector.wakeup();
+		try {
+			thread.join();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void accept() {
+		try {
+			SocketChannel socketChannel;
+			while ((socketChannel = serverSocketChannel.accept()) != null) {
+				socketChannel.configureBlocking(false);
+				socketChannel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+				socketChannel.register(selector, SelectionKey.OP_READ,
+						new Connection());
+				openConnections++;
+			}
+		} catch (IOException ex) {
+			LOGGER.warn("accepting connection failed", ex);
+		}
+	}
+
+	private void read(SelectionKey key) {
+		SocketChannel socketChannel = (SocketChannel) key.channel();
+		Connection connection = (Connection) key.attachment();
+
+		if (connection.buffer == null) {
+			connection.buffer = bufferPool.acquire();
+		}
+		ByteBuffer buffer = connection.buffer;
+
+		try {
+			int read = socketChannel.read(buffer);
+			buffer.flip();
+			receivedFrames += HeartRateFrameCodec.decodeFrames(buffer,
+					buffer.capacity(), frameHandler);
+
+			if (read < 0) {
+				closeConnection(key);
+			} else if (buffer.hasRemaining()) {
+				buffer.compact();
+			} else {
+				bufferPool.release(buffer);
+				connection.buffer = null;
+			}
+		} catch (IOException ex) {
+			LOGGER.debug("closing connection " + socketChannel, ex);
+			closeConnection(key);
+		}
+	}
+
+	private void receiveDatagrams(SelectionKey key) {
+		ByteBuffer buffer = (ByteBuffer) key.attachment();
+
+		try {
+			SocketAddress sender;
+			while ((sender = datagramChannel.receive(buffer)) != null) {
+				buffer.flip();
+				try {
+					receivedFrames += HeartRateFrameCodec.decodeFrames(buffer,
+							buffer.capacity(), frameHandler);
+					if (buffer.hasRemaining()) {
+						LOGGER.debug("dropping incomplete frame from " + sender);
+					}
+				} catch (IOException ex) {
+					LOGGER.debug("dropping datagram from " + sender, ex);
+				}
+				buffer.clear();
+			}
+		} catch (IOException ex) {
+			LOGGER.warn("receiving datagram failed", ex);
+		}
+	}
+
+	private void closeConnection(SelectionKey key) {
+		Connection connection = (Connection) key.attachment();
+		if (connection.buffer != null) {
+			bufferPool.release(connection.buffer);
+			connection.buffer = null;
+		}
+
+		key.cancel();
+		try {
+			key.channel().close();
+		} catch (IOException ex) {
+			LOGGER.debug("closing connection failed", ex);
+		}
+		openConnections--;
+	}
+
+	private void closeChannels() {
+		for (SelectionKey key : selector.keys()) {
+			try {
+				key.channel().close();
+			} catch (IOException ex) {
+				LOGGER.debug("closing channel failed", ex);
+			}
+		}
+		try {
+			selector.close();
+		} catch (IOException ex) {
+			LOGGER.debug("closing selector failed", ex);
+		}
+		openConnections = 0;
+	}
+
+	private synchronized void checkNotStarted() {
+		if (selectorThread != null) {
+			throw new IllegalStateException("server already started");
+		}
+	}
+
+	/** state of a single TCP connection */
+	private static class Connection {
+		/** pooled buffer, only set while there are unprocessed bytes */
+		private ByteBuffer buffer;
+	}
+
+	/** adds the decoded heart rates to the monitors of the sensors */
+	private class FrameHandler implements HeartRateFrameCodec.Handler {
+
+		@Override
+		public void onHeartRate(byte frameType, int sensorId, long timestamp,
+				double heartRate) {
+			// checked up front, so invalid values don't cost an exception
+			if (!(heartRate >= 0)) {
+				rejectedHeartRates++;
+				return;
+			}
+			// a failing router, event or listener must not stop the selector
+			// thread, it only loses the record
+			try {
+				if (router != null
+						&& router.route(frameType, sensorId, timestamp,
+								heartRate)) {
+					routedHeartRates++;
+					return;
+				}
+				if (frameType != HeartRateFrameCodec.HEART_RATE_FRAME
+						&& frameType != HeartRateFrameCodec.FORWARDED_HEART_RATE_FRAME) {
+					rejectedHeartRates++;
+					return;
+				}
+
+				heartRateMonitorRegistry.getHeartRateMonitor(sensorId)
+						.addHeartRate(heartRate, timestamp);
+				acceptedHeartRates++;
+			} catch (NoNegativeHeartRatesPossibleException ex) {
+				rejectedHeartRates++;
+			} catch (RuntimeException ex) {
+				rejectedHeartRates++;
+				LOGGER.error("adding heart rate of sensor " + sensorId
+						+ " failed", ex);
+			}
+		}
+	}
+}
@@ -0,0 +1,41 @@
+package de.htw.icw.pulsesensorlib;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * Read only list view of a range of the heart rates stored in a
+ * {@link DefaultHeartRateMonitor}. The heart rates are read from the monitor on
+ * access, nothing is copied.
+ *
+ * @author s0534410
+ */
+class HeartRateListView extends AbstractList<Double> implements RandomAccess {
+
+	private final DefaultHeartRateMonitor heartRateMonitor;
+	private final int fromIndex;
+
+	/** exclusive end of the range, -1 to follow the end of the monitor */
+	private final int toIndex;
+
+	HeartRateListView(DefaultHeartRateMonitor heartRateMonitor, int fromIndex,
+			int toIndex) {
+		this.heartRateMonitor = heartRateMonitor;
+		this.fromIndex = fromIndex;
+		this.toIndex = toIndex;
+	}
+
+	@Override
+	public Double get(int index) {
+		if (index < 0 || index >= size()) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: "
+					+ size());
+		}
+		return heartRateMonitor.getHeartRate(fromIndex + index);
+	}
+
+	@Override
+	public int size() {
+		return (toIndex < 0 ? heartRateMonitor.getNumberOfHeartRates() : toIndex) - fromIndex;
+	}
+}
@@ -0,0 +1,299 @@
+package de.htw.icw.pulsesensorlib;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Keeps the heart rates of all monitors of a {@link HeartRateMonitorRegistry}
+ * within a memory budget. The governor is the factory of the registry, every
+ * monitor it creates stores its history in a storage which the governor can
+ * spill to a segment file in the given directory. Spilled histories are paged
+ * back in lazily by the next access of the monitor, the monitor itself and its
+ * events stay registered.
+ *
+ * When the resident bytes exceed the budget, the least recently used histories
+ * which have been idle for the minimum idle time are spilled until the
+ * resident bytes are below 90% of the budget. Adding a heart rate records the
+ * time of the access, a query only marks the history as used, which counts as
+ * an access at the next time the budget is enforced (second chance). If no
+ * history is idle, the budget is exceeded and enforcing it is retried at most
+ * once per second.
+ *
+ * Hits (accesses to resident histories), misses (accesses which paged in a
+ * history) and spills are counted. All methods are thread safe.
+ *
+ * <pre>
+ * HeartRateMemoryGovernor governor = new HeartRateMemoryGovernor(directory,
+ * 		512L &lt;&lt; 20, 60 * 60 * 1000);
+ * HeartRateMonitorRegistry registry = new HeartRateMonitorRegistry(governor);
+ * ...
+ * governor.release(registry.removeHeartRateMonitor(sensorId));
+ * </pre>
+ *
+ * @author s0534410
+ */
+public class HeartRateMemoryGovernor implements HeartRateMonitorFactory {
+
+	private static final Logger LOGGER = LogManager
+			.getLogger(HeartRateMemoryGovernor.class);
+
+	private static final double LOW_WATER_MARK = 0.9;
+	private static final long RETRY_INTERVAL_IN_MILLISECONDS = 1000;
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	private final File segmentDirectory;
+	private final long budgetBytes;
+	private final long minimumIdleTimeInMilliseconds;
+
+	private final AtomicLong residentBytes = new AtomicLong();
+	private volatile long retryTime;
+
+	// guarded by this
+	private final List<SpillableHeartRateStorage> storages = new ArrayList<SpillableHeartRateStorage>();
+	private long numberOfSegments;
+	private ByteBuffer buffer;
+	private long spills;
+	private long spilledBytes;
+
+	/**
+	 * @param segmentDirectory
+	 *            directory of the segment files, it has to exist
+	 * @param budgetBytes
+	 *            the maximum bytes of resident heart rates
+	 * @param minimumIdleTimeInMilliseconds
+	 *            how long a history has to be unused before it may be spilled
+	 */
+	public HeartRateMemoryGovernor(File segmentDirectory, long budgetBytes,
+			long minimumIdleTimeInMilliseconds) {
+		if (!segmentDirectory.isDirectory()) {
+			throw new IllegalArgumentException(segmentDirectory
+					+ " is not a directory");
+		}
+		if (budgetBytes < 0 || minimumIdleTimeInMilliseconds < 0) {
+			throw new IllegalArgumentException(
+					"budgetBytes and minimumIdleTimeInMilliseconds must not be negative");
+		}
+		this.segmentDirectory = segmentDirectory;
+		this.budgetBytes = budgetBytes;
+		this.minimumIdleTimeInMilliseconds = minimumIdleTimeInMilliseconds;
+	}
+
+	/**
+	 * creates a {@link DefaultHeartRateMonitor} whose history is governed by
+	 * this governor.
+	 */
+	@Override
+	public HeartRateMonitor createHeartRateMonitor(int sensorId) {
+		SpillableHeartRateStorage storage;
+		synchronized (this) {
+			storage = new SpillableHeartRateStorage(this, createStorage(),
+					new File(segmentDirectory, "sensor-" + sensorId + "-"
+							+ numberOfSegments++ + ".segment"));
+			storages.add(storage);
+		}
+		return new DefaultHeartRateMonitor(storage);
+	}
+
+	/**
+	 * frees the history of a monitor created by this governor and deletes its
+	 * segment file, e.g. after it was removed from the registry. other
+	 * monitors are ignored.
+	 *
+	 * @param heartRateMonitor
+	 *            the monitor which is not used anymore, may be null
+	 */
+	public void release(HeartRateMonitor heartRateMonitor) {
+		if (heartRateMonitor instanceof DefaultHeartRateMonitor) {
+			HeartRateStorage storage = ((DefaultHeartRateMonitor) heartRateMonitor)
+					.getStorage();
+			if (storage instanceof SpillableHeartRateStorage
+					&& isGoverned((SpillableHeartRateStorage) storage)) {
+				storage.close();
+			}
+		}
+	}
+
+	/**
+	 * spills idle histories if the resident bytes exceed the budget.
+	 */
+	public void enforceBudget() {
+		enforceBudget(null);
+	}
+
+	/**
+	 * spills idle histories except the given one, which has just been
+	 * accessed, if the resident bytes exceed the budget.
+	 */
+	private synchronized void enforceBudget(SpillableHeartRateStorage accessed) {
+		if (residentBytes.get() <= budgetBytes) {
+			return;
+		}
+
+		long now = System.currentTimeMillis();
+		final long[] lastAccessTimes = new long[storages.size()];
+		List<Integer> candidates = new ArrayList<Integer>();
+		for (int i = 0; i < storages.size(); i++) {
+			SpillableHeartRateStorage storage = storages.get(i);
+			lastAccessTimes[i] = storage.getLastAccessTime(now);
+			if (storage != accessed && !storage.isSpilled()
+					&& now - lastAccessTimes[i] >= minimumIdleTimeInMilliseconds) {
+				candidates.add(i);
+			}
+		}
+		Collections.sort(candidates, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer first, Integer second) {
+				return Long.compare(lastAccessTimes[first],
+						lastAccessTimes[second]);
+			}
+		});
+
+		long lowWaterMark = (long) (budgetBytes * LOW_WATER_MARK);
+		for (int i = 0; i < candidates.size()
+				&& residentBytes.get() > lowWaterMark; i++) {
+			spill(storages.get(candidates.get(i)));
+		}
+
+		if (residentBytes.get() > budgetBytes) {
+			retryTime = now + RETRY_INTERVAL_IN_MILLISECONDS;
+			LOGGER.warn("memory budget of " + budgetBytes
+					+ " bytes exceeded by "
+					+ (residentBytes.get() - budgetBytes)
+					+ " bytes, no idle history left to spill");
+		}
+	}
+
+	public long getBudgetBytes() {
+		return budgetBytes;
+	}
+
+	/**
+	 * returns the bytes of all resident heart rates and timestamps.
+	 *
+	 * @return resident bytes
+	 */
+	public long getResidentBytes() {
+		return residentBytes.get();
+	}
+
+	/**
+	 * returns the number of accesses to resident histories.
+	 *
+	 * @return number of hits
+	 */
+	public synchronized long getHits() {
+		long hits = 0;
+		for (SpillableHeartRateStorage storage : storages) {
+			hits += storage.getHits();
+		}
+		return hits;
+	}
+
+	/**
+	 * returns the number of accesses which paged in a spilled history.
+	 *
+	 * @return number of misses
+	 */
+	public synchronized long getMisses() {
+		long misses = 0;
+		for (SpillableHeartRateStorage storage : storages) {
+			misses += storage.getMisses();
+		}
+		return misses;
+	}
+
+	/**
+	 * returns the number of times a history has been spilled.
+	 *
+	 * @return number of spills
+	 */
+	public synchronized long getSpills() {
+		return spills;
+	}
+
+	/**
+	 * returns the bytes freed by spilling histories.
+	 *
+	 * @return spilled bytes
+	 */
+	public synchronized long getSpilledBytes() {
+		return spilledBytes;
+	}
+
+	/**
+	 * returns the number of histories which are currently spilled.
+	 *
+	 * @return number of spilled histories
+	 */
+	public synchronized int getNumberOfSpilledMonitors() {
+		int spilled = 0;
+		for (SpillableHeartRateStorage storage : storages) {
+			if (storage.isSpilled()) {
+				spilled++;
+			}
+		}
+		return spilled;
+	}
+
+	/**
+	 * creates the storage which holds a resident history. the default is an
+	 * {@link ArrayHeartRateStorage}.
+	 *
+	 * @return a new storage
+	 */
+	protected HeartRateStorage createStorage() {
+		return new ArrayHeartRateStorage();
+	}
+
+	/**
+	 * counts bytes which became resident by an access of the given storage and
+	 * enforces the budget if it is exceeded. must not be called while holding
+	 * the lock of a storage.
+	 */
+	void addResidentBytes(SpillableHeartRateStorage storage, long bytes) {
+		if (bytes == 0) {
+			return;
+		}
+		if (residentBytes.addAndGet(bytes) > budgetBytes
+				&& System.currentTimeMillis() >= retryTime) {
+			enforceBudget(storage);
+		}
+	}
+
+	synchronized void unregister(SpillableHeartRateStorage storage,
+			long freedBytes) {
+		storages.remove(storage);
+		residentBytes.addAndGet(-freedBytes);
+	}
+
+	private synchronized boolean isGoverned(SpillableHeartRateStorage storage) {
+		return storages.contains(storage);
+	}
+
+	private void spill(SpillableHeartRateStorage storage) {
+		if (buffer == null) {
+			buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(
+					ByteOrder.LITTLE_ENDIAN);
+		}
+		try {
+			long freedBytes = storage.spill(buffer);
+			if (freedBytes > 0) {
+				residentBytes.addAndGet(-freedBytes);
+				spills++;
+				spilledBytes += freedBytes;
+			}
+		} catch (IOException ex) {
+			LOGGER.error("could not spill a heart rate history", ex);
+		}
+	}
+}
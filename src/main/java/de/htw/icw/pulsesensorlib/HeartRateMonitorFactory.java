@@ -0,0 +1,14 @@
+package de.htw.icw.pulsesensorlib;
+
+/**
+ * Creates the {@link HeartRateMonitor} of a sensor the first time the sensor is
+ * seen by a {@link HeartRateMonitorRegistry}. Implementations usually subscribe
+ * their {@link HeartRateEvent}s to the new monitor before returning it.
+ *
+ * @author s0534410
+ */
+public interface HeartRateMonitorFactory {
+
+	HeartRateMonitor createHeartRateMonitor(int sensorId);
+
+}
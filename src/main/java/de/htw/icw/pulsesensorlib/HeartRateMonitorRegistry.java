@@ -0,0 +1,207 @@
+package de.htw.icw.pulsesensorlib;
+
+/**
+ * Maps sensor ids to their {@link HeartRateMonitor}. Monitors are created on
+ * demand by a {@link HeartRateMonitorFactory} the first time a sensor id is
+ * looked up. The ids are kept in an open addressing table of primitive ints,
+ * so looking up a monitor does not box the sensor id and does not allocate.
+ * All methods are thread safe.
+ *
+ * @author s0534410
+ */
+public class HeartRateMonitorRegistry {
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	private final HeartRateMonitorFactory heartRateMonitorFactory;
+
+	/** sensor ids, a slot is in use if the monitor at the same index is set */
+	private int[] sensorIds = new int[INITIAL_CAPACITY];
+
+	/** monitors of the sensor ids at the same index */
+	private HeartRateMonitor[] heartRateMonitors = new HeartRateMonitor[INITIAL_CAPACITY];
+
+	private int size;
+
+	/**
+	 * creates a registry which creates a {@link DefaultHeartRateMonitor} for
+	 * every new sensor.
+	 */
+	public HeartRateMonitorRegistry() {
+		this(new HeartRateMonitorFactory() {
+			@Override
+			public HeartRateMonitor createHeartRateMonitor(int sensorId) {
+				return new DefaultHeartRateMonitor();
+			}
+		});
+	}
+
+	/**
+	 * creates a registry which uses the given factory to create the monitor of
+	 * a new sensor.
+	 *
+	 * @param heartRateMonitorFactory
+	 *            creates the monitors of new sensors
+	 */
+	public HeartRateMonitorRegistry(
+			HeartRateMonitorFactory heartRateMonitorFactory) {
+		this.heartRateMonitorFactory = heartRateMonitorFactory;
+	}
+
+	/**
+	 * returns the monitor of the given sensor. the monitor is created if the
+	 * sensor is not known yet.
+	 *
+	 * @param sensorId
+	 *            the id of the sensor
+	 * @return the monitor of the sensor
+	 */
+	public synchronized HeartRateMonitor getHeartRateMonitor(int sensorId) {
+		int slot = findSlot(sensorId);
+		if (heartRateMonitors[slot] != null) {
+			return heartRateMonitors[slot];
+		}
+
+		HeartRateMonitor heartRateMonitor = heartRateMonitorFactory
+				.createHeartRateMonitor(sensorId);
+		putHeartRateMonitor(sensorId, heartRateMonitor);
+		return heartRateMonitor;
+	}
+
+	/**
+	 * returns the monitor of the given sensor without creating it.
+	 *
+	 * @param sensorId
+	 *            the id of the sensor
+	 * @return the monitor of the sensor or null if the sensor is not known
+	 */
+	public synchronized HeartRateMonitor findHeartRateMonitor(int sensorId) {
+		return heartRateMonitors[findSlot(sensorId)];
+	}
+
+	/**
+	 * registers the given monitor for a sensor. an already registered monitor
+	 * of the sensor is replaced.
+	 *
+	 * @param sensorId
+	 *            the id of the sensor
+	 * @param heartRateMonitor
+	 *            the monitor of the sensor
+	 * @return the replaced monitor or null if the sensor was not known
+	 */
+	public synchronized HeartRateMonitor putHeartRateMonitor(int sensorId,
+			HeartRateMonitor heartRateMonitor) {
+		if (heartRateMonitor == null) {
+			throw new IllegalArgumentException("heartRateMonitor is null");
+		}
+
+		if (heartRateMonitor instanceof DefaultHeartRateMonitor) {
+			((DefaultHeartRateMonitor) heartRateMonitor).setSensorId(sensorId);
+		}
+
+		int slot = findSlot(sensorId);
+		HeartRateMonitor replaced = heartRateMonitors[slot];
+		sensorIds[slot] = sensorId;
+		heartRateMonitors[slot] = heartRateMonitor;
+
+		if (replaced == null && ++size > heartRateMonitors.length / 2) {
+			resize(heartRateMonitors.length * 2);
+		}
+		return replaced;
+	}
+
+	/**
+	 * removes the monitor of the given sensor from the registry.
+	 *
+	 * @param sensorId
+	 *            the id of the sensor
+	 * @return the removed monitor or null if the sensor was not known
+	 */
+	public synchronized HeartRateMonitor removeHeartRateMonitor(int sensorId) {
+		int slot = findSlot(sensorId);
+		HeartRateMonitor removed = heartRateMonitors[slot];
+		if (removed == null) {
+			return null;
+		}
+
+		heartRateMonitors[slot] = null;
+		size--;
+
+		// shift the following entries of the probe sequence back, so that
+		// lookups never stop at the freed slot
+		int mask = heartRateMonitors.length - 1;
+		int free = slot;
+		for (int i = (slot + 1) & mask; heartRateMonitors[i] != null; i = (i + 1)
+				& mask) {
+			int home = hash(sensorIds[i]) & mask;
+			if (((i - home) & mask) >= ((i - free) & mask)) {
+				sensorIds[free] = sensorIds[i];
+				heartRateMonitors[free] = heartRateMonitors[i];
+				heartRateMonitors[i] = null;
+				free = i;
+			}
+		}
+		return removed;
+	}
+
+	/**
+	 * returns the number of registered sensors.
+	 *
+	 * @return number of registered sensors
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * returns the ids of all registered sensors in no particular order.
+	 *
+	 * @return the registered sensor ids
+	 */
+	public synchronized int[] getSensorIds() {
+		int[] result = new int[size];
+		int count = 0;
+		for (int i = 0; i < heartRateMonitors.length; i++) {
+			if (heartRateMonitors[i] != null) {
+				result[count++] = sensorIds[i];
+			}
+		}
+		return result;
+	}
+
+	private int findSlot(int sensorId) {
+		int mask = heartRateMonitors.length - 1;
+		int slot = hash(sensorId) & mask;
+		while (heartRateMonitors[slot] != null && sensorIds[slot] != sensorId) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private void resize(int capacity) {
+		int[] oldSensorIds = sensorIds;
+		HeartRateMonitor[] oldHeartRateMonitors = heartRateMonitors;
+
+		sensorIds = new int[capacity];
+		heartRateMonitors = new HeartRateMonitor[capacity];
+
+		for (int i = 0; i < oldHeartRateMonitors.length; i++) {
+			if (oldHeartRateMonitors[i] != null) {
+				int slot = findSlot(oldSensorIds[i]);
+				sensorIds[slot] = oldSensorIds[i];
+				heartRateMonitors[slot] = oldHeartRateMonitors[i];
+			}
+		}
+	}
+
+	private static int hash(int sensorId) {
+		// finalizer of murmur3, spreads sequential ids over the table
+		int h = sensorId;
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+}
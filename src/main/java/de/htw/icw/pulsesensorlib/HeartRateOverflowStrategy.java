@@ -0,0 +1,27 @@
+package de.htw.icw.pulsesensorlib;
+
+/**
+ * Decides what a publisher (see {@link AbstractHeartRatePublisher}) does with a
+ * new item if the buffer of a subscriber is full because the subscriber has
+ * not requested enough items.
+ *
+ * @author s0534410
+ */
+public enum HeartRateOverflowStrategy {
+
+	/** the oldest buffered item is dropped */
+	DROP_OLDEST,
+
+	/** the new item is dropped */
+	DROP_LATEST,
+
+	/**
+	 * only the newest item is kept, regardless of the buffer size. a slow
+	 * subscriber always receives the current value
+	 */
+	CONFLATE,
+
+	/** the subscription is cancelled and the subscriber receives an error */
+	FAIL
+
+}
@@ -0,0 +1,637 @@
+package de.htw.icw.pulsesensorlib;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Optional pipelined ingestion: instead of validating, storing and running the
+ * events of a heart rate on the thread which adds it, every step runs on its
+ * own thread and the steps are connected by pre-allocated single producer,
+ * single consumer queues (see {@link HeartRatePipelineQueue}):
+ *
+ * <ol>
+ * <li>validate: rejects heart rates which are not finite, negative or above
+ * {@link #MAXIMUM_HEART_RATE} and normalises -0 to 0,</li>
+ * <li>store: appends the heart rate to the monitor of the sensor (see
+ * {@link HeartRateMonitorRegistry}), rejects timestamps before the last one
+ * of the monitor,</li>
+ * <li>detect: publishes the heart rate, so queries see it, and runs the
+ * events of the monitor,</li>
+ * <li>dispatch: calls the listeners wrapped by
+ * {@link #dispatching(HeartRateListener)}.</li>
+ * </ol>
+ *
+ * A stage takes up to a batch of entries from its queue and hands its results
+ * to the next stage as a batch, so the cross thread cost is paid once per
+ * batch instead of once per heart rate. An idle stage spins, then yields and
+ * then parks for a few microseconds. A full queue blocks the stage in front of
+ * it, and {@link #offer(int, double, long)} returns false.
+ *
+ * The events of a {@link DefaultHeartRateMonitor} see exactly the heart rates
+ * up to the one they are run for, although the store stage may already have
+ * appended later ones. While a monitor is fed by a pipeline its heart rates
+ * must not be added directly. Other monitors get their heart rates added by
+ * the store stage, which runs their events as well. Other threads may read
+ * the heart rates of a monitor and look up its windows, but its statistics
+ * update the aggregate index of the monitor and have to be queried on the
+ * detect stage, e.g. by an event.
+ *
+ * The threads are created by a {@link StageThreadFactory}, e.g. to pin every
+ * stage to its own core with an affinity library, which the JDK doesn't
+ * provide.
+ *
+ * <pre>
+ * HeartRatePipeline pipeline = new HeartRatePipeline(registry);
+ * heartRateEvent.subscribe(pipeline.dispatching(heartRateListener));
+ * pipeline.start();
+ * ...
+ * while (!pipeline.offer(sensorId, heartRate, timestamp)) {
+ * 	// the pipeline is saturated
+ * }
+ * </pre>
+ *
+ * An event or a listener which fails is logged and the stage goes on with
+ * the next entry. If a stage stops anyway, the stage in front of it drops the
+ * entries it can't hand over instead of waiting forever.
+ *
+ * {@link #offer(int, double, long)} must always be called by the same thread,
+ * which also closes the pipeline.
+ *
+ * @author s0534410
+ */
+public class HeartRatePipeline implements Closeable {
+
+	private static final Logger LOGGER = LogManager
+			.getLogger(HeartRatePipeline.class);
+
+	/** highest heart rate accepted by the validate stage */
+	public static final double MAXIMUM_HEART_RATE = 300;
+
+	public static final int DEFAULT_QUEUE_CAPACITY = 1 << 16;
+	public static final int DEFAULT_BATCH_SIZE = 256;
+
+	private static final int SPINS = 100;
+	private static final int YIELDS = 10;
+	private static final long PARK_NANOS = 50000;
+
+	/**
+	 * The stages of the pipeline, in the order a heart rate passes them.
+	 */
+	public enum Stage {
+		VALIDATE, STORE, DETECT, DISPATCH
+	}
+
+	/**
+	 * Creates the thread of a stage.
+	 */
+	public interface StageThreadFactory {
+
+		/**
+		 * @param stage
+		 *            the stage which the thread runs
+		 * @param runnable
+		 *            the loop of the stage
+		 * @return an unstarted thread which runs the runnable
+		 */
+		Thread newThread(Stage stage, Runnable runnable);
+	}
+
+	private final HeartRateMonitorRegistry heartRateMonitorRegistry;
+	private final int batchSize;
+	private final StageThreadFactory stageThreadFactory;
+
+	private final HeartRatePipelineQueue input;
+	private final HeartRatePipelineQueue validated;
+	private final HeartRatePipelineQueue stored;
+	private final HeartRatePipelineQueue alerts;
+
+	private final ValidateStage validateStage;
+	private final StoreStage storeStage;
+	private final DetectStage detectStage;
+	private final DispatchStage dispatchStage;
+	private final Thread[] threads = new Thread[Stage.values().length];
+	private volatile Thread detectThread;
+	private volatile boolean closed;
+
+	private volatile long acceptedHeartRates;
+	/** written by the validate stage */
+	private volatile long invalidHeartRates;
+	/** written by the store stage */
+	private volatile long outOfOrderHeartRates;
+
+	/**
+	 * creates a pipeline with queues of {@link #DEFAULT_QUEUE_CAPACITY}
+	 * entries, batches of {@link #DEFAULT_BATCH_SIZE} entries and daemon
+	 * threads.
+	 *
+	 * @param heartRateMonitorRegistry
+	 *            provides the monitors of the sensors
+	 */
+	public HeartRatePipeline(HeartRateMonitorRegistry heartRateMonitorRegistry) {
+		this(heartRateMonitorRegistry, DEFAULT_QUEUE_CAPACITY,
+				DEFAULT_BATCH_SIZE, new StageThreadFactory() {
+					@Override
+					public Thread newThread(Stage stage, Runnable runnable) {
+						Thread thread = new Thread(runnable,
+								"heart-rate-pipeline-"
+										+ stage.name().toLowerCase());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+	}
+
+	/**
+	 * @param heartRateMonitorRegistry
+	 *            provides the monitors of the sensors
+	 * @param queueCapacity
+	 *            number of entries of every queue, a power of two
+	 * @param batchSize
+	 *            maximum number of entries a stage takes at once
+	 * @param stageThreadFactory
+	 *            creates the threads of the stages
+	 */
+	public HeartRatePipeline(
+			HeartRateMonitorRegistry heartRateMonitorRegistry,
+			int queueCapacity, int batchSize,
+			StageThreadFactory stageThreadFactory) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("batchSize < 1");
+		}
+		this.heartRateMonitorRegistry = heartRateMonitorRegistry;
+		this.batchSize = batchSize;
+		this.stageThreadFactory = stageThreadFactory;
+
+		input = new HeartRatePipelineQueue(queueCapacity);
+		validated = new HeartRatePipelineQueue(queueCapacity);
+		stored = new HeartRatePipelineQueue(queueCapacity);
+		alerts = new HeartRatePipelineQueue(queueCapacity);
+
+		validateStage = new ValidateStage();
+		storeStage = new StoreStage(validateStage);
+		detectStage = new DetectStage(storeStage);
+		dispatchStage = new DispatchStage(detectStage);
+	}
+
+	/**
+	 * starts the threads of the stages.
+	 */
+	public synchronized void start() {
+		if (threads[0] != null) {
+			throw new IllegalStateException("pipeline already started");
+		}
+		StageLoop[] stageLoops = { validateStage, storeStage, detectStage,
+				dispatchStage };
+		for (Stage stage : Stage.values()) {
+			threads[stage.ordinal()] = stageThreadFactory.newThread(stage,
+					stageLoops[stage.ordinal()]);
+		}
+		detectThread = threads[Stage.DETECT.ordinal()];
+		for (Thread thread : threads) {
+			thread.start();
+		}
+	}
+
+	/**
+	 * hands a heart rate to the validate stage without waiting.
+	 *
+	 * @param sensorId
+	 *            the sensor which measured the heart rate
+	 * @param heartRate
+	 *            the heart rate
+	 * @param timestamp
+	 *            the time of the measurement
+	 * @return false if the pipeline is saturated and the heart rate has not
+	 *         been taken
+	 * @throws IllegalStateException
+	 *             if the pipeline is closed
+	 */
+	public boolean offer(int sensorId, double heartRate, long timestamp) {
+		if (closed) {
+			throw new IllegalStateException("pipeline is closed");
+		}
+		int slot = input.claim();
+		if (slot < 0) {
+			return false;
+		}
+		input.ints[slot] = sensorId;
+		input.values0[slot] = heartRate;
+		input.times0[slot] = timestamp;
+		input.publish();
+		return true;
+	}
+
+	/**
+	 * wraps a listener, so that it is called by the dispatch stage instead of
+	 * the detect stage. called by any other thread than the detect stage, the
+	 * wrapper calls the listener directly.
+	 *
+	 * @param heartRateListener
+	 *            the listener to call on the dispatch stage
+	 * @return the listener to subscribe to the events
+	 */
+	public HeartRateListener dispatching(HeartRateListener heartRateListener) {
+		return new DispatchingListener(heartRateListener);
+	}
+
+	/**
+	 * returns the number of heart rates appended to the monitors.
+	 *
+	 * @return accepted heart rates
+	 */
+	public long getAcceptedHeartRates() {
+		return acceptedHeartRates;
+	}
+
+	/**
+	 * returns the number of heart rates rejected by the validate and store
+	 * stage.
+	 *
+	 * @return rejected heart rates
+	 */
+	public long getRejectedHeartRates() {
+		return invalidHeartRates + outOfOrderHeartRates;
+	}
+
+	/**
+	 * processes all offered heart rates, stops the threads and lets the
+	 * monitors be fed directly again.
+	 */
+	@Override
+	public void close() {
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+		}
+		boolean interrupted = false;
+		for (Thread thread : threads) {
+			if (thread == null) {
+				continue;
+			}
+			while (true) {
+				try {
+					thread.join();
+					break;
+				} catch (InterruptedException ex) {
+					interrupted = true;
+				}
+			}
+		}
+		storeStage.detachMonitors();
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * the loop of a stage, which processes batches until the stage in front
+	 * of it has stopped and its queue is empty.
+	 */
+	private abstract class StageLoop implements Runnable {
+
+		private final HeartRatePipelineQueue queue;
+		private final StageLoop previous;
+		private volatile boolean stopped;
+
+		StageLoop(HeartRatePipelineQueue queue, StageLoop previous) {
+			this.queue = queue;
+			this.previous = previous;
+		}
+
+		@Override
+		public void run() {
+			int idle = 0;
+			try {
+				while (true) {
+					boolean previousStopped = previous == null ? closed
+							: previous.stopped;
+					int count = queue.available(batchSize);
+					if (count == 0) {
+						if (previousStopped && queue.available(1) == 0) {
+							break;
+						}
+						idle = idle(idle);
+						continue;
+					}
+					idle = 0;
+					for (int i = 0; i < count; i++) {
+						try {
+							process(queue.slot(i));
+						} catch (RuntimeException ex) {
+							// a failing event or listener must not stop the stage
+							LOGGER.error("processing a heart rate failed", ex);
+						}
+					}
+					flush();
+					queue.release(count);
+				}
+			} finally {
+				stopped = true;
+			}
+		}
+
+		/** processes the entry in the given slot of the queue */
+		abstract void process(int slot);
+
+		/** publishes the entries written to the next queue */
+		abstract void flush();
+	}
+
+	private static int idle(int idle) {
+		if (idle < SPINS) {
+			// busy spin
+		} else if (idle < SPINS + YIELDS) {
+			Thread.yield();
+		} else {
+			LockSupport.parkNanos(PARK_NANOS);
+		}
+		return idle + 1;
+	}
+
+	/**
+	 * claims a slot of the next queue, waiting while it is full. the claimed
+	 * entries are published first, so the next stage can make progress.
+	 * returns -1 if the stage which takes the entries has stopped.
+	 */
+	private static int claim(HeartRatePipelineQueue queue, StageLoop next) {
+		int slot = queue.claim();
+		int idle = 0;
+		while (slot < 0) {
+			if (next.stopped) {
+				return -1;
+			}
+			queue.publish();
+			idle = idle(idle);
+			slot = queue.claim();
+		}
+		return slot;
+	}
+
+	private class ValidateStage extends StageLoop {
+
+		ValidateStage() {
+			super(input, null);
+		}
+
+		@Override
+		void process(int slot) {
+			double heartRate = input.values0[slot];
+			if (!(heartRate >= 0 && heartRate <= MAXIMUM_HEART_RATE)) {
+				invalidHeartRates++;
+				return;
+			}
+			int next = claim(validated, storeStage);
+			if (next < 0) {
+				return;
+			}
+			validated.ints[next] = input.ints[slot];
+			// + 0.0 turns -0.0 into 0.0
+			validated.values0[next] = heartRate + 0.0;
+			validated.times0[next] = input.times0[slot];
+		}
+
+		@Override
+		void flush() {
+			validated.publish();
+		}
+	}
+
+	private class StoreStage extends StageLoop {
+
+		/** monitors attached by this stage, only used by its thread */
+		private final List<DefaultHeartRateMonitor> attachedMonitors = new ArrayList<DefaultHeartRateMonitor>();
+
+		StoreStage(StageLoop previous) {
+			super(validated, previous);
+		}
+
+		@Override
+		void process(int slot) {
+			int sensorId = validated.ints[slot];
+			double heartRate = validated.values0[slot];
+			long timestamp = validated.times0[slot];
+			HeartRateMonitor heartRateMonitor = heartRateMonitorRegistry
+					.getHeartRateMonitor(sensorId);
+
+			if (!(heartRateMonitor instanceof DefaultHeartRateMonitor)) {
+				addDirectly(heartRateMonitor, heartRate, timestamp);
+				return;
+			}
+
+			DefaultHeartRateMonitor defaultHeartRateMonitor = (DefaultHeartRateMonitor) heartRateMonitor;
+			if (!defaultHeartRateMonitor.isAttachedToPipeline()) {
+				defaultHeartRateMonitor.attachToPipeline();
+				attachedMonitors.add(defaultHeartRateMonitor);
+			}
+			if (timestamp < defaultHeartRateMonitor.getLastAppendedTimestamp()) {
+				outOfOrderHeartRates++;
+				return;
+			}
+			defaultHeartRateMonitor.appendUnpublished(heartRate, timestamp);
+			acceptedHeartRates++;
+
+			int next = claim(stored, detectStage);
+			if (next < 0) {
+				return;
+			}
+			stored.references[next] = defaultHeartRateMonitor;
+			stored.ints[next] = defaultHeartRateMonitor.getStorage().size();
+		}
+
+		@Override
+		void flush() {
+			stored.publish();
+		}
+
+		void detachMonitors() {
+			for (DefaultHeartRateMonitor heartRateMonitor : attachedMonitors) {
+				heartRateMonitor.detachFromPipeline();
+			}
+			attachedMonitors.clear();
+		}
+
+		private void addDirectly(HeartRateMonitor heartRateMonitor,
+				double heartRate, long timestamp) {
+			if (!heartRateMonitor.getAllMeasuredTimestamps().isEmpty()
+					&& timestamp < heartRateMonitor.getLastTimestamp()) {
+				outOfOrderHeartRates++;
+				return;
+			}
+			try {
+				heartRateMonitor.addHeartRate(heartRate, timestamp);
+				acceptedHeartRates++;
+			} catch (NoNegativeHeartRatesPossibleException ex) {
+				outOfOrderHeartRates++;
+			}
+		}
+	}
+
+	private class DetectStage extends StageLoop {
+
+		DetectStage(StageLoop previous) {
+			super(stored, previous);
+		}
+
+		@Override
+		void process(int slot) {
+			((DefaultHeartRateMonitor) stored.references[slot])
+					.publish(stored.ints[slot]);
+		}
+
+		@Override
+		void flush() {
+			alerts.publish();
+		}
+	}
+
+	private class DispatchStage extends StageLoop {
+
+		DispatchStage(StageLoop previous) {
+			super(alerts, previous);
+		}
+
+		@Override
+		void process(int slot) {
+			HeartRateListener heartRateListener = (HeartRateListener) alerts.references[slot];
+			switch (HeartRateAlert.Type.values()[alerts.ints[slot]]) {
+			case HIGH_PULSE:
+				heartRateListener.onHighPulse(alerts.values1[slot]);
+				break;
+			case LOW_PULSE:
+				heartRateListener.onLowPulse(alerts.values1[slot]);
+				break;
+			case NO_PULSE:
+				heartRateListener.onNoPulse();
+				break;
+			case DISCONNECTED:
+				heartRateListener.onDisconnected();
+				break;
+			case PULSE_INCREASED:
+				heartRateListener.onPulseIncreased(alerts.values0[slot],
+						alerts.values1[slot], alerts.times0[slot],
+						alerts.times1[slot], alerts.values2[slot]);
+				break;
+			case PULSE_DECREASED:
+				heartRateListener.onPulseDecreased(alerts.values0[slot],
+						alerts.values1[slot], alerts.times0[slot],
+						alerts.times1[slot], alerts.values2[slot]);
+				break;
+			}
+		}
+
+		@Override
+		void flush() {
+		}
+	}
+
+	/**
+	 * hands the callbacks made on the detect stage to the dispatch stage.
+	 */
+	private class DispatchingListener implements HeartRateListener {
+
+		private final HeartRateListener heartRateListener;
+
+		DispatchingListener(HeartRateListener heartRateListener) {
+			this.heartRateListener = heartRateListener;
+		}
+
+		@Override
+		public void onHighPulse(double pulse) {
+			if (Thread.currentThread() != detectThread) {
+				heartRateListener.onHighPulse(pulse);
+				return;
+			}
+			dispatch(HeartRateAlert.Type.HIGH_PULSE, pulse, pulse, 0, 0, 0);
+		}
+
+		@Override
+		public void onLowPulse(double pulse) {
+			if (Thread.currentThread() != detectThread) {
+				heartRateListener.onLowPulse(pulse);
+				return;
+			}
+			dispatch(HeartRateAlert.Type.LOW_PULSE, pulse, pulse, 0, 0, 0);
+		}
+
+		@Override
+		public void onNoPulse() {
+			if (Thread.currentThread() != detectThread) {
+				heartRateListener.onNoPulse();
+				return;
+			}
+			dispatch(HeartRateAlert.Type.NO_PULSE, 0, 0, 0, 0, 0);
+		}
+
+		@Override
+		public void onDisconnected() {
+			if (Thread.currentThread() != detectThread) {
+				heartRateListener.onDisconnected();
+				return;
+			}
+			dispatch(HeartRateAlert.Type.DISCONNECTED, 0, 0, 0, 0, 0);
+		}
+
+		@Override
+		public void onPulseIncreased(double startHeartRate,
+				double endHeartRate, long startTimestamp, long endTimestamp,
+				double increaseingPercantage) {
+			if (Thread.currentThread() != detectThread) {
+				heartRateListener.onPulseIncreased(startHeartRate,
+						endHeartRate, startTimestamp, endTimestamp,
+						increaseingPercantage);
+				return;
+			}
+			dispatch(HeartRateAlert.Type.PULSE_INCREASED, startHeartRate,
+					endHeartRate, startTimestamp, endTimestamp,
+					increaseingPercantage);
+		}
+
+		@Override
+		public void onPulseDecreased(double startHeartRate,
+				double endHeartRate, long startTimestamp, long endTimestamp,
+				double decreasingPercentage) {
+			if (Thread.currentThread() != detectThread) {
+				heartRateListener.onPulseDecreased(startHeartRate,
+						endHeartRate, startTimestamp, endTimestamp,
+						decreasingPercentage);
+				return;
+			}
+			dispatch(HeartRateAlert.Type.PULSE_DECREASED, startHeartRate,
+					endHeartRate, startTimestamp, endTimestamp,
+					decreasingPercentage);
+		}
+
+		@Override
+		public void onSubscribed() {
+			heartRateListener.onSubscribed();
+		}
+
+		@Override
+		public void onUnsubscribed() {
+			heartRateListener.onUnsubscribed();
+		}
+
+		private void dispatch(HeartRateAlert.Type type, double startHeartRate,
+				double endHeartRate, long startTimestamp, long endTimestamp,
+				double percentage) {
+			int slot = claim(alerts, dispatchStage);
+			if (slot < 0) {
+				return;
+			}
+			alerts.references[slot] = heartRateListener;
+			alerts.ints[slot] = type.ordinal();
+			alerts.values0[slot] = startHeartRate;
+			alerts.values1[slot] = endHeartRate;
+			alerts.values2[slot] = percentage;
+			alerts.times0[slot] = startTimestamp;
+			alerts.times1[slot] = endTimestamp;
+		}
+	}
+}
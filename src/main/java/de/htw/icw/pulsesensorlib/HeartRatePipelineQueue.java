@@ -0,0 +1,108 @@
+package de.htw.icw.pulsesensorlib;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pre-allocated single producer, single consumer ring queue between two
+ * stages of a {@link HeartRatePipeline}. An entry is a row of primitive
+ * columns (plus a reference), which the stages fill with a heart rate, a
+ * monitor and its published size, or an alert. Nothing is allocated per
+ * entry.
+ *
+ * The producer writes the columns of {@link #claim()}ed slots and makes a
+ * whole batch visible with a single ordered write in {@link #publish()}. The
+ * consumer processes the {@link #available(int)} entries and frees a whole
+ * batch with {@link #release(int)}.
+ *
+ * @author s0534410
+ */
+final class HeartRatePipelineQueue {
+
+	private final int mask;
+
+	final Object[] references;
+	final int[] ints;
+	final double[] values0;
+	final double[] values1;
+	final double[] values2;
+	final long[] times0;
+	final long[] times1;
+
+	/** the next slot to write, only used by the producer */
+	private long tail;
+	private long cachedHead;
+
+	/** the next slot to read, only used by the consumer */
+	private long head;
+
+	private final AtomicLong publishedTail = new AtomicLong();
+	private final AtomicLong releasedHead = new AtomicLong();
+
+	/**
+	 * @param capacity
+	 *            number of entries, a power of two
+	 */
+	HeartRatePipelineQueue(int capacity) {
+		if (capacity < 2 || Integer.bitCount(capacity) != 1) {
+			throw new IllegalArgumentException(
+					"capacity must be a power of two >= 2: " + capacity);
+		}
+		mask = capacity - 1;
+		references = new Object[capacity];
+		ints = new int[capacity];
+		values0 = new double[capacity];
+		values1 = new double[capacity];
+		values2 = new double[capacity];
+		times0 = new long[capacity];
+		times1 = new long[capacity];
+	}
+
+	/**
+	 * returns the slot of the next entry of the producer, or -1 if the queue
+	 * is full. the entry is visible to the consumer after the next
+	 * {@link #publish()}.
+	 */
+	int claim() {
+		if (tail - cachedHead > mask) {
+			cachedHead = releasedHead.get();
+			if (tail - cachedHead > mask) {
+				return -1;
+			}
+		}
+		return (int) (tail++ & mask);
+	}
+
+	/**
+	 * makes all claimed entries visible to the consumer.
+	 */
+	void publish() {
+		publishedTail.lazySet(tail);
+	}
+
+	/**
+	 * returns the number of entries the consumer can read, at most the given
+	 * maximum.
+	 */
+	int available(int maximum) {
+		return (int) Math.min(maximum, publishedTail.get() - head);
+	}
+
+	/**
+	 * returns the slot of the i-th available entry.
+	 */
+	int slot(int i) {
+		return (int) ((head + i) & mask);
+	}
+
+	/**
+	 * frees the given number of entries which the consumer has processed.
+	 */
+	void release(int count) {
+		for (int i = 0; i < count; i++) {
+			// don't keep monitors or listeners reachable
+			references[slot(i)] = null;
+		}
+		head += count;
+		releasedHead.lazySet(head);
+	}
+}
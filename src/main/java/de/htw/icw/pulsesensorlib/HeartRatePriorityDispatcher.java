@@ -0,0 +1,580 @@
+package de.htw.icw.pulsesensorlib;
+
+import java.io.Closeable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+/**
+ * Calls {@link HeartRateListener}s on its own thread, ordered by the priority
+ * of the callbacks instead of their arrival, so that a backlog of
+ * informational callbacks doesn't delay the life critical ones. Listeners are
+ * wrapped with {@link #dispatching(HeartRateListener)} and subscribed to the
+ * events instead of the listeners themselves.
+ *
+ * Every {@link Priority} has its own bounded lane:
+ *
+ * <ul>
+ * <li>{@link Priority#CRITICAL} callbacks (no pulse, disconnected) are always
+ * dispatched first and never dropped. If their lane is full, the event waits
+ * until there is room.</li>
+ * <li>{@link Priority#NORMAL} callbacks (high and low pulse) are dispatched
+ * next. If their lane is full, the oldest callback is shed.</li>
+ * <li>{@link Priority#BULK} callbacks (pulse increased and decreased) are
+ * dispatched last. If their lane is full, a new callback is coalesced with a
+ * pending callback of the same kind for the same listener, which keeps its
+ * start and takes the end of the new one, otherwise the oldest callback is
+ * shed.</li>
+ * </ul>
+ *
+ * A bulk callback which has waited for the starvation bound is dispatched
+ * before the normal ones, so that bulk callbacks are delayed but not starved.
+ * Pending critical callbacks are always dispatched first, even under a
+ * sustained backlog. The time from the callback of the event to the call of the
+ * listener is recorded per priority (see {@link #getQueueLatency(Priority)}).
+ *
+ * @author s0534410
+ */
+public class HeartRatePriorityDispatcher implements Closeable {
+
+	private static final Logger LOGGER = LogManager
+			.getLogger(HeartRatePriorityDispatcher.class);
+
+	public static final int DEFAULT_LANE_CAPACITY = 1024;
+	public static final long DEFAULT_STARVATION_BOUND_IN_MILLISECONDS = 1000;
+
+	/**
+	 * The priority classes of the callbacks, from the highest to the lowest.
+	 */
+	public enum Priority {
+		CRITICAL, NORMAL, BULK;
+
+		/**
+		 * returns the priority of the callback an alert stands for.
+		 *
+		 * @param type
+		 *            the type of the alert
+		 * @return the priority of the type
+		 */
+		public static Priority of(HeartRateAlert.Type type) {
+			switch (type) {
+			case NO_PULSE:
+			case DISCONNECTED:
+				return CRITICAL;
+			case HIGH_PULSE:
+			case LOW_PULSE:
+				return NORMAL;
+			default:
+				return BULK;
+			}
+		}
+	}
+
+	private final long starvationBoundInNanoseconds;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition();
+	private final Condition criticalNotFull = lock.newCondition();
+
+	// guarded by lock
+	private final Lane[] lanes;
+	private final LatencyHistogram[] queueLatencies;
+	private final long[] shedCallbacks;
+	private long coalescedCallbacks;
+	private boolean closed;
+
+	private Thread thread;
+
+	/**
+	 * creates a dispatcher with lanes of {@link #DEFAULT_LANE_CAPACITY}
+	 * callbacks and a starvation bound of
+	 * {@link #DEFAULT_STARVATION_BOUND_IN_MILLISECONDS}.
+	 */
+	public HeartRatePriorityDispatcher() {
+		this(DEFAULT_LANE_CAPACITY, DEFAULT_STARVATION_BOUND_IN_MILLISECONDS);
+	}
+
+	/**
+	 * @param laneCapacity
+	 *            number of pending callbacks per priority
+	 * @param starvationBoundInMilliseconds
+	 *            the longest time a bulk callback waits while normal ones are
+	 *            dispatched
+	 */
+	public HeartRatePriorityDispatcher(int laneCapacity,
+			long starvationBoundInMilliseconds) {
+		if (laneCapacity < 1 || starvationBoundInMilliseconds < 0) {
+			throw new IllegalArgumentException(
+					"laneCapacity < 1 or starvationBoundInMilliseconds < 0");
+		}
+		starvationBoundInNanoseconds = TimeUnit.MILLISECONDS
+				.toNanos(starvationBoundInMilliseconds);
+
+		int priorities = Priority.values().length;
+		lanes = new Lane[priorities];
+		queueLatencies = new LatencyHistogram[priorities];
+		shedCallbacks = new long[priorities];
+		for (int i = 0; i < priorities; i++) {
+			lanes[i] = new Lane(laneCapacity);
+			queueLatencies[i] = new LatencyHistogram();
+		}
+	}
+
+	/**
+	 * starts the dispatch thread.
+	 */
+	public synchronized void start() {
+		if (thread != null) {
+			throw new IllegalStateException("dispatcher already started");
+		}
+		thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				dispatchLoop();
+			}
+		}, "heart-rate-priority-dispatcher");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * wraps a listener, so that its callbacks are queued by priority and
+	 * called by the dispatch thread.
+	 *
+	 * @param heartRateListener
+	 *            the listener to call
+	 * @return the listener to subscribe to the events
+	 */
+	public HeartRateListener dispatching(HeartRateListener heartRateListener) {
+		return new PrioritizingListener(heartRateListener);
+	}
+
+	/**
+	 * returns the nanoseconds the dispatched callbacks of a priority have
+	 * waited in their lane.
+	 *
+	 * @param priority
+	 *            the priority class
+	 * @return a copy of the queue latencies
+	 */
+	public LatencyHistogram getQueueLatency(Priority priority) {
+		LatencyHistogram copy = new LatencyHistogram();
+		lock.lock();
+		try {
+			copy.add(queueLatencies[priority.ordinal()]);
+		} finally {
+			lock.unlock();
+		}
+		return copy;
+	}
+
+	/**
+	 * returns the number of callbacks of a priority which have been dropped
+	 * because their lane was full.
+	 *
+	 * @param priority
+	 *            the priority class
+	 * @return number of shed callbacks
+	 */
+	public long getShedCallbacks(Priority priority) {
+		lock.lock();
+		try {
+			return shedCallbacks[priority.ordinal()];
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * returns the number of bulk callbacks which have been merged into a
+	 * pending one.
+	 *
+	 * @return number of coalesced callbacks
+	 */
+	public long getCoalescedCallbacks() {
+		lock.lock();
+		try {
+			return coalescedCallbacks;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * returns the number of callbacks of a priority waiting to be dispatched.
+	 *
+	 * @param priority
+	 *            the priority class
+	 * @return number of pending callbacks
+	 */
+	public int getPendingCallbacks(Priority priority) {
+		lock.lock();
+		try {
+			return lanes[priority.ordinal()].count;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * dispatches the pending callbacks and stops the dispatch thread. later
+	 * callbacks are dropped.
+	 */
+	@Override
+	public void close() {
+		lock.lock();
+		try {
+			closed = true;
+			notEmpty.signalAll();
+			criticalNotFull.signalAll();
+		} finally {
+			lock.unlock();
+		}
+
+		Thread dispatchThread;
+		synchronized (this) {
+			dispatchThread = thread;
+		}
+		if (dispatchThread != null
+				&& dispatchThread != Thread.currentThread()) {
+			boolean interrupted = false;
+			while (true) {
+				try {
+					dispatchThread.join();
+					break;
+				} catch (InterruptedException ex) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private void enqueue(HeartRateListener heartRateListener,
+			HeartRateAlert.Type type, double startHeartRate,
+			double endHeartRate, long startTimestamp, long endTimestamp,
+			double percentage) {
+		Priority priority = Priority.of(type);
+		Lane lane = lanes[priority.ordinal()];
+		long now = System.nanoTime();
+
+		lock.lock();
+		try {
+			if (closed) {
+				return;
+			}
+			if (lane.isFull()) {
+				switch (priority) {
+				case CRITICAL:
+					while (lane.isFull() && !closed) {
+						criticalNotFull.awaitUninterruptibly();
+					}
+					if (closed) {
+						return;
+					}
+					break;
+				case BULK:
+					int pending = lane.find(heartRateListener, type);
+					if (pending >= 0) {
+						lane.merge(pending, endHeartRate, endTimestamp,
+								percentage);
+						coalescedCallbacks++;
+						return;
+					}
+					lane.removeOldest();
+					shedCallbacks[priority.ordinal()]++;
+					break;
+				default:
+					lane.removeOldest();
+					shedCallbacks[priority.ordinal()]++;
+					break;
+				}
+			}
+			lane.add(heartRateListener, type, startHeartRate, endHeartRate,
+					startTimestamp, endTimestamp, percentage, now);
+			notEmpty.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void dispatchLoop() {
+		Lane lane;
+		int slot;
+		// copied out of the lane, so the listener is called without the lock
+		HeartRateListener heartRateListener;
+		HeartRateAlert.Type type;
+		double startHeartRate;
+		double endHeartRate;
+		long startTimestamp;
+		long endTimestamp;
+		double percentage;
+
+		while (true) {
+			lock.lock();
+			try {
+				int priority = nextPriority();
+				while (priority < 0) {
+					if (closed) {
+						return;
+					}
+					notEmpty.awaitUninterruptibly();
+					priority = nextPriority();
+				}
+
+				lane = lanes[priority];
+				slot = lane.head;
+				heartRateListener = lane.listeners[slot];
+				type = lane.types[slot];
+				startHeartRate = lane.startHeartRates[slot];
+				endHeartRate = lane.endHeartRates[slot];
+				startTimestamp = lane.startTimestamps[slot];
+				endTimestamp = lane.endTimestamps[slot];
+				percentage = lane.percentages[slot];
+				queueLatencies[priority].record(Math.max(0, System.nanoTime()
+						- lane.enqueueTimes[slot]));
+				lane.removeOldest();
+				if (priority == Priority.CRITICAL.ordinal()) {
+					criticalNotFull.signal();
+				}
+			} finally {
+				lock.unlock();
+			}
+
+			try {
+				call(heartRateListener, type, startHeartRate, endHeartRate,
+						startTimestamp, endTimestamp, percentage);
+			} catch (RuntimeException ex) {
+				// a failing listener must not stop the critical callbacks
+				LOGGER.error("listener failed on " + type, ex);
+			}
+		}
+	}
+
+	/**
+	 * returns the lane to dispatch from next: the critical lane if it has a
+	 * callback, otherwise a starving lane, otherwise the highest priority lane
+	 * with a callback, -1 if all are empty. must be called with the lock held.
+	 */
+	private int nextPriority() {
+		int critical = Priority.CRITICAL.ordinal();
+		if (lanes[critical].count > 0) {
+			// the starvation bound never delays a critical callback
+			return critical;
+		}
+
+		long now = System.nanoTime();
+		int starving = -1;
+		long oldest = Long.MAX_VALUE;
+		for (int i = critical + 1; i < lanes.length; i++) {
+			Lane lane = lanes[i];
+			if (lane.count > 0) {
+				long enqueueTime = lane.enqueueTimes[lane.head];
+				if (now - enqueueTime >= starvationBoundInNanoseconds
+						&& enqueueTime < oldest) {
+					starving = i;
+					oldest = enqueueTime;
+				}
+			}
+		}
+		if (starving >= 0) {
+			return starving;
+		}
+		for (int i = critical + 1; i < lanes.length; i++) {
+			if (lanes[i].count > 0) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static void call(HeartRateListener heartRateListener,
+			HeartRateAlert.Type type, double startHeartRate,
+			double endHeartRate, long startTimestamp, long endTimestamp,
+			double percentage) {
+		switch (type) {
+		case HIGH_PULSE:
+			heartRateListener.onHighPulse(endHeartRate);
+			break;
+		case LOW_PULSE:
+			heartRateListener.onLowPulse(endHeartRate);
+			break;
+		case NO_PULSE:
+			heartRateListener.onNoPulse();
+			break;
+		case DISCONNECTED:
+			heartRateListener.onDisconnected();
+			break;
+		case PULSE_INCREASED:
+			heartRateListener.onPulseIncreased(startHeartRate, endHeartRate,
+					startTimestamp, endTimestamp, percentage);
+			break;
+		case PULSE_DECREASED:
+			heartRateListener.onPulseDecreased(startHeartRate, endHeartRate,
+					startTimestamp, endTimestamp, percentage);
+			break;
+		}
+	}
+
+	/**
+	 * Ring buffer of the pending callbacks of a priority, stored in columns
+	 * so that nothing is allocated per callback.
+	 */
+	private static class Lane {
+
+		final HeartRateListener[] listeners;
+		final HeartRateAlert.Type[] types;
+		final double[] startHeartRates;
+		final double[] endHeartRates;
+		final long[] startTimestamps;
+		final long[] endTimestamps;
+		final double[] percentages;
+		final long[] enqueueTimes;
+
+		int head;
+		int count;
+
+		Lane(int capacity) {
+			listeners = new HeartRateListener[capacity];
+			types = new HeartRateAlert.Type[capacity];
+			startHeartRates = new double[capacity];
+			endHeartRates = new double[capacity];
+			startTimestamps = new long[capacity];
+			endTimestamps = new long[capacity];
+			percentages = new double[capacity];
+			enqueueTimes = new long[capacity];
+		}
+
+		boolean isFull() {
+			return count == listeners.length;
+		}
+
+		void add(HeartRateListener heartRateListener, HeartRateAlert.Type type,
+				double startHeartRate, double endHeartRate,
+				long startTimestamp, long endTimestamp, double percentage,
+				long enqueueTime) {
+			int slot = (head + count) % listeners.length;
+			set(slot, heartRateListener, type, startHeartRate, endHeartRate,
+					startTimestamp, endTimestamp, percentage);
+			enqueueTimes[slot] = enqueueTime;
+			count++;
+		}
+
+		void set(int slot, HeartRateListener heartRateListener,
+				HeartRateAlert.Type type, double startHeartRate,
+				double endHeartRate, long startTimestamp, long endTimestamp,
+				double percentage) {
+			listeners[slot] = heartRateListener;
+			types[slot] = type;
+			startHeartRates[slot] = startHeartRate;
+			endHeartRates[slot] = endHeartRate;
+			startTimestamps[slot] = startTimestamp;
+			endTimestamps[slot] = endTimestamp;
+			percentages[slot] = percentage;
+		}
+
+		/**
+		 * extends a pending increase or decrease to the end of a later one of
+		 * the same kind. the percentage is computed from the pending start
+		 * like the events do, the given one is only used without a start.
+		 */
+		void merge(int slot, double endHeartRate, long endTimestamp,
+				double percentage) {
+			double startHeartRate = startHeartRates[slot];
+			if (startHeartRate > 0) {
+				percentage = types[slot] == HeartRateAlert.Type.PULSE_INCREASED ? 100
+						/ startHeartRate * endHeartRate - 100
+						: 100 - 100 / startHeartRate * endHeartRate;
+			}
+			endHeartRates[slot] = endHeartRate;
+			endTimestamps[slot] = endTimestamp;
+			percentages[slot] = percentage;
+		}
+
+		/** returns the slot of the newest pending callback of a kind or -1 */
+		int find(HeartRateListener heartRateListener, HeartRateAlert.Type type) {
+			for (int i = count - 1; i >= 0; i--) {
+				int slot = (head + i) % listeners.length;
+				if (listeners[slot] == heartRateListener && types[slot] == type) {
+					return slot;
+				}
+			}
+			return -1;
+		}
+
+		void removeOldest() {
+			listeners[head] = null;
+			head = (head + 1) % listeners.length;
+			count--;
+		}
+	}
+
+	/**
+	 * Queues the callbacks for the dispatch thread.
+	 */
+	private class PrioritizingListener implements HeartRateListener {
+
+		private final HeartRateListener heartRateListener;
+
+		PrioritizingListener(HeartRateListener heartRateListener) {
+			this.heartRateListener = heartRateListener;
+		}
+
+		@Override
+		public void onHighPulse(double pulse) {
+			enqueue(heartRateListener, HeartRateAlert.Type.HIGH_PULSE, pulse,
+					pulse, 0, 0, 0);
+		}
+
+		@Override
+		public void onLowPulse(double pulse) {
+			enqueue(heartRateListener, HeartRateAlert.Type.LOW_PULSE, pulse,
+					pulse, 0, 0, 0);
+		}
+
+		@Override
+		public void onNoPulse() {
+			enqueue(heartRateListener, HeartRateAlert.Type.NO_PULSE, 0, 0, 0,
+					0, 0);
+		}
+
+		@Override
+		public void onDisconnected() {
+			enqueue(heartRateListener, HeartRateAlert.Type.DISCONNECTED, 0, 0,
+					0, 0, 0);
+		}
+
+		@Override
+		public void onPulseIncreased(double startHeartRate,
+				double endHeartRate, long startTimestamp, long endTimestamp,
+				double increaseingPercantage) {
+			enqueue(heartRateListener, HeartRateAlert.Type.PULSE_INCREASED,
+					startHeartRate, endHeartRate, startTimestamp, endTimestamp,
+					increaseingPercantage);
+		}
+
+		@Override
+		public void onPulseDecreased(double startHeartRate,
+				double endHeartRate, long startTimestamp, long endTimestamp,
+				double decreasingPercentage) {
+			enqueue(heartRateListener, HeartRateAlert.Type.PULSE_DECREASED,
+					startHeartRate, endHeartRate, startTimestamp, endTimestamp,
+					decreasingPercentage);
+		}
+
+		@Override
+		public void onSubscribed() {
+			heartRateListener.onSubscribed();
+		}
+
+		@Override
+		public void onUnsubscribed() {
+			heartRateListener.onUnsubscribed();
+		}
+	}
+}
@@ -0,0 +1,174 @@
+package de.htw.icw.pulsesensorlib;
+
+import java.util.Arrays;
+
+/**
+ * Aggregate index over the heart rates of a {@link DefaultHeartRateMonitor}.
+ * Sums of any index range are answered in O(1) by prefix sums, the positions
+ * of the minimum and maximum in O(log n) by segment trees. The index is
+ * append friendly: {@link #update()} only indexes the heart rates added since
+ * the last update, which costs O(log n) per heart rate. When the trees are
+ * full, they are rebuilt with twice the capacity.
+ *
+ * @author s0534410
+ */
+class HeartRateRangeIndex {
+
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private final DefaultHeartRateMonitor heartRateMonitor;
+
+	/** prefixSums[i] is the sum of the first i heart rates */
+	private double[] prefixSums = new double[INITIAL_CAPACITY + 1];
+
+	/**
+	 * segment trees of heart rate indexes, the leaves start at capacity. -1
+	 * marks an empty node.
+	 */
+	private int[] minimumTree;
+	private int[] maximumTree;
+	private int capacity;
+
+	/** number of indexed heart rates */
+	private int indexed;
+
+	HeartRateRangeIndex(DefaultHeartRateMonitor heartRateMonitor) {
+		this.heartRateMonitor = heartRateMonitor;
+		allocateTrees(INITIAL_CAPACITY);
+	}
+
+	/**
+	 * indexes all heart rates added to the monitor since the last update.
+	 */
+	void update() {
+		int size = heartRateMonitor.getNumberOfHeartRates();
+		if (size == indexed) {
+			return;
+		}
+
+		boolean grown = size > capacity;
+		if (grown) {
+			int newCapacity = capacity;
+			while (newCapacity < size) {
+				newCapacity *= 2;
+			}
+			prefixSums = Arrays.copyOf(prefixSums, newCapacity + 1);
+			allocateTrees(newCapacity);
+		}
+
+		for (int i = indexed; i < size; i++) {
+			prefixSums[i + 1] = prefixSums[i] + heartRateMonitor.getHeartRate(i);
+		}
+		if (grown) {
+			rebuildTrees(size);
+		} else {
+			for (int i = indexed; i < size; i++) {
+				insertLeaf(i);
+			}
+		}
+		indexed = size;
+	}
+
+	/**
+	 * returns the sum of the heart rates in the given index range.
+	 *
+	 * @param fromIndex
+	 *            first index (inclusive)
+	 * @param toIndex
+	 *            last index (exclusive)
+	 */
+	double sum(int fromIndex, int toIndex) {
+		return prefixSums[toIndex] - prefixSums[fromIndex];
+	}
+
+	/**
+	 * returns the index of the first minimum in the given index range or -1
+	 * if the range is empty.
+	 */
+	int indexOfMinimum(int fromIndex, int toIndex) {
+		return query(minimumTree, fromIndex, toIndex, true);
+	}
+
+	/**
+	 * returns the index of the first maximum in the given index range or -1
+	 * if the range is empty.
+	 */
+	int indexOfMaximum(int fromIndex, int toIndex) {
+		return query(maximumTree, fromIndex, toIndex, false);
+	}
+
+	private int query(int[] tree, int fromIndex, int toIndex,
+			boolean minimum) {
+		int result = -1;
+		int l = fromIndex + capacity;
+		int r = toIndex + capacity;
+		while (l < r) {
+			if ((l & 1) == 1) {
+				result = select(result, tree[l++], minimum);
+			}
+			if ((r & 1) == 1) {
+				result = select(result, tree[--r], minimum);
+			}
+			l >>>= 1;
+			r >>>= 1;
+		}
+		return result;
+	}
+
+	/**
+	 * returns the index with the smaller (bigger) heart rate, on ties the
+	 * first one
+	 */
+	private int select(int first, int second, boolean minimum) {
+		if (first < 0) {
+			return second;
+		}
+		if (second < 0) {
+			return first;
+		}
+
+		double firstHeartRate = heartRateMonitor.getHeartRate(first);
+		double secondHeartRate = heartRateMonitor.getHeartRate(second);
+		if (firstHeartRate == secondHeartRate) {
+			return Math.min(first, second);
+		}
+		if (minimum) {
+			return firstHeartRate < secondHeartRate ? first : second;
+		}
+		return firstHeartRate > secondHeartRate ? first : second;
+	}
+
+	private void insertLeaf(int index) {
+		int node = index + capacity;
+		minimumTree[node] = index;
+		maximumTree[node] = index;
+		for (node >>>= 1; node > 0; node >>>= 1) {
+			minimumTree[node] = select(minimumTree[2 * node],
+					minimumTree[2 * node + 1], true);
+			maximumTree[node] = select(maximumTree[2 * node],
+					maximumTree[2 * node + 1], false);
+		}
+	}
+
+	private void allocateTrees(int newCapacity) {
+		capacity = newCapacity;
+		minimumTree = new int[2 * newCapacity];
+		maximumTree = new int[2 * newCapacity];
+		Arrays.fill(minimumTree, -1);
+		Arrays.fill(maximumTree, -1);
+	}
+
+	/** builds the trees of all heart rates of the monitor bottom up in O(n) */
+	private void rebuildTrees(int size) {
+		for (int i = 0; i < size; i++) {
+			minimumTree[capacity + i] = i;
+			maximumTree[capacity + i] = i;
+		}
+		for (int node = capacity - 1; node > 0; node--) {
+			minimumTree[node] = select(minimumTree[2 * node],
+					minimumTree[2 * node + 1], true);
+			maximumTree[node] = select(maximumTree[2 * node],
+					maximumTree[2 * node + 1], false);
+		}
+	}
+}
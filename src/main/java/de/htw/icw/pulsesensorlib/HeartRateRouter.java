@@ -0,0 +1,28 @@
+package de.htw.icw.pulsesensorlib;
+
+/**
+ * Decides for every record received by a {@link HeartRateIngestServer}
+ * whether it is added to the local monitor of its sensor or taken over, e.g.
+ * forwarded to the node of a cluster which owns the sensor (see
+ * {@link HeartRateClusterNode}). Both methods are called on the selector
+ * thread of the server.
+ *
+ * @author s0534410
+ */
+public interface HeartRateRouter {
+
+	/**
+	 * @param frameType
+	 *            the type of the frame the record was received in
+	 * @return true if the router has taken over the record, false if the
+	 *         server adds it to the local monitor of the sensor
+	 */
+	boolean route(byte frameType, int sensorId, long timestamp,
+			double heartRate);
+
+	/**
+	 * called after the records of all channels which were ready have been
+	 * routed, so that taken over records can be sent in batches.
+	 */
+	void flush();
+}
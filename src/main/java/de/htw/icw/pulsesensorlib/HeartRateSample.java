@@ -0,0 +1,49 @@
+package de.htw.icw.pulsesensorlib;
+
+/**
+ * A heart rate and the time it was measured, as published by a
+ * {@link HeartRateSamplePublisher}.
+ *
+ * @author s0534410
+ */
+public class HeartRateSample {
+
+	private final double heartRate;
+	private final long timestamp;
+
+	public HeartRateSample(double heartRate, long timestamp) {
+		this.heartRate = heartRate;
+		this.timestamp = timestamp;
+	}
+
+	public double getHeartRate() {
+		return heartRate;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof HeartRateSample)) {
+			return false;
+		}
+		HeartRateSample other = (HeartRateSample) obj;
+		return Double.compare(heartRate, other.heartRate) == 0
+				&& timestamp == other.timestamp;
+	}
+
+	@Override
+	public int hashCode() {
+		long bits = Double.doubleToLongBits(heartRate);
+		return 31 * (int) (bits ^ (bits >>> 32))
+				+ (int) (timestamp ^ (timestamp >>> 32));
+	}
+
+	@Override
+	public String toString() {
+		return "HeartRateSample [heartRate=" + heartRate + ", timestamp="
+				+ timestamp + "]";
+	}
+}
@@ -0,0 +1,59 @@
+package de.htw.icw.pulsesensorlib;
+
+/**
+ * Publishes every heart rate added to a {@link HeartRateMonitor} as a
+ * {@link HeartRateSample} to Reactive Streams subscribers (see
+ * {@link AbstractHeartRatePublisher}). The publisher subscribes itself to the
+ * monitor when it is created and unsubscribes on {@link #close()}.
+ *
+ * @author s0534410
+ */
+public class HeartRateSamplePublisher extends
+		AbstractHeartRatePublisher<HeartRateSample> implements AutoCloseable {
+
+	private final HeartRateMonitor heartRateMonitor;
+
+	private final HeartRateEvent heartRateEvent = new HeartRateEvent() {
+
+		@Override
+		public void subscribe(HeartRateListener heartRateListener) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void unsubscribe(HeartRateListener heartRateListener) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void onUpdate(HeartRateMonitor heartRateMonitor) {
+			publish(new HeartRateSample(heartRateMonitor.getLastHeartRate(),
+					heartRateMonitor.getLastTimestamp()));
+		}
+	};
+
+	/**
+	 * @param heartRateMonitor
+	 *            the monitor whose heart rates are published
+	 * @param bufferSize
+	 *            number of heart rates buffered per subscriber
+	 * @param overflowStrategy
+	 *            what to do if the buffer of a subscriber is full
+	 */
+	public HeartRateSamplePublisher(HeartRateMonitor heartRateMonitor,
+			int bufferSize, HeartRateOverflowStrategy overflowStrategy) {
+		super(bufferSize, overflowStrategy);
+		this.heartRateMonitor = heartRateMonitor;
+		heartRateMonitor.subscribe(heartRateEvent);
+	}
+
+	/**
+	 * unsubscribes from the monitor and completes all subscribers after they
+	 * have received their buffered heart rates.
+	 */
+	@Override
+	public void close() {
+		heartRateMonitor.unsubscribe(heartRateEvent);
+		complete();
+	}
+}
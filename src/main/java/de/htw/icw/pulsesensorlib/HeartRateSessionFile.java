@@ -0,0 +1,320 @@
+package de.htw.icw.pulsesensorlib;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A recorded session of a single sensor, archived as a columnar file for
+ * research queries (see {@link HeartRateArchiveScan}).
+ *
+ * The file starts with a header of {@value #HEADER_SIZE} bytes, which holds
+ * the sensor id, the number of heart rates and the minimum and maximum of the
+ * timestamps and heart rates, so that a scan can skip the whole file by
+ * reading the header alone. It is followed by the timestamps and the heart
+ * rates as little endian columns, aligned to 8 bytes. The timestamps have to
+ * be ascending.
+ *
+ * An opened file only reads the header, the columns are memory mapped by
+ * {@link #map()} and read in place, nothing is copied to the heap.
+ *
+ * @author s0534410
+ */
+public final class HeartRateSessionFile implements Closeable {
+
+	private static final int MAGIC = 0x48525346;
+	private static final int VERSION = 1;
+
+	static final int HEADER_SIZE = 48;
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	private final File file;
+	private final FileChannel channel;
+	private final int sensorId;
+	private final int numberOfHeartRates;
+	private final long minimumTimestamp;
+	private final long maximumTimestamp;
+	private final double minimumHeartRate;
+	private final double maximumHeartRate;
+
+	private LongBuffer timestamps;
+	private DoubleBuffer heartRates;
+
+	private HeartRateSessionFile(File file, FileChannel channel, ByteBuffer header)
+			throws IOException {
+		this.file = file;
+		this.channel = channel;
+		if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+			throw new IOException(file + " is not a session file");
+		}
+		sensorId = header.getInt();
+		numberOfHeartRates = header.getInt();
+		minimumTimestamp = header.getLong();
+		maximumTimestamp = header.getLong();
+		minimumHeartRate = header.getDouble();
+		maximumHeartRate = header.getDouble();
+
+		if (numberOfHeartRates < 0
+				|| channel.size() != HEADER_SIZE + (long) numberOfHeartRates
+						* HeartRateColumnCodec.RECORD_SIZE) {
+			throw new IOException(file + " is truncated");
+		}
+	}
+
+	/**
+	 * archives the heart rates of a monitor as a session file. the file is
+	 * written next to the given file first and then moved over it.
+	 *
+	 * @param file
+	 *            the session file, an existing file is replaced
+	 * @param sensorId
+	 *            the sensor which measured the heart rates
+	 * @param heartRateMonitor
+	 *            the monitor to archive
+	 * @throws IOException
+	 *             if the file can't be written
+	 */
+	public static void write(File file, int sensorId,
+			HeartRateMonitor heartRateMonitor) throws IOException {
+		Path target = file.toPath();
+		Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+
+		IndexedHeartRateMonitor indexedMonitor = ListBackedHeartRateMonitor
+				.of(heartRateMonitor);
+		int count = indexedMonitor.getNumberOfHeartRates();
+		double minimumHeartRate = Double.POSITIVE_INFINITY;
+		double maximumHeartRate = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < count; i++) {
+			double heartRate = indexedMonitor.getHeartRate(i);
+			minimumHeartRate = Math.min(minimumHeartRate, heartRate);
+			maximumHeartRate = Math.max(maximumHeartRate, heartRate);
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(
+				ByteOrder.LITTLE_ENDIAN);
+		FileChannel channel = FileChannel.open(temporary,
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			buffer.putInt(MAGIC).putInt(VERSION).putInt(sensorId)
+					.putInt(count);
+			buffer.putLong(count == 0 ? Long.MAX_VALUE : indexedMonitor
+					.getTimestamp(0));
+			buffer.putLong(count == 0 ? Long.MIN_VALUE : indexedMonitor
+					.getTimestamp(count - 1));
+			buffer.putDouble(minimumHeartRate).putDouble(maximumHeartRate);
+
+			if (heartRateMonitor instanceof DefaultHeartRateMonitor) {
+				HeartRateColumnCodec.writeColumns(channel, buffer,
+						((DefaultHeartRateMonitor) heartRateMonitor)
+								.getStorage(), count);
+			} else {
+				for (int i = 0; i < count; i++) {
+					HeartRateColumnCodec.ensureRemaining(channel, buffer, 8);
+					buffer.putLong(indexedMonitor.getTimestamp(i));
+				}
+				for (int i = 0; i < count; i++) {
+					HeartRateColumnCodec.ensureRemaining(channel, buffer, 8);
+					buffer.putDouble(indexedMonitor.getHeartRate(i));
+				}
+			}
+
+			HeartRateColumnCodec.flush(channel, buffer);
+			channel.force(true);
+		} finally {
+			channel.close();
+		}
+
+		Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * opens a session file and reads its header.
+	 *
+	 * @param file
+	 *            the session file
+	 * @return the opened file, which has to be closed
+	 * @throws IOException
+	 *             if the file can't be read or is not a session file
+	 */
+	public static HeartRateSessionFile open(File file) throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(),
+				StandardOpenOption.READ);
+		try {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(
+					ByteOrder.LITTLE_ENDIAN);
+			while (header.hasRemaining()) {
+				if (channel.read(header, header.position()) < 0) {
+					throw new IOException(file + " is not a session file");
+				}
+			}
+			header.flip();
+			return new HeartRateSessionFile(file, channel, header);
+		} catch (IOException ex) {
+			channel.close();
+			throw ex;
+		}
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public int getSensorId() {
+		return sensorId;
+	}
+
+	public int getNumberOfHeartRates() {
+		return numberOfHeartRates;
+	}
+
+	/**
+	 * returns the first timestamp of the session.
+	 *
+	 * @return the first timestamp, Long.MAX_VALUE if the session is empty
+	 */
+	public long getMinimumTimestamp() {
+		return minimumTimestamp;
+	}
+
+	/**
+	 * returns the last timestamp of the session.
+	 *
+	 * @return the last timestamp, Long.MIN_VALUE if the session is empty
+	 */
+	public long getMaximumTimestamp() {
+		return maximumTimestamp;
+	}
+
+	public double getMinimumHeartRate() {
+		return minimumHeartRate;
+	}
+
+	public double getMaximumHeartRate() {
+		return maximumHeartRate;
+	}
+
+	/**
+	 * returns whether the session has heart rates in the given time range,
+	 * judged by the header alone.
+	 *
+	 * @param fromTimestamp
+	 *            start of the range (inclusive)
+	 * @param toTimestamp
+	 *            end of the range (inclusive)
+	 * @return false if the file can be skipped
+	 */
+	public boolean overlaps(long fromTimestamp, long toTimestamp) {
+		return numberOfHeartRates > 0 && minimumTimestamp <= toTimestamp
+				&& maximumTimestamp >= fromTimestamp;
+	}
+
+	/**
+	 * memory maps the columns, unless they are mapped already. the mapping
+	 * is released by the garbage collector after the file has been closed.
+	 *
+	 * @throws IOException
+	 *             if the file can't be mapped
+	 */
+	public synchronized void map() throws IOException {
+		if (timestamps != null) {
+			return;
+		}
+		long columnsSize = (long) numberOfHeartRates
+				* HeartRateColumnCodec.RECORD_SIZE;
+		if (columnsSize > Integer.MAX_VALUE) {
+			throw new IOException(file + " is too large to be mapped");
+		}
+		MappedByteBuffer columns = channel.map(FileChannel.MapMode.READ_ONLY,
+				HEADER_SIZE, columnsSize);
+		columns.order(ByteOrder.LITTLE_ENDIAN);
+
+		columns.limit(numberOfHeartRates * 8);
+		LongBuffer mappedTimestamps = columns.slice()
+				.order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+		columns.limit((int) columnsSize).position(numberOfHeartRates * 8);
+		heartRates = columns.slice().order(ByteOrder.LITTLE_ENDIAN)
+				.asDoubleBuffer();
+		timestamps = mappedTimestamps;
+	}
+
+	/**
+	 * returns the timestamp at the given index of the mapped columns.
+	 *
+	 * @param index
+	 *            index of the heart rate
+	 * @return the timestamp
+	 */
+	public long getTimestamp(int index) {
+		return timestamps.get(index);
+	}
+
+	/**
+	 * returns the heart rate at the given index of the mapped columns.
+	 *
+	 * @param index
+	 *            index of the heart rate
+	 * @return the heart rate
+	 */
+	public double getHeartRate(int index) {
+		return heartRates.get(index);
+	}
+
+	/**
+	 * returns the index of the first timestamp &gt;= the given one.
+	 *
+	 * @param timestamp
+	 *            the timestamp to search
+	 * @return index of the timestamp
+	 */
+	public int lowerBound(long timestamp) {
+		int low = 0;
+		int high = numberOfHeartRates;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (timestamps.get(middle) < timestamp) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * returns the index of the first timestamp &gt; the given one.
+	 *
+	 * @param timestamp
+	 *            the timestamp to search
+	 * @return index after the timestamp
+	 */
+	public int upperBound(long timestamp) {
+		int low = 0;
+		int high = numberOfHeartRates;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (timestamps.get(middle) <= timestamp) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
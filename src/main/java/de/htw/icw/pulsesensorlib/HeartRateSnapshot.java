@@ -0,0 +1,309 @@
+package de.htw.icw.pulsesensorlib;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the heart rates of all monitors of a {@link HeartRateMonitorRegistry}
+ * and the state of {@link PulseWaveBeatDetector}s to a binary snapshot file
+ * and restores them after a restart. Since the events of a monitor evaluate the
+ * history of the monitor, their observation windows are warm again as soon as
+ * the history is restored.
+ *
+ * The file consists of a header, one entry per monitor with its timestamps and
+ * heart rates as little endian columns and one entry per beat detector. All
+ * columns are aligned to 8 bytes. Columns are written with bulk copies from
+ * the monitors and restored with bulk copies out of the memory mapped file
+ * into the monitors, nothing is parsed per heart rate. Restoring a monitor
+ * does not notify its events.
+ *
+ * @author s0534410
+ */
+public final class HeartRateSnapshot {
+
+	private static final int MAGIC = 0x48525353;
+	private static final int VERSION = 1;
+
+	private static final int HEADER_SIZE = 16;
+	private static final int ENTRY_HEADER_SIZE = 8;
+	private static final int BUFFER_SIZE = 1 << 20;
+	private static final long MAPPING_SIZE = 256L << 20;
+
+	private HeartRateSnapshot() {
+	}
+
+	/**
+	 * writes the heart rates of all monitors of the registry to a snapshot.
+	 *
+	 * @param file
+	 *            the snapshot file, an existing file is replaced
+	 * @param heartRateMonitorRegistry
+	 *            the monitors to write
+	 * @throws IOException
+	 *             if the file can't be written
+	 */
+	public static void write(File file,
+			HeartRateMonitorRegistry heartRateMonitorRegistry)
+			throws IOException {
+		write(file, heartRateMonitorRegistry,
+				Collections.<Integer, PulseWaveBeatDetector> emptyMap());
+	}
+
+	/**
+	 * writes the heart rates of all monitors of the registry and the state of
+	 * the given beat detectors to a snapshot. the file is written next to the
+	 * given file first and then moved over it, so an existing snapshot is only
+	 * replaced by a complete one.
+	 *
+	 * @param file
+	 *            the snapshot file, an existing file is replaced
+	 * @param heartRateMonitorRegistry
+	 *            the monitors to write
+	 * @param beatDetectors
+	 *            the beat detectors to write by sensor id
+	 * @throws IOException
+	 *             if the file can't be written
+	 */
+	public static void write(File file,
+			HeartRateMonitorRegistry heartRateMonitorRegistry,
+			Map<Integer, PulseWaveBeatDetector> beatDetectors)
+			throws IOException {
+		Path target = file.toPath();
+		Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+
+		int[] sensorIds = heartRateMonitorRegistry.getSensorIds();
+		ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(
+				ByteOrder.LITTLE_ENDIAN);
+
+		FileChannel channel = FileChannel.open(temporary,
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			buffer.putInt(MAGIC).putInt(VERSION).putInt(sensorIds.length)
+					.putInt(beatDetectors.size());
+
+			for (int sensorId : sensorIds) {
+				HeartRateMonitor heartRateMonitor = heartRateMonitorRegistry
+						.findHeartRateMonitor(sensorId);
+				writeHeartRateMonitor(channel, buffer, sensorId,
+						heartRateMonitor);
+			}
+
+			for (Map.Entry<Integer, PulseWaveBeatDetector> entry : beatDetectors
+					.entrySet()) {
+				HeartRateColumnCodec.ensureRemaining(channel, buffer,
+						ENTRY_HEADER_SIZE + PulseWaveBeatDetector.STATE_SIZE);
+				buffer.putInt(entry.getKey()).putInt(0);
+				entry.getValue().writeState(buffer);
+			}
+
+			HeartRateColumnCodec.flush(channel, buffer);
+			channel.force(true);
+		} finally {
+			channel.close();
+		}
+
+		Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * restores the heart rates of a snapshot. the monitors are obtained from
+	 * the registry, so monitors of unknown sensors are created by its factory.
+	 *
+	 * @param file
+	 *            the snapshot file
+	 * @param heartRateMonitorRegistry
+	 *            provides the monitors to restore
+	 * @throws IOException
+	 *             if the file can't be read or is not a snapshot
+	 */
+	public static void restore(File file,
+			HeartRateMonitorRegistry heartRateMonitorRegistry)
+			throws IOException {
+		restore(file, heartRateMonitorRegistry,
+				Collections.<Integer, PulseWaveBeatDetector> emptyMap());
+	}
+
+	/**
+	 * restores the heart rates and the state of the beat detectors of a
+	 * snapshot. states of sensors without a beat detector in the given map are
+	 * skipped.
+	 *
+	 * @param file
+	 *            the snapshot file
+	 * @param heartRateMonitorRegistry
+	 *            provides the monitors to restore
+	 * @param beatDetectors
+	 *            the beat detectors to restore by sensor id
+	 * @throws IOException
+	 *             if the file can't be read or is not a snapshot
+	 */
+	public static void restore(File file,
+			HeartRateMonitorRegistry heartRateMonitorRegistry,
+			Map<Integer, PulseWaveBeatDetector> beatDetectors)
+			throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(),
+				StandardOpenOption.READ);
+		try {
+			MappedRegions regions = new MappedRegions(channel);
+
+			ByteBuffer header = regions.get(0, HEADER_SIZE);
+			if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+				throw new IOException(file + " is not a heart rate snapshot");
+			}
+			int numberOfMonitors = header.getInt();
+			int numberOfBeatDetectors = header.getInt();
+
+			long position = HEADER_SIZE;
+			for (int i = 0; i < numberOfMonitors; i++) {
+				ByteBuffer entryHeader = regions.get(position,
+						ENTRY_HEADER_SIZE);
+				int sensorId = entryHeader.getInt();
+				int count = entryHeader.getInt();
+				position += ENTRY_HEADER_SIZE;
+
+				restoreHeartRateMonitor(
+						heartRateMonitorRegistry.getHeartRateMonitor(sensorId),
+						regions.get(position, count * 16L), count);
+				position += count * 16L;
+			}
+
+			for (int i = 0; i < numberOfBeatDetectors; i++) {
+				ByteBuffer entry = regions.get(position, ENTRY_HEADER_SIZE
+						+ PulseWaveBeatDetector.STATE_SIZE);
+				int sensorId = entry.getInt();
+				entry.getInt();
+				position += ENTRY_HEADER_SIZE
+						+ PulseWaveBeatDetector.STATE_SIZE;
+
+				PulseWaveBeatDetector beatDetector = beatDetectors
+						.get(sensorId);
+				if (beatDetector != null) {
+					beatDetector.readState(entry);
+				}
+			}
+		} finally {
+			channel.close();
+		}
+	}
+
+	private static void writeHeartRateMonitor(FileChannel channel,
+			ByteBuffer buffer, int sensorId, HeartRateMonitor heartRateMonitor)
+			throws IOException {
+		if (heartRateMonitor == null) {
+			// removed while writing
+			HeartRateColumnCodec.ensureRemaining(channel, buffer,
+					ENTRY_HEADER_SIZE);
+			buffer.putInt(sensorId).putInt(0);
+			return;
+		}
+
+		if (heartRateMonitor instanceof DefaultHeartRateMonitor) {
+			HeartRateStorage storage = ((DefaultHeartRateMonitor) heartRateMonitor)
+					.getStorage();
+			int count = storage.size();
+
+			HeartRateColumnCodec.ensureRemaining(channel, buffer,
+					ENTRY_HEADER_SIZE);
+			buffer.putInt(sensorId).putInt(count);
+			HeartRateColumnCodec.writeColumns(channel, buffer, storage, count);
+		} else {
+			List<Long> timestamps = heartRateMonitor.getAllMeasuredTimestamps();
+			List<Double> heartRates = heartRateMonitor
+					.getAllMeasuredHeartRates();
+			int count = timestamps.size();
+
+			HeartRateColumnCodec.ensureRemaining(channel, buffer,
+					ENTRY_HEADER_SIZE);
+			buffer.putInt(sensorId).putInt(count);
+			for (int i = 0; i < count; i++) {
+				HeartRateColumnCodec.ensureRemaining(channel, buffer, 8);
+				buffer.putLong(timestamps.get(i));
+			}
+			for (int i = 0; i < count; i++) {
+				HeartRateColumnCodec.ensureRemaining(channel, buffer, 8);
+				buffer.putDouble(heartRates.get(i));
+			}
+		}
+	}
+
+	private static void restoreHeartRateMonitor(
+			HeartRateMonitor heartRateMonitor, ByteBuffer columns, int count)
+			throws IOException {
+		if (heartRateMonitor instanceof DefaultHeartRateMonitor) {
+			DefaultHeartRateMonitor defaultHeartRateMonitor = (DefaultHeartRateMonitor) heartRateMonitor;
+			HeartRateColumnCodec.readColumns(columns,
+					defaultHeartRateMonitor.getStorage(), count);
+			defaultHeartRateMonitor.checkOrder();
+			return;
+		}
+
+		int heartRateOffset = columns.position() + count * 8;
+		try {
+			for (int i = 0; i < count; i++) {
+				heartRateMonitor.addHeartRate(
+						columns.getDouble(heartRateOffset + i * 8),
+						columns.getLong(columns.position() + i * 8));
+			}
+		} catch (NoNegativeHeartRatesPossibleException ex) {
+			throw new IOException("snapshot contains a negative heart rate", ex);
+		}
+	}
+
+	/**
+	 * Maps the file in large windows and hands out little endian buffers of
+	 * regions within the current window.
+	 */
+	private static class MappedRegions {
+
+		private final FileChannel channel;
+		private final long fileSize;
+
+		private MappedByteBuffer mapping;
+		private long mappingStart;
+
+		MappedRegions(FileChannel channel) throws IOException {
+			this.channel = channel;
+			this.fileSize = channel.size();
+		}
+
+		/**
+		 * returns a buffer whose position is at the given file position and
+		 * which has at least the given number of bytes remaining.
+		 */
+		ByteBuffer get(long position, long length) throws IOException {
+			if (position + length > fileSize) {
+				throw new IOException("snapshot is truncated");
+			}
+			if (length > Integer.MAX_VALUE) {
+				throw new IOException("snapshot entry too big to be mapped");
+			}
+
+			if (mapping == null || position < mappingStart
+					|| position + length > mappingStart + mapping.capacity()) {
+				long size = Math.min(fileSize - position,
+						Math.max(length, MAPPING_SIZE));
+				mapping = channel.map(FileChannel.MapMode.READ_ONLY, position,
+						size);
+				mappingStart = position;
+			}
+
+			ByteBuffer region = mapping.duplicate().order(
+					ByteOrder.LITTLE_ENDIAN);
+			region.position((int) (position - mappingStart));
+			return region;
+		}
+	}
+}
@@ -0,0 +1,82 @@
+package de.htw.icw.pulsesensorlib;
+
+/**
+ * Aggregated heart rates of a time range (see
+ * {@link DefaultHeartRateMonitor#getHeartRateStatistics(long, boolean, long, boolean)
+ * getHeartRateStatistics}). If the range contains no heart rate, the count is
+ * 0 and all other values are NaN or -1 respectively.
+ *
+ * @author s0534410
+ */
+public class HeartRateStatistics {
+
+	private final int count;
+	private final double sum;
+	private final double minimum;
+	private final long minimumTimestamp;
+	private final double maximum;
+	private final long maximumTimestamp;
+
+	public HeartRateStatistics(int count, double sum, double minimum,
+			long minimumTimestamp, double maximum, long maximumTimestamp) {
+		this.count = count;
+		this.sum = sum;
+		this.minimum = minimum;
+		this.minimumTimestamp = minimumTimestamp;
+		this.maximum = maximum;
+		this.maximumTimestamp = maximumTimestamp;
+	}
+
+	/**
+	 * returns the statistics of a range without heart rates.
+	 *
+	 * @return empty statistics
+	 */
+	public static HeartRateStatistics empty() {
+		return new HeartRateStatistics(0, 0, Double.NaN, -1, Double.NaN, -1);
+	}
+
+	public int getCount() {
+		return count;
+	}
+
+	public double getSum() {
+		return sum;
+	}
+
+	public double getMean() {
+		return count == 0 ? Double.NaN : sum / count;
+	}
+
+	public double getMinimum() {
+		return minimum;
+	}
+
+	/**
+	 * returns the timestamp of the first occurrence of the minimum.
+	 *
+	 * @return timestamp of the minimum
+	 */
+	public long getMinimumTimestamp() {
+		return minimumTimestamp;
+	}
+
+	public double getMaximum() {
+		return maximum;
+	}
+
+	/**
+	 * returns the timestamp of the first occurrence of the maximum.
+	 *
+	 * @return timestamp of the maximum
+	 */
+	public long getMaximumTimestamp() {
+		return maximumTimestamp;
+	}
+
+	@Override
+	public String toString() {
+		return "HeartRateStatistics [count=" + count + ", mean=" + getMean()
+				+ ", minimum=" + minimum + ", maximum=" + maximum + "]";
+	}
+}
@@ -0,0 +1,106 @@
+package de.htw.icw.pulsesensorlib;
+
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+
+/**
+ * Storage of the heart rates and timestamps of a
+ * {@link DefaultHeartRateMonitor}. The monitor checks the bounds of the
+ * indexes, so an implementation only has to store and return the values.
+ * Implementations are not required to be thread safe. The storages of the
+ * library allow a single thread to add heart rates while other threads read
+ * the first {@link #size()} ones, which a {@link HeartRatePipeline} relies on.
+ * This only holds for the storage: the statistics queries of a monitor update
+ * its aggregate index, so they have to run on the thread which runs its events.
+ *
+ * @author s0534410
+ *
+ * @see ArrayHeartRateStorage
+ * @see OffHeapHeartRateStorage
+ */
+public interface HeartRateStorage extends AutoCloseable {
+
+	/**
+	 * returns the number of stored heart rates.
+	 *
+	 * @return number of stored heart rates
+	 */
+	int size();
+
+	/**
+	 * returns the heart rate at the given index.
+	 *
+	 * @param index
+	 *            an index &gt;= 0 and &lt; {@link #size()}
+	 * @return the heart rate at the index
+	 */
+	double getHeartRate(int index);
+
+	/**
+	 * returns the timestamp at the given index.
+	 *
+	 * @param index
+	 *            an index &gt;= 0 and &lt; {@link #size()}
+	 * @return the timestamp at the index
+	 */
+	long getTimestamp(int index);
+
+	/**
+	 * appends a heart rate and its timestamp.
+	 *
+	 * @param heartRate
+	 *            the heart rate
+	 * @param timestamp
+	 *            the timestamp of the heart rate
+	 * @throws IllegalStateException
+	 *             if the storage is closed or out of memory
+	 */
+	void add(double heartRate, long timestamp);
+
+	/**
+	 * appends heart rates and timestamps read from the given buffers.
+	 *
+	 * @param heartRateBuffer
+	 *            buffer with the heart rates
+	 * @param timestampBuffer
+	 *            buffer with the timestamps
+	 * @param count
+	 *            number of heart rates to read
+	 * @throws IllegalStateException
+	 *             if the storage is closed or out of memory
+	 */
+	void addAll(DoubleBuffer heartRateBuffer, LongBuffer timestampBuffer,
+			int count);
+
+	/**
+	 * writes heart rates to the given buffer.
+	 *
+	 * @param heartRateBuffer
+	 *            receives the heart rates
+	 * @param fromIndex
+	 *            index of the first heart rate to write
+	 * @param count
+	 *            number of heart rates to write
+	 */
+	void copyHeartRatesTo(DoubleBuffer heartRateBuffer, int fromIndex,
+			int count);
+
+	/**
+	 * writes timestamps to the given buffer.
+	 *
+	 * @param timestampBuffer
+	 *            receives the timestamps
+	 * @param fromIndex
+	 *            index of the first timestamp to write
+	 * @param count
+	 *            number of timestamps to write
+	 */
+	void copyTimestampsTo(LongBuffer timestampBuffer, int fromIndex, int count);
+
+	/**
+	 * frees the memory of the storage. the storage is empty afterwards and
+	 * must not be used anymore.
+	 */
+	@Override
+	void close();
+}
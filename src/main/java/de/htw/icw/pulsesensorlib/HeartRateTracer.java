@@ -0,0 +1,64 @@
+package de.htw.icw.pulsesensorlib;
+
+/**
+ * Receives the durations of the steps a heart rate passes, from adding it to
+ * a {@link DefaultHeartRateMonitor} to the calls of the
+ * {@link HeartRateListener}s, so that late callbacks can be attributed to
+ * ingestion, window lookup, detection or a slow listener. A tracer is
+ * installed with {@link HeartRateTracing#setTracer(HeartRateTracer)}.
+ *
+ * The callbacks are made on the thread which runs the events of the monitor,
+ * right after the traced step, and carry the sensor id of the monitor (-1 if
+ * the monitor is not registered in a {@link HeartRateMonitorRegistry}) and
+ * the timestamp of the heart rate. Durations are in nanoseconds. A tracer has
+ * to be thread safe and fast, it runs on the ingestion path.
+ *
+ * Listeners which are handed off to another thread, by
+ * {@link HeartRatePipeline#dispatching(HeartRateListener)} or a
+ * {@link HeartRatePriorityDispatcher}, are not traced there:
+ * {@link #onListenerCalled} only measures the hand-off. Steps traced on a
+ * thread which is not adding a heart rate, e.g. a window looked up by a
+ * query, carry the sensor id -1 and the timestamp 0.
+ *
+ * @author s0534410
+ */
+public interface HeartRateTracer {
+
+	/**
+	 * called after a heart rate has been added and all events have run.
+	 *
+	 * @param appendNanoseconds
+	 *            time to store the heart rate, 0 if it was stored by a
+	 *            {@link HeartRatePipeline}
+	 * @param detectionNanoseconds
+	 *            time of all events including their listeners
+	 */
+	void onHeartRateAdded(int sensorId, long timestamp,
+			long appendNanoseconds, long detectionNanoseconds);
+
+	/**
+	 * called after the index of a window of the monitor has been looked up
+	 * (see {@link HeartRateMonitor#getIndexOfLastSeconds(double)}).
+	 */
+	void onWindowLookedUp(int sensorId, long timestamp, long nanoseconds);
+
+	/**
+	 * called after a detector of the {@link DefaultHeartRateEvent} has run,
+	 * including the listeners it notified.
+	 *
+	 * @param detector
+	 *            the callback the detector tests for
+	 */
+	void onDetectorEvaluated(int sensorId, long timestamp,
+			HeartRateAlert.Type detector, long nanoseconds);
+
+	/**
+	 * called after a listener of an event has returned.
+	 *
+	 * @param callback
+	 *            the callback which was called
+	 */
+	void onListenerCalled(int sensorId, long timestamp,
+			HeartRateListener heartRateListener, HeartRateAlert.Type callback,
+			long nanoseconds);
+}
@@ -0,0 +1,62 @@
+package de.htw.icw.pulsesensorlib;
+
+/**
+ * Installs the {@link HeartRateTracer} of the library. Tracing is off by
+ * default: then every traced step only reads a volatile field and neither
+ * queries the clock nor allocates. While a tracer is installed, the monitor
+ * which is adding a heart rate records its sensor id and the timestamp of the
+ * heart rate for the current thread, so that events and listeners can be
+ * attributed to it.
+ *
+ * @author s0534410
+ */
+public final class HeartRateTracing {
+
+	private static volatile HeartRateTracer tracer;
+
+	private static final ThreadLocal<Context> CONTEXT = new ThreadLocal<Context>() {
+		@Override
+		protected Context initialValue() {
+			return new Context();
+		}
+	};
+
+	private HeartRateTracing() {
+	}
+
+	/**
+	 * installs a tracer for all monitors, events and listeners.
+	 *
+	 * @param heartRateTracer
+	 *            the tracer or null to turn tracing off
+	 */
+	public static void setTracer(HeartRateTracer heartRateTracer) {
+		tracer = heartRateTracer;
+	}
+
+	/**
+	 * returns the installed tracer.
+	 *
+	 * @return the tracer or null if tracing is off
+	 */
+	public static HeartRateTracer getTracer() {
+		return tracer;
+	}
+
+	/**
+	 * returns the context of the heart rate the current thread is adding.
+	 * only used while a tracer is installed.
+	 */
+	static Context context() {
+		return CONTEXT.get();
+	}
+
+	/**
+	 * The sensor id and timestamp of the heart rate which is being added.
+	 */
+	static final class Context {
+
+		int sensorId = -1;
+		long timestamp;
+	}
+}
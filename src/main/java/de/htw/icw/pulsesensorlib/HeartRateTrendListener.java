@@ -0,0 +1,26 @@
+package de.htw.icw.pulsesensorlib;
+
+/**
+ * Listener of the {@link TrendHeartRateEvent}. It is notified once per trend,
+ * i.e. when the slope of the heart rates in the window has exceeded a limit.
+ *
+ * @author s0534410
+ */
+public interface HeartRateTrendListener {
+
+	/**
+	 * @param slopeInBpmPerMinute
+	 *            the least squares slope of the heart rates in the window,
+	 *            positive if they rise and negative if they fall
+	 * @param startHeartRate
+	 *            the fitted heart rate at the start timestamp
+	 * @param endHeartRate
+	 *            the fitted heart rate at the end timestamp
+	 * @param startTimestamp
+	 *            timestamp of the oldest heart rate in the window
+	 * @param endTimestamp
+	 *            timestamp of the heart rate which exceeded the limit
+	 */
+	void onTrend(double slopeInBpmPerMinute, double startHeartRate,
+			double endHeartRate, long startTimestamp, long endTimestamp);
+}
@@ -0,0 +1,361 @@
+package de.htw.icw.pulsesensorlib;
+
+/**
+ * Frequency domain heart rate variability of a monitor. The heart rates are
+ * converted to beat intervals (60000 / heart rate in milliseconds), resampled
+ * onto a uniform grid by linear interpolation, detrended by subtracting their
+ * least squares line, Hann windowed and transformed with a {@link RealFft}.
+ * The power spectral density is integrated over the low frequency band (0.04
+ * to 0.15 Hz) and the high frequency band (0.15 to 0.4 Hz). Readings of zero
+ * (no pulse) are interpolated over.
+ *
+ * The window slides along the grid: an update only resamples the grid points
+ * since the previous update into a ring buffer and transforms the window
+ * again, so refreshing a dashboard every second costs a single FFT of the
+ * window size and allocates nothing (for an {@link IndexedHeartRateMonitor},
+ * other monitors are read through a copy of their heart rates). A grid point is only resampled once a
+ * later heart rate exists, so it never changes afterwards.
+ *
+ * <pre>
+ * HeartRateVariabilitySpectrum spectrum = new HeartRateVariabilitySpectrum(
+ * 		512, 4);
+ * ...
+ * if (spectrum.update(heartRateMonitor)) {
+ * 	display(spectrum.getLowToHighFrequencyRatio());
+ * }
+ * </pre>
+ *
+ * An instance analyzes a single monitor and is not thread safe.
+ *
+ * @author s0534410
+ */
+public class HeartRateVariabilitySpectrum {
+
+	public static final double DEFAULT_SAMPLE_RATE_IN_HZ = 4;
+
+	public static final double LOW_FREQUENCY_BAND_START_IN_HZ = 0.04;
+	public static final double HIGH_FREQUENCY_BAND_START_IN_HZ = 0.15;
+	public static final double HIGH_FREQUENCY_BAND_END_IN_HZ = 0.4;
+
+	private final int windowSize;
+	private final double sampleRateInHz;
+	private final double gridIntervalInMilliseconds;
+	private final RealFft fft;
+
+	private final double[] window;
+	private final double windowPowerScale;
+
+	/** resampled beat intervals, grid point g is at g % windowSize */
+	private final double[] beatIntervals;
+	private final double[] spectrum;
+	private final double[] powerSpectralDensity;
+
+	/** number of contiguous resampled grid points, up to the window size */
+	private int filled;
+	private long lastGridIndex = Long.MIN_VALUE;
+	private boolean computed;
+
+	private double lowFrequencyPower = Double.NaN;
+	private double highFrequencyPower = Double.NaN;
+
+	/**
+	 * creates a spectrum resampled with {@link #DEFAULT_SAMPLE_RATE_IN_HZ}.
+	 *
+	 * @param windowSize
+	 *            number of grid points of the window, a power of two &gt;= 4
+	 */
+	public HeartRateVariabilitySpectrum(int windowSize) {
+		this(windowSize, DEFAULT_SAMPLE_RATE_IN_HZ);
+	}
+
+	/**
+	 * @param windowSize
+	 *            number of grid points of the window, a power of two &gt;= 4
+	 * @param sampleRateInHz
+	 *            sample rate of the grid
+	 */
+	public HeartRateVariabilitySpectrum(int windowSize, double sampleRateInHz) {
+		if (!(sampleRateInHz > 0)) {
+			throw new IllegalArgumentException("sampleRateInHz must be positive");
+		}
+		this.fft = RealFft.forSize(windowSize);
+		this.windowSize = windowSize;
+		this.sampleRateInHz = sampleRateInHz;
+		this.gridIntervalInMilliseconds = 1000 / sampleRateInHz;
+
+		window = new double[windowSize];
+		double sumOfSquares = 0;
+		for (int i = 0; i < windowSize; i++) {
+			window[i] = 0.5 - 0.5 * Math.cos(2 * Math.PI * i / windowSize);
+			sumOfSquares += window[i] * window[i];
+		}
+		windowPowerScale = 1 / (sampleRateInHz * sumOfSquares);
+
+		beatIntervals = new double[windowSize];
+		spectrum = new double[windowSize];
+		powerSpectralDensity = new double[windowSize / 2 + 1];
+	}
+
+	/**
+	 * slides the window to the last heart rate of the monitor.
+	 *
+	 * @param heartRateMonitor
+	 *            the monitor analyzed by this spectrum
+	 * @return true if the window is covered by heart rates and the spectrum
+	 *         has been computed
+	 */
+	public boolean update(HeartRateMonitor heartRateMonitor) {
+		return update(heartRateMonitor, Long.MAX_VALUE);
+	}
+
+	/**
+	 * slides the window to the given timestamp, or to the last heart rate of
+	 * the monitor if that is earlier.
+	 *
+	 * @param heartRateMonitor
+	 *            the monitor analyzed by this spectrum
+	 * @param endTimestamp
+	 *            end of the window
+	 * @return true if the window is covered by heart rates and the spectrum
+	 *         has been computed
+	 */
+	public boolean update(HeartRateMonitor heartRateMonitor, long endTimestamp) {
+		IndexedHeartRateMonitor indexedMonitor = ListBackedHeartRateMonitor
+				.of(heartRateMonitor);
+		int size = indexedMonitor.getNumberOfHeartRates();
+		if (size < 2) {
+			return false;
+		}
+		long end = Math.min(endTimestamp, indexedMonitor.getTimestamp(size - 1));
+		long endGridIndex = (long) Math.floor(end / gridIntervalInMilliseconds);
+
+		if (endGridIndex != lastGridIndex) {
+			long firstGridIndex;
+			if (filled == 0 || endGridIndex < lastGridIndex
+					|| endGridIndex - lastGridIndex >= windowSize) {
+				filled = 0;
+				firstGridIndex = endGridIndex - windowSize + 1;
+			} else {
+				firstGridIndex = lastGridIndex + 1;
+			}
+			resample(indexedMonitor, size, firstGridIndex, endGridIndex);
+			lastGridIndex = endGridIndex;
+			computed = false;
+		}
+
+		if (filled < windowSize) {
+			return false;
+		}
+		if (!computed) {
+			computeSpectrum();
+			computed = true;
+		}
+		return true;
+	}
+
+	/**
+	 * forgets the resampled heart rates, e.g. to analyze another monitor.
+	 */
+	public void reset() {
+		filled = 0;
+		lastGridIndex = Long.MIN_VALUE;
+		computed = false;
+		lowFrequencyPower = Double.NaN;
+		highFrequencyPower = Double.NaN;
+	}
+
+	public int getWindowSize() {
+		return windowSize;
+	}
+
+	public double getSampleRateInHz() {
+		return sampleRateInHz;
+	}
+
+	/**
+	 * returns the number of frequency bins, from 0 Hz to half the sample rate.
+	 *
+	 * @return number of bins
+	 */
+	public int getNumberOfBins() {
+		return powerSpectralDensity.length;
+	}
+
+	/**
+	 * returns the center frequency of a bin.
+	 *
+	 * @param bin
+	 *            0 to {@link #getNumberOfBins()} - 1
+	 * @return frequency in Hz
+	 */
+	public double getFrequency(int bin) {
+		return bin * sampleRateInHz / windowSize;
+	}
+
+	/**
+	 * returns the power spectral density of a bin of the last computed
+	 * spectrum.
+	 *
+	 * @param bin
+	 *            0 to {@link #getNumberOfBins()} - 1
+	 * @return density in ms&sup2;/Hz
+	 */
+	public double getPowerSpectralDensity(int bin) {
+		return powerSpectralDensity[bin];
+	}
+
+	/**
+	 * returns the power of the low frequency band (0.04 to 0.15 Hz).
+	 *
+	 * @return power in ms&sup2; or NaN if no spectrum has been computed
+	 */
+	public double getLowFrequencyPower() {
+		return lowFrequencyPower;
+	}
+
+	/**
+	 * returns the power of the high frequency band (0.15 to 0.4 Hz).
+	 *
+	 * @return power in ms&sup2; or NaN if no spectrum has been computed
+	 */
+	public double getHighFrequencyPower() {
+		return highFrequencyPower;
+	}
+
+	/**
+	 * returns the ratio of the low frequency power to the high frequency
+	 * power.
+	 *
+	 * @return LF/HF ratio or NaN if no spectrum has been computed
+	 */
+	public double getLowToHighFrequencyRatio() {
+		return lowFrequencyPower / highFrequencyPower;
+	}
+
+	/**
+	 * resamples the beat intervals at the given grid points. grid points before
+	 * the first heart rate break the window.
+	 */
+	private void resample(IndexedHeartRateMonitor heartRateMonitor,
+			int size, long firstGridIndex, long endGridIndex) {
+		double firstTime = firstGridIndex * gridIntervalInMilliseconds;
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (heartRateMonitor.getTimestamp(middle) <= firstTime) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		// index of the last heart rate at or before the current grid point
+		int index = low - 1;
+
+		for (long gridIndex = firstGridIndex; gridIndex <= endGridIndex; gridIndex++) {
+			double time = gridIndex * gridIntervalInMilliseconds;
+			while (index + 1 < size
+					&& heartRateMonitor.getTimestamp(index + 1) <= time) {
+				index++;
+			}
+
+			double beatInterval = interpolate(heartRateMonitor, size, index,
+					time);
+			if (Double.isNaN(beatInterval)) {
+				filled = 0;
+				continue;
+			}
+			beatIntervals[ringIndex(gridIndex)] = beatInterval;
+			if (filled < windowSize) {
+				filled++;
+			}
+		}
+	}
+
+	/**
+	 * interpolates the beat interval at the given time between the nearest
+	 * heart rates above zero.
+	 *
+	 * @return the beat interval or NaN if the time is before the first heart
+	 *         rate above zero
+	 */
+	private double interpolate(IndexedHeartRateMonitor heartRateMonitor,
+			int size, int index, double time) {
+		int left = index;
+		while (left >= 0 && heartRateMonitor.getHeartRate(left) <= 0) {
+			left--;
+		}
+		if (left < 0) {
+			return Double.NaN;
+		}
+		double leftInterval = 60000 / heartRateMonitor.getHeartRate(left);
+
+		int right = index + 1;
+		while (right < size && heartRateMonitor.getHeartRate(right) <= 0) {
+			right++;
+		}
+		if (right >= size) {
+			return leftInterval;
+		}
+		double rightInterval = 60000 / heartRateMonitor.getHeartRate(right);
+
+		long leftTime = heartRateMonitor.getTimestamp(left);
+		long rightTime = heartRateMonitor.getTimestamp(right);
+		return leftInterval + (rightInterval - leftInterval)
+				* (time - leftTime) / (rightTime - leftTime);
+	}
+
+	private void computeSpectrum() {
+		int start = ringIndex(lastGridIndex + 1);
+
+		// least squares line through the window, centered so that its offset
+		// is the mean
+		double center = (windowSize - 1) / 2.0;
+		double mean = 0;
+		double slope = 0;
+		for (int i = 0, j = start; i < windowSize; i++) {
+			mean += beatIntervals[j];
+			slope += (i - center) * beatIntervals[j];
+			if (++j == windowSize) {
+				j = 0;
+			}
+		}
+		mean /= windowSize;
+		slope /= windowSize * ((double) windowSize * windowSize - 1) / 12;
+
+		for (int i = 0, j = start; i < windowSize; i++) {
+			spectrum[i] = (beatIntervals[j] - mean - slope * (i - center))
+					* window[i];
+			if (++j == windowSize) {
+				j = 0;
+			}
+		}
+		fft.transform(spectrum);
+
+		double binWidth = sampleRateInHz / windowSize;
+		lowFrequencyPower = 0;
+		highFrequencyPower = 0;
+		for (int bin = 0; bin < powerSpectralDensity.length; bin++) {
+			double density = fft.getPower(spectrum, bin) * windowPowerScale;
+			if (bin != 0 && bin != windowSize / 2) {
+				// one sided spectrum
+				density *= 2;
+			}
+			powerSpectralDensity[bin] = density;
+
+			double frequency = bin * binWidth;
+			if (frequency >= LOW_FREQUENCY_BAND_START_IN_HZ
+					&& frequency < HIGH_FREQUENCY_BAND_START_IN_HZ) {
+				lowFrequencyPower += density * binWidth;
+			} else if (frequency >= HIGH_FREQUENCY_BAND_START_IN_HZ
+					&& frequency < HIGH_FREQUENCY_BAND_END_IN_HZ) {
+				highFrequencyPower += density * binWidth;
+			}
+		}
+	}
+
+	private int ringIndex(long gridIndex) {
+		int ringIndex = (int) (gridIndex % windowSize);
+		return ringIndex < 0 ? ringIndex + windowSize : ringIndex;
+	}
+}
@@ -0,0 +1,244 @@
+package de.htw.icw.pulsesensorlib;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * HeartRateEvent which aggregates the heart rates of a monitor in tumbling or
+ * hopping windows, e.g. the mean of every minute or of the last 5 minutes
+ * every minute, instead of polling the monitor and aggregating the lists.
+ *
+ * The windows are aligned to timestamp 0 and advance by the slide, a window of
+ * the size ends every slide. They are driven by the timestamps of the heart
+ * rates (event time), not by the clock: a window is closed by the first heart
+ * rate at or after its end, or by {@link #advanceTo(long)}. Closed windows
+ * with at least one heart rate are reported to the
+ * {@link HeartRateWindowListener}s.
+ *
+ * Every heart rate is accumulated once into the pane of one slide it belongs
+ * to, and a closed window combines the size / slide panes it consists of, so
+ * no heart rate is read twice and the aggregator keeps no history. Heart rates
+ * before the current pane arrive too late and are dropped (see
+ * {@link #getLateHeartRates()}). The subscribed {@link HeartRateListener}s are
+ * not notified, the aggregator detects no alerts.
+ *
+ * @author s0534410
+ */
+public class HeartRateWindowAggregator extends AbstractHeartRateEvent {
+
+	private final long windowSizeInMilliseconds;
+	private final long slideInMilliseconds;
+	private final int panesPerWindow;
+
+	private List<HeartRateWindowListener> windowListeners = new ArrayList<HeartRateWindowListener>();
+
+	// the panes of the current window, indexed by pane modulo panesPerWindow
+	private final int[] counts;
+	private final double[] minimums;
+	private final double[] maximums;
+	private final double[] sums;
+	private final double[] lasts;
+
+	/** number of heart rates in the panes */
+	private long countInPanes;
+	private boolean started;
+	private long currentPane;
+	private long lateHeartRates;
+
+	/**
+	 * creates an aggregator of tumbling windows, which don't overlap.
+	 *
+	 * @param windowSizeInMilliseconds
+	 *            the length of a window
+	 */
+	public HeartRateWindowAggregator(long windowSizeInMilliseconds) {
+		this(windowSizeInMilliseconds, windowSizeInMilliseconds);
+	}
+
+	/**
+	 * creates an aggregator of hopping windows.
+	 *
+	 * @param windowSizeInMilliseconds
+	 *            the length of a window
+	 * @param slideInMilliseconds
+	 *            the time between the ends of two windows, the window size has
+	 *            to be a multiple of it
+	 */
+	public HeartRateWindowAggregator(long windowSizeInMilliseconds,
+			long slideInMilliseconds) {
+		if (slideInMilliseconds <= 0
+				|| windowSizeInMilliseconds < slideInMilliseconds
+				|| windowSizeInMilliseconds % slideInMilliseconds != 0) {
+			throw new IllegalArgumentException(
+					"the window size has to be a positive multiple of the slide");
+		}
+		if (windowSizeInMilliseconds / slideInMilliseconds > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("too many slides per window");
+		}
+		this.windowSizeInMilliseconds = windowSizeInMilliseconds;
+		this.slideInMilliseconds = slideInMilliseconds;
+		panesPerWindow = (int) (windowSizeInMilliseconds / slideInMilliseconds);
+
+		counts = new int[panesPerWindow];
+		minimums = new double[panesPerWindow];
+		maximums = new double[panesPerWindow];
+		sums = new double[panesPerWindow];
+		lasts = new double[panesPerWindow];
+	}
+
+	public void addWindowListener(HeartRateWindowListener windowListener) {
+		windowListeners.add(windowListener);
+	}
+
+	public void removeWindowListener(HeartRateWindowListener windowListener) {
+		windowListeners.remove(windowListener);
+	}
+
+	@Override
+	public void onUpdate(HeartRateMonitor heartRateMonitor) {
+		add(heartRateMonitor.getLastHeartRate(),
+				heartRateMonitor.getLastTimestamp());
+	}
+
+	/**
+	 * accumulates a heart rate and closes the windows which end at or before
+	 * its timestamp.
+	 *
+	 * @param heartRate
+	 *            the heart rate
+	 * @param timestamp
+	 *            the time of the measurement
+	 */
+	public void add(double heartRate, long timestamp) {
+		long pane = floorDivide(timestamp, slideInMilliseconds);
+		if (!started) {
+			started = true;
+			currentPane = pane;
+		} else if (pane < currentPane) {
+			lateHeartRates++;
+			return;
+		} else {
+			advanceToPane(pane);
+		}
+
+		int index = paneIndex(pane);
+		if (counts[index] == 0) {
+			minimums[index] = heartRate;
+			maximums[index] = heartRate;
+		} else {
+			minimums[index] = Math.min(minimums[index], heartRate);
+			maximums[index] = Math.max(maximums[index], heartRate);
+		}
+		counts[index]++;
+		sums[index] += heartRate;
+		lasts[index] = heartRate;
+		countInPanes++;
+	}
+
+	/**
+	 * closes the windows which end at or before the given timestamp, e.g. at
+	 * the end of a session. heart rates before it are dropped from now on.
+	 *
+	 * @param timestamp
+	 *            the event time which has been reached
+	 */
+	public void advanceTo(long timestamp) {
+		long pane = floorDivide(timestamp, slideInMilliseconds);
+		if (!started) {
+			started = true;
+			currentPane = pane;
+		} else if (pane > currentPane) {
+			advanceToPane(pane);
+		}
+	}
+
+	/**
+	 * returns the number of heart rates which have been dropped because their
+	 * pane was already closed.
+	 *
+	 * @return number of late heart rates
+	 */
+	public long getLateHeartRates() {
+		return lateHeartRates;
+	}
+
+	public long getWindowSizeInMilliseconds() {
+		return windowSizeInMilliseconds;
+	}
+
+	public long getSlideInMilliseconds() {
+		return slideInMilliseconds;
+	}
+
+	/**
+	 * closes the current pane and the ones after it up to the given pane.
+	 */
+	private void advanceToPane(long pane) {
+		while (currentPane < pane) {
+			closeWindowEndingWith(currentPane);
+			currentPane++;
+
+			int index = paneIndex(currentPane);
+			countInPanes -= counts[index];
+			counts[index] = 0;
+			sums[index] = 0;
+
+			if (countInPanes == 0) {
+				// all windows up to the given pane are empty
+				currentPane = pane;
+				resetPanes();
+			}
+		}
+	}
+
+	private void closeWindowEndingWith(long pane) {
+		if (countInPanes == 0) {
+			return;
+		}
+
+		int count = 0;
+		double minimum = Double.POSITIVE_INFINITY;
+		double maximum = Double.NEGATIVE_INFINITY;
+		double sum = 0;
+		double last = 0;
+		// from the oldest to the latest pane, so the last heart rate wins
+		for (long p = pane - panesPerWindow + 1; p <= pane; p++) {
+			int index = paneIndex(p);
+			if (counts[index] > 0) {
+				count += counts[index];
+				minimum = Math.min(minimum, minimums[index]);
+				maximum = Math.max(maximum, maximums[index]);
+				sum += sums[index];
+				last = lasts[index];
+			}
+		}
+
+		long endTimestamp = (pane + 1) * slideInMilliseconds;
+		long startTimestamp = endTimestamp - windowSizeInMilliseconds;
+		for (int i = 0; i < windowListeners.size(); i++) {
+			windowListeners.get(i).onWindowClosed(startTimestamp,
+					endTimestamp, count, minimum, maximum, sum / count, last);
+		}
+	}
+
+	private void resetPanes() {
+		for (int i = 0; i < panesPerWindow; i++) {
+			counts[i] = 0;
+			sums[i] = 0;
+		}
+		countInPanes = 0;
+	}
+
+	private int paneIndex(long pane) {
+		int index = (int) (pane % panesPerWindow);
+		return index < 0 ? index + panesPerWindow : index;
+	}
+
+	private static long floorDivide(long dividend, long divisor) {
+		long quotient = dividend / divisor;
+		if (dividend % divisor != 0 && dividend < 0) {
+			quotient--;
+		}
+		return quotient;
+	}
+}
@@ -0,0 +1,29 @@
+package de.htw.icw.pulsesensorlib;
+
+/**
+ * Listener of the {@link HeartRateWindowAggregator}. It is notified once per
+ * closed window which contains at least one heart rate.
+ *
+ * @author s0534410
+ */
+public interface HeartRateWindowListener {
+
+	/**
+	 * @param startTimestamp
+	 *            start of the window (inclusive)
+	 * @param endTimestamp
+	 *            end of the window (exclusive)
+	 * @param count
+	 *            number of heart rates in the window
+	 * @param minimum
+	 *            lowest heart rate of the window
+	 * @param maximum
+	 *            highest heart rate of the window
+	 * @param mean
+	 *            mean heart rate of the window
+	 * @param last
+	 *            the heart rate added last to the window
+	 */
+	void onWindowClosed(long startTimestamp, long endTimestamp, int count,
+			double minimum, double maximum, double mean, double last);
+}
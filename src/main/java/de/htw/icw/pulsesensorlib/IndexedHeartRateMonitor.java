@@ -0,0 +1,49 @@
+package de.htw.icw.pulsesensorlib;
+
+/**
+ * A {@link HeartRateMonitor} whose heart rates can be read by index, without
+ * copying them into lists. The events and queries of the library read a
+ * monitor through these methods if it implements this interface (like the
+ * {@link DefaultHeartRateMonitor}), and fall back to the lists of
+ * {@link HeartRateMonitor} otherwise.
+ *
+ * @author s0534410
+ */
+public interface IndexedHeartRateMonitor extends HeartRateMonitor {
+
+	/**
+	 * returns the number of measured heart rates.
+	 *
+	 * @return number of measured heart rates
+	 */
+	int getNumberOfHeartRates();
+
+	/**
+	 * returns the heart rate at the given index.
+	 *
+	 * @param index
+	 *            index of the heart rate, 0 is the first measured one
+	 * @return the heart rate at the index
+	 */
+	double getHeartRate(int index);
+
+	/**
+	 * returns the timestamp at the given index.
+	 *
+	 * @param index
+	 *            index of the timestamp, 0 is the first measured one
+	 * @return the timestamp at the index
+	 */
+	long getTimestamp(int index);
+
+	/**
+	 * returns the index of the first heart rate of the last given
+	 * milliseconds, which is the first one returned by
+	 * {@link #getMeasuredHeartRatesOfLastSeconds(double)}.
+	 *
+	 * @param interval_in_ms
+	 *            the interval in milliseconds
+	 * @return index of the first heart rate of the interval
+	 */
+	int getIndexOfLastSeconds(double interval_in_ms);
+}
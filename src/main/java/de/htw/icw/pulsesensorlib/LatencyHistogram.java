@@ -0,0 +1,152 @@
+package de.htw.icw.pulsesensorlib;
+
+/**
+ * Histogram of latencies (or any other non-negative values) with a relative
+ * precision of 1%. Values below 256 are counted exactly, larger values in
+ * 128 linear buckets per power of two, so recording is a few shifts and an
+ * array increment and the histogram has a fixed size of about 57 KB
+ * independent of the number of values.
+ *
+ * A histogram is not thread safe. Every thread records into its own one and
+ * the histograms are added up for the report (see {@link #add(LatencyHistogram)}).
+ *
+ * @author s0534410
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 7;
+	private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKET_COUNT = (63 - SUB_BUCKET_BITS + 1)
+			* SUB_BUCKET_COUNT;
+
+	private final long[] counts = new long[BUCKET_COUNT];
+
+	private long count;
+	private double sum;
+	private long minimum = Long.MAX_VALUE;
+	private long maximum = Long.MIN_VALUE;
+
+	/**
+	 * records a value.
+	 *
+	 * @param value
+	 *            the value, e.g. a latency in nanoseconds, negative values are
+	 *            recorded as 0
+	 */
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		counts[bucketOf(value)]++;
+		count++;
+		sum += value;
+		if (value < minimum) {
+			minimum = value;
+		}
+		if (value > maximum) {
+			maximum = value;
+		}
+	}
+
+	/**
+	 * adds the values of another histogram to this one.
+	 *
+	 * @param other
+	 *            the histogram to add
+	 */
+	public void add(LatencyHistogram other) {
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			counts[i] += other.counts[i];
+		}
+		count += other.count;
+		sum += other.sum;
+		minimum = Math.min(minimum, other.minimum);
+		maximum = Math.max(maximum, other.maximum);
+	}
+
+	/**
+	 * removes all values.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			counts[i] = 0;
+		}
+		count = 0;
+		sum = 0;
+		minimum = Long.MAX_VALUE;
+		maximum = Long.MIN_VALUE;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * returns the exact smallest value.
+	 *
+	 * @return the smallest value or 0 if there are none
+	 */
+	public long getMinimum() {
+		return count == 0 ? 0 : minimum;
+	}
+
+	/**
+	 * returns the exact largest value.
+	 *
+	 * @return the largest value or 0 if there are none
+	 */
+	public long getMaximum() {
+		return count == 0 ? 0 : maximum;
+	}
+
+	public double getMean() {
+		return count == 0 ? Double.NaN : sum / count;
+	}
+
+	/**
+	 * returns the value below or at which the given percentage of the values
+	 * is. the value is the upper bound of its bucket, so it may be up to 1%
+	 * larger than the recorded one.
+	 *
+	 * @param percentile
+	 *            0 to 100, e.g. 99.9
+	 * @return the value at the percentile or 0 if there are no values
+	 */
+	public long getValueAtPercentile(double percentile) {
+		if (percentile < 0 || percentile > 100) {
+			throw new IllegalArgumentException("percentile not in [0, 100]: "
+					+ percentile);
+		}
+		if (count == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+		long cumulative = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			cumulative += counts[i];
+			if (cumulative >= rank) {
+				return Math.min(maximum, Math.max(minimum, highestValueOf(i)));
+			}
+		}
+		return maximum;
+	}
+
+	private static int bucketOf(long value) {
+		if (value < 2 * SUB_BUCKET_COUNT) {
+			return (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return shift * SUB_BUCKET_COUNT + (int) (value >>> shift);
+	}
+
+	private static long highestValueOf(int bucket) {
+		if (bucket < 2 * SUB_BUCKET_COUNT) {
+			return bucket;
+		}
+		int shift = bucket / SUB_BUCKET_COUNT - 1;
+		long subBucket = bucket - shift * SUB_BUCKET_COUNT;
+		long highestValue = ((subBucket + 1) << shift) - 1;
+		// the last bucket ends at Long.MAX_VALUE
+		return highestValue < 0 ? Long.MAX_VALUE : highestValue;
+	}
+}
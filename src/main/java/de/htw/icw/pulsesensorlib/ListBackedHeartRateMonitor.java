@@ -0,0 +1,179 @@
+package de.htw.icw.pulsesensorlib;
+
+import java.util.List;
+
+/**
+ * Index access to a {@link HeartRateMonitor} which only offers lists, so that
+ * the events and queries of the library work on any monitor (see
+ * {@link IndexedHeartRateMonitor}). The indexes refer to the lists given when
+ * the view is created, which are either all heart rates of the monitor or the
+ * ones of its last milliseconds. All other methods are passed to the monitor.
+ *
+ * @author s0534410
+ */
+final class ListBackedHeartRateMonitor implements IndexedHeartRateMonitor {
+
+	private final HeartRateMonitor heartRateMonitor;
+	private final List<Double> heartRates;
+	private final List<Long> timestamps;
+
+	private ListBackedHeartRateMonitor(HeartRateMonitor heartRateMonitor,
+			List<Double> heartRates, List<Long> timestamps) {
+		this.heartRateMonitor = heartRateMonitor;
+		this.heartRates = heartRates;
+		this.timestamps = timestamps;
+	}
+
+	/**
+	 * returns the monitor itself if it can be read by index, a view of all
+	 * its heart rates otherwise.
+	 */
+	static IndexedHeartRateMonitor of(HeartRateMonitor heartRateMonitor) {
+		if (heartRateMonitor instanceof IndexedHeartRateMonitor) {
+			return (IndexedHeartRateMonitor) heartRateMonitor;
+		}
+		return new ListBackedHeartRateMonitor(heartRateMonitor,
+				heartRateMonitor.getAllMeasuredHeartRates(),
+				heartRateMonitor.getAllMeasuredTimestamps());
+	}
+
+	/**
+	 * returns the monitor itself if it can be read by index, a view of the
+	 * heart rates of its last given milliseconds otherwise. windows up to this
+	 * length are found in the view like in the monitor.
+	 */
+	static IndexedHeartRateMonitor ofLastSeconds(
+			HeartRateMonitor heartRateMonitor, double interval_in_ms) {
+		if (heartRateMonitor instanceof IndexedHeartRateMonitor) {
+			return (IndexedHeartRateMonitor) heartRateMonitor;
+		}
+		return new ListBackedHeartRateMonitor(heartRateMonitor,
+				heartRateMonitor
+						.getMeasuredHeartRatesOfLastSeconds(interval_in_ms),
+				heartRateMonitor
+						.getMeasuredTimestampsOfLastSeconds(interval_in_ms));
+	}
+
+	@Override
+	public int getNumberOfHeartRates() {
+		return timestamps.size();
+	}
+
+	@Override
+	public double getHeartRate(int index) {
+		return heartRates.get(index);
+	}
+
+	@Override
+	public long getTimestamp(int index) {
+		return timestamps.get(index);
+	}
+
+	/** scans backwards like {@link DefaultHeartRateMonitor} */
+	@Override
+	public int getIndexOfLastSeconds(double interval_in_ms) {
+		long lastMeasurement = timestamps.get(timestamps.size() - 1);
+		long beginTimestamp = lastMeasurement - (long) interval_in_ms;
+		if (interval_in_ms > lastMeasurement - timestamps.get(0)) {
+			return 0;
+		}
+
+		int fromIndex = timestamps.size() - 1;
+		while (fromIndex > 0 && timestamps.get(fromIndex) > beginTimestamp) {
+			fromIndex--;
+		}
+		return fromIndex;
+	}
+
+	@Override
+	public long addHeartRate(double heartrate)
+			throws NoNegativeHeartRatesPossibleException {
+		return heartRateMonitor.addHeartRate(heartrate);
+	}
+
+	@Override
+	public long addHeartRate(double heartrate, long timestamp)
+			throws NoNegativeHeartRatesPossibleException {
+		return heartRateMonitor.addHeartRate(heartrate, timestamp);
+	}
+
+	@Override
+	public double getLastHeartRate() {
+		return heartRateMonitor.getLastHeartRate();
+	}
+
+	@Override
+	public long getLastTimestamp() {
+		return heartRateMonitor.getLastTimestamp();
+	}
+
+	@Override
+	public List<Double> getAllMeasuredHeartRates() {
+		return heartRateMonitor.getAllMeasuredHeartRates();
+	}
+
+	@Override
+	public List<Long> getAllMeasuredTimestamps() {
+		return heartRateMonitor.getAllMeasuredTimestamps();
+	}
+
+	@Override
+	public List<Double> getMeasuredHeartRatesOfLastSeconds(double interval_in_ms) {
+		return heartRateMonitor
+				.getMeasuredHeartRatesOfLastSeconds(interval_in_ms);
+	}
+
+	@Override
+	public List<Double> getMeasuredHeartRatesOverInterval(
+			double interval_in_ms, long from_timestap) {
+		return heartRateMonitor.getMeasuredHeartRatesOverInterval(
+				interval_in_ms, from_timestap);
+	}
+
+	@Override
+	public List<Double> getMeasuredHeartRatesOverClosedInterval(
+			long from_timestap, long to_timestamp) {
+		return heartRateMonitor.getMeasuredHeartRatesOverClosedInterval(
+				from_timestap, to_timestamp);
+	}
+
+	@Override
+	public List<Long> getMeasuredTimestampsOfLastSeconds(double interval_in_ms) {
+		return heartRateMonitor
+				.getMeasuredTimestampsOfLastSeconds(interval_in_ms);
+	}
+
+	@Override
+	public List<Long> getMeasuredTimestampsOverInterval(double interval_in_ms,
+			long from_timestap) {
+		return heartRateMonitor.getMeasuredTimestampsOverInterval(
+				interval_in_ms, from_timestap);
+	}
+
+	@Override
+	public List<Long> getMeasuredTimestampsOverClosedInterval(
+			long from_timestap, long to_timestamp) {
+		return heartRateMonitor.getMeasuredTimestampsOverClosedInterval(
+				from_timestap, to_timestamp);
+	}
+
+	@Override
+	public List<Double> getLastNumHeartRates(int num) {
+		return heartRateMonitor.getLastNumHeartRates(num);
+	}
+
+	@Override
+	public List<Long> getLastNumTimestamps(int num) {
+		return heartRateMonitor.getLastNumTimestamps(num);
+	}
+
+	@Override
+	public void subscribe(HeartRateEvent heartRateEvent) {
+		heartRateMonitor.subscribe(heartRateEvent);
+	}
+
+	@Override
+	public void unsubscribe(HeartRateEvent heartRateEvent) {
+		heartRateMonitor.unsubscribe(heartRateEvent);
+	}
+}
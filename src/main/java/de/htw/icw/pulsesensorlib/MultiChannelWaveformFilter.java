@@ -0,0 +1,310 @@
+package de.htw.icw.pulsesensorlib;
+
+import java.util.Arrays;
+
+/**
+ * Filters blocks of raw waveform samples of many channels at once. Every block
+ * passes a first order high-pass which removes the baseline wander, a FIR
+ * filter which smoothes the waveform and an optional low-pass biquad.
+ *
+ * The samples of a block are interleaved: sample n of channel c is stored at
+ * index {@code n * numberOfChannels + c}. All filters keep their state in one
+ * array per state variable with one entry per channel, so the innermost loops
+ * run over the channels without any dependency between iterations. The JIT
+ * compiles these loops to SIMD instructions, which is where the throughput
+ * compared to per channel scalar loops comes from. The filter does not
+ * allocate while processing blocks and is not thread safe.
+ *
+ * @author s0534410
+ */
+public class MultiChannelWaveformFilter {
+
+	/** default cutoff of the baseline wander high-pass in Hz */
+	public static final double DEFAULT_BASELINE_CUTOFF_IN_HZ = 0.5;
+
+	/** default cutoff of the low-pass in Hz */
+	public static final double DEFAULT_LOW_PASS_CUTOFF_IN_HZ = 5;
+
+	/** default number of taps of the moving average FIR filter */
+	public static final int DEFAULT_MOVING_AVERAGE_TAPS = 5;
+
+	private final int numberOfChannels;
+	private final int maxFramesPerBlock;
+
+	/** pole of the baseline high-pass, y = x - x1 + pole * y1 */
+	private final double baselinePole;
+	private final double[] baselineX1;
+	private final double[] baselineY1;
+
+	private final double[] firCoefficients;
+	/** the last (taps - 1) frames of the previous block followed by the block */
+	private final double[] firWindow;
+
+	private final boolean lowPass;
+	private final double b0, b1, b2, a1, a2;
+	private final double[] lowPassZ1;
+	private final double[] lowPassZ2;
+
+	private boolean initialized;
+
+	/**
+	 * creates a filter with the default baseline cutoff, a moving average of
+	 * {@link #DEFAULT_MOVING_AVERAGE_TAPS} taps and the default low-pass.
+	 *
+	 * @param numberOfChannels
+	 *            number of interleaved channels
+	 * @param maxFramesPerBlock
+	 *            maximum number of samples per channel in a block
+	 * @param sampleRateInHz
+	 *            sample rate of the channels
+	 */
+	public MultiChannelWaveformFilter(int numberOfChannels,
+			int maxFramesPerBlock, double sampleRateInHz) {
+		this(numberOfChannels, maxFramesPerBlock, sampleRateInHz,
+				DEFAULT_BASELINE_CUTOFF_IN_HZ,
+				movingAverage(DEFAULT_MOVING_AVERAGE_TAPS),
+				DEFAULT_LOW_PASS_CUTOFF_IN_HZ);
+	}
+
+	/**
+	 * @param numberOfChannels
+	 *            number of interleaved channels
+	 * @param maxFramesPerBlock
+	 *            maximum number of samples per channel in a block
+	 * @param sampleRateInHz
+	 *            sample rate of the channels, &gt; 0
+	 * @param baselineCutoffInHz
+	 *            cutoff of the baseline wander high-pass, &gt; 0
+	 * @param firCoefficients
+	 *            coefficients of the smoothing FIR filter, a single
+	 *            coefficient of 1 disables smoothing
+	 * @param lowPassCutoffInHz
+	 *            cutoff of the low-pass biquad, a value &lt;= 0 disables the
+	 *            low-pass
+	 */
+	public MultiChannelWaveformFilter(int numberOfChannels,
+			int maxFramesPerBlock, double sampleRateInHz,
+			double baselineCutoffInHz, double[] firCoefficients,
+			double lowPassCutoffInHz) {
+		if (numberOfChannels <= 0 || maxFramesPerBlock <= 0) {
+			throw new IllegalArgumentException(
+					"numberOfChannels and maxFramesPerBlock have to be > 0");
+		}
+		if (!(sampleRateInHz > 0) || !(baselineCutoffInHz > 0)) {
+			throw new IllegalArgumentException(
+					"sampleRateInHz and baselineCutoffInHz have to be > 0");
+		}
+		if (firCoefficients.length == 0) {
+			throw new IllegalArgumentException("firCoefficients is empty");
+		}
+		if (lowPassCutoffInHz >= sampleRateInHz / 2) {
+			throw new IllegalArgumentException(
+					"lowPassCutoffInHz has to be below sampleRate / 2");
+		}
+
+		this.numberOfChannels = numberOfChannels;
+		this.maxFramesPerBlock = maxFramesPerBlock;
+
+		this.baselinePole = Math.exp(-2 * Math.PI * baselineCutoffInHz
+				/ sampleRateInHz);
+		this.baselineX1 = new double[numberOfChannels];
+		this.baselineY1 = new double[numberOfChannels];
+
+		this.firCoefficients = firCoefficients.clone();
+		this.firWindow = new double[(firCoefficients.length - 1 + maxFramesPerBlock)
+				* numberOfChannels];
+
+		this.lowPass = lowPassCutoffInHz > 0;
+		this.lowPassZ1 = new double[numberOfChannels];
+		this.lowPassZ2 = new double[numberOfChannels];
+		if (lowPass) {
+			// biquad of the audio eq cookbook (R. Bristow-Johnson), q =
+			// 1/sqrt(2)
+			double w = 2 * Math.PI * lowPassCutoffInHz / sampleRateInHz;
+			double alpha = Math.sin(w) / (2 * Math.sqrt(0.5));
+			double a0 = 1 + alpha;
+			b0 = (1 - Math.cos(w)) / 2 / a0;
+			b1 = (1 - Math.cos(w)) / a0;
+			b2 = b0;
+			a1 = -2 * Math.cos(w) / a0;
+			a2 = (1 - alpha) / a0;
+		} else {
+			b0 = 1;
+			b1 = b2 = a1 = a2 = 0;
+		}
+	}
+
+	/**
+	 * returns the coefficients of a moving average FIR filter.
+	 *
+	 * @param taps
+	 *            number of averaged samples
+	 * @return the coefficients
+	 */
+	public static double[] movingAverage(int taps) {
+		double[] coefficients = new double[taps];
+		Arrays.fill(coefficients, 1.0 / taps);
+		return coefficients;
+	}
+
+	public int getNumberOfChannels() {
+		return numberOfChannels;
+	}
+
+	public int getMaxFramesPerBlock() {
+		return maxFramesPerBlock;
+	}
+
+	/**
+	 * filters a block of interleaved raw adc samples.
+	 *
+	 * @param input
+	 *            interleaved raw samples
+	 * @param output
+	 *            receives the interleaved filtered samples, may not be the
+	 *            input
+	 * @param frames
+	 *            number of samples per channel in the block
+	 */
+	public void process(int[] input, double[] output, int frames) {
+		checkFrames(frames);
+		int length = frames * numberOfChannels;
+		for (int i = 0; i < length; i++) {
+			output[i] = input[i];
+		}
+		process(output, output, frames);
+	}
+
+	/**
+	 * filters a block of interleaved samples.
+	 *
+	 * @param input
+	 *            interleaved samples
+	 * @param output
+	 *            receives the interleaved filtered samples, may be the input
+	 * @param frames
+	 *            number of samples per channel in the block
+	 */
+	public void process(double[] input, double[] output, int frames) {
+		checkFrames(frames);
+		if (!initialized) {
+			initialize(input);
+		}
+
+		int history = (firCoefficients.length - 1) * numberOfChannels;
+		removeBaseline(input, firWindow, history, frames);
+		smooth(output, frames);
+		if (lowPass) {
+			lowPass(output, frames);
+		}
+
+		// keep the last frames as history of the next block
+		System.arraycopy(firWindow, frames * numberOfChannels, firWindow, 0,
+				history);
+	}
+
+	/**
+	 * filters a block of interleaved samples and passes every filtered channel
+	 * to its beat detector, which adds the detected heart rates to its
+	 * monitor.
+	 *
+	 * @param input
+	 *            interleaved samples
+	 * @param output
+	 *            receives the interleaved filtered samples, may be the input
+	 * @param frames
+	 *            number of samples per channel in the block
+	 * @param firstSampleTimestamp
+	 *            the time the first sample of the block was measured
+	 * @param beatDetectors
+	 *            one beat detector per channel
+	 */
+	public void process(double[] input, double[] output, int frames,
+			long firstSampleTimestamp, PulseWaveBeatDetector[] beatDetectors) {
+		if (beatDetectors.length != numberOfChannels) {
+			throw new IllegalArgumentException(
+					"one beat detector per channel required");
+		}
+		process(input, output, frames);
+		for (int c = 0; c < numberOfChannels; c++) {
+			beatDetectors[c].process(output, c, numberOfChannels, frames,
+					firstSampleTimestamp);
+		}
+	}
+
+	private void initialize(double[] input) {
+		// start in the steady state of the first frame, so the filters don't
+		// ring because of the dc offset of the adc
+		for (int c = 0; c < numberOfChannels; c++) {
+			baselineX1[c] = input[c];
+		}
+		initialized = true;
+	}
+
+	private void removeBaseline(double[] input, double[] target, int offset,
+			int frames) {
+		final int channels = numberOfChannels;
+		final double pole = baselinePole;
+		final double[] x1 = baselineX1;
+		final double[] y1 = baselineY1;
+
+		for (int n = 0; n < frames; n++) {
+			int base = n * channels;
+			for (int c = 0; c < channels; c++) {
+				double x = input[base + c];
+				double y = x - x1[c] + pole * y1[c];
+				x1[c] = x;
+				y1[c] = y;
+				target[offset + base + c] = y;
+			}
+		}
+	}
+
+	private void smooth(double[] output, int frames) {
+		final int channels = numberOfChannels;
+		final double[] coefficients = firCoefficients;
+		final double[] window = firWindow;
+		final int taps = coefficients.length;
+
+		for (int n = 0; n < frames; n++) {
+			int base = n * channels;
+			int newest = (n + taps - 1) * channels;
+
+			double h = coefficients[0];
+			for (int c = 0; c < channels; c++) {
+				output[base + c] = h * window[newest + c];
+			}
+			for (int k = 1; k < taps; k++) {
+				h = coefficients[k];
+				int delayed = newest - k * channels;
+				for (int c = 0; c < channels; c++) {
+					output[base + c] += h * window[delayed + c];
+				}
+			}
+		}
+	}
+
+	private void lowPass(double[] output, int frames) {
+		final int channels = numberOfChannels;
+		final double[] z1 = lowPassZ1;
+		final double[] z2 = lowPassZ2;
+
+		for (int n = 0; n < frames; n++) {
+			int base = n * channels;
+			for (int c = 0; c < channels; c++) {
+				double x = output[base + c];
+				double y = b0 * x + z1[c];
+				z1[c] = b1 * x - a1 * y + z2[c];
+				z2[c] = b2 * x - a2 * y;
+				output[base + c] = y;
+			}
+		}
+	}
+
+	private void checkFrames(int frames) {
+		if (frames < 0 || frames > maxFramesPerBlock) {
+			throw new IllegalArgumentException("frames has to be between 0 and "
+					+ maxFramesPerBlock);
+		}
+	}
+}
@@ -0,0 +1,186 @@
+package de.htw.icw.pulsesensorlib;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+
+/**
+ * Stores the heart rates and timestamps outside of the Java heap, in direct
+ * memory chunks of an {@link OffHeapMemoryBudget}. A chunk holds the timestamps
+ * of a range of indexes followed by its heart rates. The queries of the
+ * {@link DefaultHeartRateMonitor} read single values straight from the chunks,
+ * nothing is copied onto the heap, so a long history of many monitors neither
+ * takes heap space nor prolongs garbage collections.
+ *
+ * The storage takes memory chunk by chunk while heart rates are added and
+ * gives it back to the budget when it is {@link #close() closed}, e.g. when the
+ * monitor is removed from the {@link HeartRateMonitorRegistry}.
+ *
+ * @author s0534410
+ */
+public class OffHeapHeartRateStorage implements HeartRateStorage {
+
+	private final OffHeapMemoryBudget memoryBudget;
+
+	private final int chunkCapacity;
+	private final int chunkShift;
+	private final int chunkMask;
+	private final int heartRateOffset;
+
+	/** volatile like the size, see {@link ArrayHeartRateStorage} */
+	private volatile ByteBuffer[] chunks = new ByteBuffer[4];
+	private int numberOfChunks;
+	private volatile int size;
+	private boolean closed;
+
+	/**
+	 * @param memoryBudget
+	 *            the budget which provides the memory
+	 */
+	public OffHeapHeartRateStorage(OffHeapMemoryBudget memoryBudget) {
+		this.memoryBudget = memoryBudget;
+		this.chunkCapacity = memoryBudget.getChunkCapacity();
+		this.chunkShift = Integer.numberOfTrailingZeros(chunkCapacity);
+		this.chunkMask = chunkCapacity - 1;
+		this.heartRateOffset = chunkCapacity * 8;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public double getHeartRate(int index) {
+		return chunks[index >>> chunkShift].getDouble(heartRateOffset
+				+ ((index & chunkMask) << 3));
+	}
+
+	@Override
+	public long getTimestamp(int index) {
+		return chunks[index >>> chunkShift]
+				.getLong((index & chunkMask) << 3);
+	}
+
+	@Override
+	public void add(double heartRate, long timestamp) {
+		if (size == numberOfChunks * chunkCapacity) {
+			addChunk();
+		}
+		ByteBuffer chunk = chunks[size >>> chunkShift];
+		int offset = (size & chunkMask) << 3;
+		chunk.putLong(offset, timestamp);
+		chunk.putDouble(heartRateOffset + offset, heartRate);
+		size++;
+	}
+
+	@Override
+	public void addAll(DoubleBuffer heartRateBuffer,
+			LongBuffer timestampBuffer, int count) {
+		while (count > 0) {
+			if (size == numberOfChunks * chunkCapacity) {
+				addChunk();
+			}
+			int indexInChunk = size & chunkMask;
+			int length = Math.min(count, chunkCapacity - indexInChunk);
+			ByteBuffer chunk = chunks[size >>> chunkShift];
+
+			DoubleBuffer heartRates = heartRateBuffer.duplicate();
+			heartRates.limit(heartRates.position() + length);
+			heartRateRegion(chunk, indexInChunk, length).put(heartRates);
+			heartRateBuffer.position(heartRateBuffer.position() + length);
+
+			LongBuffer timestamps = timestampBuffer.duplicate();
+			timestamps.limit(timestamps.position() + length);
+			timestampRegion(chunk, indexInChunk, length).put(timestamps);
+			timestampBuffer.position(timestampBuffer.position() + length);
+
+			size += length;
+			count -= length;
+		}
+	}
+
+	@Override
+	public void copyHeartRatesTo(DoubleBuffer heartRateBuffer, int fromIndex,
+			int count) {
+		while (count > 0) {
+			int indexInChunk = fromIndex & chunkMask;
+			int length = Math.min(count, chunkCapacity - indexInChunk);
+			heartRateBuffer.put(heartRateRegion(
+					chunks[fromIndex >>> chunkShift], indexInChunk, length));
+			fromIndex += length;
+			count -= length;
+		}
+	}
+
+	@Override
+	public void copyTimestampsTo(LongBuffer timestampBuffer, int fromIndex,
+			int count) {
+		while (count > 0) {
+			int indexInChunk = fromIndex & chunkMask;
+			int length = Math.min(count, chunkCapacity - indexInChunk);
+			timestampBuffer.put(timestampRegion(
+					chunks[fromIndex >>> chunkShift], indexInChunk, length));
+			fromIndex += length;
+			count -= length;
+		}
+	}
+
+	/**
+	 * gives the memory back to the budget. the storage is empty afterwards and
+	 * must not be used anymore.
+	 */
+	@Override
+	public void close() {
+		for (int i = 0; i < numberOfChunks; i++) {
+			memoryBudget.release(chunks[i]);
+			chunks[i] = null;
+		}
+		numberOfChunks = 0;
+		size = 0;
+		closed = true;
+	}
+
+	/**
+	 * returns the direct memory used by this storage.
+	 *
+	 * @return used bytes
+	 */
+	public long getUsedBytes() {
+		return (long) numberOfChunks * chunkCapacity
+				* OffHeapMemoryBudget.RECORD_SIZE;
+	}
+
+	private void addChunk() {
+		if (closed) {
+			throw new IllegalStateException("storage is closed");
+		}
+		ByteBuffer chunk = memoryBudget.acquire();
+		if (numberOfChunks == chunks.length) {
+			ByteBuffer[] grown = new ByteBuffer[chunks.length * 2];
+			System.arraycopy(chunks, 0, grown, 0, numberOfChunks);
+			chunks = grown;
+		}
+		chunks[numberOfChunks++] = chunk;
+	}
+
+	private DoubleBuffer heartRateRegion(ByteBuffer chunk, int fromIndex,
+			int length) {
+		return region(chunk, heartRateOffset + (fromIndex << 3), length)
+				.asDoubleBuffer();
+	}
+
+	private LongBuffer timestampRegion(ByteBuffer chunk, int fromIndex,
+			int length) {
+		return region(chunk, fromIndex << 3, length).asLongBuffer();
+	}
+
+	private static ByteBuffer region(ByteBuffer chunk, int offset, int length) {
+		// duplicates are big endian, whatever the order of the chunk is
+		ByteBuffer region = chunk.duplicate().order(ByteOrder.nativeOrder());
+		region.limit(offset + (length << 3));
+		region.position(offset);
+		return region;
+	}
+}
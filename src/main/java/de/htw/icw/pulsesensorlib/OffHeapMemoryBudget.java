@@ -0,0 +1,126 @@
+package de.htw.icw.pulsesensorlib;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Limits the direct memory used by {@link OffHeapHeartRateStorage}s, usually
+ * one budget is shared by all monitors of a gateway. The memory is handed out
+ * in equally sized chunks. Chunks of closed storages are kept and reused by
+ * other storages, so the direct memory of the JVM never grows beyond the
+ * budget and does not depend on the garbage collector to be freed. This class
+ * is thread safe.
+ *
+ * @author s0534410
+ */
+public class OffHeapMemoryBudget {
+
+	/** heartrates per chunk if no other number is given */
+	public static final int DEFAULT_CHUNK_CAPACITY = 4096;
+
+	/** a heartrate and a timestamp */
+	static final int RECORD_SIZE = 16;
+
+	private final long maximumBytes;
+	private final int chunkCapacity;
+	private final int chunkSize;
+
+	private ByteBuffer[] freeChunks = new ByteBuffer[16];
+	private int numberOfFreeChunks;
+	private long allocatedBytes;
+
+	/**
+	 * @param maximumBytes
+	 *            the maximum direct memory in bytes
+	 */
+	public OffHeapMemoryBudget(long maximumBytes) {
+		this(maximumBytes, DEFAULT_CHUNK_CAPACITY);
+	}
+
+	/**
+	 * @param maximumBytes
+	 *            the maximum direct memory in bytes
+	 * @param chunkCapacity
+	 *            number of heartrates per chunk, a power of two. smaller
+	 *            chunks waste less memory per monitor, larger chunks need less
+	 *            allocations.
+	 */
+	public OffHeapMemoryBudget(long maximumBytes, int chunkCapacity) {
+		if (chunkCapacity <= 0 || Integer.bitCount(chunkCapacity) != 1
+				|| chunkCapacity > Integer.MAX_VALUE / RECORD_SIZE) {
+			throw new IllegalArgumentException(
+					"chunkCapacity has to be a power of two");
+		}
+		if (maximumBytes < 0) {
+			throw new IllegalArgumentException("maximumBytes < 0");
+		}
+		this.maximumBytes = maximumBytes;
+		this.chunkCapacity = chunkCapacity;
+		this.chunkSize = chunkCapacity * RECORD_SIZE;
+	}
+
+	public long getMaximumBytes() {
+		return maximumBytes;
+	}
+
+	/**
+	 * returns the direct memory allocated by this budget, including the free
+	 * chunks.
+	 *
+	 * @return allocated bytes
+	 */
+	public synchronized long getAllocatedBytes() {
+		return allocatedBytes;
+	}
+
+	/**
+	 * returns the direct memory used by open storages.
+	 *
+	 * @return used bytes
+	 */
+	public synchronized long getUsedBytes() {
+		return allocatedBytes - (long) numberOfFreeChunks * chunkSize;
+	}
+
+	public int getChunkCapacity() {
+		return chunkCapacity;
+	}
+
+	/**
+	 * returns a chunk in native byte order, a free one if possible.
+	 *
+	 * @throws IllegalStateException
+	 *             if the budget is exhausted
+	 */
+	synchronized ByteBuffer acquire() {
+		if (numberOfFreeChunks > 0) {
+			ByteBuffer chunk = freeChunks[--numberOfFreeChunks];
+			freeChunks[numberOfFreeChunks] = null;
+			return chunk;
+		}
+		if (allocatedBytes + chunkSize > maximumBytes) {
+			throw new IllegalStateException("off-heap memory budget of "
+					+ maximumBytes + " bytes exhausted");
+		}
+		ByteBuffer chunk = ByteBuffer.allocateDirect(chunkSize).order(
+				ByteOrder.nativeOrder());
+		allocatedBytes += chunkSize;
+		return chunk;
+	}
+
+	/**
+	 * returns a chunk to the budget. the chunk must not be used afterwards.
+	 *
+	 * @param chunk
+	 *            a chunk previously acquired from this budget
+	 */
+	synchronized void release(ByteBuffer chunk) {
+		if (numberOfFreeChunks == freeChunks.length) {
+			ByteBuffer[] grown = new ByteBuffer[freeChunks.length * 2];
+			System.arraycopy(freeChunks, 0, grown, 0, numberOfFreeChunks);
+			freeChunks = grown;
+		}
+		chunk.clear();
+		freeChunks[numberOfFreeChunks++] = chunk;
+	}
+}
@@ -0,0 +1,355 @@
+package de.htw.icw.pulsesensorlib;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Detects heart beats in the raw analog waveform of a PulseSensor and adds the
+ * resulting heart rates to a {@link HeartRateMonitor}.
+ *
+ * Every sample passes a band-pass filter (two biquads) which removes the
+ * baseline and high frequency noise. A beat is detected when the filtered
+ * signal rises above an adaptive threshold halfway between its decaying upper
+ * and lower envelope. The time between two beats (inter-beat interval) is
+ * converted to beats per minute and added to the monitor with the timestamp of
+ * the beat. If no beat is detected for the configured time, a heart rate of 0
+ * is added, which lets a {@link DefaultHeartRateEvent} detect the missing
+ * pulse.
+ *
+ * A detector keeps a few doubles of state and does not allocate while
+ * processing samples. It is not thread safe, every channel needs its own
+ * detector.
+ *
+ * @author s0534410
+ */
+public class PulseWaveBeatDetector {
+
+	/** default lower cutoff of the band-pass filter in Hz */
+	public static final double DEFAULT_LOW_CUTOFF_IN_HZ = 0.5;
+
+	/** default upper cutoff of the band-pass filter in Hz */
+	public static final double DEFAULT_HIGH_CUTOFF_IN_HZ = 5;
+
+	/** default time without a beat until a heart rate of 0 is added */
+	public static final double DEFAULT_NO_PULSE_TIMEOUT_IN_MILLISECONDS = 2500;
+
+	/** shortest accepted inter-beat interval (240 bpm) */
+	private static final double MIN_INTER_BEAT_INTERVAL_IN_MILLISECONDS = 250;
+
+	/** longest accepted inter-beat interval (30 bpm) */
+	private static final double MAX_INTER_BEAT_INTERVAL_IN_MILLISECONDS = 2000;
+
+	/** time constant of the envelopes the threshold is derived from */
+	private static final double ENVELOPE_TIME_CONSTANT_IN_MILLISECONDS = 1500;
+
+	/** time the filter needs to settle before beats are detected */
+	private static final double SETTLING_TIME_IN_MILLISECONDS = 1000;
+
+	/** size of the state written by {@link #writeState(ByteBuffer)} */
+	static final int STATE_SIZE = 14 * 8;
+
+	/** filtered amplitudes below this are treated as noise */
+	private static final double DEFAULT_MIN_AMPLITUDE = 2;
+
+	private final HeartRateMonitor heartRateMonitor;
+	private final double sampleIntervalInMilliseconds;
+	private final double noPulseTimeoutInMilliseconds;
+	private final double envelopeDecay;
+	private final double minAmplitude;
+
+	// coefficients of the high-pass and low-pass biquad (normalized, a0 = 1)
+	private final double hb0, hb1, hb2, ha1, ha2;
+	private final double lb0, lb1, lb2, la1, la2;
+
+	// filter state (transposed direct form II)
+	private double hz1, hz2, lz1, lz2;
+
+	// detection state
+	private double upperEnvelope;
+	private double lowerEnvelope;
+	private double lastFilteredSample;
+	private boolean aboveThreshold;
+	private double sampleTimeInMilliseconds;
+	private double startTimeInMilliseconds = Double.NaN;
+	private double lastBeatInMilliseconds = Double.NaN;
+	private double lastInterBeatIntervalInMilliseconds;
+	private double lastNoPulseInMilliseconds = Double.NaN;
+	private long detectedBeats;
+
+	/**
+	 * creates a detector with the default band-pass and no pulse timeout.
+	 *
+	 * @param heartRateMonitor
+	 *            the monitor the detected heart rates are added to
+	 * @param sampleRateInHz
+	 *            the sample rate of the waveform
+	 */
+	public PulseWaveBeatDetector(HeartRateMonitor heartRateMonitor,
+			double sampleRateInHz) {
+		this(heartRateMonitor, sampleRateInHz, DEFAULT_LOW_CUTOFF_IN_HZ,
+				DEFAULT_HIGH_CUTOFF_IN_HZ,
+				DEFAULT_NO_PULSE_TIMEOUT_IN_MILLISECONDS);
+	}
+
+	/**
+	 * @param heartRateMonitor
+	 *            the monitor the detected heart rates are added to
+	 * @param sampleRateInHz
+	 *            the sample rate of the waveform
+	 * @param lowCutoffInHz
+	 *            lower cutoff of the band-pass filter
+	 * @param highCutoffInHz
+	 *            upper cutoff of the band-pass filter, has to be below half
+	 *            the sample rate
+	 * @param noPulseTimeoutInMilliseconds
+	 *            time without a beat until a heart rate of 0 is added
+	 */
+	public PulseWaveBeatDetector(HeartRateMonitor heartRateMonitor,
+			double sampleRateInHz, double lowCutoffInHz, double highCutoffInHz,
+			double noPulseTimeoutInMilliseconds) {
+		if (!(sampleRateInHz > 0) || !(lowCutoffInHz > 0)
+				|| !(highCutoffInHz > lowCutoffInHz)
+				|| !(highCutoffInHz < sampleRateInHz / 2)) {
+			throw new IllegalArgumentException(
+					"cutoffs have to satisfy 0 < low < high < sampleRate / 2");
+		}
+
+		this.heartRateMonitor = heartRateMonitor;
+		this.sampleIntervalInMilliseconds = 1000 / sampleRateInHz;
+		this.noPulseTimeoutInMilliseconds = noPulseTimeoutInMilliseconds;
+		this.envelopeDecay = sampleIntervalInMilliseconds
+				/ ENVELOPE_TIME_CONSTANT_IN_MILLISECONDS;
+		this.minAmplitude = DEFAULT_MIN_AMPLITUDE;
+
+		// biquads of the audio eq cookbook (R. Bristow-Johnson), q = 1/sqrt(2)
+		double q = Math.sqrt(0.5);
+
+		double w = 2 * Math.PI * lowCutoffInHz / sampleRateInHz;
+		double alpha = Math.sin(w) / (2 * q);
+		double a0 = 1 + alpha;
+		hb0 = (1 + Math.cos(w)) / 2 / a0;
+		hb1 = -(1 + Math.cos(w)) / a0;
+		hb2 = hb0;
+		ha1 = -2 * Math.cos(w) / a0;
+		ha2 = (1 - alpha) / a0;
+
+		w = 2 * Math.PI * highCutoffInHz / sampleRateInHz;
+		alpha = Math.sin(w) / (2 * q);
+		a0 = 1 + alpha;
+		lb0 = (1 - Math.cos(w)) / 2 / a0;
+		lb1 = (1 - Math.cos(w)) / a0;
+		lb2 = lb0;
+		la1 = -2 * Math.cos(w) / a0;
+		la2 = (1 - alpha) / a0;
+	}
+
+	/**
+	 * processes a block of raw adc samples.
+	 *
+	 * @param samples
+	 *            the raw samples
+	 * @param offset
+	 *            index of the first sample to process
+	 * @param length
+	 *            number of samples to process
+	 * @param firstSampleTimestamp
+	 *            the time the first sample was measured
+	 */
+	public void process(int[] samples, int offset, int length,
+			long firstSampleTimestamp) {
+		sampleTimeInMilliseconds = firstSampleTimestamp;
+		for (int i = offset; i < offset + length; i++) {
+			processSample(samples[i]);
+		}
+	}
+
+	/**
+	 * processes a block of samples which are stored with a fixed distance, for
+	 * example one channel of interleaved multi channel data.
+	 *
+	 * @param samples
+	 *            the samples
+	 * @param offset
+	 *            index of the first sample to process
+	 * @param stride
+	 *            distance between two samples of the channel
+	 * @param count
+	 *            number of samples to process
+	 * @param firstSampleTimestamp
+	 *            the time the first sample was measured
+	 */
+	public void process(double[] samples, int offset, int stride, int count,
+			long firstSampleTimestamp) {
+		sampleTimeInMilliseconds = firstSampleTimestamp;
+		for (int i = 0, index = offset; i < count; i++, index += stride) {
+			processSample(samples[index]);
+		}
+	}
+
+	/**
+	 * returns the number of detected beats.
+	 *
+	 * @return number of detected beats
+	 */
+	public long getDetectedBeats() {
+		return detectedBeats;
+	}
+
+	/**
+	 * returns the last inter-beat interval.
+	 *
+	 * @return the last inter-beat interval in milliseconds or 0 if there is
+	 *         none yet
+	 */
+	public double getLastInterBeatIntervalInMilliseconds() {
+		return lastInterBeatIntervalInMilliseconds;
+	}
+
+	/**
+	 * writes the state of the detector, so that it can continue where it left
+	 * off after a restart (see {@link HeartRateSnapshot}).
+	 * 
+	 * @param buffer
+	 *            receives {@link #STATE_SIZE} bytes
+	 */
+	void writeState(ByteBuffer buffer) {
+		buffer.putDouble(hz1).putDouble(hz2).putDouble(lz1).putDouble(lz2);
+		buffer.putDouble(upperEnvelope).putDouble(lowerEnvelope);
+		buffer.putDouble(lastFilteredSample);
+		buffer.putLong(aboveThreshold ? 1 : 0);
+		buffer.putDouble(sampleTimeInMilliseconds);
+		buffer.putDouble(startTimeInMilliseconds);
+		buffer.putDouble(lastBeatInMilliseconds);
+		buffer.putDouble(lastInterBeatIntervalInMilliseconds);
+		buffer.putDouble(lastNoPulseInMilliseconds);
+		buffer.putLong(detectedBeats);
+	}
+
+	/**
+	 * reads a state written by {@link #writeState(ByteBuffer)}.
+	 * 
+	 * @param buffer
+	 *            provides {@link #STATE_SIZE} bytes
+	 */
+	void readState(ByteBuffer buffer) {
+		hz1 = buffer.getDouble();
+		hz2 = buffer.getDouble();
+		lz1 = buffer.getDouble();
+		lz2 = buffer.getDouble();
+		upperEnvelope = buffer.getDouble();
+		lowerEnvelope = buffer.getDouble();
+		lastFilteredSample = buffer.getDouble();
+		aboveThreshold = buffer.getLong() != 0;
+		sampleTimeInMilliseconds = buffer.getDouble();
+		startTimeInMilliseconds = buffer.getDouble();
+		lastBeatInMilliseconds = buffer.getDouble();
+		lastInterBeatIntervalInMilliseconds = buffer.getDouble();
+		lastNoPulseInMilliseconds = buffer.getDouble();
+		detectedBeats = buffer.getLong();
+	}
+
+	private void processSample(double sample) {
+		double time = sampleTimeInMilliseconds;
+		sampleTimeInMilliseconds += sampleIntervalInMilliseconds;
+
+		if (Double.isNaN(startTimeInMilliseconds)) {
+			startTimeInMilliseconds = time;
+			lastNoPulseInMilliseconds = time;
+			// start the high-pass in its steady state for the first sample
+			hz1 = (hb1 + hb2) * sample;
+			hz2 = hb2 * sample;
+		}
+
+		// high-pass, then low-pass
+		double high = hb0 * sample + hz1;
+		hz1 = hb1 * sample - ha1 * high + hz2;
+		hz2 = hb2 * sample - ha2 * high;
+
+		double filtered = lb0 * high + lz1;
+		lz1 = lb1 * high - la1 * filtered + lz2;
+		lz2 = lb2 * high - la2 * filtered;
+
+		// envelopes follow a new extreme at once and decay towards the signal
+		if (filtered > upperEnvelope) {
+			upperEnvelope = filtered;
+		} else {
+			upperEnvelope -= (upperEnvelope - filtered) * envelopeDecay;
+		}
+		if (filtered < lowerEnvelope) {
+			lowerEnvelope = filtered;
+		} else {
+			lowerEnvelope += (filtered - lowerEnvelope) * envelopeDecay;
+		}
+
+		double amplitude = upperEnvelope - lowerEnvelope;
+		double threshold = lowerEnvelope + amplitude / 2;
+
+		if (time - startTimeInMilliseconds >= SETTLING_TIME_IN_MILLISECONDS
+				&& amplitude >= minAmplitude) {
+			if (!aboveThreshold && filtered > threshold) {
+				// interpolate the time the threshold was crossed
+				double fraction = (threshold - lastFilteredSample)
+						/ (filtered - lastFilteredSample);
+				onThresholdCrossed(time - sampleIntervalInMilliseconds
+						+ fraction * sampleIntervalInMilliseconds);
+			}
+		}
+		aboveThreshold = filtered > threshold;
+		lastFilteredSample = filtered;
+
+		testForNoPulse(time);
+	}
+
+	private void onThresholdCrossed(double beatInMilliseconds) {
+		if (Double.isNaN(lastBeatInMilliseconds)) {
+			lastBeatInMilliseconds = beatInMilliseconds;
+			detectedBeats++;
+			return;
+		}
+
+		double interBeatInterval = beatInMilliseconds - lastBeatInMilliseconds;
+
+		// ignore the dicrotic notch and other crossings shortly after a beat
+		double refractoryPeriod = Math.max(
+				MIN_INTER_BEAT_INTERVAL_IN_MILLISECONDS,
+				lastInterBeatIntervalInMilliseconds * 3 / 5);
+		if (interBeatInterval < refractoryPeriod) {
+			return;
+		}
+
+		lastBeatInMilliseconds = beatInMilliseconds;
+		detectedBeats++;
+
+		if (interBeatInterval > MAX_INTER_BEAT_INTERVAL_IN_MILLISECONDS) {
+			// too long ago to be the previous beat, start over
+			lastInterBeatIntervalInMilliseconds = 0;
+			return;
+		}
+
+		lastInterBeatIntervalInMilliseconds = interBeatInterval;
+		addHeartRate(60000 / interBeatInterval, beatInMilliseconds);
+	}
+
+	private void testForNoPulse(double time) {
+		double lastActivity = lastNoPulseInMilliseconds;
+		if (!Double.isNaN(lastBeatInMilliseconds)) {
+			lastActivity = Math.max(lastActivity, lastBeatInMilliseconds);
+		}
+
+		if (time - lastActivity >= noPulseTimeoutInMilliseconds) {
+			lastNoPulseInMilliseconds = time;
+			lastBeatInMilliseconds = Double.NaN;
+			lastInterBeatIntervalInMilliseconds = 0;
+			addHeartRate(0, time);
+		}
+	}
+
+	private void addHeartRate(double heartRate, double timeInMilliseconds) {
+		try {
+			heartRateMonitor.addHeartRate(heartRate,
+					Math.round(timeInMilliseconds));
+		} catch (NoNegativeHeartRatesPossibleException ex) {
+			// can't happen, the detected heart rates are never negative
+			throw new IllegalStateException(ex);
+		}
+	}
+}
@@ -0,0 +1,186 @@
+package de.htw.icw.pulsesensorlib;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * In-place radix-2 FFT of real input. A real input of size n is transformed as
+ * a complex FFT of size n / 2 and separated afterwards, so it takes about half
+ * the time of a complex FFT of the same size. The bit reversal and twiddle
+ * tables are computed once per size, plans are cached and can be shared by
+ * all threads (see {@link #forSize(int)}).
+ *
+ * The result is packed into the input array: element 0 holds the real value
+ * of bin 0, element 1 the real value of bin n / 2, elements 2k and 2k + 1 the
+ * real and imaginary part of bin k for 0 &lt; k &lt; n / 2.
+ *
+ * @author s0534410
+ */
+public final class RealFft {
+
+	private static final Map<Integer, RealFft> PLANS = new HashMap<Integer, RealFft>();
+
+	private final int size;
+
+	/** bit reversed index of every complex element */
+	private final int[] bitReversal;
+
+	/** cos and sin of 2 pi k / (n / 2), used by the complex FFT */
+	private final double[] cosTable;
+	private final double[] sinTable;
+
+	/** cos and sin of 2 pi k / n, used to separate the real FFT */
+	private final double[] realCosTable;
+	private final double[] realSinTable;
+
+	private RealFft(int size) {
+		this.size = size;
+		int complexSize = size / 2;
+		int bits = Integer.numberOfTrailingZeros(complexSize);
+
+		bitReversal = new int[complexSize];
+		for (int i = 0; i < complexSize; i++) {
+			bitReversal[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+		}
+
+		cosTable = new double[Math.max(1, complexSize / 2)];
+		sinTable = new double[cosTable.length];
+		for (int k = 0; k < cosTable.length; k++) {
+			cosTable[k] = Math.cos(2 * Math.PI * k / complexSize);
+			sinTable[k] = Math.sin(2 * Math.PI * k / complexSize);
+		}
+
+		realCosTable = new double[complexSize / 2 + 1];
+		realSinTable = new double[realCosTable.length];
+		for (int k = 0; k < realCosTable.length; k++) {
+			realCosTable[k] = Math.cos(2 * Math.PI * k / size);
+			realSinTable[k] = Math.sin(2 * Math.PI * k / size);
+		}
+	}
+
+	/**
+	 * returns the plan for the given size, the plan is created at the first
+	 * call and cached.
+	 *
+	 * @param size
+	 *            the number of real values, a power of two &gt;= 4
+	 * @return the plan
+	 */
+	public static RealFft forSize(int size) {
+		if (size < 4 || Integer.bitCount(size) != 1) {
+			throw new IllegalArgumentException(
+					"size must be a power of two >= 4: " + size);
+		}
+		synchronized (PLANS) {
+			RealFft plan = PLANS.get(size);
+			if (plan == null) {
+				plan = new RealFft(size);
+				PLANS.put(size, plan);
+			}
+			return plan;
+		}
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * transforms the real values in place into the packed spectrum.
+	 *
+	 * @param data
+	 *            the real values, at least the size of the plan
+	 */
+	public void transform(double[] data) {
+		if (data.length < size) {
+			throw new IllegalArgumentException("data has less than " + size
+					+ " elements");
+		}
+		int complexSize = size / 2;
+
+		// the even values are the real parts, the odd ones the imaginary parts
+		transformComplex(data, complexSize);
+
+		double zr0 = data[0];
+		double zi0 = data[1];
+		data[0] = zr0 + zi0;
+		data[1] = zr0 - zi0;
+
+		for (int k = 1; k <= complexSize / 2; k++) {
+			int j = complexSize - k;
+			double zr = data[2 * k];
+			double zi = data[2 * k + 1];
+			double wr = data[2 * j];
+			double wi = data[2 * j + 1];
+
+			// even and odd part of the real input at bin k
+			double evenRe = (zr + wr) / 2;
+			double evenIm = (zi - wi) / 2;
+			double oddRe = (zi + wi) / 2;
+			double oddIm = (wr - zr) / 2;
+
+			double c = realCosTable[k];
+			double s = realSinTable[k];
+			double twiddledRe = c * oddRe + s * oddIm;
+			double twiddledIm = c * oddIm - s * oddRe;
+
+			data[2 * k] = evenRe + twiddledRe;
+			data[2 * k + 1] = evenIm + twiddledIm;
+			data[2 * j] = evenRe - twiddledRe;
+			data[2 * j + 1] = twiddledIm - evenIm;
+		}
+	}
+
+	/**
+	 * returns the squared magnitude of a bin of a packed spectrum.
+	 *
+	 * @param data
+	 *            the spectrum computed by {@link #transform(double[])}
+	 * @param bin
+	 *            0 to n / 2
+	 * @return the power of the bin
+	 */
+	public double getPower(double[] data, int bin) {
+		if (bin == 0) {
+			return data[0] * data[0];
+		}
+		if (bin == size / 2) {
+			return data[1] * data[1];
+		}
+		return data[2 * bin] * data[2 * bin] + data[2 * bin + 1]
+				* data[2 * bin + 1];
+	}
+
+	private void transformComplex(double[] data, int complexSize) {
+		for (int i = 0; i < complexSize; i++) {
+			int j = bitReversal[i];
+			if (j > i) {
+				double re = data[2 * i];
+				double im = data[2 * i + 1];
+				data[2 * i] = data[2 * j];
+				data[2 * i + 1] = data[2 * j + 1];
+				data[2 * j] = re;
+				data[2 * j + 1] = im;
+			}
+		}
+
+		for (int length = 2; length <= complexSize; length <<= 1) {
+			int half = length / 2;
+			int step = complexSize / length;
+			for (int start = 0; start < complexSize; start += length) {
+				for (int k = 0; k < half; k++) {
+					double c = cosTable[k * step];
+					double s = -sinTable[k * step];
+					int a = 2 * (start + k);
+					int b = 2 * (start + k + half);
+					double re = data[b] * c - data[b + 1] * s;
+					double im = data[b] * s + data[b + 1] * c;
+					data[b] = data[a] - re;
+					data[b + 1] = data[a + 1] - im;
+					data[a] += re;
+					data[a + 1] += im;
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,431 @@
+package de.htw.icw.pulsesensorlib;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * {@link EwmaHeartRateEvent} for many monitors: a single instance with one
+ * configuration can be subscribed to all monitors of a ward, instead of an
+ * event per monitor. The learned baseline and the episode of every monitor
+ * are kept apart, the detection is the same as the one of the
+ * {@link EwmaHeartRateEvent}.
+ *
+ * The state of a monitor is created with its first heart rate and takes 29
+ * bytes in primitive columns, plus a reference and an index in an open
+ * addressing table which finds the columns of a monitor by identity without
+ * allocating. The monitors are spread over {@link #NUMBER_OF_SHARDS} shards
+ * with a lock each, so monitors updated on different threads rarely wait for
+ * each other. The listeners are notified outside of the locks, they have to
+ * be thread safe if the monitors are updated on different threads.
+ *
+ * Anomalies are reported to the {@link SharedHeartRateAnomalyListener}s with
+ * the monitor and to the {@link HeartRateListener}s as
+ * {@link HeartRateListener#onHighPulse(double) onHighPulse} or
+ * {@link HeartRateListener#onLowPulse(double) onLowPulse}. The state of a
+ * monitor which is not observed anymore is freed by
+ * {@link #release(HeartRateMonitor)}.
+ *
+ * <pre>
+ * SharedEwmaHeartRateEvent heartRateEvent = new SharedEwmaHeartRateEvent(0.05,
+ * 		3, 10000);
+ * heartRateEvent.addAnomalyListener(anomalyListener);
+ * for (int sensorId : registry.getSensorIds()) {
+ * 	registry.findHeartRateMonitor(sensorId).subscribe(heartRateEvent);
+ * }
+ * </pre>
+ *
+ * @author s0534410
+ */
+public class SharedEwmaHeartRateEvent extends AbstractHeartRateEvent {
+
+	/** number of independently locked parts of the monitor states */
+	public static final int NUMBER_OF_SHARDS = 16;
+
+	private static final int SHARD_SHIFT = 32 - Integer
+			.numberOfTrailingZeros(NUMBER_OF_SHARDS);
+	private static final double DEFAULT_MINIMUM_STANDARD_DEVIATION = 1;
+
+	// episode flags of a monitor
+	private static final byte ABOVE = 1;
+	private static final byte BELOW = 2;
+	private static final byte NOTIFIED = 4;
+
+	private final double smoothingFactor;
+	private final double deviationThreshold;
+	private final long sustainedDurationInMilliseconds;
+	private final int warmUpSamples;
+	private final double minimumStandardDeviation;
+
+	private final Shard[] shards = new Shard[NUMBER_OF_SHARDS];
+
+	private List<SharedHeartRateAnomalyListener> anomalyListeners = new ArrayList<SharedHeartRateAnomalyListener>();
+
+	/**
+	 * learns the baselines from the first 1 / smoothingFactor heart rates of
+	 * every monitor and uses a minimum standard deviation of 1 bpm.
+	 *
+	 * @param smoothingFactor
+	 *            weight of a new heart rate in the baseline, between 0 and 1
+	 * @param deviationThreshold
+	 *            number of standard deviations (k) a heart rate has to deviate
+	 * @param sustainedDurationInMilliseconds
+	 *            how long the heart rates have to deviate before an anomaly is
+	 *            reported
+	 */
+	public SharedEwmaHeartRateEvent(double smoothingFactor,
+			double deviationThreshold, long sustainedDurationInMilliseconds) {
+		this(smoothingFactor, deviationThreshold,
+				sustainedDurationInMilliseconds, (int) Math
+						.ceil(1 / smoothingFactor),
+				DEFAULT_MINIMUM_STANDARD_DEVIATION);
+	}
+
+	/**
+	 * @param smoothingFactor
+	 *            weight of a new heart rate in the baseline, between 0 and 1
+	 * @param deviationThreshold
+	 *            number of standard deviations (k) a heart rate has to deviate
+	 * @param sustainedDurationInMilliseconds
+	 *            how long the heart rates have to deviate before an anomaly is
+	 *            reported
+	 * @param warmUpSamples
+	 *            number of heart rates of a monitor which are only learned
+	 *            before anomalies are detected
+	 * @param minimumStandardDeviation
+	 *            lower bound of the standard deviation, so that a very steady
+	 *            heart rate does not make every small change an anomaly
+	 */
+	public SharedEwmaHeartRateEvent(double smoothingFactor,
+			double deviationThreshold, long sustainedDurationInMilliseconds,
+			int warmUpSamples, double minimumStandardDeviation) {
+		if (!(smoothingFactor > 0 && smoothingFactor <= 1)) {
+			throw new IllegalArgumentException(
+					"smoothingFactor has to be in (0, 1]");
+		}
+		if (!(deviationThreshold > 0)) {
+			throw new IllegalArgumentException(
+					"deviationThreshold has to be > 0");
+		}
+		if (sustainedDurationInMilliseconds < 0 || warmUpSamples < 1
+				|| minimumStandardDeviation < 0) {
+			throw new IllegalArgumentException(
+					"durations and sample counts must not be negative");
+		}
+		this.smoothingFactor = smoothingFactor;
+		this.deviationThreshold = deviationThreshold;
+		this.sustainedDurationInMilliseconds = sustainedDurationInMilliseconds;
+		this.warmUpSamples = warmUpSamples;
+		this.minimumStandardDeviation = minimumStandardDeviation;
+
+		for (int i = 0; i < shards.length; i++) {
+			shards[i] = new Shard();
+		}
+	}
+
+	public void addAnomalyListener(
+			SharedHeartRateAnomalyListener anomalyListener) {
+		anomalyListeners.add(anomalyListener);
+	}
+
+	public void removeAnomalyListener(
+			SharedHeartRateAnomalyListener anomalyListener) {
+		anomalyListeners.remove(anomalyListener);
+	}
+
+	@Override
+	public void onUpdate(HeartRateMonitor heartRateMonitor) {
+		double heartRate = heartRateMonitor.getLastHeartRate();
+		long timestamp = heartRateMonitor.getLastTimestamp();
+
+		int hash = hash(heartRateMonitor);
+		Shard shard = shards[hash >>> SHARD_SHIFT];
+
+		double expectedHeartRate;
+		double standardDeviation;
+		double deviation;
+		long episodeStartTimestamp;
+		synchronized (shard) {
+			int index = shard.find(heartRateMonitor, hash);
+			if (index < 0) {
+				index = shard.add(heartRateMonitor, hash);
+			}
+
+			if (heartRate == 0) {
+				shard.episodes[index] = 0;
+				return;
+			}
+
+			if (shard.samples[index] < warmUpSamples) {
+				learn(shard, index, heartRate);
+				return;
+			}
+
+			expectedHeartRate = shard.means[index];
+			standardDeviation = getStandardDeviation(shard.variances[index]);
+			deviation = (heartRate - expectedHeartRate) / standardDeviation;
+			byte direction = deviation > deviationThreshold ? ABOVE
+					: deviation < -deviationThreshold ? BELOW : 0;
+
+			if (direction == 0) {
+				shard.episodes[index] = 0;
+				learn(shard, index, heartRate);
+				return;
+			}
+
+			if ((shard.episodes[index] & (ABOVE | BELOW)) != direction) {
+				shard.episodes[index] = direction;
+				shard.episodeStartTimestamps[index] = timestamp;
+			}
+
+			episodeStartTimestamp = shard.episodeStartTimestamps[index];
+			if ((shard.episodes[index] & NOTIFIED) != 0
+					|| timestamp - episodeStartTimestamp < sustainedDurationInMilliseconds) {
+				return;
+			}
+			shard.episodes[index] |= NOTIFIED;
+		}
+
+		notifyOnAnomaly(heartRateMonitor, heartRate, expectedHeartRate,
+				standardDeviation, deviation, episodeStartTimestamp, timestamp);
+	}
+
+	/**
+	 * returns the learned mean heart rate of a monitor.
+	 *
+	 * @return the exponentially weighted mean or NaN if the event has no heart
+	 *         rate of the monitor
+	 */
+	public double getExpectedHeartRate(HeartRateMonitor heartRateMonitor) {
+		int hash = hash(heartRateMonitor);
+		Shard shard = shards[hash >>> SHARD_SHIFT];
+		synchronized (shard) {
+			int index = shard.find(heartRateMonitor, hash);
+			return index < 0 ? Double.NaN : shard.means[index];
+		}
+	}
+
+	/**
+	 * returns the learned standard deviation of a monitor, at least the
+	 * minimum standard deviation.
+	 *
+	 * @return the exponentially weighted standard deviation or NaN if the
+	 *         event has no heart rate of the monitor
+	 */
+	public double getStandardDeviation(HeartRateMonitor heartRateMonitor) {
+		int hash = hash(heartRateMonitor);
+		Shard shard = shards[hash >>> SHARD_SHIFT];
+		synchronized (shard) {
+			int index = shard.find(heartRateMonitor, hash);
+			return index < 0 ? Double.NaN
+					: getStandardDeviation(shard.variances[index]);
+		}
+	}
+
+	/**
+	 * returns whether the last heart rate of a monitor deviated from its
+	 * baseline.
+	 *
+	 * @return true while an episode lasts, even before it was reported
+	 */
+	public boolean isDeviating(HeartRateMonitor heartRateMonitor) {
+		int hash = hash(heartRateMonitor);
+		Shard shard = shards[hash >>> SHARD_SHIFT];
+		synchronized (shard) {
+			int index = shard.find(heartRateMonitor, hash);
+			return index >= 0 && shard.episodes[index] != 0;
+		}
+	}
+
+	/**
+	 * returns the number of monitors the event keeps a state of.
+	 *
+	 * @return number of monitors
+	 */
+	public int getNumberOfMonitors() {
+		int numberOfMonitors = 0;
+		for (Shard shard : shards) {
+			synchronized (shard) {
+				numberOfMonitors += shard.size;
+			}
+		}
+		return numberOfMonitors;
+	}
+
+	/**
+	 * frees the state of a monitor, e.g. after the event was unsubscribed from
+	 * it. the next heart rate of the monitor starts learning again.
+	 *
+	 * @param heartRateMonitor
+	 *            the monitor which is not observed anymore
+	 * @return true if the event had a state of the monitor
+	 */
+	public boolean release(HeartRateMonitor heartRateMonitor) {
+		int hash = hash(heartRateMonitor);
+		Shard shard = shards[hash >>> SHARD_SHIFT];
+		synchronized (shard) {
+			return shard.remove(heartRateMonitor, hash);
+		}
+	}
+
+	private double getStandardDeviation(double variance) {
+		return Math.max(Math.sqrt(variance), minimumStandardDeviation);
+	}
+
+	private void learn(Shard shard, int index, double heartRate) {
+		if (shard.samples[index] == 0) {
+			shard.means[index] = heartRate;
+		} else {
+			double difference = heartRate - shard.means[index];
+			double increment = smoothingFactor * difference;
+			shard.means[index] += increment;
+			shard.variances[index] = (1 - smoothingFactor)
+					* (shard.variances[index] + difference * increment);
+		}
+		// only compared with the warm up samples, so it must not overflow
+		if (shard.samples[index] < warmUpSamples) {
+			shard.samples[index]++;
+		}
+	}
+
+	private void notifyOnAnomaly(HeartRateMonitor heartRateMonitor,
+			double heartRate, double expectedHeartRate,
+			double standardDeviation, double deviation,
+			long episodeStartTimestamp, long timestamp) {
+		for (int i = 0; i < anomalyListeners.size(); i++) {
+			anomalyListeners.get(i).onAnomaly(heartRateMonitor, heartRate,
+					expectedHeartRate, standardDeviation, deviation,
+					episodeStartTimestamp, timestamp);
+		}
+		if (deviation > 0) {
+			notifyOnHighPulse(heartRate);
+		} else {
+			notifyOnLowPulse(heartRate);
+		}
+	}
+
+	private static int hash(HeartRateMonitor heartRateMonitor) {
+		// finalizer of murmur3, the high bits select the shard
+		int h = System.identityHashCode(heartRateMonitor);
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+
+	/**
+	 * The states of the monitors of a shard in dense primitive columns, and an
+	 * open addressing table from the monitors to their index in the columns.
+	 * Guarded by its own lock.
+	 */
+	private static final class Shard {
+
+		private static final int INITIAL_CAPACITY = 8;
+
+		/** monitors of the table, a slot is free if it is null */
+		HeartRateMonitor[] keys = new HeartRateMonitor[INITIAL_CAPACITY * 2];
+		/** index of the columns of the monitor at the same slot */
+		int[] indexes = new int[INITIAL_CAPACITY * 2];
+
+		int size;
+		HeartRateMonitor[] monitors = new HeartRateMonitor[INITIAL_CAPACITY];
+		int[] samples = new int[INITIAL_CAPACITY];
+		double[] means = new double[INITIAL_CAPACITY];
+		double[] variances = new double[INITIAL_CAPACITY];
+		long[] episodeStartTimestamps = new long[INITIAL_CAPACITY];
+		byte[] episodes = new byte[INITIAL_CAPACITY];
+
+		/** returns the index of the monitor in the columns or -1 */
+		int find(HeartRateMonitor heartRateMonitor, int hash) {
+			int slot = findSlot(heartRateMonitor, hash);
+			return keys[slot] == null ? -1 : indexes[slot];
+		}
+
+		/** adds a monitor with an empty state and returns its index */
+		int add(HeartRateMonitor heartRateMonitor, int hash) {
+			if (size == monitors.length) {
+				grow(size * 2);
+			}
+			int index = size++;
+			monitors[index] = heartRateMonitor;
+			samples[index] = 0;
+			means[index] = 0;
+			variances[index] = 0;
+			episodeStartTimestamps[index] = 0;
+			episodes[index] = 0;
+
+			int slot = findSlot(heartRateMonitor, hash);
+			keys[slot] = heartRateMonitor;
+			indexes[slot] = index;
+			return index;
+		}
+
+		boolean remove(HeartRateMonitor heartRateMonitor, int hash) {
+			int slot = findSlot(heartRateMonitor, hash);
+			if (keys[slot] == null) {
+				return false;
+			}
+			int index = indexes[slot];
+			keys[slot] = null;
+
+			// shift the following entries of the probe sequence back, so that
+			// lookups never stop at the freed slot
+			int mask = keys.length - 1;
+			int free = slot;
+			for (int i = (slot + 1) & mask; keys[i] != null; i = (i + 1) & mask) {
+				int home = hash(keys[i]) & mask;
+				if (((i - home) & mask) >= ((i - free) & mask)) {
+					keys[free] = keys[i];
+					indexes[free] = indexes[i];
+					keys[i] = null;
+					free = i;
+				}
+			}
+
+			// move the last state into the gap, so that the columns stay dense
+			int last = --size;
+			if (index != last) {
+				HeartRateMonitor moved = monitors[last];
+				monitors[index] = moved;
+				samples[index] = samples[last];
+				means[index] = means[last];
+				variances[index] = variances[last];
+				episodeStartTimestamps[index] = episodeStartTimestamps[last];
+				episodes[index] = episodes[last];
+				indexes[findSlot(moved, hash(moved))] = index;
+			}
+			monitors[last] = null;
+			return true;
+		}
+
+		private int findSlot(HeartRateMonitor heartRateMonitor, int hash) {
+			int mask = keys.length - 1;
+			int slot = hash & mask;
+			while (keys[slot] != null && keys[slot] != heartRateMonitor) {
+				slot = (slot + 1) & mask;
+			}
+			return slot;
+		}
+
+		private void grow(int capacity) {
+			monitors = Arrays.copyOf(monitors, capacity);
+			samples = Arrays.copyOf(samples, capacity);
+			means = Arrays.copyOf(means, capacity);
+			variances = Arrays.copyOf(variances, capacity);
+			episodeStartTimestamps = Arrays.copyOf(
+					episodeStartTimestamps, capacity);
+			episodes = Arrays.copyOf(episodes, capacity);
+
+			// the table is kept at most half full
+			keys = new HeartRateMonitor[capacity * 2];
+			indexes = new int[capacity * 2];
+			for (int i = 0; i < size; i++) {
+				int slot = findSlot(monitors[i], hash(monitors[i]));
+				keys[slot] = monitors[i];
+				indexes[slot] = i;
+			}
+		}
+	}
+}
@@ -0,0 +1,35 @@
+package de.htw.icw.pulsesensorlib;
+
+/**
+ * Listener of the {@link SharedEwmaHeartRateEvent}. Like the
+ * {@link HeartRateAnomalyListener} it is notified once per anomaly, but also
+ * gets the monitor the anomaly was detected in, as the event serves many
+ * monitors.
+ *
+ * @author s0534410
+ */
+public interface SharedHeartRateAnomalyListener {
+
+	/**
+	 * @param heartRateMonitor
+	 *            the monitor of the deviating heart rates, e.g. to look up its
+	 *            sensor id (see {@link DefaultHeartRateMonitor#getSensorId()})
+	 * @param heartRate
+	 *            the heart rate which completed the sustained duration
+	 * @param expectedHeartRate
+	 *            the exponentially weighted mean before this heart rate
+	 * @param standardDeviation
+	 *            the exponentially weighted standard deviation before this
+	 *            heart rate
+	 * @param deviation
+	 *            the deviation of the heart rate in standard deviations,
+	 *            positive above and negative below the baseline
+	 * @param startTimestamp
+	 *            timestamp of the first deviating heart rate
+	 * @param endTimestamp
+	 *            timestamp of this heart rate
+	 */
+	void onAnomaly(HeartRateMonitor heartRateMonitor, double heartRate,
+			double expectedHeartRate, double standardDeviation,
+			double deviation, long startTimestamp, long endTimestamp);
+}
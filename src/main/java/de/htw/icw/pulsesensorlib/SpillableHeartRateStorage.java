@@ -0,0 +1,279 @@
+package de.htw.icw.pulsesensorlib;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Storage of a monitor created by the {@link HeartRateMemoryGovernor}. The
+ * history is kept in a resident storage until the governor spills it to a
+ * segment file, then only the number of heart rates is kept. The next access
+ * pages the history back in. Since histories only grow, a segment stays valid
+ * after paging in and is only written again if heart rates were added.
+ *
+ * All methods are synchronized because the governor spills the storage on
+ * another thread than the one of the monitor. The storage never calls the
+ * governor while it holds its own lock.
+ *
+ * @author s0534410
+ */
+class SpillableHeartRateStorage implements HeartRateStorage {
+
+	private static final int SEGMENT_MAGIC = 0x48525347;
+	private static final int SEGMENT_HEADER_SIZE = 8;
+
+	private final HeartRateMemoryGovernor heartRateMemoryGovernor;
+	private final File segmentFile;
+
+	/** the resident history, null while it is spilled */
+	private HeartRateStorage resident;
+
+	/** number of heart rates while the history is spilled */
+	private int spilledSize;
+
+	/** number of heart rates in the segment file, -1 if there is none */
+	private int segmentSize = -1;
+
+	/** set by every access, cleared when the governor reads the access time */
+	private boolean accessed;
+	private long lastAccessTime;
+
+	private long hits;
+	private long misses;
+	private boolean closed;
+
+	SpillableHeartRateStorage(HeartRateMemoryGovernor heartRateMemoryGovernor,
+			HeartRateStorage resident, File segmentFile) {
+		this.heartRateMemoryGovernor = heartRateMemoryGovernor;
+		this.resident = resident;
+		this.segmentFile = segmentFile;
+		this.lastAccessTime = System.currentTimeMillis();
+	}
+
+	@Override
+	public synchronized int size() {
+		return resident != null ? resident.size() : spilledSize;
+	}
+
+	@Override
+	public double getHeartRate(int index) {
+		long pagedInBytes;
+		double heartRate;
+		synchronized (this) {
+			pagedInBytes = access();
+			heartRate = resident.getHeartRate(index);
+		}
+		heartRateMemoryGovernor.addResidentBytes(this, pagedInBytes);
+		return heartRate;
+	}
+
+	@Override
+	public long getTimestamp(int index) {
+		long pagedInBytes;
+		long timestamp;
+		synchronized (this) {
+			pagedInBytes = access();
+			timestamp = resident.getTimestamp(index);
+		}
+		heartRateMemoryGovernor.addResidentBytes(this, pagedInBytes);
+		return timestamp;
+	}
+
+	@Override
+	public void add(double heartRate, long timestamp) {
+		long pagedInBytes;
+		synchronized (this) {
+			pagedInBytes = access();
+			resident.add(heartRate, timestamp);
+			// heart rates are added rarely enough to query the clock
+			accessed = false;
+			lastAccessTime = System.currentTimeMillis();
+		}
+		heartRateMemoryGovernor.addResidentBytes(this, pagedInBytes
+				+ HeartRateColumnCodec.RECORD_SIZE);
+	}
+
+	@Override
+	public void addAll(DoubleBuffer heartRateBuffer,
+			LongBuffer timestampBuffer, int count) {
+		long pagedInBytes;
+		synchronized (this) {
+			pagedInBytes = access();
+			resident.addAll(heartRateBuffer, timestampBuffer, count);
+		}
+		heartRateMemoryGovernor.addResidentBytes(this, pagedInBytes
+				+ (long) count * HeartRateColumnCodec.RECORD_SIZE);
+	}
+
+	@Override
+	public void copyHeartRatesTo(DoubleBuffer heartRateBuffer, int fromIndex,
+			int count) {
+		long pagedInBytes;
+		synchronized (this) {
+			pagedInBytes = access();
+			resident.copyHeartRatesTo(heartRateBuffer, fromIndex, count);
+		}
+		heartRateMemoryGovernor.addResidentBytes(this, pagedInBytes);
+	}
+
+	@Override
+	public void copyTimestampsTo(LongBuffer timestampBuffer, int fromIndex,
+			int count) {
+		long pagedInBytes;
+		synchronized (this) {
+			pagedInBytes = access();
+			resident.copyTimestampsTo(timestampBuffer, fromIndex, count);
+		}
+		heartRateMemoryGovernor.addResidentBytes(this, pagedInBytes);
+	}
+
+	/**
+	 * frees the resident history, deletes the segment file and unregisters the
+	 * storage from the governor.
+	 */
+	@Override
+	public void close() {
+		long residentBytes;
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+			residentBytes = getResidentBytes();
+			if (resident != null) {
+				resident.close();
+				resident = null;
+			}
+			spilledSize = 0;
+			segmentFile.delete();
+		}
+		heartRateMemoryGovernor.unregister(this, residentBytes);
+	}
+
+	/**
+	 * returns the time of the last access. accesses since the last call count
+	 * as an access now, so reading doesn't have to query the clock.
+	 */
+	synchronized long getLastAccessTime(long now) {
+		if (accessed) {
+			accessed = false;
+			lastAccessTime = now;
+		}
+		return lastAccessTime;
+	}
+
+	synchronized long getResidentBytes() {
+		return resident != null ? (long) resident.size()
+				* HeartRateColumnCodec.RECORD_SIZE : 0;
+	}
+
+	synchronized boolean isSpilled() {
+		return resident == null && !closed;
+	}
+
+	synchronized long getHits() {
+		return hits;
+	}
+
+	synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * writes the history to the segment file, unless the segment is up to
+	 * date, and frees the resident history.
+	 *
+	 * @param buffer
+	 *            a little endian buffer used to write the segment
+	 * @return the freed bytes
+	 */
+	synchronized long spill(ByteBuffer buffer) throws IOException {
+		if (resident == null || closed) {
+			return 0;
+		}
+
+		int count = resident.size();
+		if (segmentSize != count) {
+			segmentSize = -1;
+			writeSegment(buffer, count);
+			segmentSize = count;
+		}
+
+		long freedBytes = getResidentBytes();
+		resident.close();
+		resident = null;
+		spilledSize = count;
+		return freedBytes;
+	}
+
+	/**
+	 * makes sure the history is resident and counts the access.
+	 *
+	 * @return the bytes which have been paged in
+	 */
+	private long access() {
+		if (closed) {
+			throw new IllegalStateException("storage is closed");
+		}
+		accessed = true;
+		if (resident != null) {
+			hits++;
+			return 0;
+		}
+
+		misses++;
+		HeartRateStorage storage = heartRateMemoryGovernor.createStorage();
+		try {
+			readSegment(storage);
+		} catch (IOException ex) {
+			storage.close();
+			throw new IllegalStateException("could not page in "
+					+ segmentFile, ex);
+		}
+		resident = storage;
+		spilledSize = 0;
+		return getResidentBytes();
+	}
+
+	private void writeSegment(ByteBuffer buffer, int count) throws IOException {
+		FileChannel channel = FileChannel.open(segmentFile.toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			buffer.clear();
+			buffer.putInt(SEGMENT_MAGIC).putInt(count);
+			HeartRateColumnCodec.writeColumns(channel, buffer, resident, count);
+			HeartRateColumnCodec.flush(channel, buffer);
+		} finally {
+			channel.close();
+		}
+	}
+
+	private void readSegment(HeartRateStorage storage) throws IOException {
+		FileChannel channel = FileChannel.open(segmentFile.toPath(),
+				StandardOpenOption.READ);
+		try {
+			long expectedSize = SEGMENT_HEADER_SIZE + (long) spilledSize
+					* HeartRateColumnCodec.RECORD_SIZE;
+			if (channel.size() != expectedSize) {
+				throw new IOException(segmentFile + " is truncated");
+			}
+			MappedByteBuffer segment = channel.map(
+					FileChannel.MapMode.READ_ONLY, 0, expectedSize);
+			segment.order(ByteOrder.LITTLE_ENDIAN);
+			if (segment.getInt() != SEGMENT_MAGIC
+					|| segment.getInt() != spilledSize) {
+				throw new IOException(segmentFile + " is not a segment");
+			}
+			HeartRateColumnCodec.readColumns(segment, storage, spilledSize);
+		} finally {
+			channel.close();
+		}
+	}
+}
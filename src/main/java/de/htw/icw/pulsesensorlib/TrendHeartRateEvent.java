@@ -0,0 +1,316 @@
+package de.htw.icw.pulsesensorlib;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * HeartRateEvent which detects a rising or falling heart rate by the least
+ * squares slope of all heart rates in a sliding window, instead of comparing
+ * the last heart rate with single earlier ones (see
+ * {@link DefaultHeartRateEvent}), so that a single noisy heart rate does not
+ * trigger it.
+ *
+ * The event keeps the running sums of t, r, t*r and t*t of the heart rates in
+ * the window and subtracts a heart rate when it expires, so an update costs
+ * O(1) and the monitor is only asked for its last heart rate. The heart rates
+ * of the window are kept in a ring of its own to expire them. The timestamps
+ * are summed relative to an origin which is moved to the oldest heart rate
+ * once per window, then the sums are recomputed from the ring, so that they
+ * neither lose precision nor accumulate rounding errors of the subtractions.
+ * Heart rates of 0 (no pulse) and heart rates older than the last one are
+ * ignored. Trends are only detected once the heart rates in the window span
+ * at least half of the window size, a slope fitted to a few seconds is mostly
+ * noise.
+ *
+ * Trends are reported once per episode: to the trend listeners (see
+ * {@link HeartRateTrendListener}) with the slope and to the
+ * {@link HeartRateListener}s as
+ * {@link HeartRateListener#onPulseIncreased(double, double, long, long, double)
+ * onPulseIncreased} or
+ * {@link HeartRateListener#onPulseDecreased(double, double, long, long, double)
+ * onPulseDecreased} with the fitted heart rates. An episode ends with the
+ * first slope within half of the limit, so that a slope which wavers around
+ * the limit is not reported again and again.
+ *
+ * @author s0534410
+ */
+public class TrendHeartRateEvent extends AbstractHeartRateEvent {
+
+	private static final int DEFAULT_MINIMUM_SAMPLES = 3;
+	private static final int INITIAL_CAPACITY = 64;
+	private static final double MILLISECONDS_PER_MINUTE = 60 * 1000;
+
+	private final long windowSizeInMilliseconds;
+	private final double risingLimitInBpmPerMinute;
+	private final double fallingLimitInBpmPerMinute;
+	private final int minimumSamples;
+
+	private List<HeartRateTrendListener> trendListeners = new ArrayList<HeartRateTrendListener>();
+
+	// the heart rates of the window, the oldest at head
+	private long[] timestamps = new long[INITIAL_CAPACITY];
+	private double[] heartRates = new double[INITIAL_CAPACITY];
+	private int head;
+	private int size;
+
+	/** the timestamps are summed relative to the origin */
+	private long origin;
+	private double sumOfTimes;
+	private double sumOfHeartRates;
+	private double sumOfProducts;
+	private double sumOfSquaredTimes;
+
+	// 1 rising, -1 falling and 0 within the limits
+	private int trendDirection;
+
+	/**
+	 * detects trends with the same limit in both directions once the window
+	 * contains 3 heart rates.
+	 *
+	 * @param windowSizeInMilliseconds
+	 *            the time range of the heart rates the slope is fitted to
+	 * @param limitInBpmPerMinute
+	 *            the slope a rising or falling heart rate has to exceed
+	 */
+	public TrendHeartRateEvent(long windowSizeInMilliseconds,
+			double limitInBpmPerMinute) {
+		this(windowSizeInMilliseconds, limitInBpmPerMinute,
+				limitInBpmPerMinute, DEFAULT_MINIMUM_SAMPLES);
+	}
+
+	/**
+	 * @param windowSizeInMilliseconds
+	 *            the time range of the heart rates the slope is fitted to
+	 * @param risingLimitInBpmPerMinute
+	 *            the slope a rising heart rate has to exceed
+	 * @param fallingLimitInBpmPerMinute
+	 *            the slope a falling heart rate has to fall below, as a
+	 *            positive number
+	 * @param minimumSamples
+	 *            number of heart rates the window has to contain before trends
+	 *            are detected, at least 2
+	 */
+	public TrendHeartRateEvent(long windowSizeInMilliseconds,
+			double risingLimitInBpmPerMinute,
+			double fallingLimitInBpmPerMinute, int minimumSamples) {
+		if (windowSizeInMilliseconds <= 0) {
+			throw new IllegalArgumentException(
+					"windowSizeInMilliseconds has to be > 0");
+		}
+		if (!(risingLimitInBpmPerMinute > 0)
+				|| !(fallingLimitInBpmPerMinute > 0)) {
+			throw new IllegalArgumentException("the limits have to be > 0");
+		}
+		if (minimumSamples < 2) {
+			throw new IllegalArgumentException("minimumSamples has to be >= 2");
+		}
+		this.windowSizeInMilliseconds = windowSizeInMilliseconds;
+		this.risingLimitInBpmPerMinute = risingLimitInBpmPerMinute;
+		this.fallingLimitInBpmPerMinute = fallingLimitInBpmPerMinute;
+		this.minimumSamples = minimumSamples;
+	}
+
+	public void addTrendListener(HeartRateTrendListener trendListener) {
+		trendListeners.add(trendListener);
+	}
+
+	public void removeTrendListener(HeartRateTrendListener trendListener) {
+		trendListeners.remove(trendListener);
+	}
+
+	@Override
+	public void onUpdate(HeartRateMonitor heartRateMonitor) {
+		add(heartRateMonitor.getLastHeartRate(),
+				heartRateMonitor.getLastTimestamp());
+	}
+
+	/**
+	 * adds a heart rate to the window, expires the heart rates which are older
+	 * than the window size and reports a trend if the slope exceeds a limit.
+	 *
+	 * @param heartRate
+	 *            the heart rate
+	 * @param timestamp
+	 *            the time of the measurement
+	 */
+	public void add(double heartRate, long timestamp) {
+		if (heartRate == 0) {
+			return;
+		}
+		if (size > 0 && timestamp < timestamps[index(size - 1)]) {
+			return;
+		}
+
+		expire(timestamp - windowSizeInMilliseconds);
+		if (size == 0) {
+			origin = timestamp;
+		} else if (timestamps[head] - origin > windowSizeInMilliseconds) {
+			rebase();
+		}
+		append(heartRate, timestamp);
+
+		if (timestamp - timestamps[head] < windowSizeInMilliseconds / 2) {
+			return;
+		}
+
+		double slope = getSlope();
+		if (trendDirection > 0 && !(slope > risingLimitInBpmPerMinute / 2)
+				|| trendDirection < 0
+				&& !(slope < -fallingLimitInBpmPerMinute / 2)) {
+			trendDirection = 0;
+		}
+		if (trendDirection == 0) {
+			if (slope > risingLimitInBpmPerMinute) {
+				trendDirection = 1;
+				notifyOnTrend(slope, timestamp);
+			} else if (slope < -fallingLimitInBpmPerMinute) {
+				trendDirection = -1;
+				notifyOnTrend(slope, timestamp);
+			}
+		}
+	}
+
+	/**
+	 * returns the least squares slope of the heart rates in the window.
+	 *
+	 * @return the slope in bpm per minute or NaN if the window contains less
+	 *         than the minimum samples or all its heart rates have the same
+	 *         timestamp
+	 */
+	public double getSlope() {
+		if (size < minimumSamples) {
+			return Double.NaN;
+		}
+		double denominator = size * sumOfSquaredTimes - sumOfTimes
+				* sumOfTimes;
+		if (!(denominator > 0)) {
+			return Double.NaN;
+		}
+		return (size * sumOfProducts - sumOfTimes * sumOfHeartRates)
+				/ denominator * MILLISECONDS_PER_MINUTE;
+	}
+
+	/**
+	 * returns the number of heart rates in the window.
+	 *
+	 * @return number of heart rates
+	 */
+	public int getNumberOfHeartRates() {
+		return size;
+	}
+
+	/**
+	 * returns whether a trend has been reported which has not ended yet.
+	 *
+	 * @return true while a trend lasts
+	 */
+	public boolean isTrending() {
+		return trendDirection != 0;
+	}
+
+	private void append(double heartRate, long timestamp) {
+		if (size == timestamps.length) {
+			grow();
+		}
+		int index = index(size);
+		timestamps[index] = timestamp;
+		heartRates[index] = heartRate;
+		size++;
+
+		double time = timestamp - origin;
+		sumOfTimes += time;
+		sumOfHeartRates += heartRate;
+		sumOfProducts += time * heartRate;
+		sumOfSquaredTimes += time * time;
+	}
+
+	/** removes the heart rates before the given timestamp */
+	private void expire(long fromTimestamp) {
+		while (size > 0 && timestamps[head] < fromTimestamp) {
+			double time = timestamps[head] - origin;
+			double heartRate = heartRates[head];
+			sumOfTimes -= time;
+			sumOfHeartRates -= heartRate;
+			sumOfProducts -= time * heartRate;
+			sumOfSquaredTimes -= time * time;
+			head = index(1);
+			size--;
+		}
+		if (size == 0) {
+			sumOfTimes = 0;
+			sumOfHeartRates = 0;
+			sumOfProducts = 0;
+			sumOfSquaredTimes = 0;
+		}
+	}
+
+	/**
+	 * moves the origin to the oldest heart rate and recomputes the sums. this
+	 * happens at most once per window size, so its cost is spread over the
+	 * heart rates of the window.
+	 */
+	private void rebase() {
+		origin = timestamps[head];
+		sumOfTimes = 0;
+		sumOfHeartRates = 0;
+		sumOfProducts = 0;
+		sumOfSquaredTimes = 0;
+		for (int i = 0; i < size; i++) {
+			int index = index(i);
+			double time = timestamps[index] - origin;
+			double heartRate = heartRates[index];
+			sumOfTimes += time;
+			sumOfHeartRates += heartRate;
+			sumOfProducts += time * heartRate;
+			sumOfSquaredTimes += time * time;
+		}
+	}
+
+	private void grow() {
+		long[] grownTimestamps = new long[timestamps.length * 2];
+		double[] grownHeartRates = new double[heartRates.length * 2];
+		for (int i = 0; i < size; i++) {
+			grownTimestamps[i] = timestamps[index(i)];
+			grownHeartRates[i] = heartRates[index(i)];
+		}
+		timestamps = grownTimestamps;
+		heartRates = grownHeartRates;
+		head = 0;
+	}
+
+	/** returns the ring index of the i-th heart rate of the window */
+	private int index(int i) {
+		int index = head + i;
+		return index < timestamps.length ? index : index - timestamps.length;
+	}
+
+	private void notifyOnTrend(double slope, long endTimestamp) {
+		long startTimestamp = timestamps[head];
+		double meanTime = sumOfTimes / size;
+		double meanHeartRate = sumOfHeartRates / size;
+		double slopePerMillisecond = slope / MILLISECONDS_PER_MINUTE;
+		double startHeartRate = meanHeartRate + slopePerMillisecond
+				* (startTimestamp - origin - meanTime);
+		double endHeartRate = meanHeartRate + slopePerMillisecond
+				* (endTimestamp - origin - meanTime);
+
+		for (int i = 0; i < trendListeners.size(); i++) {
+			trendListeners.get(i).onTrend(slope, startHeartRate,
+					endHeartRate, startTimestamp, endTimestamp);
+		}
+		if (!(startHeartRate > 0)) {
+			return;
+		}
+		if (slope > 0) {
+			// ((100 / old_pulse) * new_pulse) - 100
+			notifyOnPulseIncreased(startHeartRate, endHeartRate,
+					startTimestamp, endTimestamp,
+					((100 / startHeartRate) * endHeartRate) - 100);
+		} else {
+			// 100 - (100 / old_pulse * new_pulse)
+			notifyOnPulseDecreased(startHeartRate, endHeartRate,
+					startTimestamp, endTimestamp,
+					(100 - (100 / startHeartRate * endHeartRate)));
+		}
+	}
+}
@@ -0,0 +1,151 @@
+package de.htw.icw.pulsesensorlib;
+
+/**
+ * Caches the first indexes of the windows of the last milliseconds of a
+ * {@link DefaultHeartRateMonitor} (see
+ * {@link DefaultHeartRateMonitor#getIndexOfLastSeconds(double)}). The events
+ * of a monitor look up the same few windows for every heart rate, so the
+ * boundaries are kept in a small open addressing table keyed by the interval.
+ * Every entry is tagged with the append epoch of the monitor, which is the
+ * number of heart rates since the history only grows.
+ *
+ * A lookup between two appends is a hash probe. After an append the beginning
+ * of a window moves forward, so the boundary is moved forward from the cached
+ * index, which usually takes a step or two. Boundaries far behind are found by
+ * binary search. The table is preallocated and a lookup allocates nothing.
+ * Both require ascending timestamps, the monitor doesn't use the cache once a
+ * heartrate older than its predecessor was added.
+ *
+ * The cache belongs to the thread which runs the events of the monitor (see
+ * {@link #setOwner(Thread)}), only this thread reads and writes the entries.
+ * Lookups of other threads, e.g. queries while the monitor is fed by a
+ * {@link HeartRatePipeline}, search the boundary without touching the cache,
+ * so a query never writes state shared with the events.
+ *
+ * @author s0534410
+ */
+class WindowBoundaryCache {
+
+	/** number of entries, a power of two */
+	private static final int CAPACITY = 16;
+	private static final int MAXIMUM_PROBES = 4;
+
+	/** appends after which a boundary is searched instead of moved forward */
+	private static final int MAXIMUM_FORWARD_APPENDS = 32;
+
+	private final DefaultHeartRateMonitor heartRateMonitor;
+
+	/** the only thread which uses the entries */
+	private volatile Thread owner;
+
+	private final long[] intervals = new long[CAPACITY];
+	/** append epoch of every entry, -1 marks an empty entry */
+	private final int[] epochs = new int[CAPACITY];
+	private final long[] beginTimestamps = new long[CAPACITY];
+	private final int[] fromIndexes = new int[CAPACITY];
+
+	WindowBoundaryCache(DefaultHeartRateMonitor heartRateMonitor) {
+		this.heartRateMonitor = heartRateMonitor;
+		for (int i = 0; i < CAPACITY; i++) {
+			epochs[i] = -1;
+		}
+	}
+
+	/**
+	 * returns the last index whose timestamp is not after the beginning of the
+	 * window, or 0 if there is none.
+	 *
+	 * @param interval_in_ms
+	 *            the length of the window, the key of the entry
+	 * @param beginTimestamp
+	 *            the beginning of the window
+	 * @param size
+	 *            the number of heart rates of the monitor
+	 */
+	int fromIndex(double interval_in_ms, long beginTimestamp, int size) {
+		if (Thread.currentThread() != owner) {
+			return search(beginTimestamp);
+		}
+
+		long interval = Double.doubleToLongBits(interval_in_ms);
+		int hash = hash(interval);
+
+		int slot = -1;
+		for (int probe = 0; probe < MAXIMUM_PROBES; probe++) {
+			int i = (hash + probe) & (CAPACITY - 1);
+			if (epochs[i] == -1) {
+				if (slot == -1) {
+					slot = i;
+				}
+				break;
+			}
+			if (intervals[i] == interval) {
+				slot = i;
+				break;
+			}
+		}
+
+		if (slot != -1 && epochs[slot] != -1) {
+			if (epochs[slot] == size && beginTimestamps[slot] == beginTimestamp) {
+				return fromIndexes[slot];
+			}
+			if (size - epochs[slot] <= MAXIMUM_FORWARD_APPENDS
+					&& beginTimestamps[slot] <= beginTimestamp) {
+				int fromIndex = moveForward(fromIndexes[slot], beginTimestamp,
+						size);
+				store(slot, interval, size, beginTimestamp, fromIndex);
+				return fromIndex;
+			}
+		}
+
+		int fromIndex = search(beginTimestamp);
+		if (slot == -1) {
+			// all probed entries belong to other windows, replace the first
+			slot = hash & (CAPACITY - 1);
+		}
+		store(slot, interval, size, beginTimestamp, fromIndex);
+		return fromIndex;
+	}
+
+	/**
+	 * hands the cache to the given thread. called by the monitor before it
+	 * runs the events, so the cache follows the thread which runs them.
+	 *
+	 * @param thread
+	 *            the thread which runs the events
+	 */
+	void setOwner(Thread thread) {
+		if (owner != thread) {
+			owner = thread;
+		}
+	}
+
+	boolean isOwner(Thread thread) {
+		return owner == thread;
+	}
+
+	private int search(long beginTimestamp) {
+		return Math.max(0, heartRateMonitor.upperBound(beginTimestamp) - 1);
+	}
+
+	private int moveForward(int fromIndex, long beginTimestamp, int size) {
+		while (fromIndex + 1 < size
+				&& heartRateMonitor.getTimestamp(fromIndex + 1) <= beginTimestamp) {
+			fromIndex++;
+		}
+		return fromIndex;
+	}
+
+	private void store(int slot, long interval, int epoch,
+			long beginTimestamp, int fromIndex) {
+		intervals[slot] = interval;
+		epochs[slot] = epoch;
+		beginTimestamps[slot] = beginTimestamp;
+		fromIndexes[slot] = fromIndex;
+	}
+
+	private static int hash(long interval) {
+		long hash = interval * 0x9E3779B97F4A7C15L;
+		return (int) (hash >>> 32);
+	}
+}
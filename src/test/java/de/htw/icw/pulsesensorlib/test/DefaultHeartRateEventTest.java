@@ -1,8 +1,14 @@
 package de.htw.icw.pulsesensorlib.test;
 
 import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyDouble;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
 
 import org.junit.Before;
 import org.junit.Ignore;
@@ -203,4 +209,32 @@ public class DefaultHeartRateEventTest {
 		// in an (also before) defined time.
 		verify(mockHeartRateListener).onPulseDecreased(100,50,0,10000,50);
 	}
-}
\ No newline at end of file
+
+	@Test
+	public void eventsShouldBeDetectedOnAMonitorWhichOnlyOffersLists() {
+
+		// given a monitor which cannot be read by index
+		heartRateEvent.subscribe(mockHeartRateListener);
+		List<Double> heartRates = new ArrayList<Double>();
+		List<Long> timestamps = new ArrayList<Long>();
+		for (int i = 0; i <= OBSERVATION_TIME; i += 1000) {
+			heartRates.add(100.0 - i / 200);
+			timestamps.add((long) i);
+		}
+		HeartRateMonitor heartRateMonitor = mock(HeartRateMonitor.class);
+		when(heartRateMonitor.getMeasuredHeartRatesOfLastSeconds(anyDouble()))
+				.thenReturn(heartRates);
+		when(heartRateMonitor.getMeasuredTimestampsOfLastSeconds(anyDouble()))
+				.thenReturn(timestamps);
+		when(heartRateMonitor.getLastHeartRate()).thenReturn(50.0);
+		when(heartRateMonitor.getLastTimestamp()).thenReturn(
+				(long) OBSERVATION_TIME);
+
+		// when
+		heartRateEvent.onUpdate(heartRateMonitor);
+
+		// then
+		verify(mockHeartRateListener).onPulseDecreased(100, 50, 0, 10000, 50);
+		verify(mockHeartRateListener).onLowPulse(50);
+	}
+}
@@ -6,6 +6,7 @@ import static org.mockito.Mockito.verify;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -13,8 +14,10 @@ import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.runners.MockitoJUnitRunner;
 
+import de.htw.icw.pulsesensorlib.ArrayHeartRateStorage;
 import de.htw.icw.pulsesensorlib.HeartRateEvent;
 import de.htw.icw.pulsesensorlib.HeartRateMonitor;
+import de.htw.icw.pulsesensorlib.HeartRateStatistics;
 import de.htw.icw.pulsesensorlib.NoNegativeHeartRatesPossibleException;
 import de.htw.icw.pulsesensorlib.DefaultHeartRateEvent;
 import de.htw.icw.pulsesensorlib.DefaultHeartRateMonitor;
@@ -323,6 +326,26 @@ public class DefaultHeartRateMonitorTest {
 				expectedTimestamps, actualTimestamps);
 	}
 
+	@Test
+	public void getMeasuredHeartRatesOverIntervalWithASpecificStartTimeShouldReturnCorrectList() {
+
+		HeartRateMonitor actualHeartRateMonitor = heartRateMonitorWithFakeValues(
+				DUMMY_LIST_START_TIME, 10000, 0);
+		HeartRateMonitor expectedHeartRateMonitor = heartRateMonitorWithFakeValues(
+				DUMMY_LIST_START_TIME, 2000, 2000);
+
+		List<Double> actualHeartRates = actualHeartRateMonitor
+				.getMeasuredHeartRatesOverInterval(2000,
+						DUMMY_LIST_START_TIME + 2000);
+
+		List<Double> expectedHeartRates = expectedHeartRateMonitor
+				.getAllMeasuredHeartRates();
+
+		Assert.assertEquals(
+				"getMeasuredHeartRatesOverInterval with a specific start time should return correct List",
+				expectedHeartRates, actualHeartRates);
+	}
+
 	@Test
 	public void getMeasuredTimestampsOverIntervalWhereIntervalIsToBigReturnsAllRemainingValues() {
 
@@ -579,13 +602,118 @@ public class DefaultHeartRateMonitorTest {
 				new ArrayList<Long>(), actualTimestamps);
 	}
 
+	@Test
+	public void getHeartRateStatisticsShouldAggregateRangesWhoseBoundsAreNotMeasuredTimestamps() {
+
+		DefaultHeartRateMonitor heartRateMonitor = heartRateMonitorWithFakeValues(
+				DUMMY_LIST_START_TIME, 10000, 0);
+
+		// the fake heartrates are 0, 100, 200, ... at start time + heartrate
+		HeartRateStatistics heartRateStatistics = heartRateMonitor
+				.getHeartRateStatisticsOverClosedInterval(
+						DUMMY_LIST_START_TIME + 150,
+						DUMMY_LIST_START_TIME + 450);
+
+		Assert.assertEquals("the heartrates 200, 300 and 400 should be counted",
+				3, heartRateStatistics.getCount());
+		Assert.assertEquals("the minimum should be 200", 200,
+				heartRateStatistics.getMinimum(), 0);
+		Assert.assertEquals("the maximum should be 400", 400,
+				heartRateStatistics.getMaximum(), 0);
+		Assert.assertEquals("the timestamp of the maximum should be returned",
+				DUMMY_LIST_START_TIME + 400,
+				heartRateStatistics.getMaximumTimestamp());
+		Assert.assertEquals("the mean should be 300", 300,
+				heartRateStatistics.getMean(), 0);
+	}
+
+	@Test
+	public void getHeartRateStatisticsShouldRespectExclusiveBounds() {
+
+		DefaultHeartRateMonitor heartRateMonitor = heartRateMonitorWithFakeValues(
+				DUMMY_LIST_START_TIME, 10000, 0);
+
+		HeartRateStatistics heartRateStatistics = heartRateMonitor
+				.getHeartRateStatistics(DUMMY_LIST_START_TIME + 200, false,
+						DUMMY_LIST_START_TIME + 500, false);
+
+		Assert.assertEquals("only the heartrates 300 and 400 should be counted",
+				2, heartRateStatistics.getCount());
+		Assert.assertEquals("the sum should be 700", 700,
+				heartRateStatistics.getSum(), 0);
+	}
+
+	@Test
+	public void getHeartRateStatisticsOfAnEmptyRangeShouldReturnEmptyStatistics() {
+
+		DefaultHeartRateMonitor heartRateMonitor = heartRateMonitorWithFakeValues(
+				DUMMY_LIST_START_TIME, 10000, 0);
+
+		HeartRateStatistics heartRateStatistics = heartRateMonitor
+				.getHeartRateStatisticsOverClosedInterval(0, 1000);
+
+		Assert.assertEquals("no heartrate should be counted", 0,
+				heartRateStatistics.getCount());
+		Assert.assertTrue("the mean of no heartrates should be NaN",
+				Double.isNaN(heartRateStatistics.getMean()));
+	}
+
+	@Test
+	public void getHeartRateStatisticsShouldMatchAScanWhileHeartRatesAreAdded() {
+
+		DefaultHeartRateMonitor heartRateMonitor = new DefaultHeartRateMonitor();
+		Random random = new Random(42);
+
+		for (int i = 0; i < 5000; i++) {
+			try {
+				heartRateMonitor.addHeartRate(40 + random.nextInt(120),
+						i * 10);
+			} catch (NoNegativeHeartRatesPossibleException e) {
+				fail(e.getMessage());
+			}
+
+			if (i % 97 == 0) {
+				long from = random.nextInt(i * 10 + 1);
+				long to = from + random.nextInt(20000);
+
+				double minimum = Double.NaN;
+				double maximum = Double.NaN;
+				double sum = 0;
+				int count = 0;
+				for (int j = 0; j <= i; j++) {
+					long timestamp = heartRateMonitor
+							.getAllMeasuredTimestamps().get(j);
+					double heartRate = heartRateMonitor
+							.getAllMeasuredHeartRates().get(j);
+					if (timestamp >= from && timestamp <= to) {
+						minimum = count == 0 ? heartRate : Math.min(minimum,
+								heartRate);
+						maximum = count == 0 ? heartRate : Math.max(maximum,
+								heartRate);
+						sum += heartRate;
+						count++;
+					}
+				}
+
+				HeartRateStatistics heartRateStatistics = heartRateMonitor
+						.getHeartRateStatisticsOverClosedInterval(from, to);
+				Assert.assertEquals(count, heartRateStatistics.getCount());
+				Assert.assertEquals(sum, heartRateStatistics.getSum(), 1e-6);
+				Assert.assertEquals(minimum, heartRateStatistics.getMinimum(),
+						0);
+				Assert.assertEquals(maximum, heartRateStatistics.getMaximum(),
+						0);
+			}
+		}
+	}
+
 	// create dummy list with heartrates of X seconds
 	// this list contains 10 heartrates per second
 	// at the end we have a list with X*10 values
-	private HeartRateMonitor heartRateMonitorWithFakeValues(long startTime,
+	private DefaultHeartRateMonitor heartRateMonitorWithFakeValues(long startTime,
 			int seconds_in_ms, int time_offset) {
 
-		HeartRateMonitor heartRateMonitor = new DefaultHeartRateMonitor();
+		DefaultHeartRateMonitor heartRateMonitor = new DefaultHeartRateMonitor();
 
 		final long endTime = startTime + (long) seconds_in_ms + time_offset;
 
@@ -600,6 +728,126 @@ public class DefaultHeartRateMonitorTest {
 		return heartRateMonitor;
 	}
 
+	@Test
+	public void getIndexOfLastSecondsShouldMatchALinearScanAfterEveryAppend()
+			throws NoNegativeHeartRatesPossibleException {
+
+		// given more windows than the cache holds, queried at different rates
+		Random random = new Random(42);
+		DefaultHeartRateMonitor heartRateMonitor = new DefaultHeartRateMonitor();
+		double[] intervals = new double[24];
+		for (int i = 0; i < intervals.length; i++) {
+			intervals[i] = 500 * i + 0.5 * (i % 2);
+		}
+		long timestamp = DUMMY_LIST_START_TIME;
+
+		for (int n = 0; n < 2000; n++) {
+			// when
+			heartRateMonitor.addHeartRate(60 + random.nextInt(60), timestamp);
+			timestamp += random.nextInt(4) == 0 ? 0 : random.nextInt(2000);
+			if (n == 1500) {
+				// from here on some heartrates arrive out of order
+				timestamp -= 5000;
+			} else if (n > 1500 && random.nextInt(10) == 0) {
+				timestamp -= random.nextInt(3000);
+			}
+
+			// then
+			for (int i = 0; i < intervals.length; i++) {
+				if (n % (i + 1) == 0) {
+					Assert.assertEquals("interval " + intervals[i]
+							+ " after " + n + " heartrates",
+							scanIndexOfLastSeconds(heartRateMonitor,
+									intervals[i]),
+							heartRateMonitor.getIndexOfLastSeconds(intervals[i]));
+				}
+			}
+		}
+	}
+
+	@Test
+	public void getIndexOfLastSecondsShouldScanHeartRatesAddedOutOfOrder()
+			throws NoNegativeHeartRatesPossibleException {
+
+		// given
+		DefaultHeartRateMonitor heartRateMonitor = new DefaultHeartRateMonitor();
+		long[] timestamps = { 0, 1000, 2000, 1500, 3000 };
+		for (long timestamp : timestamps) {
+			heartRateMonitor.addHeartRate(70, timestamp);
+		}
+
+		// when
+		int index = heartRateMonitor.getIndexOfLastSeconds(1200);
+
+		// then
+		Assert.assertEquals(
+				"the last heartrate before the window should be found", 3,
+				index);
+	}
+
+	@Test
+	public void repeatedWindowLookupsShouldNotSearchTheHistoryAgain()
+			throws NoNegativeHeartRatesPossibleException {
+
+		// given
+		CountingHeartRateStorage storage = new CountingHeartRateStorage();
+		DefaultHeartRateMonitor heartRateMonitor = new DefaultHeartRateMonitor(storage);
+		for (int i = 0; i < 10000; i++) {
+			heartRateMonitor.addHeartRate(70, 1000L * i);
+		}
+		int expected = heartRateMonitor.getIndexOfLastSeconds(60000);
+
+		// when
+		storage.timestampReads = 0;
+		for (int i = 0; i < 100; i++) {
+			Assert.assertEquals(expected,
+					heartRateMonitor.getIndexOfLastSeconds(60000));
+		}
+
+		// then
+		Assert.assertEquals(
+				"every lookup should only read the first and last timestamp",
+				200, storage.timestampReads);
+
+		// when a heartrate is added
+		heartRateMonitor.addHeartRate(70, 10000000);
+		storage.timestampReads = 0;
+		heartRateMonitor.getIndexOfLastSeconds(60000);
+
+		// then
+		Assert.assertTrue("the boundary should be moved forward",
+				storage.timestampReads < 10);
+	}
+
+	/** the linear scan getIndexOfLastSeconds did before it was cached */
+	private int scanIndexOfLastSeconds(DefaultHeartRateMonitor heartRateMonitor,
+			double interval_in_ms) {
+		long lastMeasurement = heartRateMonitor.getLastTimestamp();
+		long beginTimestamp = lastMeasurement - (long) interval_in_ms;
+		if (interval_in_ms > lastMeasurement
+				- heartRateMonitor.getTimestamp(0)) {
+			return 0;
+		}
+		int fromIndex = heartRateMonitor.getNumberOfHeartRates() - 1;
+		while (heartRateMonitor.getTimestamp(fromIndex) > beginTimestamp
+				&& fromIndex > 0) {
+			fromIndex--;
+		}
+		return fromIndex;
+	}
+
+	private static class CountingHeartRateStorage extends
+			ArrayHeartRateStorage {
+
+		int timestampReads;
+
+		@Override
+		public long getTimestamp(int index) {
+			timestampReads++;
+			return super.getTimestamp(index);
+		}
+	}
+
 	@Mock
 	DefaultHeartRateEvent mockHeartRateEvent;
 
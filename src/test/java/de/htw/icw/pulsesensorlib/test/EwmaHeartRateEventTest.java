@@ -0,0 +1,173 @@
+package de.htw.icw.pulsesensorlib.test;
+
+import static org.mockito.Matchers.anyDouble;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import de.htw.icw.pulsesensorlib.DefaultHeartRateMonitor;
+import de.htw.icw.pulsesensorlib.EwmaHeartRateEvent;
+import de.htw.icw.pulsesensorlib.HeartRateAnomalyListener;
+import de.htw.icw.pulsesensorlib.HeartRateListener;
+import de.htw.icw.pulsesensorlib.HeartRateMonitor;
+import de.htw.icw.pulsesensorlib.NoNegativeHeartRatesPossibleException;
+
+@RunWith(MockitoJUnitRunner.class)
+public class EwmaHeartRateEventTest {
+
+	private static final double SMOOTHING_FACTOR = 0.05;
+	private static final double DEVIATION_THRESHOLD = 3;
+	private static final long SUSTAINED_DURATION_IN_MS = 10000;
+
+	private EwmaHeartRateEvent heartRateEvent;
+	private HeartRateMonitor heartRateMonitor;
+	private Random random = new Random(42);
+
+	@Mock
+	private HeartRateListener mockHeartRateListener;
+
+	@Mock
+	private HeartRateAnomalyListener mockAnomalyListener;
+
+	@Before
+	public void setUp() {
+		heartRateEvent = new EwmaHeartRateEvent(SMOOTHING_FACTOR,
+				DEVIATION_THRESHOLD, SUSTAINED_DURATION_IN_MS);
+		heartRateEvent.subscribe(mockHeartRateListener);
+		heartRateEvent.addAnomalyListener(mockAnomalyListener);
+
+		heartRateMonitor = new DefaultHeartRateMonitor();
+		heartRateMonitor.subscribe(heartRateEvent);
+	}
+
+	@Test
+	public void aSustainedDeviationShouldBeReportedOncePerEpisode()
+			throws NoNegativeHeartRatesPossibleException {
+
+		// given
+		addHeartRates(0, 200, 70);
+
+		// when
+		for (int i = 0; i < 60; i++) {
+			addHeartRate(200 + i, 100);
+		}
+
+		// then
+		verify(mockAnomalyListener, times(1)).onAnomaly(eq(100.0),
+				anyDouble(), anyDouble(), anyDouble(), eq(200000L),
+				eq(210000L));
+		verify(mockHeartRateListener, times(1)).onHighPulse(100);
+		Assert.assertTrue("the heart rate should still deviate",
+				heartRateEvent.isDeviating());
+	}
+
+	@Test
+	public void aShortDeviationShouldNotBeReported()
+			throws NoNegativeHeartRatesPossibleException {
+
+		// given
+		addHeartRates(0, 200, 70);
+
+		// when
+		addHeartRates(200, 5, 100);
+		addHeartRates(205, 100, 70);
+
+		// then
+		verify(mockAnomalyListener, never()).onAnomaly(anyDouble(),
+				anyDouble(), anyDouble(), anyDouble(), anyLong(), anyLong());
+		Assert.assertFalse("the episode should have ended",
+				heartRateEvent.isDeviating());
+	}
+
+	@Test
+	public void aNewEpisodeShouldBeReportedAgain()
+			throws NoNegativeHeartRatesPossibleException {
+
+		// given
+		addHeartRates(0, 200, 70);
+		addHeartRates(200, 20, 40);
+		addHeartRates(220, 20, 70);
+
+		// when
+		addHeartRates(240, 20, 40);
+
+		// then
+		verify(mockHeartRateListener, times(2)).onLowPulse(anyDouble());
+		verify(mockHeartRateListener, never()).onHighPulse(anyDouble());
+	}
+
+	@Test
+	public void aSlowDriftShouldBeLearnedAsTheNewBaseline()
+			throws NoNegativeHeartRatesPossibleException {
+
+		// given
+		addHeartRates(0, 200, 70);
+
+		// when the resting heart rate drops by 20 bpm within 20 minutes
+		for (int i = 0; i < 1200; i++) {
+			addHeartRate(200 + i, 70 - i / 60.0);
+		}
+
+		// then
+		verify(mockAnomalyListener, never()).onAnomaly(anyDouble(),
+				anyDouble(), anyDouble(), anyDouble(), anyLong(), anyLong());
+		Assert.assertEquals("the baseline should follow the drift", 50,
+				heartRateEvent.getExpectedHeartRate(), 2);
+	}
+
+	@Test
+	public void heartRatesDuringWarmUpShouldOnlyBeLearned()
+			throws NoNegativeHeartRatesPossibleException {
+
+		// when
+		addHeartRate(0, 70);
+		addHeartRates(1, 15, 150);
+
+		// then
+		verify(mockAnomalyListener, never()).onAnomaly(anyDouble(),
+				anyDouble(), anyDouble(), anyDouble(), anyLong(), anyLong());
+	}
+
+	@Test
+	public void noPulseShouldNotChangeTheBaseline()
+			throws NoNegativeHeartRatesPossibleException {
+
+		// given
+		addHeartRates(0, 200, 70);
+		double expectedHeartRate = heartRateEvent.getExpectedHeartRate();
+
+		// when
+		for (int i = 0; i < 60; i++) {
+			heartRateMonitor.addHeartRate(0, (200 + i) * 1000L);
+		}
+
+		// then
+		Assert.assertEquals("the baseline should not change",
+				expectedHeartRate, heartRateEvent.getExpectedHeartRate(), 0);
+		verify(mockHeartRateListener, never()).onLowPulse(anyDouble());
+	}
+
+	/** adds noisy heart rates around the mean every second */
+	private void addHeartRates(int startSecond, int seconds, double mean)
+			throws NoNegativeHeartRatesPossibleException {
+		for (int i = 0; i < seconds; i++) {
+			addHeartRate(startSecond + i, mean + random.nextGaussian() * 2);
+		}
+	}
+
+	private void addHeartRate(int second, double heartRate)
+			throws NoNegativeHeartRatesPossibleException {
+		heartRateMonitor.addHeartRate(heartRate, second * 1000L);
+	}
+}
@@ -0,0 +1,196 @@
+package de.htw.icw.pulsesensorlib.test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.htw.icw.pulsesensorlib.DefaultHeartRateEvent;
+import de.htw.icw.pulsesensorlib.DefaultHeartRateMonitor;
+import de.htw.icw.pulsesensorlib.HeartRateAlert;
+import de.htw.icw.pulsesensorlib.HeartRateAlertJournal;
+import de.htw.icw.pulsesensorlib.HeartRateAlertJournalReader;
+import de.htw.icw.pulsesensorlib.HeartRateAlertRecord;
+import de.htw.icw.pulsesensorlib.HeartRateMonitor;
+
+public class HeartRateAlertJournalTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private File directory;
+
+	@Before
+	public void setUp() throws Exception {
+		directory = temporaryFolder.newFolder("journal");
+	}
+
+	@Test
+	public void durablyAppendedAlertsShouldBeReadable() throws Exception {
+
+		// given
+		HeartRateAlertJournal journal = new HeartRateAlertJournal(directory,
+				5);
+		HeartRateAlert alert = new HeartRateAlert(
+				HeartRateAlert.Type.PULSE_INCREASED, 60, 90, 1000, 5000, 50);
+
+		// when
+		long sequence = journal.appendDurably(7, alert);
+
+		// then
+		Assert.assertEquals(0, sequence);
+		Assert.assertEquals("the alert should be durable", 1,
+				journal.getDurableSequence());
+		List<HeartRateAlertRecord> records = new HeartRateAlertJournalReader(
+				directory).read(0, Long.MAX_VALUE);
+		Assert.assertEquals(1, records.size());
+		HeartRateAlertRecord record = records.get(0);
+		Assert.assertEquals(7, record.getSensorId());
+		Assert.assertEquals(HeartRateAlert.Type.PULSE_INCREASED, record
+				.getAlert().getType());
+		Assert.assertEquals(60, record.getAlert().getStartHeartRate(), 0);
+		Assert.assertEquals(90, record.getAlert().getEndHeartRate(), 0);
+		Assert.assertEquals(1000, record.getAlert().getStartTimestamp());
+		Assert.assertEquals(5000, record.getAlert().getEndTimestamp());
+		Assert.assertEquals(50, record.getAlert().getPercentage(), 0);
+		journal.close();
+	}
+
+	@Test
+	public void concurrentDurableAppendsShouldAllBeJournaled() throws Exception {
+
+		// given
+		final HeartRateAlertJournal journal = new HeartRateAlertJournal(
+				directory, 20);
+		Thread[] threads = new Thread[8];
+
+		// when every thread waits for its alert to be durable
+		for (int t = 0; t < threads.length; t++) {
+			final int sensorId = t;
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int i = 0; i < 10; i++) {
+							journal.appendDurably(sensorId, new HeartRateAlert(
+									HeartRateAlert.Type.HIGH_PULSE, 150, 150,
+									i, i, 0));
+						}
+					} catch (Exception ex) {
+						throw new IllegalStateException(ex);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		journal.close();
+
+		// then
+		Assert.assertEquals("all alerts should be durable", 80,
+				journal.getDurableSequence());
+		Assert.assertEquals(80, new HeartRateAlertJournalReader(directory)
+				.read(0, Long.MAX_VALUE).size());
+		Assert.assertEquals("each sensor's alerts should be readable", 10,
+				new HeartRateAlertJournalReader(directory).read(0,
+						Long.MAX_VALUE, 3).size());
+	}
+
+	@Test
+	public void timeRangesShouldBeReadAcrossSegments() throws Exception {
+
+		// given small segments of 1000 alerts
+		HeartRateAlertJournal journal = new HeartRateAlertJournal(directory,
+				1, 8 + 1000 * 40);
+		for (int i = 0; i < 5000; i++) {
+			journal.append(i % 10, new HeartRateAlert(
+					HeartRateAlert.Type.LOW_PULSE, 35, 35, 1000L * i,
+					1000L * i, 0));
+		}
+		journal.sync();
+
+		// when
+		HeartRateAlertJournalReader reader = new HeartRateAlertJournalReader(
+				directory);
+		List<HeartRateAlertRecord> records = reader.read(1500000, 2499000);
+		List<HeartRateAlertRecord> sensorRecords = reader.read(0,
+				Long.MAX_VALUE, 4);
+
+		// then
+		Assert.assertEquals("5 segments and their indexes", 10,
+				directory.list().length);
+		Assert.assertEquals(1000, records.size());
+		Assert.assertEquals(1500, records.get(0).getSequence());
+		Assert.assertEquals(2499000, records.get(999).getAlert()
+				.getEndTimestamp());
+		Assert.assertEquals(500, sensorRecords.size());
+		journal.close();
+	}
+
+	@Test
+	public void aReopenedJournalShouldCutOffATornRecordAndContinue()
+			throws Exception {
+
+		// given a journal whose last record was torn by a crash
+		HeartRateAlertJournal journal = new HeartRateAlertJournal(directory,
+				0);
+		for (int i = 0; i < 3; i++) {
+			journal.append(1, new HeartRateAlert(HeartRateAlert.Type.NO_PULSE,
+					0, 0, i, i, 0));
+		}
+		journal.close();
+		File segment = new File(directory, "alerts-00000000000000000000.journal");
+		RandomAccessFile file = new RandomAccessFile(segment, "rw");
+		file.setLength(file.length() - 10);
+		file.close();
+
+		// when
+		journal = new HeartRateAlertJournal(directory, 0);
+		long sequence = journal.appendDurably(2, new HeartRateAlert(
+				HeartRateAlert.Type.NO_PULSE, 0, 0, 10, 10, 0));
+		journal.close();
+
+		// then
+		Assert.assertEquals("the torn alert should be replaced", 2, sequence);
+		List<HeartRateAlertRecord> records = new HeartRateAlertJournalReader(
+				directory).read(0, Long.MAX_VALUE);
+		Assert.assertEquals(3, records.size());
+		Assert.assertEquals(2, records.get(2).getSensorId());
+	}
+
+	@Test
+	public void eventCallbacksShouldBeJournaled() throws Exception {
+
+		// given
+		HeartRateAlertJournal journal = new HeartRateAlertJournal(directory,
+				1);
+		HeartRateMonitor heartRateMonitor = new DefaultHeartRateMonitor();
+		DefaultHeartRateEvent heartRateEvent = new DefaultHeartRateEvent(140,
+				40, 10000, 10000, 30);
+		heartRateEvent.subscribe(journal.listenerFor(5));
+		heartRateMonitor.subscribe(heartRateEvent);
+
+		// when
+		heartRateMonitor.addHeartRate(80, 1000);
+		heartRateMonitor.addHeartRate(150, 2000);
+		journal.sync();
+
+		// then
+		List<HeartRateAlertRecord> records = new HeartRateAlertJournalReader(
+				directory).read(0, Long.MAX_VALUE, 5);
+		Assert.assertEquals("pulse increased and high pulse", 2,
+				records.size());
+		Assert.assertEquals(HeartRateAlert.Type.PULSE_INCREASED, records
+				.get(0).getAlert().getType());
+		Assert.assertEquals(HeartRateAlert.Type.HIGH_PULSE, records.get(1)
+				.getAlert().getType());
+		journal.close();
+	}
+}
@@ -0,0 +1,215 @@
+package de.htw.icw.pulsesensorlib.test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.htw.icw.pulsesensorlib.DefaultHeartRateEvent;
+import de.htw.icw.pulsesensorlib.DefaultHeartRateMonitor;
+import de.htw.icw.pulsesensorlib.EwmaHeartRateEvent;
+import de.htw.icw.pulsesensorlib.HeartRateAnomalyListener;
+import de.htw.icw.pulsesensorlib.HeartRateListener;
+import de.htw.icw.pulsesensorlib.HeartRateMonitor;
+import de.htw.icw.pulsesensorlib.HeartRateTrendListener;
+import de.htw.icw.pulsesensorlib.NoNegativeHeartRatesPossibleException;
+import de.htw.icw.pulsesensorlib.TrendHeartRateEvent;
+
+/**
+ * Ensures that adding a heart rate, detecting events and notifying the
+ * listeners does not allocate memory once the monitor has enough capacity.
+ * Needs a JVM which supports measuring the allocated bytes of a thread,
+ * otherwise the tests are skipped.
+ */
+public class HeartRateAllocationTest {
+
+	private static final int WARM_UP_SAMPLES = 20000;
+	private static final int MEASURED_SAMPLES = 20000;
+
+	private com.sun.management.ThreadMXBean threadMXBean;
+
+	private HeartRateMonitor heartRateMonitor;
+	private CountingListener countingListener = new CountingListener();
+	private long timestamp;
+
+	@Before
+	public void setUp() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+		threadMXBean = (com.sun.management.ThreadMXBean) bean;
+		Assume.assumeTrue(threadMXBean.isThreadAllocatedMemorySupported());
+		threadMXBean.setThreadAllocatedMemoryEnabled(true);
+
+		heartRateMonitor = new DefaultHeartRateMonitor(WARM_UP_SAMPLES
+				+ MEASURED_SAMPLES);
+	}
+
+	@Test
+	public void theDefaultHeartRateEventShouldNotAllocate()
+			throws NoNegativeHeartRatesPossibleException {
+
+		// given
+		DefaultHeartRateEvent heartRateEvent = new DefaultHeartRateEvent(120,
+				60, 5000, 10000, 50);
+		heartRateEvent.subscribe(countingListener);
+		heartRateMonitor.subscribe(heartRateEvent);
+		addHeartRates(WARM_UP_SAMPLES);
+
+		// when
+		long allocatedBytes = measureAllocatedBytes(MEASURED_SAMPLES);
+
+		// then
+		Assert.assertTrue("the listener should have been notified",
+				countingListener.callbacks > 0);
+		assertNotAllocatingPerHeartRate(allocatedBytes);
+	}
+
+	@Test
+	public void theEwmaHeartRateEventShouldNotAllocate()
+			throws NoNegativeHeartRatesPossibleException {
+
+		// given
+		EwmaHeartRateEvent heartRateEvent = new EwmaHeartRateEvent(0.05, 3,
+				1000);
+		heartRateEvent.subscribe(countingListener);
+		heartRateEvent.addAnomalyListener(countingListener);
+		heartRateMonitor.subscribe(heartRateEvent);
+		addHeartRates(WARM_UP_SAMPLES);
+
+		// when
+		long allocatedBytes = measureAllocatedBytes(MEASURED_SAMPLES);
+
+		// then
+		Assert.assertTrue("the listener should have been notified",
+				countingListener.callbacks > 0);
+		assertNotAllocatingPerHeartRate(allocatedBytes);
+	}
+
+	@Test
+	public void theTrendHeartRateEventShouldNotAllocate()
+			throws NoNegativeHeartRatesPossibleException {
+
+		// given
+		TrendHeartRateEvent heartRateEvent = new TrendHeartRateEvent(30000, 10);
+		heartRateEvent.subscribe(countingListener);
+		heartRateEvent.addTrendListener(countingListener);
+		heartRateMonitor.subscribe(heartRateEvent);
+		addHeartRates(WARM_UP_SAMPLES);
+
+		// when
+		long allocatedBytes = measureAllocatedBytes(MEASURED_SAMPLES);
+
+		// then
+		Assert.assertTrue("the listener should have been notified",
+				countingListener.callbacks > 0);
+		assertNotAllocatingPerHeartRate(allocatedBytes);
+	}
+
+	/**
+	 * the JIT may allocate a few bytes while it compiles the measured code, so
+	 * less than one byte per heart rate is accepted.
+	 */
+	private void assertNotAllocatingPerHeartRate(long allocatedBytes) {
+		Assert.assertTrue("no bytes should be allocated per heart rate, "
+				+ allocatedBytes + " bytes for " + MEASURED_SAMPLES
+				+ " heart rates", allocatedBytes < MEASURED_SAMPLES);
+	}
+
+	/**
+	 * returns the bytes allocated by adding the heart rates minus the bytes
+	 * allocated by measuring itself.
+	 */
+	private long measureAllocatedBytes(int samples)
+			throws NoNegativeHeartRatesPossibleException {
+		long threadId = Thread.currentThread().getId();
+
+		long before = threadMXBean.getThreadAllocatedBytes(threadId);
+		long after = threadMXBean.getThreadAllocatedBytes(threadId);
+		long measuringOverhead = after - before;
+
+		before = threadMXBean.getThreadAllocatedBytes(threadId);
+		addHeartRates(samples);
+		after = threadMXBean.getThreadAllocatedBytes(threadId);
+
+		return after - before - measuringOverhead;
+	}
+
+	/**
+	 * adds heart rates which alternate between normal, high, low and no
+	 * pulse, so that every kind of event is detected.
+	 */
+	private void addHeartRates(int samples)
+			throws NoNegativeHeartRatesPossibleException {
+		for (int i = 0; i < samples; i++) {
+			int phase = (int) (timestamp / 20000 % 4);
+			double heartRate = phase == 0 ? 80 : phase == 1 ? 150
+					: phase == 2 ? 45 : 0;
+			heartRateMonitor.addHeartRate(heartRate, timestamp);
+			timestamp += 500;
+		}
+	}
+
+	private static class CountingListener implements HeartRateListener,
+			HeartRateAnomalyListener, HeartRateTrendListener {
+
+		private long callbacks;
+
+		@Override
+		public void onHighPulse(double pulse) {
+			callbacks++;
+		}
+
+		@Override
+		public void onLowPulse(double pulse) {
+			callbacks++;
+		}
+
+		@Override
+		public void onNoPulse() {
+			callbacks++;
+		}
+
+		@Override
+		public void onDisconnected() {
+			callbacks++;
+		}
+
+		@Override
+		public void onPulseIncreased(double startHeartRate,
+				double endHeartRate, long startTimestamp, long endTimestamp,
+				double increaseingPercantage) {
+			callbacks++;
+		}
+
+		@Override
+		public void onPulseDecreased(double startHeartRate,
+				double endHeartRate, long startTimestamp, long endTimestamp,
+				double decreasingPercentage) {
+			callbacks++;
+		}
+
+		@Override
+		public void onSubscribed() {
+		}
+
+		@Override
+		public void onUnsubscribed() {
+		}
+
+		@Override
+		public void onAnomaly(double heartRate, double expectedHeartRate,
+				double standardDeviation, double deviation,
+				long startTimestamp, long endTimestamp) {
+			callbacks++;
+		}
+
+		@Override
+		public void onTrend(double slopeInBpmPerMinute, double startHeartRate,
+				double endHeartRate, long startTimestamp, long endTimestamp) {
+			callbacks++;
+		}
+	}
+}
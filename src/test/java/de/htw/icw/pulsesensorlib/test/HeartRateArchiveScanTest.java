@@ -0,0 +1,166 @@
+package de.htw.icw.pulsesensorlib.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.htw.icw.pulsesensorlib.DefaultHeartRateMonitor;
+import de.htw.icw.pulsesensorlib.HeartRateArchiveListener;
+import de.htw.icw.pulsesensorlib.HeartRateArchiveScan;
+import de.htw.icw.pulsesensorlib.HeartRateCohortQuery;
+import de.htw.icw.pulsesensorlib.HeartRateCohortStatistics;
+import de.htw.icw.pulsesensorlib.HeartRateSessionFile;
+
+public class HeartRateArchiveScanTest {
+
+	private static final long HOUR = 60 * 60 * 1000;
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Test
+	public void theScanShouldMatchTheCohortQueryOverTheMonitors()
+			throws Exception {
+
+		// given a session per night, one large enough to be split
+		Random random = new Random(42);
+		List<DefaultHeartRateMonitor> heartRateMonitors = new ArrayList<DefaultHeartRateMonitor>();
+		List<File> sessionFiles = new ArrayList<File>();
+		int[] sizes = { 0, 1, 500,
+				2 * HeartRateCohortQuery.SAMPLES_PER_TASK + 7, 1000, 20 };
+		for (int night = 0; night < sizes.length; night++) {
+			DefaultHeartRateMonitor heartRateMonitor = new DefaultHeartRateMonitor();
+			long timestamp = night * 24 * HOUR + 22 * HOUR;
+			for (int i = 0; i < sizes[night]; i++) {
+				heartRateMonitor.addHeartRate(40 + random.nextInt(100),
+						timestamp);
+				timestamp += 100 + random.nextInt(300);
+			}
+			heartRateMonitors.add(heartRateMonitor);
+			File sessionFile = temporaryFolder.newFile("night-" + night
+					+ ".session");
+			HeartRateSessionFile.write(sessionFile, night, heartRateMonitor);
+			sessionFiles.add(sessionFile);
+		}
+		// the range ends a minute into the fifth night
+		long from = 2 * 24 * HOUR;
+		long to = 4 * 24 * HOUR + 22 * HOUR + 60000;
+
+		// when
+		HeartRateCohortStatistics scanned = new HeartRateArchiveScan(from, to,
+				120, 2000).execute(new ForkJoinPool(4), sessionFiles, null);
+
+		// then
+		HeartRateCohortStatistics expected = new HeartRateCohortQuery(from,
+				to, 120, 2000).execute(new ForkJoinPool(4), heartRateMonitors);
+		Assert.assertEquals("the count should match", expected.getCount(),
+				scanned.getCount());
+		Assert.assertEquals(expected.getSum(), scanned.getSum(), 1e-6);
+		Assert.assertEquals(expected.getMinimum(), scanned.getMinimum(), 0);
+		Assert.assertEquals(expected.getMaximum(), scanned.getMaximum(), 0);
+		Assert.assertEquals(expected.getMillisecondsAboveThreshold(),
+				scanned.getMillisecondsAboveThreshold());
+		Assert.assertEquals("the sessions should count as patients",
+				expected.getNumberOfPatients(), scanned.getNumberOfPatients());
+		for (int hour = 0; hour < 24; hour++) {
+			Assert.assertEquals(expected.getHourlyCount(hour),
+					scanned.getHourlyCount(hour));
+		}
+	}
+
+	@Test
+	public void filesOutsideTheTimeRangeShouldBeSkipped() throws Exception {
+
+		// given
+		List<File> sessionFiles = new ArrayList<File>();
+		for (int night = 0; night < 10; night++) {
+			DefaultHeartRateMonitor heartRateMonitor = new DefaultHeartRateMonitor();
+			for (int i = 0; i < 100; i++) {
+				heartRateMonitor.addHeartRate(50 + night, night * 24 * HOUR
+						+ i * 1000L);
+			}
+			File sessionFile = temporaryFolder.newFile("night-" + night
+					+ ".session");
+			HeartRateSessionFile.write(sessionFile, 7, heartRateMonitor);
+			sessionFiles.add(sessionFile);
+		}
+		final List<Double> nightlyMinimums = Collections
+				.synchronizedList(new ArrayList<Double>());
+
+		// when
+		HeartRateCohortStatistics statistics = new HeartRateArchiveScan(
+				3 * 24 * HOUR, 5 * 24 * HOUR, 120, 2000).execute(
+				new ForkJoinPool(2), sessionFiles,
+				new HeartRateArchiveListener() {
+					@Override
+					public void onSessionScanned(File file, int sensorId,
+							HeartRateCohortStatistics statistics) {
+						nightlyMinimums.add(statistics.getMinimum());
+					}
+				});
+
+		// then
+		Collections.sort(nightlyMinimums);
+		Assert.assertEquals("only the sessions in the range should be scanned",
+				Arrays.asList(53.0, 54.0, 55.0), nightlyMinimums);
+		Assert.assertEquals(201, statistics.getCount());
+	}
+
+	@Test
+	public void theHeaderShouldDescribeTheSession() throws Exception {
+
+		// given
+		DefaultHeartRateMonitor heartRateMonitor = new DefaultHeartRateMonitor();
+		heartRateMonitor.addHeartRate(80, 1000);
+		heartRateMonitor.addHeartRate(45, 2000);
+		heartRateMonitor.addHeartRate(130, 3000);
+		File file = temporaryFolder.newFile("session");
+
+		// when
+		HeartRateSessionFile.write(file, 42, heartRateMonitor);
+
+		// then
+		HeartRateSessionFile sessionFile = HeartRateSessionFile.open(file);
+		try {
+			Assert.assertEquals(42, sessionFile.getSensorId());
+			Assert.assertEquals(3, sessionFile.getNumberOfHeartRates());
+			Assert.assertEquals(1000, sessionFile.getMinimumTimestamp());
+			Assert.assertEquals(3000, sessionFile.getMaximumTimestamp());
+			Assert.assertEquals(45, sessionFile.getMinimumHeartRate(), 0);
+			Assert.assertEquals(130, sessionFile.getMaximumHeartRate(), 0);
+			sessionFile.map();
+			Assert.assertEquals(45, sessionFile.getHeartRate(1), 0);
+			Assert.assertEquals(3000, sessionFile.getTimestamp(2));
+		} finally {
+			sessionFile.close();
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void aFileWhichIsNoSessionShouldFailTheScan() throws Exception {
+
+		// given
+		File file = temporaryFolder.newFile("garbage");
+		FileOutputStream outputStream = new FileOutputStream(file);
+		try {
+			outputStream.write(new byte[100]);
+		} finally {
+			outputStream.close();
+		}
+
+		// when
+		new HeartRateArchiveScan(0, Long.MAX_VALUE, 120, 2000)
+				.execute(Collections.singletonList(file));
+	}
+}
@@ -0,0 +1,102 @@
+package de.htw.icw.pulsesensorlib.test;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+
+import de.htw.icw.pulsesensorlib.HeartRateClusterNode;
+import de.htw.icw.pulsesensorlib.HeartRateMonitor;
+import de.htw.icw.pulsesensorlib.HeartRateMonitorRegistry;
+
+/**
+ * Runs a {@link HeartRateClusterNode} in its own process, so that a cluster of
+ * several processes can be tested on one machine (see
+ * {@link HeartRateClusterTest}). The node listens on a free port of the
+ * loopback address, prints "listening &lt;port&gt;" and reads commands from
+ * stdin:
+ *
+ * <pre>
+ * members &lt;port&gt;[,&lt;port&gt;...]  sets the members, replies "ok"
+ * stats                          replies "stats &lt;sensors&gt; &lt;heart rates&gt; &lt;misplaced sensors&gt;"
+ * exit                           closes the node
+ * </pre>
+ */
+public class HeartRateClusterProcess {
+
+	public static void main(String[] args) throws Exception {
+		HeartRateMonitorRegistry heartRateMonitorRegistry = new HeartRateMonitorRegistry();
+		HeartRateClusterNode heartRateClusterNode = new HeartRateClusterNode(
+				heartRateMonitorRegistry, new InetSocketAddress(
+						InetAddress.getLoopbackAddress(), 0));
+		heartRateClusterNode.start();
+		System.out.println("listening "
+				+ heartRateClusterNode.getAddress().getPort());
+
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				System.in, "UTF-8"));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] command = line.trim().split(" ");
+				if (command[0].equals("members")) {
+					heartRateClusterNode.setMembers(members(command[1]));
+					System.out.println("ok");
+				} else if (command[0].equals("stats")) {
+					long[] stats = stats(heartRateClusterNode,
+							heartRateMonitorRegistry);
+					System.out.println("stats " + stats[0] + " " + stats[1]
+							+ " " + stats[2]);
+				} else if (command[0].equals("exit")) {
+					break;
+				}
+			}
+		} finally {
+			heartRateClusterNode.close();
+		}
+	}
+
+	/**
+	 * returns the number of sensors, of heart rates and of sensors owned by
+	 * other nodes of a node. they are counted on the selector thread, which
+	 * changes the monitors.
+	 */
+	static long[] stats(final HeartRateClusterNode heartRateClusterNode,
+			final HeartRateMonitorRegistry heartRateMonitorRegistry)
+			throws Exception {
+		FutureTask<long[]> future = new FutureTask<long[]>(
+				new Callable<long[]>() {
+					@Override
+					public long[] call() {
+						long[] stats = new long[3];
+						for (int sensorId : heartRateMonitorRegistry
+								.getSensorIds()) {
+							HeartRateMonitor heartRateMonitor = heartRateMonitorRegistry
+									.findHeartRateMonitor(sensorId);
+							stats[0]++;
+							stats[1] += heartRateMonitor
+									.getAllMeasuredHeartRates().size();
+							if (!heartRateClusterNode.isOwner(sensorId)) {
+								stats[2]++;
+							}
+						}
+						return stats;
+					}
+				});
+		heartRateClusterNode.getIngestServer().execute(future);
+		return future.get();
+	}
+
+	private static List<InetSocketAddress> members(String ports) {
+		List<InetSocketAddress> members = new ArrayList<InetSocketAddress>();
+		for (String port : ports.split(",")) {
+			members.add(new InetSocketAddress(InetAddress.getLoopbackAddress(),
+					Integer.parseInt(port)));
+		}
+		return members;
+	}
+}
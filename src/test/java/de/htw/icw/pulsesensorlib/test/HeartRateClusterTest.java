@@ -0,0 +1,462 @@
+package de.htw.icw.pulsesensorlib.test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.htw.icw.pulsesensorlib.DefaultHeartRateMonitor;
+import de.htw.icw.pulsesensorlib.HeartRateClusterNode;
+import de.htw.icw.pulsesensorlib.HeartRateFrameCodec;
+import de.htw.icw.pulsesensorlib.HeartRateHashRing;
+import de.htw.icw.pulsesensorlib.HeartRateMonitor;
+import de.htw.icw.pulsesensorlib.HeartRateMonitorFactory;
+import de.htw.icw.pulsesensorlib.HeartRateMonitorRegistry;
+import de.htw.icw.pulsesensorlib.OffHeapHeartRateStorage;
+import de.htw.icw.pulsesensorlib.OffHeapMemoryBudget;
+
+public class HeartRateClusterTest {
+
+	private static final long TIMEOUT_IN_MS = 20000;
+	private static final long SECOND = 1000;
+
+	private final InetAddress localhost = InetAddress.getLoopbackAddress();
+
+	private final List<HeartRateClusterNode> nodes = new ArrayList<HeartRateClusterNode>();
+	private final Map<HeartRateClusterNode, HeartRateMonitorRegistry> registries = new HashMap<HeartRateClusterNode, HeartRateMonitorRegistry>();
+	private final List<Process> processes = new ArrayList<Process>();
+
+	@After
+	public void tearDown() throws IOException {
+		for (HeartRateClusterNode node : nodes) {
+			node.close();
+		}
+		for (Process process : processes) {
+			process.destroy();
+		}
+	}
+
+	@Test
+	public void theShardsShouldBeSpreadEvenlyOverTheNodes() {
+
+		// given
+		List<InetSocketAddress> members = addresses(9001, 9002, 9003, 9004);
+
+		// when
+		HeartRateHashRing ring = new HeartRateHashRing(members);
+		HeartRateHashRing reversedRing = new HeartRateHashRing(addresses(9004,
+				9003, 9002, 9001));
+
+		// then
+		Map<InetSocketAddress, Integer> shards = countShards(ring);
+		for (InetSocketAddress member : members) {
+			int share = shards.get(member);
+			Assert.assertTrue("every node should own about a quarter, "
+					+ member + " owns " + share, share > 0.15
+					* HeartRateHashRing.NUMBER_OF_SHARDS
+					&& share < 0.35 * HeartRateHashRing.NUMBER_OF_SHARDS);
+		}
+		for (int shard = 0; shard < HeartRateHashRing.NUMBER_OF_SHARDS; shard++) {
+			Assert.assertEquals("the order of the members should not matter",
+					ring.getShardOwner(shard),
+					reversedRing.getShardOwner(shard));
+		}
+	}
+
+	@Test
+	public void aJoiningNodeShouldOnlyTakeOverShards() {
+
+		// given
+		HeartRateHashRing ring = new HeartRateHashRing(addresses(9001, 9002,
+				9003, 9004));
+
+		// when
+		InetSocketAddress joiningNode = new InetSocketAddress(localhost, 9005);
+		HeartRateHashRing grownRing = new HeartRateHashRing(addresses(9001,
+				9002, 9003, 9004, 9005));
+
+		// then
+		int moved = 0;
+		for (int shard = 0; shard < HeartRateHashRing.NUMBER_OF_SHARDS; shard++) {
+			if (!ring.getShardOwner(shard).equals(grownRing.getShardOwner(shard))) {
+				Assert.assertEquals("shards should only move to the new node",
+						joiningNode, grownRing.getShardOwner(shard));
+				moved++;
+			}
+		}
+		Assert.assertTrue("about a fifth of the shards should move, moved "
+				+ moved, moved > 0.1 * HeartRateHashRing.NUMBER_OF_SHARDS
+				&& moved < 0.3 * HeartRateHashRing.NUMBER_OF_SHARDS);
+	}
+
+	@Test
+	public void heartRatesShouldBeForwardedToTheOwnerOfTheirSensor()
+			throws Exception {
+
+		// given
+		List<HeartRateClusterNode> cluster = startNodes(3);
+		setMembers(cluster, cluster);
+
+		// when all sensors send to the first node
+		sendHeartRates(cluster.get(0).getAddress(), 300, 0, 10);
+
+		// then
+		long[] stats = waitForHeartRates(cluster, 3000);
+		Assert.assertEquals("every sensor should have one monitor", 300,
+				stats[0]);
+		Assert.assertEquals("no sensor should be on another node", 0,
+				stats[2]);
+		Assert.assertTrue("the first node should have forwarded", cluster
+				.get(0).getForwardedHeartRates() > 0);
+		for (HeartRateClusterNode node : cluster) {
+			Assert.assertTrue("every node should own sensors", registries
+					.get(node).size() > 0);
+		}
+	}
+
+	@Test
+	public void sensorsShouldBeHandedOffWhenNodesJoinAndLeave()
+			throws Exception {
+
+		// given two nodes with ten heart rates of every sensor
+		List<HeartRateClusterNode> cluster = startNodes(3);
+		HeartRateClusterNode first = cluster.get(0);
+		HeartRateClusterNode second = cluster.get(1);
+		HeartRateClusterNode third = cluster.get(2);
+		setMembers(Arrays.asList(first, second), Arrays.asList(first, second));
+		sendHeartRates(first.getAddress(), 200, 0, 10);
+		waitForHeartRates(Arrays.asList(first, second), 2000);
+
+		// when the third node joins
+		setMembers(cluster, cluster);
+
+		// then
+		long[] stats = waitForHeartRates(cluster, 2000);
+		Assert.assertEquals(200, stats[0]);
+		Assert.assertEquals("no sensor should be on another node", 0,
+				stats[2]);
+		Assert.assertTrue("the third node should own sensors",
+				registries.get(third).size() > 0);
+		Assert.assertEquals("no heart rate should be dropped", 0,
+				third.getDroppedHandOffHeartRates());
+		int sensorId = registries.get(third).getSensorIds()[0];
+		HeartRateMonitor heartRateMonitor = registries.get(third)
+				.findHeartRateMonitor(sensorId);
+		Assert.assertEquals("the history should be handed off in order",
+				Arrays.asList(0L, 1000L, 2000L, 3000L, 4000L, 5000L, 6000L,
+						7000L, 8000L, 9000L),
+				heartRateMonitor.getAllMeasuredTimestamps());
+
+		// when the second node leaves
+		setMembers(Arrays.asList(first, third), cluster);
+
+		// then
+		stats = waitForHeartRates(cluster, 2000);
+		Assert.assertEquals(200, stats[0]);
+		Assert.assertEquals(0, stats[2]);
+		Assert.assertEquals("the leaving node should hand off all sensors",
+				0, registries.get(second).size());
+	}
+
+	@Test
+	public void theStorageOfHandedOffSensorsShouldBeClosed() throws Exception {
+
+		// given a node which stores the heart rates off the heap
+		final OffHeapMemoryBudget memoryBudget = new OffHeapMemoryBudget(
+				16 * 1024 * 1024);
+		HeartRateMonitorRegistry heartRateMonitorRegistry = new HeartRateMonitorRegistry(
+				new HeartRateMonitorFactory() {
+					@Override
+					public HeartRateMonitor createHeartRateMonitor(int sensorId) {
+						return new DefaultHeartRateMonitor(
+								new OffHeapHeartRateStorage(memoryBudget));
+					}
+				});
+		HeartRateClusterNode leavingNode = new HeartRateClusterNode(
+				heartRateMonitorRegistry, new InetSocketAddress(localhost, 0));
+		leavingNode.start();
+		nodes.add(leavingNode);
+		registries.put(leavingNode, heartRateMonitorRegistry);
+		HeartRateClusterNode otherNode = startNodes(1).get(0);
+		List<HeartRateClusterNode> cluster = Arrays.asList(leavingNode,
+				otherNode);
+		setMembers(Arrays.asList(leavingNode), cluster);
+		sendHeartRates(leavingNode.getAddress(), 100, 0, 10);
+		waitForHeartRates(cluster, 1000);
+		Assert.assertTrue(memoryBudget.getUsedBytes() > 0);
+
+		// when
+		setMembers(Arrays.asList(otherNode), cluster);
+
+		// then
+		waitForHeartRates(Arrays.asList(otherNode), 1000);
+		Assert.assertEquals("the off-heap memory should be given back", 0,
+				memoryBudget.getUsedBytes());
+	}
+
+	@Test
+	public void heartRatesOfAnUnreachableNodeShouldBeRoutedToTheOthers()
+			throws Exception {
+
+		// given
+		List<HeartRateClusterNode> cluster = startNodes(3);
+		setMembers(cluster, cluster);
+		HeartRateClusterNode unreachableNode = cluster.get(2);
+		unreachableNode.close();
+
+		// when
+		sendHeartRates(cluster.get(0).getAddress(), 300, 0, 10);
+
+		// then
+		List<HeartRateClusterNode> reachableNodes = cluster.subList(0, 2);
+		long[] stats = waitForHeartRates(reachableNodes, 3000);
+		Assert.assertEquals(300, stats[0]);
+		Assert.assertEquals("the first node should own all its sensors", 0,
+				HeartRateClusterProcess.stats(cluster.get(0),
+						registries.get(cluster.get(0)))[2]);
+		Assert.assertFalse("the node should be removed from the ring",
+				cluster.get(0).getRing()
+						.contains(unreachableNode.getAddress()));
+		Assert.assertEquals("the members should be kept", 3, cluster.get(0)
+				.getMembers().size());
+	}
+
+	@Test
+	public void aLargeHandOffToAnUnreachableNodeShouldNotStopTheNode()
+			throws Exception {
+
+		// given a history which needs more batches than a node has
+		HeartRateMonitorRegistry heartRateMonitorRegistry = new HeartRateMonitorRegistry();
+		for (int sensorId = 0; sensorId < 300; sensorId++) {
+			HeartRateMonitor heartRateMonitor = heartRateMonitorRegistry
+					.getHeartRateMonitor(sensorId);
+			for (int second = 0; second < 8000; second++) {
+				heartRateMonitor.addHeartRate(60, second * SECOND);
+			}
+		}
+		HeartRateClusterNode node = new HeartRateClusterNode(
+				heartRateMonitorRegistry, new InetSocketAddress(localhost, 0));
+		node.start();
+		nodes.add(node);
+		registries.put(node, heartRateMonitorRegistry);
+
+		ServerSocketChannel closedChannel = ServerSocketChannel.open();
+		closedChannel.bind(new InetSocketAddress(localhost, 0));
+		InetSocketAddress unreachableNode = (InetSocketAddress) closedChannel
+				.getLocalAddress();
+		closedChannel.close();
+
+		// when
+		node.setMembers(Arrays.asList(node.getAddress(), unreachableNode));
+
+		// then
+		Assert.assertTrue("the hand off should need more than all batches",
+				node.getHandedOffHeartRates() > 256 * 4095);
+		long[] stats = waitForHeartRates(Arrays.asList(node), 300 * 8000);
+		Assert.assertEquals(300, stats[0]);
+		Assert.assertFalse("the node should be removed from the ring", node
+				.getRing().contains(unreachableNode));
+
+		// when
+		sendHeartRates(node.getAddress(), 300, 8000, 1);
+
+		// then
+		waitForHeartRates(Arrays.asList(node), 300 * 8000 + 300);
+	}
+
+	@Test
+	public void aClusterOfProcessesShouldShareTheSensors() throws Exception {
+
+		// given
+		List<Integer> ports = new ArrayList<Integer>();
+		List<BufferedReader> readers = new ArrayList<BufferedReader>();
+		List<Writer> writers = new ArrayList<Writer>();
+		for (int i = 0; i < 3; i++) {
+			Process process = new ProcessBuilder(System.getProperty("java.home")
+					+ "/bin/java", "-cp", System.getProperty("java.class.path"),
+					HeartRateClusterProcess.class.getName()).redirectError(
+					ProcessBuilder.Redirect.INHERIT).start();
+			processes.add(process);
+			readers.add(new BufferedReader(new InputStreamReader(process
+					.getInputStream(), "UTF-8")));
+			writers.add(new OutputStreamWriter(process.getOutputStream(),
+					"UTF-8"));
+			ports.add(Integer.parseInt(readers.get(i).readLine().split(" ")[1]));
+		}
+		for (int i = 0; i < 3; i++) {
+			Assert.assertEquals("ok", command(readers.get(i), writers.get(i),
+					"members " + ports.get(0) + "," + ports.get(1) + ","
+							+ ports.get(2)));
+		}
+
+		// when
+		sendHeartRates(new InetSocketAddress(localhost, ports.get(0)), 300, 0,
+				5);
+
+		// then
+		long[] stats = waitForHeartRates(readers, writers, 1500);
+		Assert.assertEquals(300, stats[0]);
+		Assert.assertEquals("no sensor should be on another node", 0,
+				stats[2]);
+
+		// when the last process leaves
+		for (int i = 2; i >= 0; i--) {
+			command(readers.get(i), writers.get(i), "members " + ports.get(0)
+					+ "," + ports.get(1));
+		}
+
+		// then
+		stats = waitForHeartRates(readers, writers, 1500);
+		Assert.assertEquals(300, stats[0]);
+		Assert.assertEquals(0, stats[2]);
+		Assert.assertEquals("the last process should hand off all sensors",
+				"stats 0 0 0",
+				command(readers.get(2), writers.get(2), "stats"));
+
+		for (Writer writer : writers) {
+			writer.write("exit\n");
+			writer.flush();
+		}
+		for (Process process : processes) {
+			Assert.assertEquals(0, process.waitFor());
+		}
+	}
+
+	private List<HeartRateClusterNode> startNodes(int count)
+			throws IOException {
+		List<HeartRateClusterNode> cluster = new ArrayList<HeartRateClusterNode>();
+		for (int i = 0; i < count; i++) {
+			HeartRateMonitorRegistry heartRateMonitorRegistry = new HeartRateMonitorRegistry();
+			HeartRateClusterNode node = new HeartRateClusterNode(
+					heartRateMonitorRegistry, new InetSocketAddress(localhost, 0));
+			node.start();
+			nodes.add(node);
+			registries.put(node, heartRateMonitorRegistry);
+			cluster.add(node);
+		}
+		return cluster;
+	}
+
+	private void setMembers(List<HeartRateClusterNode> members,
+			List<HeartRateClusterNode> cluster) throws InterruptedException {
+		List<InetSocketAddress> addresses = new ArrayList<InetSocketAddress>();
+		for (HeartRateClusterNode member : members) {
+			addresses.add(member.getAddress());
+		}
+		for (HeartRateClusterNode node : cluster) {
+			node.setMembers(addresses);
+		}
+	}
+
+	private void sendHeartRates(InetSocketAddress address, int sensors,
+			int fromSecond, int seconds) throws IOException {
+		ByteBuffer frame = ByteBuffer.allocate(HeartRateFrameCodec
+				.frameSize(sensors));
+		SocketChannel socketChannel = SocketChannel.open(address);
+		try {
+			for (int second = fromSecond; second < fromSecond + seconds; second++) {
+				frame.clear();
+				HeartRateFrameCodec.encodeHeader(frame,
+						HeartRateFrameCodec.HEART_RATE_FRAME, sensors);
+				for (int sensorId = 0; sensorId < sensors; sensorId++) {
+					HeartRateFrameCodec.encodeRecord(frame, sensorId, second
+							* SECOND, 60 + sensorId % 40);
+				}
+				frame.flip();
+				while (frame.hasRemaining()) {
+					socketChannel.write(frame);
+				}
+			}
+		} finally {
+			socketChannel.close();
+		}
+	}
+
+	/**
+	 * waits until the nodes have the given number of heart rates, returns the
+	 * summed stats of the nodes.
+	 */
+	private long[] waitForHeartRates(List<HeartRateClusterNode> cluster,
+			long heartRates) throws Exception {
+		long deadline = System.currentTimeMillis() + TIMEOUT_IN_MS;
+		long[] stats;
+		do {
+			Thread.sleep(10);
+			stats = new long[3];
+			for (HeartRateClusterNode node : cluster) {
+				add(stats, HeartRateClusterProcess.stats(node,
+						registries.get(node)));
+			}
+		} while (stats[1] != heartRates
+				&& System.currentTimeMillis() < deadline);
+		Assert.assertEquals("all heart rates should arrive in time",
+				heartRates, stats[1]);
+		return stats;
+	}
+
+	private long[] waitForHeartRates(List<BufferedReader> readers,
+			List<Writer> writers, long heartRates) throws Exception {
+		long deadline = System.currentTimeMillis() + TIMEOUT_IN_MS;
+		long[] stats;
+		do {
+			Thread.sleep(10);
+			stats = new long[3];
+			for (int i = 0; i < readers.size(); i++) {
+				String[] reply = command(readers.get(i), writers.get(i),
+						"stats").split(" ");
+				add(stats, new long[] { Long.parseLong(reply[1]),
+						Long.parseLong(reply[2]), Long.parseLong(reply[3]) });
+			}
+		} while (stats[1] != heartRates
+				&& System.currentTimeMillis() < deadline);
+		Assert.assertEquals("all heart rates should arrive in time",
+				heartRates, stats[1]);
+		return stats;
+	}
+
+	private String command(BufferedReader reader, Writer writer,
+			String command) throws IOException {
+		writer.write(command + "\n");
+		writer.flush();
+		return reader.readLine();
+	}
+
+	private void add(long[] sum, long[] stats) {
+		for (int i = 0; i < sum.length; i++) {
+			sum[i] += stats[i];
+		}
+	}
+
+	private List<InetSocketAddress> addresses(int... ports) {
+		List<InetSocketAddress> addresses = new ArrayList<InetSocketAddress>();
+		for (int port : ports) {
+			addresses.add(new InetSocketAddress(localhost, port));
+		}
+		return addresses;
+	}
+
+	private Map<InetSocketAddress, Integer> countShards(HeartRateHashRing ring) {
+		Map<InetSocketAddress, Integer> shards = new HashMap<InetSocketAddress, Integer>();
+		for (int shard = 0; shard < HeartRateHashRing.NUMBER_OF_SHARDS; shard++) {
+			InetSocketAddress owner = ring.getShardOwner(shard);
+			Integer count = shards.get(owner);
+			shards.put(owner, count == null ? 1 : count + 1);
+		}
+		return shards;
+	}
+}
@@ -0,0 +1,77 @@
+package de.htw.icw.pulsesensorlib.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import de.htw.icw.pulsesensorlib.DefaultHeartRateMonitor;
+import de.htw.icw.pulsesensorlib.HeartRateCohortQuery;
+import de.htw.icw.pulsesensorlib.HeartRateMonitor;
+
+/**
+ * Measures the throughput of the {@link HeartRateCohortQuery} for different
+ * numbers of worker threads. Not run as part of the tests, start it with the
+ * main method.
+ */
+public class HeartRateCohortQueryBenchmark {
+
+	private static final int MONITORS = 1000;
+	private static final int HEART_RATES_PER_MONITOR = 20000;
+	private static final long MEASUREMENT_TIME_IN_NS = 2000000000L;
+
+	public static void main(String[] args) throws Exception {
+		List<HeartRateMonitor> heartRateMonitors = createMonitors();
+		HeartRateCohortQuery heartRateCohortQuery = new HeartRateCohortQuery(
+				0, Long.MAX_VALUE, 120, 5000);
+		int processors = Runtime.getRuntime().availableProcessors();
+
+		System.out.println("threads  [heart rates/s]  speedup");
+		double sequential = 0;
+		for (int threads = 1; threads <= processors; threads *= 2) {
+			ForkJoinPool pool = new ForkJoinPool(threads);
+
+			// warm up, then measure
+			run(heartRateCohortQuery, pool, heartRateMonitors,
+					MEASUREMENT_TIME_IN_NS / 2);
+			long queries = run(heartRateCohortQuery, pool, heartRateMonitors,
+					MEASUREMENT_TIME_IN_NS);
+			pool.shutdown();
+
+			double throughput = queries * (double) MONITORS
+					* HEART_RATES_PER_MONITOR / (MEASUREMENT_TIME_IN_NS / 1e9);
+			if (threads == 1) {
+				sequential = throughput;
+			}
+			System.out.printf("%7d  %15.3e  %7.2f%n", threads, throughput,
+					throughput / sequential);
+		}
+	}
+
+	private static long run(HeartRateCohortQuery heartRateCohortQuery,
+			ForkJoinPool pool, List<HeartRateMonitor> heartRateMonitors,
+			long durationInNs) {
+		long queries = 0;
+		long end = System.nanoTime() + durationInNs;
+		while (System.nanoTime() < end) {
+			heartRateCohortQuery.execute(pool, heartRateMonitors);
+			queries++;
+		}
+		return queries;
+	}
+
+	private static List<HeartRateMonitor> createMonitors() throws Exception {
+		Random random = new Random(42);
+		List<HeartRateMonitor> heartRateMonitors = new ArrayList<HeartRateMonitor>();
+		for (int m = 0; m < MONITORS; m++) {
+			DefaultHeartRateMonitor heartRateMonitor = new DefaultHeartRateMonitor(
+					HEART_RATES_PER_MONITOR);
+			for (int i = 0; i < HEART_RATES_PER_MONITOR; i++) {
+				heartRateMonitor.addHeartRate(50 + random.nextInt(100),
+						1000L * i);
+			}
+			heartRateMonitors.add(heartRateMonitor);
+		}
+		return heartRateMonitors;
+	}
+}
@@ -0,0 +1,181 @@
+package de.htw.icw.pulsesensorlib.test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.htw.icw.pulsesensorlib.DefaultHeartRateMonitor;
+import de.htw.icw.pulsesensorlib.HeartRateCohortQuery;
+import de.htw.icw.pulsesensorlib.HeartRateCohortStatistics;
+import de.htw.icw.pulsesensorlib.HeartRateMonitor;
+import de.htw.icw.pulsesensorlib.HeartRateMonitorRegistry;
+import de.htw.icw.pulsesensorlib.NoNegativeHeartRatesPossibleException;
+
+public class HeartRateCohortQueryTest {
+
+	private static final long HOUR = 60 * 60 * 1000;
+
+	@Test
+	public void statisticsShouldMatchASequentialComputation()
+			throws Exception {
+
+		// given monitors of different sizes, one large enough to be split
+		Random random = new Random(42);
+		List<HeartRateMonitor> heartRateMonitors = new ArrayList<HeartRateMonitor>();
+		int[] sizes = { 0, 1, 500, 3 * HeartRateCohortQuery.SAMPLES_PER_TASK
+				+ 7, 1000, 20 };
+		for (int size : sizes) {
+			DefaultHeartRateMonitor heartRateMonitor = new DefaultHeartRateMonitor();
+			long timestamp = random.nextInt(1000);
+			for (int i = 0; i < size; i++) {
+				heartRateMonitor.addHeartRate(40 + random.nextInt(100),
+						timestamp);
+				timestamp += 500 + random.nextInt(3000);
+			}
+			heartRateMonitors.add(heartRateMonitor);
+		}
+		long from = 10000;
+		long to = 100 * HOUR;
+		HeartRateCohortQuery heartRateCohortQuery = new HeartRateCohortQuery(
+				from, to, 120, 2000);
+
+		// when
+		HeartRateCohortStatistics statistics = heartRateCohortQuery.execute(
+				new ForkJoinPool(4), heartRateMonitors);
+
+		// then
+		long count = 0;
+		double sum = 0;
+		double minimum = Double.POSITIVE_INFINITY;
+		double maximum = Double.NEGATIVE_INFINITY;
+		long countAbove = 0;
+		long millisecondsAbove = 0;
+		int patients = 0;
+		int patientsAbove = 0;
+		long[] hourlyCounts = new long[24];
+		for (HeartRateMonitor heartRateMonitor : heartRateMonitors) {
+			List<Double> heartRates = heartRateMonitor
+					.getAllMeasuredHeartRates();
+			List<Long> timestamps = heartRateMonitor
+					.getAllMeasuredTimestamps();
+			int n = timestamps.size();
+			long patientCount = 0;
+			long patientAbove = 0;
+			for (int i = 0; i < n; i++) {
+				long timestamp = timestamps.get(i);
+				if (timestamp < from || timestamp > to) {
+					continue;
+				}
+				double heartRate = heartRates.get(i);
+				patientCount++;
+				sum += heartRate;
+				minimum = Math.min(minimum, heartRate);
+				maximum = Math.max(maximum, heartRate);
+				hourlyCounts[(int) (timestamp / HOUR % 24)]++;
+				if (heartRate > 120) {
+					patientAbove++;
+					if (i + 1 < n) {
+						millisecondsAbove += Math.min(2000, Math.min(
+								timestamps.get(i + 1), to + 1)
+								- timestamp);
+					}
+				}
+			}
+			count += patientCount;
+			countAbove += patientAbove;
+			patients += patientCount > 0 ? 1 : 0;
+			patientsAbove += patientAbove > 0 ? 1 : 0;
+		}
+
+		Assert.assertEquals("count", count, statistics.getCount());
+		Assert.assertEquals("mean", sum / count, statistics.getMean(), 1e-9);
+		Assert.assertEquals("minimum", minimum, statistics.getMinimum(), 0);
+		Assert.assertEquals("maximum", maximum, statistics.getMaximum(), 0);
+		Assert.assertEquals("count above threshold", countAbove,
+				statistics.getCountAboveThreshold());
+		Assert.assertEquals("time above threshold", millisecondsAbove,
+				statistics.getMillisecondsAboveThreshold());
+		Assert.assertEquals("patients", patients,
+				statistics.getNumberOfPatients());
+		Assert.assertEquals("patients above threshold", patientsAbove,
+				statistics.getNumberOfPatientsAboveThreshold());
+		for (int hour = 0; hour < 24; hour++) {
+			Assert.assertEquals("hour " + hour, hourlyCounts[hour],
+					statistics.getHourlyCount(hour));
+		}
+	}
+
+	@Test
+	public void theTimeRangeShouldBeInclusive() throws Exception {
+
+		// given
+		HeartRateMonitorRegistry heartRateMonitorRegistry = new HeartRateMonitorRegistry();
+		addHeartRates(heartRateMonitorRegistry.getHeartRateMonitor(1), 80,
+				150, 150, 90);
+		addHeartRates(heartRateMonitorRegistry.getHeartRateMonitor(2), 70,
+				70, 70, 70);
+
+		// when
+		HeartRateCohortStatistics statistics = new HeartRateCohortQuery(1000,
+				2000, 100, 500).execute(heartRateMonitorRegistry);
+
+		// then
+		Assert.assertEquals("the heart rates at 1s and 2s should be counted",
+				4, statistics.getCount());
+		Assert.assertEquals(110, statistics.getMean(), 1e-9);
+		Assert.assertEquals("two high heart rates", 2,
+				statistics.getCountAboveThreshold());
+		Assert.assertEquals(
+				"the heart rate at 1s lasts the maximum interval, the one at 2s until the end of the range",
+				501, statistics.getMillisecondsAboveThreshold());
+		Assert.assertEquals(2, statistics.getNumberOfPatients());
+		Assert.assertEquals(1, statistics.getNumberOfPatientsAboveThreshold());
+		Assert.assertEquals(4, statistics.getHourlyCount(0));
+	}
+
+	@Test
+	public void theLastHeartRateShouldNotLastBeyondTheTimeRange()
+			throws Exception {
+
+		// given
+		HeartRateMonitorRegistry heartRateMonitorRegistry = new HeartRateMonitorRegistry();
+		addHeartRates(heartRateMonitorRegistry.getHeartRateMonitor(1), 150,
+				150, 150);
+
+		// when
+		HeartRateCohortStatistics statistics = new HeartRateCohortQuery(0,
+				1499, 100, 5000).execute(heartRateMonitorRegistry);
+
+		// then
+		Assert.assertEquals(2, statistics.getCount());
+		Assert.assertEquals(
+				"the heart rate at 1s should only count until 1.5s", 1500,
+				statistics.getMillisecondsAboveThreshold());
+	}
+
+	@Test
+	public void anEmptyCohortShouldHaveNoStatistics() {
+
+		// when
+		HeartRateCohortStatistics statistics = new HeartRateCohortQuery(0,
+				Long.MAX_VALUE, 100, 1000)
+				.execute(new ArrayList<HeartRateMonitor>());
+
+		// then
+		Assert.assertEquals(0, statistics.getCount());
+		Assert.assertTrue(Double.isNaN(statistics.getMean()));
+		Assert.assertEquals(0, statistics.getNumberOfPatients());
+	}
+
+	/** adds the heart rates one second apart, starting at 0 */
+	private void addHeartRates(HeartRateMonitor heartRateMonitor,
+			double... heartRates) throws NoNegativeHeartRatesPossibleException {
+		for (int i = 0; i < heartRates.length; i++) {
+			heartRateMonitor.addHeartRate(heartRates[i], 1000L * i);
+		}
+	}
+}
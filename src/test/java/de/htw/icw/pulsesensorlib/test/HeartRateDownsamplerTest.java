@@ -0,0 +1,159 @@
+package de.htw.icw.pulsesensorlib.test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.htw.icw.pulsesensorlib.DefaultHeartRateMonitor;
+import de.htw.icw.pulsesensorlib.HeartRateDownsampler;
+import de.htw.icw.pulsesensorlib.NoNegativeHeartRatesPossibleException;
+
+public class HeartRateDownsamplerTest {
+
+	private static final int SAMPLES = 24 * 60 * 60;
+	private static final long SPIKE_TIMESTAMP = 43210 * 1000L;
+
+	private DefaultHeartRateMonitor heartRateMonitor;
+	private double[] heartRates = new double[200];
+	private long[] timestamps = new long[200];
+
+	@Before
+	public void setUp() throws NoNegativeHeartRatesPossibleException {
+		// a day with a heart rate per second and a single spike
+		heartRateMonitor = new DefaultHeartRateMonitor(SAMPLES);
+		for (int second = 0; second < SAMPLES; second++) {
+			long timestamp = second * 1000L;
+			double heartRate = timestamp == SPIKE_TIMESTAMP ? 190
+					: 70 + 10 * Math.sin(second / 600.0) + second % 3;
+			heartRateMonitor.addHeartRate(heartRate, timestamp);
+		}
+	}
+
+	@Test
+	public void largestTriangleThreeBucketsShouldKeepTheEndsAndTheSpike() {
+
+		// given
+		HeartRateDownsampler heartRateDownsampler = new HeartRateDownsampler(
+				HeartRateDownsampler.Method.LARGEST_TRIANGLE_THREE_BUCKETS, 200);
+
+		// when
+		int points = heartRateDownsampler.downsample(heartRateMonitor, 0,
+				Long.MAX_VALUE, heartRates, timestamps);
+
+		// then
+		Assert.assertEquals("the maximum number of points should be used",
+				200, points);
+		Assert.assertEquals("the first heart rate should be kept", 0,
+				timestamps[0]);
+		Assert.assertEquals("the last heart rate should be kept",
+				(SAMPLES - 1) * 1000L, timestamps[points - 1]);
+		Assert.assertTrue("the spike should be kept",
+				contains(timestamps, points, SPIKE_TIMESTAMP));
+		for (int i = 1; i < points; i++) {
+			Assert.assertTrue("the points should be in order",
+					timestamps[i] > timestamps[i - 1]);
+		}
+	}
+
+	@Test
+	public void minMaxShouldBeTheSameWithAndWithoutTheAggregateIndex() {
+
+		// given
+		HeartRateDownsampler heartRateDownsampler = new HeartRateDownsampler(
+				HeartRateDownsampler.Method.MIN_MAX, 200);
+		long from = 1000 * 1000L;
+		long to = 80000 * 1000L + 123;
+
+		// when
+		int scannedPoints = heartRateDownsampler.downsample(heartRateMonitor,
+				from, to, heartRates, timestamps);
+		double[] scannedHeartRates = Arrays.copyOf(heartRates, scannedPoints);
+		long[] scannedTimestamps = Arrays.copyOf(timestamps, scannedPoints);
+
+		heartRateMonitor.getHeartRateStatisticsOverClosedInterval(0, 0);
+		int indexedPoints = heartRateDownsampler.downsample(heartRateMonitor,
+				from, to, heartRates, timestamps);
+
+		// then
+		Assert.assertEquals("every pixel should have a minimum and maximum",
+				200, scannedPoints);
+		Assert.assertTrue("the spike should be kept",
+				contains(scannedTimestamps, scannedPoints, SPIKE_TIMESTAMP));
+		Assert.assertArrayEquals(
+				"the aggregate index should select the same points",
+				scannedTimestamps, Arrays.copyOf(timestamps, indexedPoints));
+		Assert.assertArrayEquals(scannedHeartRates,
+				Arrays.copyOf(heartRates, indexedPoints), 0);
+	}
+
+	@Test
+	public void aShortRangeShouldBeCopied() {
+
+		// given
+		HeartRateDownsampler heartRateDownsampler = new HeartRateDownsampler(
+				HeartRateDownsampler.Method.LARGEST_TRIANGLE_THREE_BUCKETS, 200);
+
+		// when
+		int points = heartRateDownsampler.downsample(heartRateMonitor, 5000,
+				104000, heartRates, timestamps);
+
+		// then
+		Assert.assertEquals("all heart rates of the range should be copied",
+				100, points);
+		Assert.assertEquals(5000, timestamps[0]);
+		Assert.assertEquals(heartRateMonitor.getHeartRate(104),
+				heartRates[99], 0);
+	}
+
+	@Test
+	public void downsamplingShouldNotAllocate() {
+
+		// given
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) bean;
+		Assume.assumeTrue(threadMXBean.isThreadAllocatedMemorySupported());
+		threadMXBean.setThreadAllocatedMemoryEnabled(true);
+		HeartRateDownsampler largestTriangleThreeBuckets = new HeartRateDownsampler(
+				HeartRateDownsampler.Method.LARGEST_TRIANGLE_THREE_BUCKETS, 200);
+		HeartRateDownsampler minMax = new HeartRateDownsampler(
+				HeartRateDownsampler.Method.MIN_MAX, 200);
+		long threadId = Thread.currentThread().getId();
+		for (int i = 0; i < 10; i++) {
+			largestTriangleThreeBuckets.downsample(heartRateMonitor, 0,
+					Long.MAX_VALUE, heartRates, timestamps);
+			minMax.downsample(heartRateMonitor, 0, Long.MAX_VALUE,
+					heartRates, timestamps);
+		}
+
+		// when
+		long before = threadMXBean.getThreadAllocatedBytes(threadId);
+		long after = threadMXBean.getThreadAllocatedBytes(threadId);
+		long measuringOverhead = after - before;
+		before = threadMXBean.getThreadAllocatedBytes(threadId);
+		largestTriangleThreeBuckets.downsample(heartRateMonitor, 0,
+				Long.MAX_VALUE, heartRates, timestamps);
+		minMax.downsample(heartRateMonitor, 0, Long.MAX_VALUE, heartRates,
+				timestamps);
+		after = threadMXBean.getThreadAllocatedBytes(threadId);
+
+		// then
+		Assert.assertEquals("no bytes should be allocated", 0, after - before
+				- measuringOverhead);
+	}
+
+	private static boolean contains(long[] timestamps, int points,
+			long timestamp) {
+		for (int i = 0; i < points; i++) {
+			if (timestamps[i] == timestamp) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,118 @@
+package de.htw.icw.pulsesensorlib.test;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.htw.icw.pulsesensorlib.DefaultHeartRateMonitor;
+import de.htw.icw.pulsesensorlib.HeartRateEpisode;
+import de.htw.icw.pulsesensorlib.HeartRateEpisodeIndex;
+import de.htw.icw.pulsesensorlib.NoNegativeHeartRatesPossibleException;
+
+public class HeartRateEpisodeIndexTest {
+
+	private static final long SECOND = 1000;
+	private static final long HOUR = 60 * 60 * SECOND;
+
+	private DefaultHeartRateMonitor heartRateMonitor;
+
+	@Before
+	public void setUp() {
+		heartRateMonitor = new DefaultHeartRateMonitor();
+	}
+
+	@Test
+	public void longEpisodesAboveTheThresholdShouldBeFound()
+			throws NoNegativeHeartRatesPossibleException {
+
+		// given
+		HeartRateEpisodeIndex episodeIndex = heartRateMonitor.addEpisodeIndex(
+				120, true);
+
+		// when a day with a heart rate per second has a short and a long
+		// episode
+		for (long second = 0; second < 24 * 60 * 60; second++) {
+			double heartRate = 70;
+			if (second >= 1000 && second < 1010) {
+				heartRate = 130;
+			} else if (second >= 50000 && second < 50060) {
+				heartRate = 125 + (second == 50030 ? 40 : 0);
+			}
+			heartRateMonitor.addHeartRate(heartRate, second * SECOND);
+		}
+
+		// then
+		List<HeartRateEpisode> episodes = episodeIndex
+				.findEpisodesOfLastSeconds(30 * SECOND, 24 * HOUR);
+		Assert.assertEquals("only the long episode should be found", 1,
+				episodes.size());
+		HeartRateEpisode episode = episodes.get(0);
+		Assert.assertEquals(50000 * SECOND, episode.getStartTimestamp());
+		Assert.assertEquals(50059 * SECOND, episode.getEndTimestamp());
+		Assert.assertEquals(165, episode.getPeakHeartRate(), 0);
+		Assert.assertEquals(50030 * SECOND, episode.getPeakTimestamp());
+		Assert.assertFalse(episode.isOngoing());
+		Assert.assertEquals("both runs should be indexed", 2,
+				episodeIndex.getNumberOfEpisodes());
+	}
+
+	@Test
+	public void episodesShouldBeFoundIfTheyOverlapTheRange()
+			throws NoNegativeHeartRatesPossibleException {
+
+		// given heart rates below 50 from 10 to 20 and from 40 to 50 seconds
+		for (long second = 0; second < 60; second++) {
+			boolean low = (second >= 10 && second <= 20)
+					|| (second >= 40 && second <= 50);
+			heartRateMonitor.addHeartRate(low ? 45 - second % 3 : 60, second
+					* SECOND);
+		}
+
+		// when the index is added afterwards
+		HeartRateEpisodeIndex episodeIndex = heartRateMonitor.addEpisodeIndex(
+				50, false);
+
+		// then
+		Assert.assertEquals("the existing history should be indexed", 2,
+				episodeIndex.getNumberOfEpisodes());
+		Assert.assertEquals(2,
+				episodeIndex.findEpisodes(0, 15 * SECOND, 45 * SECOND).size());
+		Assert.assertEquals(0,
+				episodeIndex.findEpisodes(0, 21 * SECOND, 39 * SECOND).size());
+		List<HeartRateEpisode> episodes = episodeIndex.findEpisodes(0,
+				50 * SECOND, 60 * SECOND);
+		Assert.assertEquals(1, episodes.size());
+		Assert.assertEquals("the lowest heart rate is the peak", 43,
+				episodes.get(0).getPeakHeartRate(), 0);
+	}
+
+	@Test
+	public void theCurrentEpisodeShouldBeOngoing()
+			throws NoNegativeHeartRatesPossibleException {
+
+		// given
+		HeartRateEpisodeIndex episodeIndex = heartRateMonitor.addEpisodeIndex(
+				120, true);
+		heartRateMonitor.addHeartRate(80, 0);
+
+		// when
+		for (long second = 1; second <= 40; second++) {
+			heartRateMonitor.addHeartRate(140, second * SECOND);
+		}
+
+		// then
+		List<HeartRateEpisode> episodes = episodeIndex.findEpisodes(
+				30 * SECOND, 0, 40 * SECOND);
+		Assert.assertEquals(1, episodes.size());
+		Assert.assertTrue("the episode has not ended yet", episodes.get(0)
+				.isOngoing());
+		Assert.assertEquals(39 * SECOND, episodes.get(0)
+				.getDurationInMilliseconds());
+
+		heartRateMonitor.addHeartRate(80, 41 * SECOND);
+		Assert.assertFalse("the episode should be closed", episodeIndex
+				.findEpisodes(30 * SECOND, 0, 41 * SECOND).get(0).isOngoing());
+	}
+}
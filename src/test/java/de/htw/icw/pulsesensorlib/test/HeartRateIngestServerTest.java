@@ -0,0 +1,225 @@
+package de.htw.icw.pulsesensorlib.test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SocketChannel;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import de.htw.icw.pulsesensorlib.AbstractHeartRateEvent;
+import de.htw.icw.pulsesensorlib.HeartRateFrameCodec;
+import de.htw.icw.pulsesensorlib.HeartRateIngestServer;
+import de.htw.icw.pulsesensorlib.HeartRateListener;
+import de.htw.icw.pulsesensorlib.HeartRateMonitor;
+import de.htw.icw.pulsesensorlib.HeartRateMonitorRegistry;
+
+public class HeartRateIngestServerTest {
+
+	private static final long TIMEOUT_IN_MS = 5000;
+
+	private HeartRateMonitorRegistry heartRateMonitorRegistry;
+	private HeartRateIngestServer heartRateIngestServer;
+
+	@Before
+	public void setUp() throws IOException {
+		InetAddress localhost = InetAddress.getLoopbackAddress();
+
+		heartRateMonitorRegistry = new HeartRateMonitorRegistry();
+		heartRateIngestServer = new HeartRateIngestServer(
+				heartRateMonitorRegistry);
+		heartRateIngestServer.bindTcp(new InetSocketAddress(localhost, 0));
+		heartRateIngestServer.bindUdp(new InetSocketAddress(localhost, 0));
+		heartRateIngestServer.start();
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		heartRateIngestServer.close();
+	}
+
+	@Test
+	public void heartRatesSentOverTcpShouldBeAddedToTheMonitorOfTheirSensor()
+			throws Exception {
+
+		// given
+		ByteBuffer frame = ByteBuffer.allocate(HeartRateFrameCodec
+				.frameSize(3));
+		HeartRateFrameCodec.encodeHeader(frame,
+				HeartRateFrameCodec.HEART_RATE_FRAME, 3);
+		HeartRateFrameCodec.encodeRecord(frame, 1, 1000, 60);
+		HeartRateFrameCodec.encodeRecord(frame, 2, 1000, 80);
+		HeartRateFrameCodec.encodeRecord(frame, 1, 2000, 62.5);
+		frame.flip();
+
+		// when
+		SocketChannel socketChannel = SocketChannel.open(heartRateIngestServer
+				.getTcpAddress());
+		try {
+			// split the frame to check that partial frames are reassembled
+			ByteBuffer firstPart = frame.duplicate();
+			firstPart.limit(10);
+			socketChannel.write(firstPart);
+			Thread.sleep(50);
+			frame.position(10);
+			while (frame.hasRemaining()) {
+				socketChannel.write(frame);
+			}
+			waitForAcceptedHeartRates(3);
+		} finally {
+			socketChannel.close();
+		}
+
+		// then
+		HeartRateMonitor firstMonitor = heartRateMonitorRegistry
+				.findHeartRateMonitor(1);
+		HeartRateMonitor secondMonitor = heartRateMonitorRegistry
+				.findHeartRateMonitor(2);
+
+		Assert.assertEquals("both sensors should be registered", 2,
+				heartRateMonitorRegistry.size());
+		Assert.assertEquals("all heart rates of sensor 1 should be added", 2,
+				firstMonitor.getAllMeasuredHeartRates().size());
+		Assert.assertEquals("the last heart rate of sensor 1 should be added",
+				62.5, firstMonitor.getLastHeartRate(), 0);
+		Assert.assertEquals("the timestamp of the frame should be used", 2000,
+				firstMonitor.getLastTimestamp());
+		Assert.assertEquals("the heart rate of sensor 2 should be added", 80,
+				secondMonitor.getLastHeartRate(), 0);
+	}
+
+	@Test
+	public void heartRatesSentOverUdpShouldBeAddedToTheMonitorOfTheirSensor()
+			throws Exception {
+
+		// given
+		ByteBuffer frame = ByteBuffer.allocate(HeartRateFrameCodec
+				.frameSize(2));
+		HeartRateFrameCodec.encodeHeader(frame,
+				HeartRateFrameCodec.HEART_RATE_FRAME, 2);
+		HeartRateFrameCodec.encodeRecord(frame, 7, 1000, 70);
+		HeartRateFrameCodec.encodeRecord(frame, 7, 2000, 71);
+		frame.flip();
+
+		// when
+		DatagramChannel datagramChannel = DatagramChannel.open();
+		try {
+			datagramChannel.send(frame, heartRateIngestServer.getUdpAddress());
+			waitForAcceptedHeartRates(2);
+		} finally {
+			datagramChannel.close();
+		}
+
+		// then
+		Assert.assertEquals("both heart rates should be added", 2,
+				heartRateMonitorRegistry.findHeartRateMonitor(7)
+						.getAllMeasuredHeartRates().size());
+	}
+
+	@Test
+	public void negativeHeartRatesShouldBeRejected() throws Exception {
+
+		// given
+		ByteBuffer frame = ByteBuffer.allocate(HeartRateFrameCodec
+				.frameSize(2));
+		HeartRateFrameCodec.encodeHeader(frame,
+				HeartRateFrameCodec.HEART_RATE_FRAME, 2);
+		HeartRateFrameCodec.encodeRecord(frame, 3, 1000, -10);
+		HeartRateFrameCodec.encodeRecord(frame, 3, 2000, 70);
+		frame.flip();
+
+		// when
+		SocketChannel socketChannel = SocketChannel.open(heartRateIngestServer
+				.getTcpAddress());
+		try {
+			socketChannel.write(frame);
+			waitForAcceptedHeartRates(1);
+		} finally {
+			socketChannel.close();
+		}
+
+		// then
+		Assert.assertEquals("the negative heart rate should be rejected", 1,
+				heartRateIngestServer.getRejectedHeartRates());
+		Assert.assertEquals("only the valid heart rate should be added", 1,
+				heartRateMonitorRegistry.findHeartRateMonitor(3)
+						.getAllMeasuredHeartRates().size());
+	}
+
+	@Test
+	public void aFailingListenerShouldNotStopTheServer() throws Exception {
+
+		// given
+		HighPulseEvent highPulseEvent = new HighPulseEvent(100);
+		HeartRateListener heartRateListener = Mockito
+				.mock(HeartRateListener.class);
+		Mockito.doThrow(new IllegalStateException("failing listener"))
+				.when(heartRateListener).onHighPulse(120);
+		highPulseEvent.subscribe(heartRateListener);
+		heartRateMonitorRegistry.getHeartRateMonitor(4)
+				.subscribe(highPulseEvent);
+
+		// when
+		SocketChannel socketChannel = SocketChannel.open(heartRateIngestServer
+				.getTcpAddress());
+		try {
+			socketChannel.write(frame(4, 1000, 120));
+			socketChannel.write(frame(4, 2000, 70));
+			waitForAcceptedHeartRates(1);
+		} finally {
+			socketChannel.close();
+		}
+
+		// then
+		Assert.assertEquals("the failed heart rate should be rejected", 1,
+				heartRateIngestServer.getRejectedHeartRates());
+		Assert.assertEquals("the next heart rate should be added", 70,
+				heartRateMonitorRegistry.findHeartRateMonitor(4)
+						.getLastHeartRate(), 0);
+	}
+
+	/** encodes a frame with a single heart rate */
+	private ByteBuffer frame(int sensorId, long timestamp, double heartRate) {
+		ByteBuffer frame = ByteBuffer.allocate(HeartRateFrameCodec
+				.frameSize(1));
+		HeartRateFrameCodec.encodeHeader(frame,
+				HeartRateFrameCodec.HEART_RATE_FRAME, 1);
+		HeartRateFrameCodec.encodeRecord(frame, sensorId, timestamp, heartRate);
+		frame.flip();
+		return frame;
+	}
+
+	private void waitForAcceptedHeartRates(long expected)
+			throws InterruptedException {
+		long deadline = System.currentTimeMillis() + TIMEOUT_IN_MS;
+		while (heartRateIngestServer.getAcceptedHeartRates() < expected
+				&& System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		Assert.assertEquals("all heart rates should be accepted in time",
+				expected, heartRateIngestServer.getAcceptedHeartRates());
+	}
+
+	private static class HighPulseEvent extends AbstractHeartRateEvent {
+
+		private final double highHeartRate;
+
+		HighPulseEvent(double highHeartRate) {
+			this.highHeartRate = highHeartRate;
+		}
+
+		@Override
+		public void onUpdate(HeartRateMonitor heartRateMonitor) {
+			double heartRate = heartRateMonitor.getLastHeartRate();
+			if (heartRate > highHeartRate) {
+				notifyOnHighPulse(heartRate);
+			}
+		}
+	}
+}
@@ -0,0 +1,257 @@
+package de.htw.icw.pulsesensorlib.test;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import de.htw.icw.pulsesensorlib.DefaultHeartRateEvent;
+import de.htw.icw.pulsesensorlib.DefaultHeartRateMonitor;
+import de.htw.icw.pulsesensorlib.EwmaHeartRateEvent;
+import de.htw.icw.pulsesensorlib.HeartRateEvent;
+import de.htw.icw.pulsesensorlib.HeartRateListener;
+import de.htw.icw.pulsesensorlib.HeartRateMonitor;
+import de.htw.icw.pulsesensorlib.LatencyHistogram;
+import de.htw.icw.pulsesensorlib.NoNegativeHeartRatesPossibleException;
+
+/**
+ * Simulates a fleet of sensors and drives their heart rates through monitors
+ * with a {@link DefaultHeartRateEvent} and an {@link EwmaHeartRateEvent}
+ * attached. Every sensor is read at a fixed rate, the readings of a thread's
+ * sensors are spread evenly over the sample period. The latency of a reading
+ * is measured from the time it was due to the time the last event has
+ * processed it, so a driver falling behind shows up as latency instead of
+ * lowering the load (no coordinated omission).
+ *
+ * Not run as part of the tests, start it with the main method:
+ *
+ * <pre>
+ * HeartRateLoadGenerator [sensors[,sensors...] [rate in Hz [seconds [threads]]]]
+ * </pre>
+ *
+ * e.g. "5000,10000,20000,40000 5 30" runs four fleets to find the saturation
+ * point of a machine. A fleet keeps up if the sustained throughput matches
+ * the target and the latencies stay in the range of the sample period.
+ */
+public class HeartRateLoadGenerator {
+
+	private static final double HIGH_HEART_RATE = 140;
+	private static final double LOW_HEART_RATE = 40;
+
+	public static void main(String[] args) throws Exception {
+		String[] fleets = (args.length > 0 ? args[0] : "20000").split(",");
+		double sampleRateInHz = args.length > 1 ? Double.parseDouble(args[1])
+				: 5;
+		int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+		int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime
+				.getRuntime().availableProcessors();
+
+		System.out.println("sensors  target [1/s]  sustained [1/s]"
+				+ "  p50 [us]  p99 [us]  p99.9 [us]  max [us]"
+				+ "  gc count  gc time [ms]");
+		for (String fleet : fleets) {
+			new HeartRateLoadGenerator(Integer.parseInt(fleet.trim()),
+					sampleRateInHz, seconds, threads).run();
+		}
+	}
+
+	private final int sensors;
+	private final double sampleRateInHz;
+	private final int seconds;
+	private final int threads;
+
+	HeartRateLoadGenerator(int sensors, double sampleRateInHz, int seconds,
+			int threads) {
+		this.sensors = sensors;
+		this.sampleRateInHz = sampleRateInHz;
+		this.seconds = seconds;
+		this.threads = Math.min(threads, sensors);
+	}
+
+	void run() throws InterruptedException {
+		Driver[] drivers = new Driver[threads];
+		for (int t = 0; t < threads; t++) {
+			int from = (int) ((long) sensors * t / threads);
+			int to = (int) ((long) sensors * (t + 1) / threads);
+			drivers[t] = new Driver(from, to);
+		}
+
+		long gcCount = getGcCount();
+		long gcTime = getGcTime();
+		long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+		for (Driver driver : drivers) {
+			driver.start = start;
+			driver.start();
+		}
+
+		LatencyHistogram latencies = new LatencyHistogram();
+		long readings = 0;
+		for (Driver driver : drivers) {
+			driver.join();
+			latencies.add(driver.latencies);
+			readings += driver.readings;
+		}
+		double elapsed = (System.nanoTime() - start) / 1e9;
+
+		System.out.printf(
+				"%7d  %12.0f  %15.0f  %8.1f  %8.1f  %10.1f  %8.1f  %8d  %12d%n",
+				sensors, sensors * sampleRateInHz, readings / elapsed,
+				latencies.getValueAtPercentile(50) / 1e3,
+				latencies.getValueAtPercentile(99) / 1e3,
+				latencies.getValueAtPercentile(99.9) / 1e3,
+				latencies.getMaximum() / 1e3, getGcCount() - gcCount,
+				getGcTime() - gcTime);
+	}
+
+	private static long getGcCount() {
+		long count = 0;
+		List<GarbageCollectorMXBean> beans = ManagementFactory
+				.getGarbageCollectorMXBeans();
+		for (GarbageCollectorMXBean bean : beans) {
+			count += Math.max(0, bean.getCollectionCount());
+		}
+		return count;
+	}
+
+	private static long getGcTime() {
+		long time = 0;
+		List<GarbageCollectorMXBean> beans = ManagementFactory
+				.getGarbageCollectorMXBeans();
+		for (GarbageCollectorMXBean bean : beans) {
+			time += Math.max(0, bean.getCollectionTime());
+		}
+		return time;
+	}
+
+	/** feeds the readings of a range of sensors on its own thread */
+	private class Driver extends Thread {
+
+		private final HeartRateMonitor[] monitors;
+		private final SyntheticHeartRateTrace[] traces;
+		private final LatencyHistogram latencies = new LatencyHistogram();
+
+		private long start;
+		private long readings;
+
+		/** the time the current reading was due, read by the probe */
+		private long dueTime;
+
+		Driver(int fromSensor, int toSensor) {
+			super("load-generator-" + fromSensor);
+			monitors = new HeartRateMonitor[toSensor - fromSensor];
+			traces = new SyntheticHeartRateTrace[monitors.length];
+
+			HeartRateListener ignoringListener = new IgnoringListener();
+			HeartRateEvent probe = new LatencyProbe();
+			for (int i = 0; i < monitors.length; i++) {
+				monitors[i] = new DefaultHeartRateMonitor(
+						(int) (sampleRateInHz * seconds) + 16);
+				DefaultHeartRateEvent defaultEvent = new DefaultHeartRateEvent(
+						HIGH_HEART_RATE, LOW_HEART_RATE, 10000, 10000, 30);
+				defaultEvent.subscribe(ignoringListener);
+				EwmaHeartRateEvent ewmaEvent = new EwmaHeartRateEvent(0.05, 3,
+						5000);
+				ewmaEvent.subscribe(ignoringListener);
+				monitors[i].subscribe(defaultEvent);
+				monitors[i].subscribe(ewmaEvent);
+				// notified last, after the events have processed the reading
+				monitors[i].subscribe(probe);
+				traces[i] = new SyntheticHeartRateTrace(fromSensor + i,
+						sampleRateInHz);
+			}
+		}
+
+		@Override
+		public void run() {
+			long periodInNs = (long) (1e9 / sampleRateInHz);
+			long rounds = (long) (seconds * sampleRateInHz);
+			long startInMilliseconds = System.currentTimeMillis();
+
+			for (long round = 0; round < rounds; round++) {
+				for (int i = 0; i < monitors.length; i++) {
+					long offset = round * periodInNs + periodInNs * i
+							/ monitors.length;
+					dueTime = start + offset;
+					waitUntil(dueTime);
+
+					double heartRate = traces[i].next();
+					if (Double.isNaN(heartRate)) {
+						continue;
+					}
+					try {
+						monitors[i].addHeartRate(heartRate, startInMilliseconds
+								+ offset / 1000000);
+					} catch (NoNegativeHeartRatesPossibleException ex) {
+						throw new IllegalStateException(ex);
+					}
+					readings++;
+				}
+			}
+		}
+
+		private void waitUntil(long time) {
+			long remaining;
+			while ((remaining = time - System.nanoTime()) > 0) {
+				if (remaining > 100000) {
+					LockSupport.parkNanos(remaining - 50000);
+				}
+			}
+		}
+
+		private class LatencyProbe implements HeartRateEvent {
+
+			@Override
+			public void onUpdate(HeartRateMonitor heartRateMonitor) {
+				latencies.record(System.nanoTime() - dueTime);
+			}
+
+			@Override
+			public void subscribe(HeartRateListener heartRateListener) {
+			}
+
+			@Override
+			public void unsubscribe(HeartRateListener heartRateListener) {
+			}
+		}
+	}
+
+	private static class IgnoringListener implements HeartRateListener {
+
+		@Override
+		public void onHighPulse(double pulse) {
+		}
+
+		@Override
+		public void onLowPulse(double pulse) {
+		}
+
+		@Override
+		public void onNoPulse() {
+		}
+
+		@Override
+		public void onDisconnected() {
+		}
+
+		@Override
+		public void onPulseIncreased(double startHeartRate,
+				double endHeartRate, long startTimestamp, long endTimestamp,
+				double increaseingPercantage) {
+		}
+
+		@Override
+		public void onPulseDecreased(double startHeartRate,
+				double endHeartRate, long startTimestamp, long endTimestamp,
+				double decreasingPercentage) {
+		}
+
+		@Override
+		public void onSubscribed() {
+		}
+
+		@Override
+		public void onUnsubscribed() {
+		}
+	}
+}
@@ -0,0 +1,162 @@
+package de.htw.icw.pulsesensorlib.test;
+
+import java.io.File;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.htw.icw.pulsesensorlib.HeartRateMemoryGovernor;
+import de.htw.icw.pulsesensorlib.HeartRateMonitor;
+import de.htw.icw.pulsesensorlib.HeartRateMonitorRegistry;
+import de.htw.icw.pulsesensorlib.NoNegativeHeartRatesPossibleException;
+
+public class HeartRateMemoryGovernorTest {
+
+	/** bytes of 100 heart rates */
+	private static final long HISTORY_BYTES = 100 * 16;
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private File segmentDirectory;
+
+	@Before
+	public void setUp() throws Exception {
+		segmentDirectory = temporaryFolder.newFolder("segments");
+	}
+
+	@Test
+	public void spilledHistoriesShouldBePagedInOnTheNextQuery()
+			throws Exception {
+
+		// given
+		HeartRateMemoryGovernor heartRateMemoryGovernor = new HeartRateMemoryGovernor(
+				segmentDirectory, 2 * HISTORY_BYTES + 100, 0);
+		HeartRateMonitorRegistry heartRateMonitorRegistry = new HeartRateMonitorRegistry(
+				heartRateMemoryGovernor);
+
+		// when
+		for (int sensorId = 0; sensorId < 3; sensorId++) {
+			addHeartRates(heartRateMonitorRegistry.getHeartRateMonitor(sensorId),
+					sensorId);
+		}
+
+		// then
+		Assert.assertEquals("the first history should be spilled", 1,
+				heartRateMemoryGovernor.getNumberOfSpilledMonitors());
+		Assert.assertTrue("the resident bytes should be within the budget",
+				heartRateMemoryGovernor.getResidentBytes() <= heartRateMemoryGovernor
+						.getBudgetBytes());
+
+		HeartRateMonitor heartRateMonitor = heartRateMonitorRegistry
+				.findHeartRateMonitor(0);
+		long hits = heartRateMemoryGovernor.getHits();
+		Assert.assertEquals("the history should be paged in", 100,
+				heartRateMonitor.getAllMeasuredHeartRates().size());
+		Assert.assertEquals(60, heartRateMonitor.getAllMeasuredHeartRates()
+				.get(0), 0);
+		Assert.assertEquals(99000, heartRateMonitor.getLastTimestamp());
+		Assert.assertEquals("paging in should be a miss", 1,
+				heartRateMemoryGovernor.getMisses());
+		Assert.assertTrue("the following accesses should be hits",
+				heartRateMemoryGovernor.getHits() > hits);
+		Assert.assertEquals(
+				"paging in should spill the other histories down to the low water mark",
+				3, heartRateMemoryGovernor.getSpills());
+		Assert.assertTrue("the resident bytes should be within the budget",
+				heartRateMemoryGovernor.getResidentBytes() <= heartRateMemoryGovernor
+						.getBudgetBytes());
+	}
+
+	@Test
+	public void theLeastRecentlyUsedHistoryShouldBeSpilled() throws Exception {
+
+		// given
+		HeartRateMemoryGovernor heartRateMemoryGovernor = new HeartRateMemoryGovernor(
+				segmentDirectory, 3 * HISTORY_BYTES, 0);
+		HeartRateMonitor first = heartRateMemoryGovernor
+				.createHeartRateMonitor(0);
+		HeartRateMonitor second = heartRateMemoryGovernor
+				.createHeartRateMonitor(1);
+		HeartRateMonitor third = heartRateMemoryGovernor
+				.createHeartRateMonitor(2);
+		addHeartRates(first, 0);
+		addHeartRates(second, 1);
+		Thread.sleep(20);
+		addHeartRates(third, 2);
+		Thread.sleep(20);
+
+		// when the first history is queried and the third one grows
+		first.getMeasuredHeartRatesOfLastSeconds(10000);
+		third.addHeartRate(70, 100000);
+
+		// then
+		Assert.assertEquals("one history should be spilled", 1,
+				heartRateMemoryGovernor.getNumberOfSpilledMonitors());
+		first.getLastHeartRate();
+		Assert.assertEquals("the queried history should be resident", 0,
+				heartRateMemoryGovernor.getMisses());
+		second.getLastHeartRate();
+		Assert.assertEquals("the unused history should be spilled", 1,
+				heartRateMemoryGovernor.getMisses());
+	}
+
+	@Test
+	public void historiesShouldNotBeSpilledBeforeTheMinimumIdleTime()
+			throws Exception {
+
+		// given
+		HeartRateMemoryGovernor heartRateMemoryGovernor = new HeartRateMemoryGovernor(
+				segmentDirectory, HISTORY_BYTES, 60 * 60 * 1000);
+
+		// when
+		for (int sensorId = 0; sensorId < 3; sensorId++) {
+			addHeartRates(
+					heartRateMemoryGovernor.createHeartRateMonitor(sensorId),
+					sensorId);
+		}
+
+		// then
+		Assert.assertEquals("no history should be spilled", 0,
+				heartRateMemoryGovernor.getSpills());
+		Assert.assertEquals("all histories should be resident",
+				3 * HISTORY_BYTES, heartRateMemoryGovernor.getResidentBytes());
+	}
+
+	@Test
+	public void releasingAMonitorShouldFreeItsHistoryAndSegment()
+			throws Exception {
+
+		// given
+		HeartRateMemoryGovernor heartRateMemoryGovernor = new HeartRateMemoryGovernor(
+				segmentDirectory, HISTORY_BYTES, 0);
+		HeartRateMonitorRegistry heartRateMonitorRegistry = new HeartRateMonitorRegistry(
+				heartRateMemoryGovernor);
+		addHeartRates(heartRateMonitorRegistry.getHeartRateMonitor(0), 0);
+		addHeartRates(heartRateMonitorRegistry.getHeartRateMonitor(1), 1);
+		Assert.assertEquals("a segment file should be written", 1,
+				segmentDirectory.list().length);
+
+		// when
+		heartRateMemoryGovernor.release(heartRateMonitorRegistry
+				.removeHeartRateMonitor(0));
+		heartRateMemoryGovernor.release(heartRateMonitorRegistry
+				.removeHeartRateMonitor(1));
+
+		// then
+		Assert.assertEquals("no bytes should be resident", 0,
+				heartRateMemoryGovernor.getResidentBytes());
+		Assert.assertEquals("the segment files should be deleted", 0,
+				segmentDirectory.list().length);
+	}
+
+	private void addHeartRates(HeartRateMonitor heartRateMonitor, int offset)
+			throws NoNegativeHeartRatesPossibleException {
+		for (int i = 0; i < 100; i++) {
+			heartRateMonitor.addHeartRate(60 + (i + offset) % 40, 1000L * i);
+		}
+	}
+}
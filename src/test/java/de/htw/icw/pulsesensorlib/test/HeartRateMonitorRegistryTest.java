@@ -0,0 +1,54 @@
+package de.htw.icw.pulsesensorlib.test;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.htw.icw.pulsesensorlib.HeartRateMonitor;
+import de.htw.icw.pulsesensorlib.HeartRateMonitorRegistry;
+
+public class HeartRateMonitorRegistryTest {
+
+	@Test
+	public void getHeartRateMonitorShouldCreateAMonitorOnlyOncePerSensor() {
+
+		HeartRateMonitorRegistry heartRateMonitorRegistry = new HeartRateMonitorRegistry();
+
+		HeartRateMonitor heartRateMonitor = heartRateMonitorRegistry
+				.getHeartRateMonitor(42);
+
+		Assert.assertSame("the same monitor should be returned for a sensor",
+				heartRateMonitor, heartRateMonitorRegistry.getHeartRateMonitor(42));
+		Assert.assertEquals("only one sensor should be registered", 1,
+				heartRateMonitorRegistry.size());
+	}
+
+	@Test
+	public void removedSensorsShouldNotHideOtherSensors() {
+
+		HeartRateMonitorRegistry heartRateMonitorRegistry = new HeartRateMonitorRegistry();
+		HeartRateMonitor[] heartRateMonitors = new HeartRateMonitor[1000];
+
+		for (int i = 0; i < heartRateMonitors.length; i++) {
+			heartRateMonitors[i] = heartRateMonitorRegistry
+					.getHeartRateMonitor(i);
+		}
+		for (int i = 0; i < heartRateMonitors.length; i += 2) {
+			Assert.assertSame("the removed monitor should be returned",
+					heartRateMonitors[i],
+					heartRateMonitorRegistry.removeHeartRateMonitor(i));
+		}
+
+		Assert.assertEquals("half of the sensors should be left", 500,
+				heartRateMonitorRegistry.size());
+		for (int i = 0; i < heartRateMonitors.length; i++) {
+			if (i % 2 == 0) {
+				Assert.assertNull("removed sensor " + i + " should be gone",
+						heartRateMonitorRegistry.findHeartRateMonitor(i));
+			} else {
+				Assert.assertSame("sensor " + i + " should still be found",
+						heartRateMonitors[i],
+						heartRateMonitorRegistry.findHeartRateMonitor(i));
+			}
+		}
+	}
+}
@@ -0,0 +1,301 @@
+package de.htw.icw.pulsesensorlib.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.htw.icw.pulsesensorlib.AbstractHeartRateEvent;
+import de.htw.icw.pulsesensorlib.HeartRateListener;
+import de.htw.icw.pulsesensorlib.HeartRateMonitor;
+import de.htw.icw.pulsesensorlib.HeartRateMonitorRegistry;
+import de.htw.icw.pulsesensorlib.HeartRatePipeline;
+
+public class HeartRatePipelineTest {
+
+	private HeartRateMonitorRegistry heartRateMonitorRegistry;
+	private HeartRatePipeline heartRatePipeline;
+
+	@Before
+	public void setUp() {
+		heartRateMonitorRegistry = new HeartRateMonitorRegistry();
+	}
+
+	@After
+	public void tearDown() {
+		if (heartRatePipeline != null) {
+			heartRatePipeline.close();
+		}
+	}
+
+	@Test
+	public void listenersShouldBeCalledOnTheDispatchStage() throws Exception {
+
+		// given
+		HighPulseEvent highPulseEvent = new HighPulseEvent(100);
+		heartRateMonitorRegistry.getHeartRateMonitor(1).subscribe(
+				highPulseEvent);
+		heartRatePipeline = new HeartRatePipeline(heartRateMonitorRegistry);
+		RecordingListener recordingListener = new RecordingListener();
+		highPulseEvent.subscribe(heartRatePipeline
+				.dispatching(recordingListener));
+		heartRatePipeline.start();
+
+		// when
+		offer(1, 80, 1000);
+		offer(1, 120, 2000);
+		offer(1, 90, 3000);
+		heartRatePipeline.close();
+
+		// then
+		Assert.assertEquals("the high pulse should be dispatched",
+				Collections.singletonList(120.0), recordingListener.highPulses);
+		Assert.assertEquals("the listener should run on the dispatch stage",
+				Collections.singletonList("heart-rate-pipeline-dispatch"),
+				recordingListener.threadNames);
+		Assert.assertEquals("the event should run on the detect stage",
+				"heart-rate-pipeline-detect", highPulseEvent.threadName);
+		Assert.assertEquals(3, heartRateMonitorRegistry
+				.findHeartRateMonitor(1).getAllMeasuredHeartRates().size());
+	}
+
+	@Test
+	public void invalidAndOutOfOrderHeartRatesShouldBeRejected()
+			throws Exception {
+
+		// given
+		heartRatePipeline = new HeartRatePipeline(heartRateMonitorRegistry);
+		heartRatePipeline.start();
+
+		// when
+		offer(1, 70, 1000);
+		offer(1, Double.NaN, 2000);
+		offer(1, -1, 3000);
+		offer(1, 400, 4000);
+		offer(1, 75, 500);
+		offer(1, 80, 5000);
+		heartRatePipeline.close();
+
+		// then
+		HeartRateMonitor heartRateMonitor = heartRateMonitorRegistry
+				.findHeartRateMonitor(1);
+		Assert.assertEquals("only valid heart rates should be stored", 2,
+				heartRateMonitor.getAllMeasuredHeartRates().size());
+		Assert.assertEquals(80, heartRateMonitor.getLastHeartRate(), 0);
+		Assert.assertEquals(2, heartRatePipeline.getAcceptedHeartRates());
+		Assert.assertEquals(4, heartRatePipeline.getRejectedHeartRates());
+	}
+
+	@Test
+	public void eventsShouldSeeEveryHeartRateInOrder() throws Exception {
+
+		// given
+		int sensors = 4;
+		int heartRatesPerSensor = 10000;
+		SizeRecordingEvent[] events = new SizeRecordingEvent[sensors];
+		for (int sensorId = 0; sensorId < sensors; sensorId++) {
+			events[sensorId] = new SizeRecordingEvent();
+			heartRateMonitorRegistry.getHeartRateMonitor(sensorId).subscribe(
+					events[sensorId]);
+		}
+		heartRatePipeline = new HeartRatePipeline(heartRateMonitorRegistry,
+				64, 16, new HeartRatePipeline.StageThreadFactory() {
+					@Override
+					public Thread newThread(HeartRatePipeline.Stage stage,
+							Runnable runnable) {
+						return new Thread(runnable);
+					}
+				});
+		heartRatePipeline.start();
+
+		// when
+		for (int i = 0; i < heartRatesPerSensor; i++) {
+			for (int sensorId = 0; sensorId < sensors; sensorId++) {
+				offer(sensorId, 60 + i % 40, 1000L * i);
+			}
+		}
+		heartRatePipeline.close();
+
+		// then
+		for (int sensorId = 0; sensorId < sensors; sensorId++) {
+			Assert.assertEquals("every heart rate should be detected",
+					heartRatesPerSensor, events[sensorId].updates);
+			Assert.assertFalse(
+					"every update should see exactly one more heart rate",
+					events[sensorId].outOfOrder);
+		}
+	}
+
+	@Test
+	public void failingEventsAndListenersShouldNotStopThePipeline()
+			throws Exception {
+
+		// given
+		HighPulseEvent highPulseEvent = new HighPulseEvent(100);
+		heartRateMonitorRegistry.getHeartRateMonitor(1).subscribe(
+				highPulseEvent);
+		heartRateMonitorRegistry.getHeartRateMonitor(1).subscribe(
+				new FailingEvent());
+		heartRatePipeline = new HeartRatePipeline(heartRateMonitorRegistry);
+		RecordingListener recordingListener = new RecordingListener();
+		recordingListener.failures = 1;
+		highPulseEvent.subscribe(heartRatePipeline
+				.dispatching(recordingListener));
+		heartRatePipeline.start();
+
+		// when
+		offer(1, 120, 1000);
+		offer(1, 130, 2000);
+		offer(1, 140, 3000);
+		heartRatePipeline.close();
+
+		// then
+		Assert.assertEquals("the later heart rates should be dispatched",
+				Arrays.asList(130.0, 140.0), recordingListener.highPulses);
+		Assert.assertEquals(3, heartRateMonitorRegistry
+				.findHeartRateMonitor(1).getAllMeasuredHeartRates().size());
+	}
+
+	@Test
+	public void theThreadFactoryShouldCreateAThreadPerStage() {
+
+		// given
+		final List<HeartRatePipeline.Stage> stages = new ArrayList<HeartRatePipeline.Stage>();
+		heartRatePipeline = new HeartRatePipeline(heartRateMonitorRegistry,
+				64, 16, new HeartRatePipeline.StageThreadFactory() {
+					@Override
+					public Thread newThread(HeartRatePipeline.Stage stage,
+							Runnable runnable) {
+						stages.add(stage);
+						return new Thread(runnable);
+					}
+				});
+
+		// when
+		heartRatePipeline.start();
+
+		// then
+		Assert.assertEquals("the stages should be created in order",
+				Arrays.asList(HeartRatePipeline.Stage.values()), stages);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void heartRatesShouldNotBeAddedDirectlyWhilePipelined()
+			throws Exception {
+
+		// given
+		heartRatePipeline = new HeartRatePipeline(heartRateMonitorRegistry);
+		heartRatePipeline.start();
+		offer(1, 70, 1000);
+		HeartRateMonitor heartRateMonitor = heartRateMonitorRegistry
+				.getHeartRateMonitor(1);
+		while (heartRatePipeline.getAcceptedHeartRates() == 0) {
+			Thread.yield();
+		}
+
+		// when
+		heartRateMonitor.addHeartRate(80, 2000);
+	}
+
+	private void offer(int sensorId, double heartRate, long timestamp) {
+		while (!heartRatePipeline.offer(sensorId, heartRate, timestamp)) {
+			Thread.yield();
+		}
+	}
+
+	private static class HighPulseEvent extends AbstractHeartRateEvent {
+
+		private final double highHeartRate;
+		private volatile String threadName;
+
+		HighPulseEvent(double highHeartRate) {
+			this.highHeartRate = highHeartRate;
+		}
+
+		@Override
+		public void onUpdate(HeartRateMonitor heartRateMonitor) {
+			threadName = Thread.currentThread().getName();
+			double heartRate = heartRateMonitor.getLastHeartRate();
+			if (heartRate > highHeartRate) {
+				notifyOnHighPulse(heartRate);
+			}
+		}
+	}
+
+	private static class FailingEvent extends AbstractHeartRateEvent {
+
+		@Override
+		public void onUpdate(HeartRateMonitor heartRateMonitor) {
+			throw new IllegalStateException("failing event");
+		}
+	}
+
+	private static class SizeRecordingEvent extends AbstractHeartRateEvent {
+
+		private int updates;
+		private boolean outOfOrder;
+
+		@Override
+		public void onUpdate(HeartRateMonitor heartRateMonitor) {
+			updates++;
+			if (heartRateMonitor.getAllMeasuredHeartRates().size() != updates
+					|| heartRateMonitor.getLastTimestamp() != 1000L * (updates - 1)) {
+				outOfOrder = true;
+			}
+		}
+	}
+
+	private static class RecordingListener implements HeartRateListener {
+
+		private final List<Double> highPulses = new ArrayList<Double>();
+		private final List<String> threadNames = new ArrayList<String>();
+		private int failures;
+
+		@Override
+		public void onHighPulse(double pulse) {
+			if (failures > 0) {
+				failures--;
+				throw new IllegalStateException("failing listener");
+			}
+			highPulses.add(pulse);
+			threadNames.add(Thread.currentThread().getName());
+		}
+
+		@Override
+		public void onLowPulse(double pulse) {
+		}
+
+		@Override
+		public void onNoPulse() {
+		}
+
+		@Override
+		public void onDisconnected() {
+		}
+
+		@Override
+		public void onPulseIncreased(double startHeartRate,
+				double endHeartRate, long startTimestamp, long endTimestamp,
+				double increaseingPercantage) {
+		}
+
+		@Override
+		public void onPulseDecreased(double startHeartRate,
+				double endHeartRate, long startTimestamp, long endTimestamp,
+				double decreasingPercentage) {
+		}
+
+		@Override
+		public void onSubscribed() {
+		}
+
+		@Override
+		public void onUnsubscribed() {
+		}
+	}
+}
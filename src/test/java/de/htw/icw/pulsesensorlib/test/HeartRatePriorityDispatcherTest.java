@@ -0,0 +1,244 @@
+package de.htw.icw.pulsesensorlib.test;
+
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.AdditionalMatchers;
+
+import de.htw.icw.pulsesensorlib.HeartRateListener;
+import de.htw.icw.pulsesensorlib.HeartRatePriorityDispatcher;
+import de.htw.icw.pulsesensorlib.HeartRatePriorityDispatcher.Priority;
+
+public class HeartRatePriorityDispatcherTest {
+
+	private HeartRatePriorityDispatcher heartRatePriorityDispatcher;
+	private RecordingListener recordingListener = new RecordingListener();
+	private HeartRateListener dispatchingListener;
+
+	@After
+	public void tearDown() {
+		recordingListener.release.countDown();
+		if (heartRatePriorityDispatcher != null) {
+			heartRatePriorityDispatcher.close();
+		}
+	}
+
+	@Test
+	public void criticalCallbacksShouldJumpTheQueue() throws Exception {
+
+		// given a dispatcher which is busy with a callback
+		startBlockedDispatcher(16, 60000);
+
+		// when
+		for (int i = 0; i < 10; i++) {
+			dispatchingListener.onPulseIncreased(60, 80 + i, 0, 1000, 10);
+		}
+		dispatchingListener.onHighPulse(150);
+		dispatchingListener.onDisconnected();
+		recordingListener.release.countDown();
+		heartRatePriorityDispatcher.close();
+
+		// then
+		Assert.assertEquals("the critical callback should be first",
+				Arrays.asList("noPulse", "disconnected", "highPulse 150.0"),
+				recordingListener.callbacks.subList(0, 3));
+		Assert.assertEquals("all bulk callbacks should follow", 13,
+				recordingListener.callbacks.size());
+		Assert.assertEquals("the queue latency of every class is recorded", 2,
+				heartRatePriorityDispatcher.getQueueLatency(Priority.CRITICAL)
+						.getCount());
+		Assert.assertEquals(10, heartRatePriorityDispatcher
+				.getQueueLatency(Priority.BULK).getCount());
+	}
+
+	@Test
+	public void bulkCallbacksShouldBeCoalescedUnderPressure() throws Exception {
+
+		// given
+		startBlockedDispatcher(2, 60000);
+
+		// when
+		dispatchingListener.onPulseIncreased(60, 80, 0, 1000, 33);
+		dispatchingListener.onPulseDecreased(80, 60, 1000, 2000, 25);
+		dispatchingListener.onPulseIncreased(60, 90, 2000, 3000, 50);
+		dispatchingListener.onPulseIncreased(60, 95, 3000, 4000, 58);
+		recordingListener.release.countDown();
+		heartRatePriorityDispatcher.close();
+
+		// then
+		Assert.assertEquals("the pending callback should carry the latest values",
+				Arrays.asList("noPulse", "increased 95.0", "decreased 60.0"),
+				recordingListener.callbacks);
+		Assert.assertEquals(2,
+				heartRatePriorityDispatcher.getCoalescedCallbacks());
+		Assert.assertEquals(0,
+				heartRatePriorityDispatcher.getShedCallbacks(Priority.BULK));
+	}
+
+	@Test
+	public void coalescedCallbacksShouldKeepTheirStart() throws Exception {
+
+		// given
+		startBlockedDispatcher(2, 60000);
+		HeartRateListener mockHeartRateListener = mock(HeartRateListener.class);
+		HeartRateListener dispatchingMockListener = heartRatePriorityDispatcher
+				.dispatching(mockHeartRateListener);
+
+		// when
+		dispatchingMockListener.onPulseIncreased(60, 80, 0, 1000, 33);
+		dispatchingMockListener.onPulseDecreased(80, 60, 1000, 2000, 25);
+		dispatchingMockListener.onPulseIncreased(70, 90, 2000, 3000, 28);
+		recordingListener.release.countDown();
+		heartRatePriorityDispatcher.close();
+
+		// then
+		verify(mockHeartRateListener).onPulseIncreased(eq(60.0), eq(90.0),
+				eq(0L), eq(3000L), AdditionalMatchers.eq(50, 0.001));
+		verify(mockHeartRateListener).onPulseDecreased(80, 60, 1000, 2000, 25);
+	}
+
+	@Test
+	public void theOldestNormalCallbackShouldBeShedUnderPressure()
+			throws Exception {
+
+		// given
+		startBlockedDispatcher(2, 60000);
+
+		// when
+		dispatchingListener.onHighPulse(150);
+		dispatchingListener.onLowPulse(40);
+		dispatchingListener.onHighPulse(160);
+		recordingListener.release.countDown();
+		heartRatePriorityDispatcher.close();
+
+		// then
+		Assert.assertEquals(
+				Arrays.asList("noPulse", "lowPulse 40.0", "highPulse 160.0"),
+				recordingListener.callbacks);
+		Assert.assertEquals(1,
+				heartRatePriorityDispatcher.getShedCallbacks(Priority.NORMAL));
+	}
+
+	@Test
+	public void starvingCallbacksShouldBeDispatchedBeforeNormalOnes()
+			throws Exception {
+
+		// given a dispatcher which lets no callback wait
+		startBlockedDispatcher(16, 0);
+
+		// when
+		dispatchingListener.onPulseDecreased(80, 60, 1000, 2000, 25);
+		Thread.sleep(5);
+		dispatchingListener.onHighPulse(150);
+		recordingListener.release.countDown();
+		heartRatePriorityDispatcher.close();
+
+		// then
+		Assert.assertEquals("the older bulk callback should not be starved",
+				Arrays.asList("noPulse", "decreased 60.0", "highPulse 150.0"),
+				recordingListener.callbacks);
+	}
+
+	@Test
+	public void starvingCallbacksShouldNotDelayCriticalOnes() throws Exception {
+
+		// given a dispatcher which lets no callback wait
+		startBlockedDispatcher(16, 0);
+
+		// when
+		dispatchingListener.onPulseDecreased(80, 60, 1000, 2000, 25);
+		dispatchingListener.onHighPulse(150);
+		Thread.sleep(5);
+		dispatchingListener.onDisconnected();
+		recordingListener.release.countDown();
+		heartRatePriorityDispatcher.close();
+
+		// then
+		Assert.assertEquals("the critical callback should be first",
+				Arrays.asList("noPulse", "disconnected", "decreased 60.0",
+						"highPulse 150.0"), recordingListener.callbacks);
+	}
+
+	/**
+	 * starts a dispatcher whose thread blocks in the first callback until the
+	 * listener is released.
+	 */
+	private void startBlockedDispatcher(int laneCapacity,
+			long starvationBoundInMilliseconds) throws InterruptedException {
+		heartRatePriorityDispatcher = new HeartRatePriorityDispatcher(
+				laneCapacity, starvationBoundInMilliseconds);
+		dispatchingListener = heartRatePriorityDispatcher
+				.dispatching(recordingListener);
+		heartRatePriorityDispatcher.start();
+		dispatchingListener.onNoPulse();
+		recordingListener.blocked.await();
+	}
+
+	private static class RecordingListener implements HeartRateListener {
+
+		private final CountDownLatch blocked = new CountDownLatch(1);
+		private final CountDownLatch release = new CountDownLatch(1);
+		private final List<String> callbacks = Collections
+				.synchronizedList(new ArrayList<String>());
+
+		@Override
+		public void onHighPulse(double pulse) {
+			callbacks.add("highPulse " + pulse);
+		}
+
+		@Override
+		public void onLowPulse(double pulse) {
+			callbacks.add("lowPulse " + pulse);
+		}
+
+		@Override
+		public void onNoPulse() {
+			callbacks.add("noPulse");
+			if (blocked.getCount() > 0) {
+				blocked.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException ex) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+
+		@Override
+		public void onDisconnected() {
+			callbacks.add("disconnected");
+		}
+
+		@Override
+		public void onPulseIncreased(double startHeartRate,
+				double endHeartRate, long startTimestamp, long endTimestamp,
+				double increaseingPercantage) {
+			callbacks.add("increased " + endHeartRate);
+		}
+
+		@Override
+		public void onPulseDecreased(double startHeartRate,
+				double endHeartRate, long startTimestamp, long endTimestamp,
+				double decreasingPercentage) {
+			callbacks.add("decreased " + endHeartRate);
+		}
+
+		@Override
+		public void onSubscribed() {
+		}
+
+		@Override
+		public void onUnsubscribed() {
+		}
+	}
+}
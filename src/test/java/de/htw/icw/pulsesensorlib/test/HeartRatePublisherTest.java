@@ -0,0 +1,203 @@
+package de.htw.icw.pulsesensorlib.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import de.htw.icw.pulsesensorlib.DefaultHeartRateEvent;
+import de.htw.icw.pulsesensorlib.DefaultHeartRateMonitor;
+import de.htw.icw.pulsesensorlib.HeartRateAlert;
+import de.htw.icw.pulsesensorlib.HeartRateAlertPublisher;
+import de.htw.icw.pulsesensorlib.HeartRateMonitor;
+import de.htw.icw.pulsesensorlib.HeartRateOverflowStrategy;
+import de.htw.icw.pulsesensorlib.HeartRateSample;
+import de.htw.icw.pulsesensorlib.HeartRateSamplePublisher;
+import de.htw.icw.pulsesensorlib.NoNegativeHeartRatesPossibleException;
+
+public class HeartRatePublisherTest {
+
+	@Test
+	public void onlyRequestedHeartRatesShouldBeDelivered()
+			throws NoNegativeHeartRatesPossibleException {
+
+		// given
+		HeartRateMonitor heartRateMonitor = new DefaultHeartRateMonitor();
+		HeartRateSamplePublisher heartRateSamplePublisher = new HeartRateSamplePublisher(
+				heartRateMonitor, 10, HeartRateOverflowStrategy.DROP_OLDEST);
+		RecordingSubscriber<HeartRateSample> subscriber = new RecordingSubscriber<HeartRateSample>();
+		heartRateSamplePublisher.subscribe(subscriber);
+
+		// when
+		subscriber.subscription.request(2);
+		for (int i = 0; i < 5; i++) {
+			heartRateMonitor.addHeartRate(60 + i, i);
+		}
+
+		// then
+		Assert.assertEquals("only the requested heart rates should be delivered",
+				2, subscriber.items.size());
+		Assert.assertEquals(new HeartRateSample(61, 1), subscriber.items.get(1));
+
+		subscriber.subscription.request(10);
+		Assert.assertEquals("the buffered heart rates should be delivered later",
+				5, subscriber.items.size());
+	}
+
+	@Test
+	public void theOldestHeartRatesShouldBeDroppedIfTheBufferIsFull()
+			throws NoNegativeHeartRatesPossibleException {
+
+		// given
+		HeartRateMonitor heartRateMonitor = new DefaultHeartRateMonitor();
+		HeartRateSamplePublisher heartRateSamplePublisher = new HeartRateSamplePublisher(
+				heartRateMonitor, 2, HeartRateOverflowStrategy.DROP_OLDEST);
+		RecordingSubscriber<HeartRateSample> subscriber = new RecordingSubscriber<HeartRateSample>();
+		heartRateSamplePublisher.subscribe(subscriber);
+
+		// when
+		for (int i = 0; i < 5; i++) {
+			heartRateMonitor.addHeartRate(60 + i, i);
+		}
+		subscriber.subscription.request(Long.MAX_VALUE);
+
+		// then
+		Assert.assertEquals("only the last two heart rates should be left", 2,
+				subscriber.items.size());
+		Assert.assertEquals(new HeartRateSample(63, 3), subscriber.items.get(0));
+		Assert.assertEquals(new HeartRateSample(64, 4), subscriber.items.get(1));
+	}
+
+	@Test
+	public void aConflatingPublisherShouldOnlyKeepTheLatestHeartRate()
+			throws NoNegativeHeartRatesPossibleException {
+
+		// given
+		HeartRateMonitor heartRateMonitor = new DefaultHeartRateMonitor();
+		HeartRateSamplePublisher heartRateSamplePublisher = new HeartRateSamplePublisher(
+				heartRateMonitor, 100, HeartRateOverflowStrategy.CONFLATE);
+		RecordingSubscriber<HeartRateSample> subscriber = new RecordingSubscriber<HeartRateSample>();
+		heartRateSamplePublisher.subscribe(subscriber);
+
+		// when
+		for (int i = 0; i < 5; i++) {
+			heartRateMonitor.addHeartRate(60 + i, i);
+		}
+		subscriber.subscription.request(10);
+
+		// then
+		Assert.assertEquals("only the latest heart rate should be delivered", 1,
+				subscriber.items.size());
+		Assert.assertEquals(new HeartRateSample(64, 4), subscriber.items.get(0));
+	}
+
+	@Test
+	public void aFailingPublisherShouldSignalAnErrorOnOverflow()
+			throws NoNegativeHeartRatesPossibleException {
+
+		// given
+		HeartRateMonitor heartRateMonitor = new DefaultHeartRateMonitor();
+		HeartRateSamplePublisher heartRateSamplePublisher = new HeartRateSamplePublisher(
+				heartRateMonitor, 2, HeartRateOverflowStrategy.FAIL);
+		RecordingSubscriber<HeartRateSample> subscriber = new RecordingSubscriber<HeartRateSample>();
+		heartRateSamplePublisher.subscribe(subscriber);
+
+		// when
+		for (int i = 0; i < 3; i++) {
+			heartRateMonitor.addHeartRate(60 + i, i);
+		}
+
+		// then
+		Assert.assertNotNull("the subscriber should receive an error",
+				subscriber.error);
+		Assert.assertEquals("the subscription should be removed", 0,
+				heartRateSamplePublisher.getNumberOfSubscriptions());
+	}
+
+	@Test
+	public void closingThePublisherShouldCompleteAfterTheBufferedItems()
+			throws NoNegativeHeartRatesPossibleException {
+
+		// given
+		DefaultHeartRateEvent heartRateEvent = new DefaultHeartRateEvent(100,
+				50, 5000, 10000, 50);
+		HeartRateMonitor heartRateMonitor = new DefaultHeartRateMonitor();
+		heartRateMonitor.subscribe(heartRateEvent);
+		HeartRateAlertPublisher heartRateAlertPublisher = new HeartRateAlertPublisher(
+				heartRateEvent, 10, HeartRateOverflowStrategy.DROP_OLDEST);
+		RecordingSubscriber<HeartRateAlert> subscriber = new RecordingSubscriber<HeartRateAlert>();
+		heartRateAlertPublisher.subscribe(subscriber);
+
+		// when
+		heartRateMonitor.addHeartRate(110, 0);
+		heartRateAlertPublisher.close();
+
+		// then
+		Assert.assertFalse("the subscriber should not be completed before it received the buffered alerts",
+				subscriber.completed);
+		subscriber.subscription.request(1);
+		Assert.assertEquals(HeartRateAlert.Type.HIGH_PULSE,
+				subscriber.items.get(0).getType());
+		Assert.assertTrue("the subscriber should be completed",
+				subscriber.completed);
+	}
+
+	@Test
+	public void aSubscriberShouldBeCompletedIfThePublisherIsClosedMeanwhile()
+			throws InterruptedException {
+
+		for (int i = 0; i < 10000; i++) {
+			// given
+			final HeartRateSamplePublisher heartRateSamplePublisher = new HeartRateSamplePublisher(
+					new DefaultHeartRateMonitor(), 10,
+					HeartRateOverflowStrategy.DROP_OLDEST);
+			RecordingSubscriber<HeartRateSample> subscriber = new RecordingSubscriber<HeartRateSample>();
+			Thread closingThread = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					heartRateSamplePublisher.close();
+				}
+			});
+
+			// when
+			closingThread.start();
+			heartRateSamplePublisher.subscribe(subscriber);
+			closingThread.join();
+
+			// then
+			Assert.assertTrue("the subscriber should be completed after "
+					+ i + " runs", subscriber.completed);
+		}
+	}
+
+	private static class RecordingSubscriber<T> implements Subscriber<T> {
+
+		private Subscription subscription;
+		private List<T> items = new ArrayList<T>();
+		private Throwable error;
+		private volatile boolean completed;
+
+		@Override
+		public void onSubscribe(Subscription subscription) {
+			this.subscription = subscription;
+		}
+
+		@Override
+		public void onNext(T item) {
+			items.add(item);
+		}
+
+		@Override
+		public void onError(Throwable throwable) {
+			error = throwable;
+		}
+
+		@Override
+		public void onComplete() {
+			completed = true;
+		}
+	}
+}
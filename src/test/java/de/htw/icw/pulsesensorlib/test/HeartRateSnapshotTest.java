@@ -0,0 +1,173 @@
+package de.htw.icw.pulsesensorlib.test;
+
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import de.htw.icw.pulsesensorlib.DefaultHeartRateEvent;
+import de.htw.icw.pulsesensorlib.DefaultHeartRateMonitor;
+import de.htw.icw.pulsesensorlib.HeartRateListener;
+import de.htw.icw.pulsesensorlib.HeartRateMonitor;
+import de.htw.icw.pulsesensorlib.HeartRateMonitorFactory;
+import de.htw.icw.pulsesensorlib.HeartRateMonitorRegistry;
+import de.htw.icw.pulsesensorlib.HeartRateSnapshot;
+import de.htw.icw.pulsesensorlib.NoNegativeHeartRatesPossibleException;
+import de.htw.icw.pulsesensorlib.PulseWaveBeatDetector;
+
+@RunWith(MockitoJUnitRunner.class)
+public class HeartRateSnapshotTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Mock
+	private HeartRateListener mockHeartRateListener;
+
+	@Test
+	public void restoredMonitorsShouldContainTheHeartRatesOfTheSnapshot()
+			throws Exception {
+
+		// given
+		HeartRateMonitorRegistry heartRateMonitorRegistry = new HeartRateMonitorRegistry();
+		for (int sensorId = 0; sensorId < 50; sensorId++) {
+			HeartRateMonitor heartRateMonitor = heartRateMonitorRegistry
+					.getHeartRateMonitor(sensorId);
+			for (int i = 0; i < sensorId * 100; i++) {
+				heartRateMonitor.addHeartRate(60 + i % 40 + sensorId / 10.0,
+						1000L * i);
+			}
+		}
+		File file = temporaryFolder.newFile("monitors.snapshot");
+
+		// when
+		HeartRateSnapshot.write(file, heartRateMonitorRegistry);
+
+		HeartRateMonitorRegistry restoredHeartRateMonitorRegistry = new HeartRateMonitorRegistry();
+		HeartRateSnapshot.restore(file, restoredHeartRateMonitorRegistry);
+
+		// then
+		Assert.assertEquals("all monitors should be restored", 50,
+				restoredHeartRateMonitorRegistry.size());
+		for (int sensorId = 0; sensorId < 50; sensorId++) {
+			HeartRateMonitor expected = heartRateMonitorRegistry
+					.findHeartRateMonitor(sensorId);
+			HeartRateMonitor actual = restoredHeartRateMonitorRegistry
+					.findHeartRateMonitor(sensorId);
+			Assert.assertEquals("the heart rates should be restored",
+					expected.getAllMeasuredHeartRates(),
+					actual.getAllMeasuredHeartRates());
+			Assert.assertEquals("the timestamps should be restored",
+					expected.getAllMeasuredTimestamps(),
+					actual.getAllMeasuredTimestamps());
+		}
+	}
+
+	@Test
+	public void eventsShouldBeWarmButNotNotifiedAfterRestoring()
+			throws Exception {
+
+		// given
+		HeartRateMonitorRegistry heartRateMonitorRegistry = new HeartRateMonitorRegistry();
+		HeartRateMonitor heartRateMonitor = heartRateMonitorRegistry
+				.getHeartRateMonitor(1);
+		int heartRate = 60;
+		for (int i = 0; i < 10000; i += 1000) {
+			heartRateMonitor.addHeartRate(heartRate, i);
+			heartRate += 3;
+		}
+		File file = temporaryFolder.newFile("monitors.snapshot");
+		HeartRateSnapshot.write(file, heartRateMonitorRegistry);
+
+		// when
+		HeartRateMonitorRegistry restoredHeartRateMonitorRegistry = new HeartRateMonitorRegistry(
+				new HeartRateMonitorFactory() {
+					@Override
+					public HeartRateMonitor createHeartRateMonitor(int sensorId) {
+						DefaultHeartRateEvent heartRateEvent = new DefaultHeartRateEvent(
+								120, 50, 5000, 10000, 50);
+						heartRateEvent.subscribe(mockHeartRateListener);
+
+						HeartRateMonitor heartRateMonitor = new DefaultHeartRateMonitor();
+						heartRateMonitor.subscribe(heartRateEvent);
+						return heartRateMonitor;
+					}
+				});
+		HeartRateSnapshot.restore(file, restoredHeartRateMonitorRegistry);
+
+		// then
+		verify(mockHeartRateListener, never()).onHighPulse(90);
+
+		// the observation window already contains the restored heart rates
+		try {
+			restoredHeartRateMonitorRegistry.findHeartRateMonitor(1)
+					.addHeartRate(heartRate, 10000);
+		} catch (NoNegativeHeartRatesPossibleException ex) {
+			fail(ex.getMessage());
+		}
+		verify(mockHeartRateListener).onPulseIncreased(60, 90, 0, 10000, 50);
+	}
+
+	@Test
+	public void aRestoredBeatDetectorShouldContinueWhereItLeftOff()
+			throws Exception {
+
+		// given
+		HeartRateMonitorRegistry heartRateMonitorRegistry = new HeartRateMonitorRegistry();
+		PulseWaveBeatDetector beatDetector = new PulseWaveBeatDetector(
+				heartRateMonitorRegistry.getHeartRateMonitor(1), 500);
+		int[] samples = pulseWave(60, 20000);
+		beatDetector.process(samples, 0, samples.length / 2, 0);
+
+		Map<Integer, PulseWaveBeatDetector> beatDetectors = new HashMap<Integer, PulseWaveBeatDetector>();
+		beatDetectors.put(1, beatDetector);
+		File file = temporaryFolder.newFile("detectors.snapshot");
+		HeartRateSnapshot.write(file, heartRateMonitorRegistry, beatDetectors);
+
+		// when
+		HeartRateMonitorRegistry restoredHeartRateMonitorRegistry = new HeartRateMonitorRegistry();
+		PulseWaveBeatDetector restoredBeatDetector = new PulseWaveBeatDetector(
+				restoredHeartRateMonitorRegistry.getHeartRateMonitor(1), 500);
+		Map<Integer, PulseWaveBeatDetector> restoredBeatDetectors = new HashMap<Integer, PulseWaveBeatDetector>();
+		restoredBeatDetectors.put(1, restoredBeatDetector);
+		HeartRateSnapshot.restore(file, restoredHeartRateMonitorRegistry,
+				restoredBeatDetectors);
+
+		int before = restoredHeartRateMonitorRegistry.findHeartRateMonitor(1)
+				.getAllMeasuredHeartRates().size();
+		restoredBeatDetector.process(samples, samples.length / 2, 500, 10000);
+
+		// then
+		Assert.assertEquals("the detected beats should be restored",
+				beatDetector.getDetectedBeats() + 1,
+				restoredBeatDetector.getDetectedBeats());
+		Assert.assertEquals("the first beat after restoring should have a heart rate",
+				before + 1, restoredHeartRateMonitorRegistry
+						.findHeartRateMonitor(1).getAllMeasuredHeartRates()
+						.size());
+		Assert.assertEquals("the heart rate should be detected", 60,
+				restoredHeartRateMonitorRegistry.findHeartRateMonitor(1)
+						.getLastHeartRate(), 1);
+	}
+
+	private int[] pulseWave(double beatsPerMinute, int durationInMs) {
+		int[] samples = new int[durationInMs / 2];
+		for (int i = 0; i < samples.length; i++) {
+			double phase = (i / 500.0 * beatsPerMinute / 60) % 1;
+			samples[i] = (int) Math.round(512 + 150 * Math.exp(-Math.pow(
+					(phase - 0.2) / 0.05, 2)));
+		}
+		return samples;
+	}
+}
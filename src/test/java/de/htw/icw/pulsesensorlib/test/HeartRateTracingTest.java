@@ -0,0 +1,117 @@
+package de.htw.icw.pulsesensorlib.test;
+
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import de.htw.icw.pulsesensorlib.DefaultHeartRateEvent;
+import de.htw.icw.pulsesensorlib.DefaultHeartRateMonitor;
+import de.htw.icw.pulsesensorlib.HeartRateAlert;
+import de.htw.icw.pulsesensorlib.HeartRateListener;
+import de.htw.icw.pulsesensorlib.HeartRateMonitorRegistry;
+import de.htw.icw.pulsesensorlib.HeartRateTracer;
+import de.htw.icw.pulsesensorlib.HeartRateTracing;
+import de.htw.icw.pulsesensorlib.NoNegativeHeartRatesPossibleException;
+
+public class HeartRateTracingTest {
+
+	private static final int SENSOR_ID = 7;
+
+	private HeartRateTracer tracer;
+	private HeartRateListener heartRateListener;
+	private DefaultHeartRateEvent heartRateEvent;
+
+	@Before
+	public void setUp() {
+		tracer = mock(HeartRateTracer.class);
+		heartRateListener = mock(HeartRateListener.class);
+		heartRateEvent = new DefaultHeartRateEvent(100, 40, 5000, 10000, 20);
+		heartRateEvent.subscribe(heartRateListener);
+	}
+
+	@After
+	public void tearDown() {
+		HeartRateTracing.setTracer(null);
+	}
+
+	@Test
+	public void everyStepOfAHeartRateShouldBeTraced()
+			throws NoNegativeHeartRatesPossibleException {
+
+		// given
+		HeartRateMonitorRegistry registry = new HeartRateMonitorRegistry();
+		DefaultHeartRateMonitor heartRateMonitor = (DefaultHeartRateMonitor) registry
+				.getHeartRateMonitor(SENSOR_ID);
+		heartRateMonitor.subscribe(heartRateEvent);
+		HeartRateTracing.setTracer(tracer);
+
+		// when
+		heartRateMonitor.addHeartRate(150, 1000);
+
+		// then
+		Assert.assertEquals("the registry should set the sensor id",
+				SENSOR_ID, heartRateMonitor.getSensorId());
+		verify(tracer).onHeartRateAdded(eq(SENSOR_ID), eq(1000L), anyLong(),
+				anyLong());
+		verify(tracer, atLeastOnce()).onWindowLookedUp(eq(SENSOR_ID),
+				eq(1000L), anyLong());
+		for (HeartRateAlert.Type type : new HeartRateAlert.Type[] {
+				HeartRateAlert.Type.PULSE_INCREASED,
+				HeartRateAlert.Type.PULSE_DECREASED,
+				HeartRateAlert.Type.HIGH_PULSE, HeartRateAlert.Type.LOW_PULSE,
+				HeartRateAlert.Type.NO_PULSE }) {
+			verify(tracer).onDetectorEvaluated(eq(SENSOR_ID), eq(1000L),
+					eq(type), anyLong());
+		}
+		verify(heartRateListener).onHighPulse(150);
+		verify(tracer).onListenerCalled(eq(SENSOR_ID), eq(1000L),
+				eq(heartRateListener), eq(HeartRateAlert.Type.HIGH_PULSE),
+				anyLong());
+	}
+
+	@Test
+	public void unregisteredMonitorsShouldBeTracedWithoutSensorId()
+			throws NoNegativeHeartRatesPossibleException {
+
+		// given
+		DefaultHeartRateMonitor heartRateMonitor = new DefaultHeartRateMonitor();
+		heartRateMonitor.subscribe(heartRateEvent);
+		HeartRateTracing.setTracer(tracer);
+
+		// when
+		heartRateMonitor.addHeartRate(80, 2000);
+
+		// then
+		verify(tracer).onHeartRateAdded(eq(-1), eq(2000L), anyLong(),
+				anyLong());
+		verify(tracer).onDetectorEvaluated(eq(-1), eq(2000L),
+				eq(HeartRateAlert.Type.HIGH_PULSE), anyLong());
+	}
+
+	@Test
+	public void nothingShouldBeTracedWhenTracingIsOff()
+			throws NoNegativeHeartRatesPossibleException {
+
+		// given
+		DefaultHeartRateMonitor heartRateMonitor = new DefaultHeartRateMonitor();
+		heartRateMonitor.subscribe(heartRateEvent);
+		HeartRateTracing.setTracer(tracer);
+		HeartRateTracing.setTracer(null);
+
+		// when
+		heartRateMonitor.addHeartRate(150, 1000);
+
+		// then
+		Assert.assertNull(HeartRateTracing.getTracer());
+		verify(heartRateListener).onHighPulse(150);
+		verifyZeroInteractions(tracer);
+	}
+}
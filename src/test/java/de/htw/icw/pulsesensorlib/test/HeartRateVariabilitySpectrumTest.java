@@ -0,0 +1,168 @@
+package de.htw.icw.pulsesensorlib.test;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.htw.icw.pulsesensorlib.DefaultHeartRateMonitor;
+import de.htw.icw.pulsesensorlib.HeartRateMonitor;
+import de.htw.icw.pulsesensorlib.HeartRateVariabilitySpectrum;
+import de.htw.icw.pulsesensorlib.NoNegativeHeartRatesPossibleException;
+import de.htw.icw.pulsesensorlib.RealFft;
+
+public class HeartRateVariabilitySpectrumTest {
+
+	@Test
+	public void theFftShouldMatchADiscreteFourierTransform() {
+
+		// given
+		Random random = new Random(42);
+		int size = 64;
+		double[] values = new double[size];
+		for (int i = 0; i < size; i++) {
+			values[i] = random.nextGaussian();
+		}
+		double[] data = values.clone();
+		RealFft fft = RealFft.forSize(size);
+
+		// when
+		fft.transform(data);
+
+		// then
+		for (int bin = 0; bin <= size / 2; bin++) {
+			double re = 0;
+			double im = 0;
+			for (int i = 0; i < size; i++) {
+				re += values[i] * Math.cos(2 * Math.PI * bin * i / size);
+				im -= values[i] * Math.sin(2 * Math.PI * bin * i / size);
+			}
+			if (bin == 0) {
+				Assert.assertEquals("bin 0", re, data[0], 1e-9);
+			} else if (bin == size / 2) {
+				Assert.assertEquals("bin n/2", re, data[1], 1e-9);
+			} else {
+				Assert.assertEquals("re of bin " + bin, re, data[2 * bin], 1e-9);
+				Assert.assertEquals("im of bin " + bin, im,
+						data[2 * bin + 1], 1e-9);
+			}
+		}
+		Assert.assertSame("plans should be cached", fft, RealFft.forSize(size));
+	}
+
+	@Test
+	public void aSlowOscillationShouldHaveAHighRatio() throws Exception {
+
+		// given beat intervals oscillating with 0.1 Hz
+		HeartRateMonitor heartRateMonitor = createMonitor(0.1, 120000);
+		HeartRateVariabilitySpectrum spectrum = new HeartRateVariabilitySpectrum(
+				256);
+
+		// when
+		boolean computed = spectrum.update(heartRateMonitor);
+
+		// then
+		Assert.assertTrue("the window should be covered", computed);
+		Assert.assertTrue("the low frequency band should dominate",
+				spectrum.getLowToHighFrequencyRatio() > 10);
+	}
+
+	@Test
+	public void aRespiratoryOscillationShouldHaveALowRatio() throws Exception {
+
+		// given beat intervals oscillating with 0.25 Hz
+		HeartRateMonitor heartRateMonitor = createMonitor(0.25, 120000);
+		HeartRateVariabilitySpectrum spectrum = new HeartRateVariabilitySpectrum(
+				256);
+
+		// when
+		spectrum.update(heartRateMonitor);
+
+		// then
+		Assert.assertTrue("the high frequency band should dominate",
+				spectrum.getLowToHighFrequencyRatio() < 0.1);
+		// the linear interpolation between the beats attenuates the oscillation
+		double power = 50 * 50 / 2.0;
+		Assert.assertTrue("the power should be about half the squared amplitude",
+				spectrum.getHighFrequencyPower() > 0.7 * power
+						&& spectrum.getHighFrequencyPower() < 1.05 * power);
+	}
+
+	@Test
+	public void slidingUpdatesShouldMatchAFreshAnalysis() throws Exception {
+
+		// given
+		HeartRateMonitor heartRateMonitor = createMonitor(0.1, 180000);
+		HeartRateVariabilitySpectrum sliding = new HeartRateVariabilitySpectrum(
+				256);
+
+		// when the window slides once per second
+		for (long end = 60000; end <= 170000; end += 1000) {
+			sliding.update(heartRateMonitor, end);
+		}
+		HeartRateVariabilitySpectrum fresh = new HeartRateVariabilitySpectrum(
+				256);
+		fresh.update(heartRateMonitor, 170000);
+
+		// then
+		for (int bin = 0; bin < fresh.getNumberOfBins(); bin++) {
+			Assert.assertEquals("bin " + bin,
+					fresh.getPowerSpectralDensity(bin),
+					sliding.getPowerSpectralDensity(bin), 1e-6);
+		}
+	}
+
+	@Test
+	public void aLinearTrendShouldBeRemoved() throws Exception {
+
+		// given beat intervals slowing down from 600 to about 1000 ms
+		HeartRateMonitor heartRateMonitor = new DefaultHeartRateMonitor();
+		for (long time = 0; time < 120000; time += 250) {
+			heartRateMonitor.addHeartRate(60000 / (600 + time / 300.0), time);
+		}
+		HeartRateVariabilitySpectrum spectrum = new HeartRateVariabilitySpectrum(
+				256);
+
+		// when
+		spectrum.update(heartRateMonitor);
+
+		// then
+		Assert.assertEquals("the trend should not leak into the bands", 0,
+				spectrum.getLowFrequencyPower() + spectrum.getHighFrequencyPower(),
+				1e-6);
+	}
+
+	@Test
+	public void aShortHistoryShouldNotBeAnalyzed() throws Exception {
+
+		// given 30 s of heart rates for a 64 s window
+		HeartRateMonitor heartRateMonitor = createMonitor(0.1, 30000);
+		HeartRateVariabilitySpectrum spectrum = new HeartRateVariabilitySpectrum(
+				256);
+
+		// when
+		boolean computed = spectrum.update(heartRateMonitor);
+
+		// then
+		Assert.assertFalse(computed);
+		Assert.assertTrue(Double.isNaN(spectrum.getLowFrequencyPower()));
+	}
+
+	/**
+	 * adds a heart rate at every beat, the beat intervals oscillate around 800
+	 * ms with an amplitude of 50 ms.
+	 */
+	private HeartRateMonitor createMonitor(double frequencyInHz,
+			long durationInMilliseconds)
+			throws NoNegativeHeartRatesPossibleException {
+		HeartRateMonitor heartRateMonitor = new DefaultHeartRateMonitor();
+		double time = 1000;
+		while (time < durationInMilliseconds) {
+			double beatInterval = 800 + 50 * Math.sin(2 * Math.PI
+					* frequencyInHz * time / 1000);
+			heartRateMonitor.addHeartRate(60000 / beatInterval, (long) time);
+			time += beatInterval;
+		}
+		return heartRateMonitor;
+	}
+}
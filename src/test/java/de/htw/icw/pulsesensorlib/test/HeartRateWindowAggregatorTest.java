@@ -0,0 +1,142 @@
+package de.htw.icw.pulsesensorlib.test;
+
+import static org.mockito.Matchers.anyDouble;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import de.htw.icw.pulsesensorlib.DefaultHeartRateMonitor;
+import de.htw.icw.pulsesensorlib.HeartRateMonitor;
+import de.htw.icw.pulsesensorlib.HeartRateWindowAggregator;
+import de.htw.icw.pulsesensorlib.HeartRateWindowListener;
+import de.htw.icw.pulsesensorlib.NoNegativeHeartRatesPossibleException;
+
+@RunWith(MockitoJUnitRunner.class)
+public class HeartRateWindowAggregatorTest {
+
+	private static final long MINUTE = 60 * 1000;
+
+	@Mock
+	private HeartRateWindowListener mockWindowListener;
+
+	@Test
+	public void aTumblingWindowShouldBeClosedByTheFirstHeartRateAfterIt()
+			throws NoNegativeHeartRatesPossibleException {
+
+		// given
+		HeartRateWindowAggregator heartRateWindowAggregator = new HeartRateWindowAggregator(
+				MINUTE);
+		heartRateWindowAggregator.addWindowListener(mockWindowListener);
+		HeartRateMonitor heartRateMonitor = new DefaultHeartRateMonitor();
+		heartRateMonitor.subscribe(heartRateWindowAggregator);
+
+		// when
+		heartRateMonitor.addHeartRate(60, 0);
+		heartRateMonitor.addHeartRate(90, 20000);
+		heartRateMonitor.addHeartRate(75, 59999);
+		verify(mockWindowListener, never()).onWindowClosed(anyLong(),
+				anyLong(), anyInt(), anyDouble(), anyDouble(), anyDouble(),
+				anyDouble());
+		heartRateMonitor.addHeartRate(100, MINUTE);
+
+		// then
+		verify(mockWindowListener, times(1)).onWindowClosed(0, MINUTE, 3, 60,
+				90, 75, 75);
+	}
+
+	@Test
+	public void hoppingWindowsShouldCombineTheirSlides() {
+
+		// given five minute windows every minute
+		HeartRateWindowAggregator heartRateWindowAggregator = new HeartRateWindowAggregator(
+				5 * MINUTE, MINUTE);
+		heartRateWindowAggregator.addWindowListener(mockWindowListener);
+
+		// when a heart rate is added per minute
+		for (int minute = 0; minute < 7; minute++) {
+			heartRateWindowAggregator.add(60 + minute, minute * MINUTE);
+		}
+
+		// then
+		InOrder inOrder = inOrder(mockWindowListener);
+		inOrder.verify(mockWindowListener).onWindowClosed(-4 * MINUTE, MINUTE,
+				1, 60, 60, 60, 60);
+		inOrder.verify(mockWindowListener).onWindowClosed(-3 * MINUTE,
+				2 * MINUTE, 2, 60, 61, 60.5, 61);
+		inOrder.verify(mockWindowListener).onWindowClosed(-2 * MINUTE,
+				3 * MINUTE, 3, 60, 62, 61, 62);
+		inOrder.verify(mockWindowListener).onWindowClosed(-MINUTE,
+				4 * MINUTE, 4, 60, 63, 61.5, 63);
+		inOrder.verify(mockWindowListener).onWindowClosed(0, 5 * MINUTE, 5,
+				60, 64, 62, 64);
+		inOrder.verify(mockWindowListener).onWindowClosed(MINUTE,
+				6 * MINUTE, 5, 61, 65, 63, 65);
+		inOrder.verifyNoMoreInteractions();
+	}
+
+	@Test
+	public void emptyWindowsShouldBeSkipped() {
+
+		// given
+		HeartRateWindowAggregator heartRateWindowAggregator = new HeartRateWindowAggregator(
+				2 * MINUTE, MINUTE);
+		heartRateWindowAggregator.addWindowListener(mockWindowListener);
+		heartRateWindowAggregator.add(70, 0);
+
+		// when the next heart rate is a day later
+		heartRateWindowAggregator.add(80, 24 * 60 * MINUTE);
+		heartRateWindowAggregator.advanceTo(24 * 60 * MINUTE + 2 * MINUTE);
+
+		// then
+		InOrder inOrder = inOrder(mockWindowListener);
+		inOrder.verify(mockWindowListener).onWindowClosed(-MINUTE, MINUTE, 1,
+				70, 70, 70, 70);
+		inOrder.verify(mockWindowListener).onWindowClosed(0, 2 * MINUTE, 1,
+				70, 70, 70, 70);
+		inOrder.verify(mockWindowListener).onWindowClosed(
+				24 * 60 * MINUTE - MINUTE, 24 * 60 * MINUTE + MINUTE, 1, 80,
+				80, 80, 80);
+		inOrder.verify(mockWindowListener).onWindowClosed(24 * 60 * MINUTE,
+				24 * 60 * MINUTE + 2 * MINUTE, 1, 80, 80, 80, 80);
+		inOrder.verifyNoMoreInteractions();
+	}
+
+	@Test
+	public void heartRatesOfClosedWindowsShouldBeDropped() {
+
+		// given
+		HeartRateWindowAggregator heartRateWindowAggregator = new HeartRateWindowAggregator(
+				MINUTE);
+		heartRateWindowAggregator.addWindowListener(mockWindowListener);
+		heartRateWindowAggregator.add(70, 30000);
+		heartRateWindowAggregator.add(80, 70000);
+
+		// when
+		heartRateWindowAggregator.add(200, 50000);
+		heartRateWindowAggregator.add(90, 65000);
+		heartRateWindowAggregator.advanceTo(2 * MINUTE);
+
+		// then
+		Assert.assertEquals("the heart rate of the closed window is late", 1,
+				heartRateWindowAggregator.getLateHeartRates());
+		verify(mockWindowListener).onWindowClosed(0, MINUTE, 1, 70, 70, 70,
+				70);
+		verify(mockWindowListener).onWindowClosed(MINUTE, 2 * MINUTE, 2, 80,
+				90, 85, 90);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void theWindowSizeShouldBeAMultipleOfTheSlide() {
+		new HeartRateWindowAggregator(5 * MINUTE, 2 * MINUTE);
+	}
+}
@@ -0,0 +1,81 @@
+package de.htw.icw.pulsesensorlib.test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.htw.icw.pulsesensorlib.LatencyHistogram;
+
+public class LatencyHistogramTest {
+
+	@Test
+	public void percentilesShouldBeWithinOnePercent() {
+
+		// given
+		Random random = new Random(42);
+		long[] values = new long[100000];
+		LatencyHistogram latencyHistogram = new LatencyHistogram();
+
+		// when
+		for (int i = 0; i < values.length; i++) {
+			// log normal, like latencies
+			values[i] = (long) Math.exp(10 + 2 * random.nextGaussian());
+			latencyHistogram.record(values[i]);
+		}
+
+		// then
+		Arrays.sort(values);
+		for (double percentile : new double[] { 0, 50, 90, 99, 99.9, 100 }) {
+			long expected = values[Math.max(0,
+					(int) Math.ceil(percentile / 100 * values.length) - 1)];
+			long actual = latencyHistogram.getValueAtPercentile(percentile);
+			Assert.assertTrue("p" + percentile + " should be at least "
+					+ expected + " but was " + actual, actual >= expected);
+			Assert.assertTrue("p" + percentile + " should be at most 1% above "
+					+ expected + " but was " + actual,
+					actual <= expected * 1.01);
+		}
+		Assert.assertEquals(values[0], latencyHistogram.getMinimum());
+		Assert.assertEquals(values[values.length - 1],
+				latencyHistogram.getMaximum());
+	}
+
+	@Test
+	public void smallValuesShouldBeExact() {
+
+		// given
+		LatencyHistogram latencyHistogram = new LatencyHistogram();
+
+		// when
+		for (int i = 1; i <= 100; i++) {
+			latencyHistogram.record(i);
+		}
+
+		// then
+		Assert.assertEquals(50, latencyHistogram.getValueAtPercentile(50));
+		Assert.assertEquals(99, latencyHistogram.getValueAtPercentile(99));
+		Assert.assertEquals(50.5, latencyHistogram.getMean(), 1e-9);
+	}
+
+	@Test
+	public void addedHistogramsShouldCountAllValues() {
+
+		// given
+		LatencyHistogram first = new LatencyHistogram();
+		LatencyHistogram second = new LatencyHistogram();
+		first.record(1000);
+		second.record(Long.MAX_VALUE);
+		second.record(3);
+
+		// when
+		first.add(second);
+
+		// then
+		Assert.assertEquals(3, first.getCount());
+		Assert.assertEquals(3, first.getMinimum());
+		Assert.assertEquals(Long.MAX_VALUE, first.getValueAtPercentile(100));
+		Assert.assertEquals(1000, first.getValueAtPercentile(50), 10);
+	}
+}
@@ -0,0 +1,92 @@
+package de.htw.icw.pulsesensorlib.test;
+
+import java.util.Random;
+
+import de.htw.icw.pulsesensorlib.MultiChannelWaveformFilter;
+
+/**
+ * Measures the throughput of the {@link MultiChannelWaveformFilter} for
+ * different numbers of channels and compares it with filtering every channel
+ * on its own. Not run as part of the tests, start it with the main method.
+ */
+public class MultiChannelWaveformFilterBenchmark {
+
+	private static final double SAMPLE_RATE_IN_HZ = 500;
+	private static final int FRAMES = 250;
+	private static final long MEASUREMENT_TIME_IN_NS = 2000000000L;
+
+	public static void main(String[] args) {
+		int[] channelCounts = { 1, 8, 64, 512, 4096 };
+
+		System.out.println("channels  interleaved [samples/s]  per channel [samples/s]");
+		for (int channels : channelCounts) {
+			double interleaved = measureInterleaved(channels);
+			double perChannel = measurePerChannel(channels);
+			System.out.printf("%8d  %23.3e  %23.3e%n", channels, interleaved,
+					perChannel);
+		}
+	}
+
+	private static double measureInterleaved(int channels) {
+		MultiChannelWaveformFilter filter = new MultiChannelWaveformFilter(
+				channels, FRAMES, SAMPLE_RATE_IN_HZ);
+		double[] input = randomBlock(FRAMES * channels);
+		double[] output = new double[input.length];
+
+		// warm up, then measure
+		runInterleaved(filter, input, output, MEASUREMENT_TIME_IN_NS / 2);
+		long blocks = runInterleaved(filter, input, output,
+				MEASUREMENT_TIME_IN_NS);
+		return blocks * FRAMES * channels
+				/ (MEASUREMENT_TIME_IN_NS / 1e9);
+	}
+
+	private static long runInterleaved(MultiChannelWaveformFilter filter,
+			double[] input, double[] output, long durationInNs) {
+		long blocks = 0;
+		long end = System.nanoTime() + durationInNs;
+		while (System.nanoTime() < end) {
+			filter.process(input, output, FRAMES);
+			blocks++;
+		}
+		return blocks;
+	}
+
+	private static double measurePerChannel(int channels) {
+		MultiChannelWaveformFilter[] filters = new MultiChannelWaveformFilter[channels];
+		for (int c = 0; c < channels; c++) {
+			filters[c] = new MultiChannelWaveformFilter(1, FRAMES,
+					SAMPLE_RATE_IN_HZ);
+		}
+		double[] input = randomBlock(FRAMES);
+		double[] output = new double[input.length];
+
+		runPerChannel(filters, input, output, MEASUREMENT_TIME_IN_NS / 2);
+		long blocks = runPerChannel(filters, input, output,
+				MEASUREMENT_TIME_IN_NS);
+		return blocks * FRAMES * channels
+				/ (MEASUREMENT_TIME_IN_NS / 1e9);
+	}
+
+	private static long runPerChannel(MultiChannelWaveformFilter[] filters,
+			double[] input, double[] output, long durationInNs) {
+		long blocks = 0;
+		long end = System.nanoTime() + durationInNs;
+		while (System.nanoTime() < end) {
+			for (MultiChannelWaveformFilter filter : filters) {
+				filter.process(input, output, FRAMES);
+			}
+			blocks++;
+		}
+		return blocks;
+	}
+
+	private static double[] randomBlock(int length) {
+		Random random = new Random(1);
+		double[] block = new double[length];
+		for (int i = 0; i < length; i++) {
+			block[i] = 512 + 100 * random.nextDouble();
+		}
+		return block;
+	}
+}
@@ -0,0 +1,154 @@
+package de.htw.icw.pulsesensorlib.test;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.htw.icw.pulsesensorlib.DefaultHeartRateMonitor;
+import de.htw.icw.pulsesensorlib.HeartRateMonitor;
+import de.htw.icw.pulsesensorlib.MultiChannelWaveformFilter;
+import de.htw.icw.pulsesensorlib.PulseWaveBeatDetector;
+
+public class MultiChannelWaveformFilterTest {
+
+	private static final double SAMPLE_RATE_IN_HZ = 500;
+	private static final int CHANNELS = 7;
+	private static final int FRAMES = 64;
+
+	@Test
+	public void filteringInterleavedBlocksShouldMatchFilteringEveryChannelOnItsOwn() {
+
+		// given
+		double[] firCoefficients = { 0.1, 0.2, 0.4, 0.2, 0.1 };
+		MultiChannelWaveformFilter multiChannelWaveformFilter = new MultiChannelWaveformFilter(
+				CHANNELS, FRAMES, SAMPLE_RATE_IN_HZ, 0.5, firCoefficients, 5);
+
+		int blocks = 10;
+		Random random = new Random(1);
+		double[][] channels = new double[CHANNELS][blocks * FRAMES];
+		for (int c = 0; c < CHANNELS; c++) {
+			for (int n = 0; n < channels[c].length; n++) {
+				channels[c][n] = 500 + 100 * random.nextDouble();
+			}
+		}
+
+		// when
+		double[][] actual = new double[CHANNELS][blocks * FRAMES];
+		double[] block = new double[FRAMES * CHANNELS];
+		for (int b = 0; b < blocks; b++) {
+			for (int n = 0; n < FRAMES; n++) {
+				for (int c = 0; c < CHANNELS; c++) {
+					block[n * CHANNELS + c] = channels[c][b * FRAMES + n];
+				}
+			}
+			multiChannelWaveformFilter.process(block, block, FRAMES);
+			for (int n = 0; n < FRAMES; n++) {
+				for (int c = 0; c < CHANNELS; c++) {
+					actual[c][b * FRAMES + n] = block[n * CHANNELS + c];
+				}
+			}
+		}
+
+		// then
+		for (int c = 0; c < CHANNELS; c++) {
+			double[] expected = filterChannel(channels[c], firCoefficients);
+			Assert.assertArrayEquals("channel " + c
+					+ " should be filtered like a single channel", expected,
+					actual[c], 1e-9);
+		}
+	}
+
+	@Test
+	public void filteredChannelsShouldBePassedToTheirBeatDetectors() {
+
+		// given
+		MultiChannelWaveformFilter multiChannelWaveformFilter = new MultiChannelWaveformFilter(
+				2, FRAMES, SAMPLE_RATE_IN_HZ);
+		HeartRateMonitor[] heartRateMonitors = { new DefaultHeartRateMonitor(),
+				new DefaultHeartRateMonitor() };
+		PulseWaveBeatDetector[] beatDetectors = {
+				new PulseWaveBeatDetector(heartRateMonitors[0],
+						SAMPLE_RATE_IN_HZ),
+				new PulseWaveBeatDetector(heartRateMonitors[1],
+						SAMPLE_RATE_IN_HZ) };
+		double[] beatsPerMinute = { 60, 90 };
+
+		// when
+		double[] block = new double[FRAMES * 2];
+		int totalFrames = (int) (SAMPLE_RATE_IN_HZ * 20);
+		for (int first = 0; first < totalFrames; first += FRAMES) {
+			for (int n = 0; n < FRAMES; n++) {
+				double t = (first + n) / SAMPLE_RATE_IN_HZ;
+				for (int c = 0; c < 2; c++) {
+					double phase = (t * beatsPerMinute[c] / 60) % 1;
+					block[n * 2 + c] = 512 + 150 * Math.exp(-Math.pow(
+							(phase - 0.2) / 0.05, 2));
+				}
+			}
+			multiChannelWaveformFilter.process(block, block, FRAMES,
+					Math.round(first * 1000 / SAMPLE_RATE_IN_HZ), beatDetectors);
+		}
+
+		// then
+		for (int c = 0; c < 2; c++) {
+			Assert.assertEquals("the heart rate of channel " + c
+					+ " should be detected", beatsPerMinute[c],
+					heartRateMonitors[c].getLastHeartRate(), 1);
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void aSampleRateOfZeroShouldBeRejected() {
+		new MultiChannelWaveformFilter(CHANNELS, FRAMES, 0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void anInvalidBaselineCutoffShouldBeRejected() {
+		new MultiChannelWaveformFilter(CHANNELS, FRAMES, SAMPLE_RATE_IN_HZ,
+				Double.NaN, new double[] { 1 }, 0);
+	}
+
+	// straightforward single channel implementation of the same filter chain
+	private double[] filterChannel(double[] input, double[] firCoefficients) {
+		double pole = Math.exp(-2 * Math.PI * 0.5 / SAMPLE_RATE_IN_HZ);
+		double[] baseline = new double[input.length];
+		double x1 = input[0];
+		double y1 = 0;
+		for (int n = 0; n < input.length; n++) {
+			y1 = input[n] - x1 + pole * y1;
+			x1 = input[n];
+			baseline[n] = y1;
+		}
+
+		double[] smoothed = new double[input.length];
+		for (int n = 0; n < input.length; n++) {
+			for (int k = 0; k < firCoefficients.length; k++) {
+				if (n - k >= 0) {
+					smoothed[n] += firCoefficients[k] * baseline[n - k];
+				}
+			}
+		}
+
+		double w = 2 * Math.PI * 5 / SAMPLE_RATE_IN_HZ;
+		double alpha = Math.sin(w) / (2 * Math.sqrt(0.5));
+		double a0 = 1 + alpha;
+		double b0 = (1 - Math.cos(w)) / 2 / a0;
+		double b1 = (1 - Math.cos(w)) / a0;
+		double a1 = -2 * Math.cos(w) / a0;
+		double a2 = (1 - alpha) / a0;
+
+		double[] output = new double[input.length];
+		double xm1 = 0, xm2 = 0, ym1 = 0, ym2 = 0;
+		for (int n = 0; n < input.length; n++) {
+			double x = smoothed[n];
+			double y = b0 * x + b1 * xm1 + b0 * xm2 - a1 * ym1 - a2 * ym2;
+			xm2 = xm1;
+			xm1 = x;
+			ym2 = ym1;
+			ym1 = y;
+			output[n] = y;
+		}
+		return output;
+	}
+}
@@ -0,0 +1,162 @@
+package de.htw.icw.pulsesensorlib.test;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import de.htw.icw.pulsesensorlib.DefaultHeartRateMonitor;
+import de.htw.icw.pulsesensorlib.HeartRateMonitor;
+import de.htw.icw.pulsesensorlib.HeartRateMonitorFactory;
+import de.htw.icw.pulsesensorlib.HeartRateMonitorRegistry;
+import de.htw.icw.pulsesensorlib.HeartRateSnapshot;
+import de.htw.icw.pulsesensorlib.NoNegativeHeartRatesPossibleException;
+import de.htw.icw.pulsesensorlib.OffHeapHeartRateStorage;
+import de.htw.icw.pulsesensorlib.OffHeapMemoryBudget;
+
+public class OffHeapHeartRateStorageTest {
+
+	private static final int CHUNK_CAPACITY = 16;
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private OffHeapMemoryBudget memoryBudget;
+	private OffHeapHeartRateStorage storage;
+
+	@Before
+	public void setUp() {
+		memoryBudget = new OffHeapMemoryBudget(1024 * 1024, CHUNK_CAPACITY);
+		storage = new OffHeapHeartRateStorage(memoryBudget);
+	}
+
+	@After
+	public void tearDown() {
+		storage.close();
+	}
+
+	@Test
+	public void anOffHeapMonitorShouldAnswerLikeAHeapMonitor()
+			throws NoNegativeHeartRatesPossibleException {
+
+		// given
+		DefaultHeartRateMonitor heapMonitor = new DefaultHeartRateMonitor();
+		DefaultHeartRateMonitor offHeapMonitor = new DefaultHeartRateMonitor(storage);
+
+		// when
+		for (int i = 0; i < 100; i++) {
+			heapMonitor.addHeartRate(60 + i % 30, 1000L * i);
+			offHeapMonitor.addHeartRate(60 + i % 30, 1000L * i);
+		}
+
+		// then
+		Assert.assertEquals(heapMonitor.getAllMeasuredHeartRates(),
+				offHeapMonitor.getAllMeasuredHeartRates());
+		Assert.assertEquals(heapMonitor.getAllMeasuredTimestamps(),
+				offHeapMonitor.getAllMeasuredTimestamps());
+		Assert.assertEquals(heapMonitor.getMeasuredHeartRatesOfLastSeconds(20000),
+				offHeapMonitor.getMeasuredHeartRatesOfLastSeconds(20000));
+		Assert.assertEquals(heapMonitor.getHeartRateStatisticsOverClosedInterval(
+				5000, 50000).getMaximumTimestamp(), offHeapMonitor
+				.getHeartRateStatisticsOverClosedInterval(5000, 50000)
+				.getMaximumTimestamp());
+		Assert.assertEquals("the storage should use whole chunks",
+				7 * CHUNK_CAPACITY * 16, storage.getUsedBytes());
+	}
+
+	@Test
+	public void closingTheStorageShouldGiveTheMemoryBackToTheBudget()
+			throws NoNegativeHeartRatesPossibleException {
+
+		// given
+		HeartRateMonitor heartRateMonitor = new DefaultHeartRateMonitor(storage);
+		for (int i = 0; i < 100; i++) {
+			heartRateMonitor.addHeartRate(70, i);
+		}
+		long allocatedBytes = memoryBudget.getAllocatedBytes();
+
+		// when
+		storage.close();
+
+		// then
+		Assert.assertEquals("no memory should be used anymore", 0,
+				memoryBudget.getUsedBytes());
+
+		OffHeapHeartRateStorage otherStorage = new OffHeapHeartRateStorage(
+				memoryBudget);
+		DefaultHeartRateMonitor otherHeartRateMonitor = new DefaultHeartRateMonitor(
+				otherStorage);
+		for (int i = 0; i < 100; i++) {
+			otherHeartRateMonitor.addHeartRate(80, i);
+		}
+		Assert.assertEquals("the chunks should be reused", allocatedBytes,
+				memoryBudget.getAllocatedBytes());
+		Assert.assertEquals(80, otherHeartRateMonitor.getHeartRate(0), 0);
+		otherStorage.close();
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void addingBeyondTheBudgetShouldFail()
+			throws NoNegativeHeartRatesPossibleException {
+
+		// given
+		memoryBudget = new OffHeapMemoryBudget(2 * CHUNK_CAPACITY * 16,
+				CHUNK_CAPACITY);
+		storage = new OffHeapHeartRateStorage(memoryBudget);
+		HeartRateMonitor heartRateMonitor = new DefaultHeartRateMonitor(storage);
+
+		// when
+		for (int i = 0; i <= 2 * CHUNK_CAPACITY; i++) {
+			heartRateMonitor.addHeartRate(70, i);
+		}
+	}
+
+	@Test
+	public void offHeapMonitorsShouldBeRestoredFromASnapshot()
+			throws Exception {
+
+		// given
+		HeartRateMonitorFactory offHeapFactory = new HeartRateMonitorFactory() {
+
+			@Override
+			public HeartRateMonitor createHeartRateMonitor(int sensorId) {
+				return new DefaultHeartRateMonitor(new OffHeapHeartRateStorage(
+						memoryBudget));
+			}
+		};
+		HeartRateMonitorRegistry heartRateMonitorRegistry = new HeartRateMonitorRegistry(
+				offHeapFactory);
+		for (int sensorId = 0; sensorId < 5; sensorId++) {
+			HeartRateMonitor heartRateMonitor = heartRateMonitorRegistry
+					.getHeartRateMonitor(sensorId);
+			for (int i = 0; i < sensorId * 37; i++) {
+				heartRateMonitor.addHeartRate(60 + i % 40, 1000L * i);
+			}
+		}
+		File file = temporaryFolder.newFile("monitors.snapshot");
+
+		// when
+		HeartRateSnapshot.write(file, heartRateMonitorRegistry);
+		HeartRateMonitorRegistry restoredHeartRateMonitorRegistry = new HeartRateMonitorRegistry(
+				offHeapFactory);
+		HeartRateSnapshot.restore(file, restoredHeartRateMonitorRegistry);
+
+		// then
+		for (int sensorId = 0; sensorId < 5; sensorId++) {
+			HeartRateMonitor expected = heartRateMonitorRegistry
+					.findHeartRateMonitor(sensorId);
+			HeartRateMonitor actual = restoredHeartRateMonitorRegistry
+					.findHeartRateMonitor(sensorId);
+			Assert.assertEquals("the heart rates should be restored",
+					expected.getAllMeasuredHeartRates(),
+					actual.getAllMeasuredHeartRates());
+			Assert.assertEquals("the timestamps should be restored",
+					expected.getAllMeasuredTimestamps(),
+					actual.getAllMeasuredTimestamps());
+		}
+	}
+}
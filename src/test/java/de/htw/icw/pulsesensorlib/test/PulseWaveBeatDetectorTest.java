@@ -0,0 +1,88 @@
+package de.htw.icw.pulsesensorlib.test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import de.htw.icw.pulsesensorlib.DefaultHeartRateMonitor;
+import de.htw.icw.pulsesensorlib.HeartRateMonitor;
+import de.htw.icw.pulsesensorlib.PulseWaveBeatDetector;
+
+public class PulseWaveBeatDetectorTest {
+
+	private static final double SAMPLE_RATE_IN_HZ = 500;
+	private static final int BLOCK_SIZE = 50;
+
+	@Test
+	public void theHeartRateOfAPulseWaveShouldBeDetected() {
+
+		// given
+		HeartRateMonitor heartRateMonitor = new DefaultHeartRateMonitor();
+		PulseWaveBeatDetector pulseWaveBeatDetector = new PulseWaveBeatDetector(
+				heartRateMonitor, SAMPLE_RATE_IN_HZ);
+
+		// when
+		int[] samples = pulseWave(72, 20000);
+		processInBlocks(pulseWaveBeatDetector, samples);
+
+		// then
+		List<Double> heartRates = heartRateMonitor.getAllMeasuredHeartRates();
+		Assert.assertTrue("most beats of 20 seconds should be detected",
+				heartRates.size() >= 20);
+		for (int i = 0; i < heartRates.size(); i++) {
+			Assert.assertEquals("every detected heart rate should be 72", 72,
+					heartRates.get(i), 1);
+		}
+	}
+
+	@Test
+	public void aFlatWaveShouldAddAHeartRateOfZero() {
+
+		// given
+		HeartRateMonitor heartRateMonitor = new DefaultHeartRateMonitor();
+		PulseWaveBeatDetector pulseWaveBeatDetector = new PulseWaveBeatDetector(
+				heartRateMonitor, SAMPLE_RATE_IN_HZ);
+
+		// when
+		int[] samples = new int[(int) SAMPLE_RATE_IN_HZ * 6];
+		Arrays.fill(samples, 512);
+		processInBlocks(pulseWaveBeatDetector, samples);
+
+		// then
+		Assert.assertEquals("no beat should be detected", 0,
+				pulseWaveBeatDetector.getDetectedBeats());
+		Assert.assertEquals("a heart rate of 0 should be added every 2.5 s", 2,
+				heartRateMonitor.getAllMeasuredHeartRates().size());
+		Assert.assertEquals("the added heart rate should be 0", 0,
+				heartRateMonitor.getLastHeartRate(), 0);
+	}
+
+	private void processInBlocks(PulseWaveBeatDetector pulseWaveBeatDetector,
+			int[] samples) {
+		for (int offset = 0; offset < samples.length; offset += BLOCK_SIZE) {
+			long timestamp = Math.round(offset * 1000 / SAMPLE_RATE_IN_HZ);
+			pulseWaveBeatDetector.process(samples, offset,
+					Math.min(BLOCK_SIZE, samples.length - offset), timestamp);
+		}
+	}
+
+	// simulates the adc values of a pulse sensor: a steep systolic peak and a
+	// smaller dicrotic wave per beat on top of a slowly wandering baseline
+	private int[] pulseWave(double beatsPerMinute, int durationInMs) {
+		int[] samples = new int[(int) (durationInMs * SAMPLE_RATE_IN_HZ / 1000)];
+		double period = 60 / beatsPerMinute;
+
+		for (int i = 0; i < samples.length; i++) {
+			double t = i / SAMPLE_RATE_IN_HZ;
+			double phase = (t % period) / period;
+			double systolic = Math.exp(-Math.pow((phase - 0.2) / 0.05, 2));
+			double dicrotic = 0.3 * Math.exp(-Math.pow((phase - 0.45) / 0.06, 2));
+			double baseline = 30 * Math.sin(2 * Math.PI * 0.1 * t);
+			samples[i] = (int) Math.round(512 + baseline + 150
+					* (systolic + dicrotic));
+		}
+		return samples;
+	}
+}
@@ -0,0 +1,214 @@
+package de.htw.icw.pulsesensorlib.test;
+
+import static org.mockito.Matchers.anyDouble;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.same;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import de.htw.icw.pulsesensorlib.DefaultHeartRateMonitor;
+import de.htw.icw.pulsesensorlib.EwmaHeartRateEvent;
+import de.htw.icw.pulsesensorlib.HeartRateListener;
+import de.htw.icw.pulsesensorlib.HeartRateMonitor;
+import de.htw.icw.pulsesensorlib.NoNegativeHeartRatesPossibleException;
+import de.htw.icw.pulsesensorlib.SharedEwmaHeartRateEvent;
+import de.htw.icw.pulsesensorlib.SharedHeartRateAnomalyListener;
+
+@RunWith(MockitoJUnitRunner.class)
+public class SharedEwmaHeartRateEventTest {
+
+	private static final double SMOOTHING_FACTOR = 0.05;
+	private static final double DEVIATION_THRESHOLD = 3;
+	private static final long SUSTAINED_DURATION_IN_MS = 10000;
+	private static final long SECOND = 1000;
+
+	private SharedEwmaHeartRateEvent heartRateEvent;
+	private Random random = new Random(42);
+
+	@Mock
+	private HeartRateListener mockHeartRateListener;
+
+	@Mock
+	private SharedHeartRateAnomalyListener mockAnomalyListener;
+
+	@Before
+	public void setUp() {
+		heartRateEvent = new SharedEwmaHeartRateEvent(SMOOTHING_FACTOR,
+				DEVIATION_THRESHOLD, SUSTAINED_DURATION_IN_MS);
+		heartRateEvent.subscribe(mockHeartRateListener);
+		heartRateEvent.addAnomalyListener(mockAnomalyListener);
+	}
+
+	@Test
+	public void aSingleMonitorShouldBeTreatedLikeByTheEwmaHeartRateEvent()
+			throws NoNegativeHeartRatesPossibleException {
+
+		// given
+		EwmaHeartRateEvent ewmaHeartRateEvent = new EwmaHeartRateEvent(
+				SMOOTHING_FACTOR, DEVIATION_THRESHOLD,
+				SUSTAINED_DURATION_IN_MS);
+		HeartRateListener ewmaHeartRateListener = mock(HeartRateListener.class);
+		ewmaHeartRateEvent.subscribe(ewmaHeartRateListener);
+
+		DefaultHeartRateMonitor heartRateMonitor = new DefaultHeartRateMonitor();
+		heartRateMonitor.subscribe(heartRateEvent);
+		heartRateMonitor.subscribe(ewmaHeartRateEvent);
+
+		// when noisy heart rates have episodes above and below the baseline
+		for (int second = 0; second < 2000; second++) {
+			double heartRate = 70 + random.nextGaussian() * 2;
+			if (second % 500 >= 300 && second % 500 < 330) {
+				heartRate += second % 1000 < 500 ? 40 : -30;
+			}
+			heartRateMonitor.addHeartRate(heartRate, second * SECOND);
+		}
+
+		// then
+		Assert.assertEquals("the baselines should be equal",
+				ewmaHeartRateEvent.getExpectedHeartRate(),
+				heartRateEvent.getExpectedHeartRate(heartRateMonitor), 0);
+		Assert.assertEquals(ewmaHeartRateEvent.getStandardDeviation(),
+				heartRateEvent.getStandardDeviation(heartRateMonitor), 0);
+		verify(ewmaHeartRateListener, times(2)).onHighPulse(anyDouble());
+		verify(mockHeartRateListener, times(2)).onHighPulse(anyDouble());
+		verify(ewmaHeartRateListener, times(2)).onLowPulse(anyDouble());
+		verify(mockHeartRateListener, times(2)).onLowPulse(anyDouble());
+	}
+
+	@Test
+	public void theMonitorsShouldBeKeptApart()
+			throws NoNegativeHeartRatesPossibleException {
+
+		// given a thousand monitors with different baselines
+		List<DefaultHeartRateMonitor> heartRateMonitors = createMonitors(1000);
+		for (int second = 0; second < 100; second++) {
+			for (int i = 0; i < heartRateMonitors.size(); i++) {
+				heartRateMonitors.get(i).addHeartRate(50 + i % 50,
+						second * SECOND);
+			}
+		}
+
+		// when the heart rate of one monitor rises to the baseline of others
+		DefaultHeartRateMonitor deviatingMonitor = heartRateMonitors.get(10);
+		for (int second = 100; second <= 110; second++) {
+			for (int i = 0; i < heartRateMonitors.size(); i++) {
+				heartRateMonitors.get(i).addHeartRate(
+						i == 10 ? 90 : 50 + i % 50, second * SECOND);
+			}
+		}
+
+		// then
+		Assert.assertEquals(1000, heartRateEvent.getNumberOfMonitors());
+		verify(mockAnomalyListener, times(1)).onAnomaly(
+				same((HeartRateMonitor) deviatingMonitor), eq(90.0), eq(60.0),
+				anyDouble(), anyDouble(), eq(100000L), eq(110000L));
+		verify(mockHeartRateListener, times(1)).onHighPulse(90);
+		Assert.assertTrue(heartRateEvent.isDeviating(deviatingMonitor));
+		Assert.assertFalse(heartRateEvent.isDeviating(heartRateMonitors
+				.get(40)));
+		Assert.assertEquals(89, heartRateEvent
+				.getExpectedHeartRate(heartRateMonitors.get(39)), 0);
+	}
+
+	@Test
+	public void releasedMonitorsShouldNotDisturbTheOthers()
+			throws NoNegativeHeartRatesPossibleException {
+
+		// given
+		List<DefaultHeartRateMonitor> heartRateMonitors = createMonitors(500);
+		for (int i = 0; i < heartRateMonitors.size(); i++) {
+			heartRateMonitors.get(i).addHeartRate(i, 0);
+		}
+
+		// when every other monitor is released
+		for (int i = 0; i < heartRateMonitors.size(); i += 2) {
+			heartRateMonitors.get(i).unsubscribe(heartRateEvent);
+			Assert.assertTrue(heartRateEvent.release(heartRateMonitors.get(i)));
+		}
+
+		// then
+		Assert.assertEquals(250, heartRateEvent.getNumberOfMonitors());
+		for (int i = 0; i < heartRateMonitors.size(); i++) {
+			double expected = i % 2 == 0 ? Double.NaN : i;
+			Assert.assertEquals("monitor " + i, expected,
+					heartRateEvent.getExpectedHeartRate(heartRateMonitors
+							.get(i)), 0);
+		}
+		Assert.assertFalse(heartRateEvent.release(heartRateMonitors.get(0)));
+	}
+
+	@Test
+	public void monitorsShouldBeUpdatedFromManyThreads() throws Exception {
+
+		// given
+		final int numberOfThreads = 4;
+		final List<DefaultHeartRateMonitor> heartRateMonitors = createMonitors(400);
+		final AtomicInteger anomalies = new AtomicInteger();
+		heartRateEvent.addAnomalyListener(new SharedHeartRateAnomalyListener() {
+			@Override
+			public void onAnomaly(HeartRateMonitor heartRateMonitor,
+					double heartRate, double expectedHeartRate,
+					double standardDeviation, double deviation,
+					long startTimestamp, long endTimestamp) {
+				anomalies.incrementAndGet();
+			}
+		});
+
+		// when every thread updates its own monitors and each has an episode
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int t = 0; t < numberOfThreads; t++) {
+			final int thread = t;
+			threads.add(new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int second = 0; second < 200; second++) {
+							for (int i = thread; i < heartRateMonitors.size(); i += numberOfThreads) {
+								heartRateMonitors.get(i).addHeartRate(
+										second >= 150 ? 120 : 70,
+										second * SECOND);
+							}
+						}
+					} catch (NoNegativeHeartRatesPossibleException ex) {
+						throw new IllegalStateException(ex);
+					}
+				}
+			});
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		// then
+		Assert.assertEquals(400, heartRateEvent.getNumberOfMonitors());
+		Assert.assertEquals("every monitor should have one anomaly", 400,
+				anomalies.get());
+	}
+
+	private List<DefaultHeartRateMonitor> createMonitors(int count) {
+		List<DefaultHeartRateMonitor> heartRateMonitors = new ArrayList<DefaultHeartRateMonitor>();
+		for (int i = 0; i < count; i++) {
+			DefaultHeartRateMonitor heartRateMonitor = new DefaultHeartRateMonitor();
+			heartRateMonitor.subscribe(heartRateEvent);
+			heartRateMonitors.add(heartRateMonitor);
+		}
+		return heartRateMonitors;
+	}
+}
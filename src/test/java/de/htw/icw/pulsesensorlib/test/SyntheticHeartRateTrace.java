@@ -0,0 +1,79 @@
+package de.htw.icw.pulsesensorlib.test;
+
+import java.util.Random;
+
+/**
+ * Heart rates of a simulated sensor for the {@link HeartRateLoadGenerator}.
+ * The trace has an individual resting heart rate which drifts slowly, a
+ * respiratory modulation, measurement noise and occasional spikes, dropouts
+ * (no reading at all) and no-pulse periods (readings of zero, e.g. a loose
+ * sensor). The trace is deterministic for a seed.
+ */
+class SyntheticHeartRateTrace {
+
+	private static final double SPIKE_PROBABILITY = 0.0005;
+	private static final double DROPOUT_PROBABILITY = 0.0002;
+	private static final double NO_PULSE_PROBABILITY = 0.00005;
+
+	private final Random random;
+	private final double sampleRateInHz;
+	private final double restingHeartRate;
+	private final double respiratoryFrequencyInHz;
+
+	private long sample;
+	private double drift;
+	private double spike;
+	private int dropoutSamples;
+	private int noPulseSamples;
+
+	SyntheticHeartRateTrace(long seed, double sampleRateInHz) {
+		this.random = new Random(seed);
+		this.sampleRateInHz = sampleRateInHz;
+		this.restingHeartRate = 55 + 40 * random.nextDouble();
+		this.respiratoryFrequencyInHz = 0.2 + 0.1 * random.nextDouble();
+	}
+
+	/**
+	 * returns the next reading.
+	 *
+	 * @return the heart rate, 0 during a no-pulse period or NaN during a
+	 *         dropout
+	 */
+	double next() {
+		double time = sample++ / sampleRateInHz;
+
+		if (dropoutSamples > 0) {
+			dropoutSamples--;
+			return Double.NaN;
+		}
+		if (noPulseSamples > 0) {
+			noPulseSamples--;
+			return 0;
+		}
+		if (random.nextDouble() < DROPOUT_PROBABILITY) {
+			dropoutSamples = (int) (sampleRateInHz * (1 + 4 * random
+					.nextDouble()));
+			return Double.NaN;
+		}
+		if (random.nextDouble() < NO_PULSE_PROBABILITY) {
+			noPulseSamples = (int) (sampleRateInHz * (5 + 20 * random
+					.nextDouble()));
+			return 0;
+		}
+
+		// bounded random walk of a few beats per minute
+		drift += 0.05 * random.nextGaussian();
+		drift = Math.max(-15, Math.min(15, drift));
+
+		// spikes rise at once and decay within a few seconds
+		if (random.nextDouble() < SPIKE_PROBABILITY) {
+			spike = 20 + 40 * random.nextDouble();
+		}
+		spike *= Math.exp(-1 / (3 * sampleRateInHz));
+
+		double heartRate = restingHeartRate + drift + spike + 3
+				* Math.sin(2 * Math.PI * respiratoryFrequencyInHz * time)
+				+ random.nextGaussian();
+		return Math.max(30, heartRate);
+	}
+}
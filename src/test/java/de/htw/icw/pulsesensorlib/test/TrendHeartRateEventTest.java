@@ -0,0 +1,167 @@
+package de.htw.icw.pulsesensorlib.test;
+
+import static org.mockito.Matchers.anyDouble;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import de.htw.icw.pulsesensorlib.DefaultHeartRateMonitor;
+import de.htw.icw.pulsesensorlib.HeartRateListener;
+import de.htw.icw.pulsesensorlib.HeartRateMonitor;
+import de.htw.icw.pulsesensorlib.HeartRateTrendListener;
+import de.htw.icw.pulsesensorlib.NoNegativeHeartRatesPossibleException;
+import de.htw.icw.pulsesensorlib.TrendHeartRateEvent;
+
+@RunWith(MockitoJUnitRunner.class)
+public class TrendHeartRateEventTest {
+
+	private static final long SECOND = 1000;
+	private static final long WINDOW_SIZE_IN_MS = 60 * SECOND;
+	private static final double LIMIT_IN_BPM_PER_MINUTE = 10;
+
+	private TrendHeartRateEvent heartRateEvent;
+	private HeartRateMonitor heartRateMonitor;
+	private Random random = new Random(42);
+
+	@Mock
+	private HeartRateListener mockHeartRateListener;
+
+	@Mock
+	private HeartRateTrendListener mockTrendListener;
+
+	@Before
+	public void setUp() {
+		heartRateEvent = new TrendHeartRateEvent(WINDOW_SIZE_IN_MS,
+				LIMIT_IN_BPM_PER_MINUTE);
+		heartRateEvent.subscribe(mockHeartRateListener);
+		heartRateEvent.addTrendListener(mockTrendListener);
+
+		heartRateMonitor = new DefaultHeartRateMonitor();
+		heartRateMonitor.subscribe(heartRateEvent);
+	}
+
+	@Test
+	public void aSingleSpikeShouldNotTriggerATrend()
+			throws NoNegativeHeartRatesPossibleException {
+
+		// given a steady heart rate with noise
+
+		// when a single heart rate is 40% higher
+		for (long second = 0; second < 300; second++) {
+			double heartRate = 70 + random.nextGaussian();
+			if (second == 200) {
+				heartRate = 100;
+			}
+			heartRateMonitor.addHeartRate(heartRate, second * SECOND);
+		}
+
+		// then
+		verify(mockTrendListener, never()).onTrend(anyDouble(), anyDouble(),
+				anyDouble(), anyLong(), anyLong());
+		verify(mockHeartRateListener, never()).onPulseIncreased(anyDouble(),
+				anyDouble(), anyLong(), anyLong(), anyDouble());
+		Assert.assertFalse(heartRateEvent.isTrending());
+	}
+
+	@Test
+	public void aRisingHeartRateShouldBeReportedOnce()
+			throws NoNegativeHeartRatesPossibleException {
+
+		// given a steady heart rate
+		long second = 0;
+		for (; second < 120; second++) {
+			heartRateMonitor.addHeartRate(70 + random.nextGaussian(), second
+					* SECOND);
+		}
+
+		// when it rises by 20 bpm per minute for two minutes
+		for (; second < 240; second++) {
+			heartRateMonitor.addHeartRate(70 + (second - 120) / 3.0
+					+ random.nextGaussian(), second * SECOND);
+		}
+
+		// then
+		verify(mockTrendListener, times(1)).onTrend(anyDouble(), anyDouble(),
+				anyDouble(), anyLong(), anyLong());
+		verify(mockHeartRateListener, times(1)).onPulseIncreased(anyDouble(),
+				anyDouble(), anyLong(), anyLong(), anyDouble());
+		Assert.assertTrue(heartRateEvent.isTrending());
+		Assert.assertEquals("the slope should be fitted", 20,
+				heartRateEvent.getSlope(), 1);
+		Assert.assertEquals("the window should only hold the last minute",
+				61, heartRateEvent.getNumberOfHeartRates());
+	}
+
+	@Test
+	public void aFallingHeartRateShouldBeReportedAsDecrease()
+			throws NoNegativeHeartRatesPossibleException {
+
+		// when the heart rate falls by 30 bpm per minute
+		for (long second = 0; second < 60; second++) {
+			heartRateMonitor.addHeartRate(120 - second / 2.0, second * SECOND);
+		}
+
+		// then
+		ArgumentCaptor<Double> slope = ArgumentCaptor.forClass(Double.class);
+		verify(mockTrendListener).onTrend(slope.capture(), anyDouble(),
+				anyDouble(), anyLong(), anyLong());
+		Assert.assertEquals(-30, slope.getValue(), 1e-6);
+		verify(mockHeartRateListener).onPulseDecreased(anyDouble(),
+				anyDouble(), anyLong(), anyLong(), anyDouble());
+		verify(mockHeartRateListener, never()).onPulseIncreased(anyDouble(),
+				anyDouble(), anyLong(), anyLong(), anyDouble());
+	}
+
+	@Test
+	public void theRunningSlopeShouldEqualARecomputedRegression()
+			throws NoNegativeHeartRatesPossibleException {
+
+		// given
+		long timestamp = 1500000000000L;
+		double[] heartRates = new double[2000];
+		long[] timestamps = new long[2000];
+
+		// when heart rates arrive at irregular intervals over many windows
+		for (int i = 0; i < heartRates.length; i++) {
+			timestamp += 200 + random.nextInt(1600);
+			timestamps[i] = timestamp;
+			heartRates[i] = 60 + 30 * Math.sin(i / 50.0) + random.nextGaussian();
+			heartRateMonitor.addHeartRate(heartRates[i], timestamp);
+		}
+
+		// then
+		double n = 0;
+		double sumOfTimes = 0;
+		double sumOfHeartRates = 0;
+		double sumOfProducts = 0;
+		double sumOfSquaredTimes = 0;
+		for (int i = 0; i < heartRates.length; i++) {
+			if (timestamps[i] >= timestamp - WINDOW_SIZE_IN_MS) {
+				double time = timestamps[i] - timestamp;
+				n++;
+				sumOfTimes += time;
+				sumOfHeartRates += heartRates[i];
+				sumOfProducts += time * heartRates[i];
+				sumOfSquaredTimes += time * time;
+			}
+		}
+		double expectedSlope = (n * sumOfProducts - sumOfTimes
+				* sumOfHeartRates)
+				/ (n * sumOfSquaredTimes - sumOfTimes * sumOfTimes) * 60000;
+
+		Assert.assertEquals((int) n, heartRateEvent.getNumberOfHeartRates());
+		Assert.assertEquals("the running sums should not drift",
+				expectedSlope, heartRateEvent.getSlope(), 1e-6);
+	}
+}